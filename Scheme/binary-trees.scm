@@ -0,0 +1,35 @@
+; binary-trees, after the benchmark of the Computer Language Benchmarks Game
+; and the "Are We Fast Yet" suite. Pairs are immutable, so a tree is built
+; bottom-up. A node is a pair of subtrees; a leaf is a pair of empty lists.
+; Loading the file only defines the functions; the macrobenchmark runner calls
+; (binary-trees 10), which is 135854.
+
+(define (make-tree depth)
+ (if (< depth 1)
+  (cons '() '())
+  (cons (make-tree (- depth 1)) (make-tree (- depth 1)))))
+
+(define (check tree)
+ (if (pair? (car tree))
+  (+ 1 (+ (check (car tree)) (check (cdr tree))))
+  1))
+
+; The checks of 2^log-count trees, split in halves so as to recurse only
+; log-count deep.
+(define (sum-of-checks log-count depth)
+ (if (< log-count 1)
+  (check (make-tree depth))
+  (+ (sum-of-checks (- log-count 1) depth) (sum-of-checks (- log-count 1) depth))))
+
+(define (sum-over-depths depth max-depth sum)
+ (if (< max-depth depth)
+  sum
+  (sum-over-depths
+   (+ depth 2)
+   max-depth
+   (+ sum (sum-of-checks (+ (- max-depth depth) 4) depth)))))
+
+(define (binary-trees max-depth)
+ (let ((long-lived (make-tree max-depth)))
+  (+ (check (make-tree (+ max-depth 1)))
+   (+ (sum-over-depths 4 max-depth 0) (check long-lived)))))
@@ -11,6 +11,7 @@ import com.github.vassilibykov.trifle.core.Dictionary;
 import com.github.vassilibykov.trifle.core.FreeFunction;
 import com.github.vassilibykov.trifle.core.Invocable;
 import com.github.vassilibykov.trifle.core.Library;
+import com.github.vassilibykov.trifle.core.TieringPolicy;
 import com.github.vassilibykov.trifle.expression.Primitive;
 import com.github.vassilibykov.trifle.primitive.EQ;
 import com.github.vassilibykov.trifle.primitive.GetClass;
@@ -30,6 +31,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 
 public class Scheme {
 
@@ -73,6 +76,7 @@ public class Scheme {
     private final Map<String, Invocable> macroexpanders = new HashMap<>();
     private final List<Library> loadedUnits = new ArrayList<>();
     private final Dictionary globals = Dictionary.create();
+    private TieringPolicy tieringPolicy = TieringPolicy.DEFAULT;
 
     /*
         The overall current implementation is in fact not faithful to Scheme's
@@ -81,7 +85,39 @@ public class Scheme {
      */
 
     public Scheme() {
-        load(Paths.get("src/scm/prelude.scm"));
+        this(Paths.get(""));
+    }
+
+    /**
+     * Create an instance loading the prelude from the Scheme project
+     * directory specified, rather than from the current one.
+     */
+    public Scheme(Path home) {
+        load(home.resolve("src/scm/prelude.scm"));
+    }
+
+    public synchronized TieringPolicy tieringPolicy() {
+        return tieringPolicy;
+    }
+
+    /**
+     * Set the tiering policy of all functions, both already loaded and loaded
+     * later.
+     */
+    public synchronized void setTieringPolicy(TieringPolicy policy) {
+        this.tieringPolicy = Objects.requireNonNull(policy);
+        loadedUnits.forEach(each -> each.setTieringPolicy(policy));
+    }
+
+    /**
+     * Return the function defined by a loaded file or built in by the name.
+     *
+     * @throws NoSuchElementException If there is no such function.
+     */
+    public FreeFunction findFunction(String name) {
+        var function = globalFunctions().get(name);
+        if (function == null) throw new NoSuchElementException(name);
+        return function;
     }
 
     public Object load(Path path) {
@@ -94,6 +130,7 @@ public class Scheme {
 
     public Object load(java.io.Reader input) {
         var compilationUnit = new Loader(this).load(input);
+        compilationUnit.setTieringPolicy(tieringPolicy());
         loadedUnits.add(compilationUnit);
         return compilationUnit.get(TOP_FUNCTION_NAME).invoke();
     }
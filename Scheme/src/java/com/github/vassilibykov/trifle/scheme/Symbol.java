@@ -2,17 +2,50 @@
 
 package com.github.vassilibykov.trifle.scheme;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class Symbol {
 
     public static Symbol named(String name) {
-        return symbolTable.computeIfAbsent(name, Symbol::new);
+        expungeStaleEntries();
+        while (true) {
+            var entry = symbolTable.get(name);
+            var symbol = entry != null ? entry.get() : null;
+            if (symbol != null) return symbol;
+            var newSymbol = new Symbol(name);
+            var newEntry = new Entry(newSymbol, queue);
+            var installed = entry == null
+                ? symbolTable.putIfAbsent(name, newEntry) == null
+                : symbolTable.replace(name, entry, newEntry);
+            if (installed) return newSymbol;
+        }
     }
 
-    // TODO no cleanup right now
-    private static final Map<String, Symbol> symbolTable = new ConcurrentHashMap<>();
+    /**
+     * Symbols are interned weakly, so those no longer referenced by any code
+     * or data are dropped from the table.
+     */
+    private static final Map<String, Entry> symbolTable = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Symbol> queue = new ReferenceQueue<>();
+
+    private static class Entry extends WeakReference<Symbol> {
+        private final String name;
+
+        private Entry(Symbol symbol, ReferenceQueue<Symbol> queue) {
+            super(symbol, queue);
+            this.name = symbol.name;
+        }
+    }
+
+    private static void expungeStaleEntries() {
+        Entry entry;
+        while ((entry = (Entry) queue.poll()) != null) {
+            symbolTable.remove(entry.name, entry);
+        }
+    }
 
     /*
         Instance
@@ -2,10 +2,14 @@
 
 package com.github.vassilibykov.trifle.scheme;
 
+import com.github.vassilibykov.trifle.core.TieringPolicy;
+import com.github.vassilibykov.trifle.core.UserFunction;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.CharArrayReader;
+import java.nio.file.Paths;
+import java.util.NoSuchElementException;
 
 import static com.github.vassilibykov.trifle.scheme.Helpers.caaddr;
 import static com.github.vassilibykov.trifle.scheme.Helpers.cadr;
@@ -86,4 +90,32 @@ public class SchemeTests {
         assertEquals(true, run("(pair? (cons 1 2))"));
         assertEquals(false, run("(pair? 1)"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void findFunction() {
+        run("(define (add x y) (+ x y))");
+        assertEquals(7, scheme.findFunction("add").invoke(3, 4));
+        try {
+            scheme.findFunction("nonexistent");
+            fail();
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void tieringPolicy() {
+        run("(define (before) 1)");
+        var policy = TieringPolicy.interpreterOnly();
+        scheme.setTieringPolicy(policy);
+        run("(define (after) 2)");
+        assertSame(policy, ((UserFunction) scheme.findFunction("before")).tieringPolicy());
+        assertSame(policy, ((UserFunction) scheme.findFunction("after")).tieringPolicy());
+    }
+
+    @Test
+    public void home() {
+        var elsewhere = new Scheme(Paths.get("..", "Scheme"));
+        assertEquals(7, elsewhere.load(new CharArrayReader("(+ 3 4)".toCharArray())));
+    }
+}
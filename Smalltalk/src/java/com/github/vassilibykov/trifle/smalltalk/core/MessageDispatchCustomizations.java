@@ -27,6 +27,8 @@ class MessageDispatchCustomizations implements MessageDispatchExtension {
             return Optional.ofNullable(Smalltalk.INTEGER_CLASS.lookupSelector(selector));
         } else if (receiver instanceof String) {
             return Optional.ofNullable(Smalltalk.STRING_CLASS.lookupSelector(selector));
+        } else if (receiver instanceof SmalltalkClass) {
+            return Optional.ofNullable(Smalltalk.CLASS_CLASS.lookupSelector(selector));
         } else if (receiver == null) {
             return Optional.ofNullable(Smalltalk.UNDEFINED_OBJECT_CLASS.lookupSelector(selector));
         } else {
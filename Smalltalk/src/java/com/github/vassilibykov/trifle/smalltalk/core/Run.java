@@ -6,21 +6,28 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 
+/**
+ * Compiles the classes in the files given as arguments, in that order, and
+ * performs {@code doIt} on a new instance of the class {@code Script}. A
+ * class must be compiled after its superclass and the classes it references
+ * when its methods are compiled.
+ */
 public class Run {
     public static void main(String[] args) {
-        if (args.length != 1) {
+        if (args.length < 1) {
             System.out.println("Error: program file name required.");
             return;
         }
-        var scriptPath = Paths.get(args[0]);
-        String source;
-        try {
-            source = new String(Files.readAllBytes(scriptPath));
-        } catch (IOException e) {
-            throw new AssertionError(e);
-        }
         var smalltalk = Smalltalk.create();
-        smalltalk.compileClass(source);
+        for (var each : args) {
+            String source;
+            try {
+                source = new String(Files.readAllBytes(Paths.get(each)));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            smalltalk.compileClass(source);
+        }
         var testClass = smalltalk.findClass("Script");
         var script = testClass.newInstance();
         var result = script.perform("doIt");
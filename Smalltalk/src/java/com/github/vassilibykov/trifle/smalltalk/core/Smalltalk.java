@@ -8,6 +8,7 @@ import com.github.vassilibykov.trifle.builtin.Multiply;
 import com.github.vassilibykov.trifle.builtin.Subtract;
 import com.github.vassilibykov.trifle.core.Dictionary;
 import com.github.vassilibykov.trifle.core.Invocable;
+import com.github.vassilibykov.trifle.core.TieringPolicy;
 import com.github.vassilibykov.trifle.core.UserFunction;
 import com.github.vassilibykov.trifle.smalltalk.grammar.AstBuilder;
 import com.github.vassilibykov.trifle.smalltalk.grammar.ClassDeclaration;
@@ -16,6 +17,7 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Optional;
 
 public class Smalltalk {
@@ -29,6 +31,12 @@ public class Smalltalk {
     static final SmalltalkClass INTEGER_CLASS = new SmalltalkClass(OBJECT_CLASS, List.of());
     static final SmalltalkClass STRING_CLASS = new SmalltalkClass(OBJECT_CLASS, List.of());
     static final SmalltalkClass UNDEFINED_OBJECT_CLASS = new SmalltalkClass(OBJECT_CLASS, List.of());
+    /**
+     * The behavior shared by all classes as receivers of messages. There are
+     * no metaclasses yet, so class-side methods other than the ones installed
+     * here are not supported.
+     */
+    static final SmalltalkClass CLASS_CLASS = new SmalltalkClass(OBJECT_CLASS, List.of());
 
     static {
         OBJECT_CLASS.installMethod("class", new PrimitiveMethod() {
@@ -66,6 +74,13 @@ public class Smalltalk {
             }
         });
 
+        CLASS_CLASS.installMethod("new", new PrimitiveMethod() {
+            @Override
+            public Object invoke(Object self) {
+                return ((SmalltalkClass) self).newInstance();
+            }
+        });
+
         INTEGER_CLASS.installMethod("+", Add.INSTANCE);
         INTEGER_CLASS.installMethod("-", Subtract.INSTANCE);
         INTEGER_CLASS.installMethod("*", Multiply.INSTANCE);
@@ -85,11 +100,24 @@ public class Smalltalk {
      */
 
     private final Dictionary globals = Dictionary.create();
+    private TieringPolicy tieringPolicy = TieringPolicy.DEFAULT;
 
     private Smalltalk() {
         setupBuiltinClasses();
     }
 
+    public synchronized TieringPolicy tieringPolicy() {
+        return tieringPolicy;
+    }
+
+    /**
+     * Set the tiering policy of methods compiled from now on. Methods already
+     * compiled keep their policy.
+     */
+    public synchronized void setTieringPolicy(TieringPolicy policy) {
+        this.tieringPolicy = Objects.requireNonNull(policy);
+    }
+
     Optional<Dictionary.Entry> lookupGlobalEntry(String name) {
         return globals.getEntry(name);
     }
@@ -116,6 +144,7 @@ public class Smalltalk {
             var selector = each.selector();
             var lambda = compiler.compile(each);
             var method = UserFunction.construct(selector, lambda);
+            method.setTieringPolicy(tieringPolicy());
             stClass.installMethod(selector, method);
         });
         globals.defineEntry(ast.classDeclaration().name()).setValue(stClass);
@@ -139,5 +168,6 @@ public class Smalltalk {
         globals.defineEntry("Integer").setValue(INTEGER_CLASS);
         globals.defineEntry("String").setValue(STRING_CLASS);
         globals.defineEntry("UndefinedObject").setValue(UNDEFINED_OBJECT_CLASS);
+        globals.defineEntry("Class").setValue(CLASS_CLASS);
     }
 }
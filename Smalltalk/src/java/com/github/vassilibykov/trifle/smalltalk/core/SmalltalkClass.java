@@ -3,6 +3,7 @@
 package com.github.vassilibykov.trifle.smalltalk.core;
 
 import com.github.vassilibykov.trifle.core.Invocable;
+import com.github.vassilibykov.trifle.core.SwitchPointInvalidationEvent;
 import com.github.vassilibykov.trifle.core.UserFunction;
 import com.github.vassilibykov.trifle.expression.Lambda;
 import com.github.vassilibykov.trifle.object.FixedObjectDefinition;
@@ -116,6 +117,7 @@ public class SmalltalkClass {
             if (oldMethod != null) {
                 SwitchPoint.invalidateAll(new SwitchPoint[]{invalidationSwitchPoint});
                 invalidationSwitchPoint = new SwitchPoint();
+                SwitchPointInvalidationEvent.emit(this, "method replaced", selector);
             }
         } finally {
             updateLock.unlock();
@@ -127,6 +129,7 @@ public class SmalltalkClass {
         if (methodDictionary.remove(selector) != null) {
             SwitchPoint.invalidateAll(new SwitchPoint[]{invalidationSwitchPoint});
             invalidationSwitchPoint = new SwitchPoint();
+            SwitchPointInvalidationEvent.emit(this, "method removed", selector);
         }
     }
 
@@ -89,7 +89,7 @@ class SmalltalkToTrifleTranslator implements AstNode.Visitor<Expression> {
 
             @Override
             public Expression ifInstVar(Binding.InstVarBinding instVarBinding) {
-                return Call.with(GetField.named(instVarBinding.name()));
+                return Call.with(GetField.named(instVarBinding.name()), self());
             }
 
             @Override
@@ -111,7 +111,7 @@ class SmalltalkToTrifleTranslator implements AstNode.Visitor<Expression> {
 
             @Override
             public Expression ifInstVar(Binding.InstVarBinding instVarBinding) {
-                return normalize(expr, it -> Call.with(SetField.named(instVarBinding.name()), it));
+                return normalize(expr, it -> Call.with(SetField.named(instVarBinding.name()), self(), it));
             }
 
             @Override
@@ -203,6 +203,14 @@ class SmalltalkToTrifleTranslator implements AstNode.Visitor<Expression> {
         throw new UnsupportedOperationException("unexpected visit of " + methodDeclaration);
     }
 
+    /**
+     * The receiver of the method, which is also the receiver of instance
+     * variable accesses within blocks of the method.
+     */
+    private Variable self() {
+        return scope.lookupRequiredLocal("self");
+    }
+
     private int serial = 0;
 
     private Variable gentemp() {
@@ -2,6 +2,8 @@
 
 package com.github.vassilibykov.trifle.smalltalk.core;
 
+import com.github.vassilibykov.trifle.core.TieringPolicy;
+import com.github.vassilibykov.trifle.core.UserFunction;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
@@ -17,4 +19,43 @@ public class SmalltalkTest {
         var testInstance = testClass.newInstance();
         assertEquals(7, testInstance.perform("test"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void instanceVariables() {
+        var smalltalk = Smalltalk.create();
+        smalltalk.compileClass(
+            "Object subclass: Counter instanceVariables: (count)" +
+                "! count: n count := n. ^self" +
+                "! increment count := count + 1. ^count");
+        var counter = smalltalk.findClass("Counter").newInstance();
+        counter.perform("count:", 41);
+        assertEquals(42, counter.perform("increment"));
+        assertEquals(43, counter.perform("increment"));
+    }
+
+    @Test
+    public void classAnswersNew() {
+        var smalltalk = Smalltalk.create();
+        smalltalk.compileClass(
+            "Object subclass: Leaf instanceVariables: ()" +
+                "! check ^1");
+        smalltalk.compileClass(
+            "Object subclass: Test instanceVariables: ()" +
+                "! test ^Leaf new check + Leaf new check");
+        var testInstance = smalltalk.findClass("Test").newInstance();
+        assertEquals(2, testInstance.perform("test"));
+    }
+
+    @Test
+    public void tieringPolicyOfCompiledMethods() {
+        var smalltalk = Smalltalk.create();
+        var policy = TieringPolicy.interpreterOnly();
+        smalltalk.setTieringPolicy(policy);
+        smalltalk.compileClass(
+            "Object subclass: Test instanceVariables: ()" +
+                "! test ^ 3 + 4");
+        var method = (UserFunction) smalltalk.findClass("Test").lookupSelector("test");
+        assertSame(policy, method.tieringPolicy());
+        assertEquals(7, smalltalk.findClass("Test").newInstance().perform("test"));
+    }
+}
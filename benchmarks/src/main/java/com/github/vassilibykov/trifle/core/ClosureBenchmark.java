@@ -0,0 +1,85 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import com.github.vassilibykov.trifle.expression.Lambda;
+import com.github.vassilibykov.trifle.expression.Variable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+
+/**
+ * Calls of closures by compiled code and from Java. A closure with copied
+ * values has them prepended to the arguments of every call; a closure
+ * without them is called with the arguments as they are.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClosureBenchmark {
+
+    @Param({"false", "true"})
+    public boolean copiedValues;
+
+    private UserFunction createAndCall;
+    private UserFunction create;
+    private Closure closure;
+    private Integer argument = 3;
+
+    @Setup
+    public void setUp() {
+        createAndCall = UserFunction.construct("createAndCall",
+            lambda(arg ->
+                bind(closureOf(arg), f ->
+                    call(f, arg))));
+        create = UserFunction.construct("create", lambda(arg -> closureOf(arg)));
+        createAndCall.setTieringPolicy(TierBenchmark.NEVER_COMPILE);
+        createAndCall.invoke(argument);
+        createAndCall.forceCompile();
+        create.setTieringPolicy(TierBenchmark.NEVER_COMPILE);
+        ((Closure) create.invoke(argument)).invoke(argument);
+        create.forceCompile();
+        closure = (Closure) create.invoke(argument);
+    }
+
+    private Lambda closureOf(Variable arg) {
+        return copiedValues
+            ? lambda(x -> add(x, arg))
+            : lambda(x -> add(x, const_(1)));
+    }
+
+    /**
+     * Create a closure and call it, both in compiled code.
+     */
+    @Benchmark
+    public Object createAndCall() {
+        return createAndCall.invoke(argument);
+    }
+
+    /**
+     * Call a compiled closure from Java.
+     */
+    @Benchmark
+    public Object callFromJava() {
+        return closure.invoke(argument);
+    }
+}
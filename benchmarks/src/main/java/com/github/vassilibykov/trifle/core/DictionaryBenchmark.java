@@ -0,0 +1,64 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import com.github.vassilibykov.trifle.expression.DictionaryGetter;
+import com.github.vassilibykov.trifle.expression.DictionarySetter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+
+/**
+ * Reads and writes of a dictionary entry by compiled code.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DictionaryBenchmark {
+
+    private UserFunction getter;
+    private UserFunction setter;
+    private Integer value = 42;
+
+    @Setup
+    public void setUp() {
+        var dictionary = Dictionary.create();
+        dictionary.defineEntry("x").setValue(value);
+        getter = UserFunction.construct("getter",
+            lambda(() -> call(DictionaryGetter.create(dictionary, "x"))));
+        setter = UserFunction.construct("setter",
+            lambda(arg -> bind(call(DictionarySetter.create(dictionary, "x"), arg), t -> t)));
+        getter.setTieringPolicy(TierBenchmark.NEVER_COMPILE);
+        getter.invoke();
+        getter.forceCompile();
+        setter.setTieringPolicy(TierBenchmark.NEVER_COMPILE);
+        setter.invoke(value);
+        setter.forceCompile();
+    }
+
+    @Benchmark
+    public Object get() {
+        return getter.invoke();
+    }
+
+    @Benchmark
+    public Object set() {
+        return setter.invoke(value);
+    }
+}
@@ -0,0 +1,74 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+
+/**
+ * Calls of a function compiled as {@code (int)int} which keep failing
+ * specialization, against calls which don't. The difference is the cost of
+ * signaling and recovering from a square peg. Ported from {@code
+ * tmp.TimeSquarePegs}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SquarePegBenchmark {
+
+    private UserFunction function;
+    private Integer fittingArgument = 1;
+    private Integer squareArgument = -1;
+
+    @Setup
+    public void setUp() {
+        function = UserFunction.construct("function",
+            lambda(x ->
+                bind(if_(lessThan(x, const_(0)), const_("negative"), add(x, const_(1))), t -> t)));
+        function.setTieringPolicy(new TieringPolicy() {
+            @Override
+            public boolean shouldCompile(FunctionProfile profile) {
+                return false;
+            }
+
+            @Override
+            public int maxDeoptimizations() {
+                return 0; // keep the specialized code no matter how often it fails
+            }
+        });
+        for (int i = 0; i < 20; i++) {
+            function.invoke(i);
+        }
+        function.forceCompile();
+    }
+
+    @Benchmark
+    public Object fittingPeg() {
+        return function.invoke(fittingArgument);
+    }
+
+    @Benchmark
+    public Object squarePeg() {
+        return function.invoke(squareArgument);
+    }
+}
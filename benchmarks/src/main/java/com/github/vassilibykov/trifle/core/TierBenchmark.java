@@ -0,0 +1,178 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import com.github.vassilibykov.trifle.builtin.Add;
+import com.github.vassilibykov.trifle.builtin.Multiply;
+import com.github.vassilibykov.trifle.builtin.Subtract;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.direct;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.greaterThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
+
+/**
+ * Runs the same functions in each execution tier on its own. The tiering
+ * policy of the functions never compiles them, so a function stays in the
+ * tier it was put in: the profiling interpreter as defined, the simple
+ * interpreter by {@link UserFunction#useSimpleInterpreter()}, and the
+ * compiled forms by {@link UserFunction#forceCompile()}. A function forced to
+ * compile before it ran has no profile to specialize on and gets only the
+ * generic form; one which ran once first also gets the specialized form.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TierBenchmark {
+
+    public enum Tier {
+        PROFILING_INTERPRETER,
+        SIMPLE_INTERPRETER,
+        GENERIC_COMPILED,
+        SPECIALIZED_COMPILED
+    }
+
+    static final TieringPolicy NEVER_COMPILE = new TieringPolicy() {
+        @Override
+        public boolean shouldCompile(FunctionProfile profile) {
+            return false;
+        }
+
+        @Override
+        public long osrThreshold() {
+            return Long.MAX_VALUE;
+        }
+    };
+
+    @Param
+    public Tier tier;
+
+    private UserFunction fibonacci;
+    private UserFunction builtinFibonacci;
+    private UserFunction factorial;
+    private UserFunction countdown;
+
+    @Setup
+    public void setUp() {
+        fibonacci = prepare(defineFibonacci(), 20);
+        builtinFibonacci = prepare(defineBuiltinFibonacci(), 20);
+        factorial = prepare(defineFactorial(), 200);
+        countdown = prepare(defineCountdown(), 1000);
+    }
+
+    private UserFunction prepare(UserFunction function, int argument) {
+        function.setTieringPolicy(NEVER_COMPILE);
+        switch (tier) {
+            case PROFILING_INTERPRETER:
+                break;
+            case SIMPLE_INTERPRETER:
+                function.useSimpleInterpreter();
+                break;
+            case GENERIC_COMPILED:
+                function.forceCompile();
+                break;
+            case SPECIALIZED_COMPILED:
+                function.invoke(argument);
+                function.forceCompile();
+                break;
+            default:
+                throw new AssertionError("unexpected tier: " + tier);
+        }
+        return function;
+    }
+
+    /**
+     * Primitive arithmetic on ints.
+     */
+    @Benchmark
+    public Object fibonacci() {
+        return fibonacci.invoke(20);
+    }
+
+    /**
+     * Arithmetic by calls of built-in functions, which don't overflow into
+     * big integers. This is what {@code tmp.TimeBigFib} measured.
+     */
+    @Benchmark
+    public Object builtinFibonacci() {
+        return builtinFibonacci.invoke(20);
+    }
+
+    /**
+     * Big integer arithmetic, allocating a result with each multiplication.
+     */
+    @Benchmark
+    public Object factorial() {
+        return factorial.invoke(200);
+    }
+
+    /**
+     * A loop, with the back edge counted in the profiling interpreter.
+     */
+    @Benchmark
+    public Object countdown() {
+        return countdown.invoke(1000);
+    }
+
+    private static UserFunction defineFibonacci() {
+        return UserFunction.construct("fibonacci", fibonacci ->
+            lambda(n ->
+                if_(lessThan(n, const_(2)),
+                    const_(1),
+                    bind(call(direct(fibonacci), sub(n, const_(1))), t1 ->
+                        bind(call(direct(fibonacci), sub(n, const_(2))), t2 ->
+                            add(t1, t2))))));
+    }
+
+    private static UserFunction defineBuiltinFibonacci() {
+        return UserFunction.construct("fibonacci", fibonacci ->
+            lambda(n ->
+                if_(lessThan(n, const_(2)),
+                    const_(1),
+                    bind(call(direct(Subtract.INSTANCE), n, const_(1)), n1 ->
+                        bind(call(direct(fibonacci), n1), t1 ->
+                            bind(call(direct(Subtract.INSTANCE), n, const_(2)), n2 ->
+                                bind(call(direct(fibonacci), n2), t2 ->
+                                    call(direct(Add.INSTANCE), t1, t2))))))));
+    }
+
+    private static UserFunction defineFactorial() {
+        return UserFunction.construct("factorial", factorial ->
+            lambda(n ->
+                if_(lessThan(n, const_(1)),
+                    const_(1),
+                    bind(call(direct(factorial), sub(n, const_(1))), t ->
+                        call(direct(Multiply.INSTANCE), t, n)))));
+    }
+
+    private static UserFunction defineCountdown() {
+        return UserFunction.construct("countdown",
+            lambda(n ->
+                while_(greaterThan(n, const_(0)),
+                    set(n, sub(n, const_(1))))));
+    }
+}
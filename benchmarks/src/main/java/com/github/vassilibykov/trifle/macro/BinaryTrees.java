@@ -0,0 +1,112 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.macro;
+
+import com.github.vassilibykov.trifle.core.TieringPolicy;
+import com.github.vassilibykov.trifle.core.UserFunction;
+import com.github.vassilibykov.trifle.object.FixedObjectDefinition;
+
+import java.util.List;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.macro.ObjectLanguage.getField;
+import static com.github.vassilibykov.trifle.macro.ObjectLanguage.instantiate;
+import static com.github.vassilibykov.trifle.macro.ObjectLanguage.isNull;
+import static com.github.vassilibykov.trifle.macro.ObjectLanguage.setField;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.greaterThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.mul;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
+
+/**
+ * binary-trees, after the benchmark of the Computer Language Benchmarks Game
+ * and the "Are We Fast Yet" suite, in the expression language. A tree node is
+ * a {@link com.github.vassilibykov.trifle.object.FixedObject}; a leaf is a
+ * node without subtrees. The result is the sum of the checks of all trees
+ * built: the stretch tree, the trees of each depth, and the long-lived tree.
+ * Allocation heavy, with a monomorphic field access at each node.
+ */
+final class BinaryTrees {
+
+    static final int MAX_DEPTH = 10;
+    static final int MIN_DEPTH = 4;
+    static final int EXPECTED_RESULT = 135854;
+
+    private BinaryTrees() {}
+
+    /**
+     * Define a fresh instance of the program with its functions using the
+     * specified policy, and return the function which runs it.
+     */
+    static UserFunction define(TieringPolicy policy) {
+        var node = new FixedObjectDefinition(List.of("left", "right"));
+        var program = new ProgramLibrary();
+
+        program.define("bottomUpTree", () ->
+            lambda(depth ->
+                if_(lessThan(depth, const_(1)),
+                    instantiate(node),
+                    bind(call(program.ref("bottomUpTree"), sub(depth, const_(1))), left ->
+                        bind(call(program.ref("bottomUpTree"), sub(depth, const_(1))), right ->
+                            bind(instantiate(node), tree ->
+                                block(
+                                    setField(tree, "left", left),
+                                    setField(tree, "right", right),
+                                    tree)))))));
+
+        program.define("check", () ->
+            lambda(tree ->
+                bind(getField(tree, "left"), left ->
+                    if_(isNull(left),
+                        const_(1),
+                        bind(call(program.ref("check"), left), leftCheck ->
+                            bind(getField(tree, "right"), right ->
+                                bind(call(program.ref("check"), right), rightCheck ->
+                                    add(const_(1), add(leftCheck, rightCheck)))))))));
+
+        program.define("sumOfChecks", () ->
+            lambda((iterations, depth) ->
+                bind(const_(0), sum ->
+                    block(
+                        while_(greaterThan(iterations, const_(0)),
+                            bind(call(program.ref("bottomUpTree"), depth), tree ->
+                                bind(call(program.ref("check"), tree), check ->
+                                    set(sum, add(sum, check)))),
+                            set(iterations, sub(iterations, const_(1)))),
+                        sum))));
+
+        program.define("powerOfTwo", () ->
+            lambda(n ->
+                bind(const_(1), result ->
+                    block(
+                        while_(greaterThan(n, const_(0)),
+                            set(result, mul(result, const_(2))),
+                            set(n, sub(n, const_(1)))),
+                        result))));
+
+        program.define("binaryTrees", () ->
+            lambda(maxDepth ->
+                bind(call(program.ref("bottomUpTree"), add(maxDepth, const_(1))), stretchTree ->
+                    bind(call(program.ref("check"), stretchTree), sum ->
+                        bind(call(program.ref("bottomUpTree"), maxDepth), longLivedTree ->
+                            bind(const_(MIN_DEPTH), depth ->
+                                block(
+                                    while_(lessThan(depth, add(maxDepth, const_(1))),
+                                        bind(call(program.ref("powerOfTwo"), add(sub(maxDepth, depth), const_(MIN_DEPTH))), iterations ->
+                                            bind(call(program.ref("sumOfChecks"), iterations, depth), checks ->
+                                                set(sum, add(sum, checks)))),
+                                        set(depth, add(depth, const_(2)))),
+                                    bind(call(program.ref("check"), longLivedTree), check ->
+                                        add(sum, check)))))))));
+
+        return program.build(policy).get("binaryTrees");
+    }
+}
@@ -0,0 +1,261 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.macro;
+
+import com.github.vassilibykov.trifle.core.FunctionProfile;
+import com.github.vassilibykov.trifle.core.TieringPolicy;
+import com.github.vassilibykov.trifle.scheme.Scheme;
+import com.github.vassilibykov.trifle.smalltalk.core.Smalltalk;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Runs the macrobenchmark programs in each tier and reports the time of each
+ * iteration, which is the warmup curve, and the steady state time, which is
+ * the median of the last {@value #STEADY_STATE_ITERATIONS} iterations. Each
+ * program is set up anew for each tier, so nothing compiled or profiled
+ * carries over from one tier to the next. The result of each iteration is
+ * checked against the expected one.
+ *
+ * <p>Unlike the JMH benchmarks, this is meant to show how a whole program
+ * warms up, so the iterations are timed one by one and compilation happens
+ * in the background as it normally would.
+ *
+ * <pre>
+ *     java -cp target/benchmarks.jar com.github.vassilibykov.trifle.macro.MacroBenchmarks \
+ *         [--iterations N] [--home REPO_ROOT] [--write REPO_ROOT/doc/basic-benchmarks.md]
+ * </pre>
+ *
+ * <p>The home directory is the root of the repository, where the Scheme and
+ * Smalltalk sources of the programs are. With {@code --write}, the results
+ * table replaces the text between the {@value #BEGIN_MARKER} and {@value
+ * #END_MARKER} lines of the specified file.
+ */
+public final class MacroBenchmarks {
+
+    public enum Tier {
+        PROFILING_INTERPRETER(new TieringPolicy() {
+            @Override
+            public boolean shouldCompile(FunctionProfile profile) {
+                return false;
+            }
+
+            @Override
+            public long osrThreshold() {
+                return Long.MAX_VALUE;
+            }
+        }),
+        SIMPLE_INTERPRETER(TieringPolicy.interpreterOnly()),
+        COMPILED(TieringPolicy.DEFAULT);
+
+        private final TieringPolicy policy;
+
+        Tier(TieringPolicy policy) {
+            this.policy = policy;
+        }
+    }
+
+    /**
+     * A benchmark program in one front end. The setup function prepares a
+     * fresh instance of the program with the specified tiering policy and
+     * returns an iteration of it.
+     */
+    private static class Program {
+        private final String name;
+        private final String frontEnd;
+        private final Function<TieringPolicy, Supplier<Object>> setup;
+        private final Predicate<Object> isExpected;
+
+        Program(String name, String frontEnd, Function<TieringPolicy, Supplier<Object>> setup, Object expected) {
+            this(name, frontEnd, setup, result -> Objects.equals(result, expected));
+        }
+
+        Program(
+            String name,
+            String frontEnd,
+            Function<TieringPolicy, Supplier<Object>> setup,
+            Predicate<Object> isExpected)
+        {
+            this.name = name;
+            this.frontEnd = frontEnd;
+            this.setup = setup;
+            this.isExpected = isExpected;
+        }
+    }
+
+    static final int DEFAULT_ITERATIONS = 30;
+    static final int STEADY_STATE_ITERATIONS = 10;
+    static final String BEGIN_MARKER = "<!-- macrobenchmarks:begin -->";
+    static final String END_MARKER = "<!-- macrobenchmarks:end -->";
+
+    public static void main(String[] args) throws IOException {
+        int iterations = DEFAULT_ITERATIONS;
+        Path home = Paths.get(".");
+        Path output = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "--home":
+                    home = Paths.get(args[++i]);
+                    break;
+                case "--write":
+                    output = Paths.get(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+            }
+        }
+        if (iterations < STEADY_STATE_ITERATIONS) {
+            System.err.println("At least " + STEADY_STATE_ITERATIONS + " iterations are required.");
+            System.exit(1);
+        }
+        var benchmarks = new MacroBenchmarks(home, iterations);
+        var table = benchmarks.run();
+        if (output != null) writeSection(output, table);
+    }
+
+    private final Path home;
+    private final int iterations;
+    private final List<Program> programs;
+
+    private MacroBenchmarks(Path home, int iterations) {
+        this.home = home;
+        this.iterations = iterations;
+        this.programs = List.of(
+            new Program("binary-trees", "expression language", this::binaryTrees, BinaryTrees.EXPECTED_RESULT),
+            new Program("binary-trees", "Scheme", this::schemeBinaryTrees, BinaryTrees.EXPECTED_RESULT),
+            new Program("binary-trees", "Smalltalk", this::smalltalkBinaryTrees, BinaryTrees.EXPECTED_RESULT),
+            new Program("NBody", "expression language", this::nBody,
+                result -> Math.abs((Double) result - NBody.EXPECTED_RESULT) < 1e-12),
+            new Program("Richards", "expression language", this::richards, Richards.EXPECTED_RESULT));
+    }
+
+    /**
+     * Run all programs in all tiers, print the warmup curves as they are
+     * measured, and return the results table in Markdown.
+     */
+    private String run() {
+        var table = new StringBuilder();
+        table.append("| Program | Front end |");
+        for (var tier : Tier.values()) table.append(" ").append(columnName(tier)).append(" |");
+        table.append("\n|---|---|");
+        for (var ignored : Tier.values()) table.append("--:|");
+        table.append("\n");
+        for (var program : programs) {
+            table.append("| ").append(program.name).append(" | ").append(program.frontEnd).append(" |");
+            for (var tier : Tier.values()) {
+                var times = measure(program, tier);
+                System.out.printf("%s (%s), %s:%n    ", program.name, program.frontEnd, tier);
+                for (var each : times) System.out.printf(" %.1f", each);
+                System.out.println();
+                table.append(String.format(" %.1f / %.1f |", times[0], steadyState(times)));
+            }
+            table.append("\n");
+        }
+        System.out.println();
+        System.out.print(table);
+        return table.toString();
+    }
+
+    private static String columnName(Tier tier) {
+        var name = tier.name().replace('_', ' ').toLowerCase();
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * Return the times in milliseconds of the iterations of a program run in
+     * the tier.
+     */
+    private double[] measure(Program program, Tier tier) {
+        var iteration = program.setup.apply(tier.policy);
+        var times = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            var result = iteration.get();
+            times[i] = (System.nanoTime() - start) / 1e6;
+            if (!program.isExpected.test(result)) {
+                throw new AssertionError(program.name + " (" + program.frontEnd + ") in " + tier
+                    + " produced an unexpected result: " + result);
+            }
+        }
+        return times;
+    }
+
+    private static double steadyState(double[] times) {
+        var last = Arrays.copyOfRange(times, times.length - STEADY_STATE_ITERATIONS, times.length);
+        Arrays.sort(last);
+        return (last[(last.length - 1) / 2] + last[last.length / 2]) / 2;
+    }
+
+    /*
+        Program setup
+     */
+
+    private Supplier<Object> binaryTrees(TieringPolicy policy) {
+        var function = BinaryTrees.define(policy);
+        return () -> function.invoke(BinaryTrees.MAX_DEPTH);
+    }
+
+    private Supplier<Object> schemeBinaryTrees(TieringPolicy policy) {
+        var schemeHome = home.resolve("Scheme");
+        var scheme = new Scheme(schemeHome);
+        scheme.setTieringPolicy(policy);
+        scheme.load(schemeHome.resolve("binary-trees.scm"));
+        var function = scheme.findFunction("binary-trees");
+        return () -> function.invoke(BinaryTrees.MAX_DEPTH);
+    }
+
+    private Supplier<Object> smalltalkBinaryTrees(TieringPolicy policy) {
+        var smalltalk = Smalltalk.create();
+        smalltalk.setTieringPolicy(policy);
+        for (var each : List.of("TreeLeaf.st", "TreeNode.st", "Script.st")) {
+            try (var reader = Files.newBufferedReader(home.resolve("Smalltalk/binary-trees").resolve(each))) {
+                smalltalk.compileClass(reader);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        var script = smalltalk.findClass("Script").newInstance();
+        return () -> script.perform("doIt");
+    }
+
+    private Supplier<Object> nBody(TieringPolicy policy) {
+        var function = NBody.define(policy);
+        var definition = NBody.bodyDefinition();
+        return () -> function.invoke(NBody.createSystem(definition), NBody.STEPS);
+    }
+
+    private Supplier<Object> richards(TieringPolicy policy) {
+        var function = Richards.define(policy);
+        return () -> Richards.result(function.invoke());
+    }
+
+    /*
+        Output
+     */
+
+    private static void writeSection(Path file, String table) throws IOException {
+        var text = new String(Files.readAllBytes(file));
+        int begin = text.indexOf(BEGIN_MARKER);
+        int end = text.indexOf(END_MARKER);
+        if (begin < 0 || end < begin) {
+            throw new IllegalStateException("no " + BEGIN_MARKER + " and " + END_MARKER + " lines in " + file);
+        }
+        var newText = text.substring(0, begin + BEGIN_MARKER.length())
+            + "\n\n" + table + "\n"
+            + text.substring(end);
+        Files.write(file, newText.getBytes());
+    }
+}
@@ -0,0 +1,258 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.macro;
+
+import com.github.vassilibykov.trifle.core.TieringPolicy;
+import com.github.vassilibykov.trifle.core.UserFunction;
+import com.github.vassilibykov.trifle.expression.AtomicExpression;
+import com.github.vassilibykov.trifle.expression.Expression;
+import com.github.vassilibykov.trifle.expression.Variable;
+import com.github.vassilibykov.trifle.object.FixedObject;
+import com.github.vassilibykov.trifle.object.FixedObjectDefinition;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.macro.ObjectLanguage.call;
+import static com.github.vassilibykov.trifle.macro.ObjectLanguage.getField;
+import static com.github.vassilibykov.trifle.macro.ObjectLanguage.isNull;
+import static com.github.vassilibykov.trifle.macro.ObjectLanguage.lambda;
+import static com.github.vassilibykov.trifle.macro.ObjectLanguage.setField;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.doubleAdd;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.doubleDiv;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.doubleMul;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.doubleSqrt;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.doubleSub;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.greaterThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
+
+/**
+ * NBody, after the "Are We Fast Yet" suite, in the expression language. The
+ * bodies are {@link FixedObject}s linked into a list, since the language has
+ * no arrays, and loops over the bodies are recursive functions. The system of
+ * bodies is set up in Java, and the program advances it the specified number
+ * of steps and returns its energy. Double arithmetic on boxed field values.
+ * After one step the energy is -0.16907495402506745, as in the original.
+ */
+final class NBody {
+
+    static final int STEPS = 1000;
+    static final double EXPECTED_RESULT = -0.169087605234606;
+
+    private static final double PI = 3.141592653589793;
+    private static final double SOLAR_MASS = 4 * PI * PI;
+    private static final double DAYS_PER_YEAR = 365.24;
+    private static final double TIME_STEP = 0.01;
+
+    private static final List<String> FIELDS = List.of("x", "y", "z", "vx", "vy", "vz", "mass");
+
+    private NBody() {}
+
+    /**
+     * Define a fresh instance of the program with its functions using the
+     * specified policy, and return the function which runs it. The function
+     * accepts the system created by {@link #createSystem(FixedObjectDefinition)}
+     * and the number of steps.
+     */
+    static UserFunction define(TieringPolicy policy) {
+        var program = new ProgramLibrary();
+
+        program.define("advance", () ->
+            lambda((system, steps) ->
+                block(
+                    while_(greaterThan(steps, const_(0)),
+                        call(program.ref("advanceVelocities"), system),
+                        call(program.ref("advancePositions"), system),
+                        set(steps, sub(steps, const_(1)))),
+                    call(program.ref("energy"), system, const_(0.0)))));
+
+        program.define("advanceVelocities", () ->
+            lambda(body ->
+                if_(isNull(body),
+                    const_(null),
+                    bind(getField(body, "next"), next ->
+                        block(
+                            call(program.ref("advancePairs"), body, next),
+                            call(program.ref("advanceVelocities"), next))))));
+
+        program.define("advancePairs", () ->
+            lambda((i, j) ->
+                if_(isNull(j),
+                    const_(null),
+                    readFields(i, ib ->
+                        readFields(j, jb ->
+                            bind(doubleSub(ib.get("x"), jb.get("x")), dx ->
+                                bind(doubleSub(ib.get("y"), jb.get("y")), dy ->
+                                    bind(doubleSub(ib.get("z"), jb.get("z")), dz ->
+                                        bind(doubleAdd(doubleAdd(doubleMul(dx, dx), doubleMul(dy, dy)), doubleMul(dz, dz)), dSquared ->
+                                            bind(doubleSqrt(dSquared), distance ->
+                                                bind(doubleDiv(const_(TIME_STEP), doubleMul(dSquared, distance)), mag ->
+                                                    block(
+                                                        setField(i, "vx", doubleSub(ib.get("vx"), doubleMul(doubleMul(dx, jb.get("mass")), mag))),
+                                                        setField(i, "vy", doubleSub(ib.get("vy"), doubleMul(doubleMul(dy, jb.get("mass")), mag))),
+                                                        setField(i, "vz", doubleSub(ib.get("vz"), doubleMul(doubleMul(dz, jb.get("mass")), mag))),
+                                                        setField(j, "vx", doubleAdd(jb.get("vx"), doubleMul(doubleMul(dx, ib.get("mass")), mag))),
+                                                        setField(j, "vy", doubleAdd(jb.get("vy"), doubleMul(doubleMul(dy, ib.get("mass")), mag))),
+                                                        setField(j, "vz", doubleAdd(jb.get("vz"), doubleMul(doubleMul(dz, ib.get("mass")), mag))),
+                                                        bind(getField(j, "next"), next ->
+                                                            call(program.ref("advancePairs"), i, next))))))))))))));
+
+        program.define("advancePositions", () ->
+            lambda(body ->
+                if_(isNull(body),
+                    const_(null),
+                    readFields(body, b ->
+                        block(
+                            setField(body, "x", doubleAdd(b.get("x"), doubleMul(const_(TIME_STEP), b.get("vx")))),
+                            setField(body, "y", doubleAdd(b.get("y"), doubleMul(const_(TIME_STEP), b.get("vy")))),
+                            setField(body, "z", doubleAdd(b.get("z"), doubleMul(const_(TIME_STEP), b.get("vz")))),
+                            bind(getField(body, "next"), next ->
+                                call(program.ref("advancePositions"), next)))))));
+
+        program.define("energy", () ->
+            lambda((body, e) ->
+                if_(isNull(body),
+                    e,
+                    readFields(body, b ->
+                        bind(doubleAdd(doubleAdd(doubleMul(b.get("vx"), b.get("vx")), doubleMul(b.get("vy"), b.get("vy"))), doubleMul(b.get("vz"), b.get("vz"))), vSquared ->
+                            bind(doubleAdd(e, doubleMul(doubleMul(const_(0.5), b.get("mass")), vSquared)), kinetic ->
+                                bind(getField(body, "next"), next ->
+                                    bind(call(program.ref("potentialEnergy"), body, next, kinetic), potential ->
+                                        call(program.ref("energy"), next, potential)))))))));
+
+        program.define("potentialEnergy", () ->
+            lambda((i, j, e) ->
+                if_(isNull(j),
+                    e,
+                    readFields(i, ib ->
+                        readFields(j, jb ->
+                            bind(doubleSub(ib.get("x"), jb.get("x")), dx ->
+                                bind(doubleSub(ib.get("y"), jb.get("y")), dy ->
+                                    bind(doubleSub(ib.get("z"), jb.get("z")), dz ->
+                                        bind(doubleSqrt(doubleAdd(doubleAdd(doubleMul(dx, dx), doubleMul(dy, dy)), doubleMul(dz, dz))), distance ->
+                                            bind(doubleSub(e, doubleDiv(doubleMul(ib.get("mass"), jb.get("mass")), distance)), newE ->
+                                                bind(getField(j, "next"), next ->
+                                                    call(program.ref("potentialEnergy"), i, next, newE))))))))))));
+
+        return program.build(policy).get("advance");
+    }
+
+    /**
+     * Generate the expression which reads the fields of a body other than
+     * {@code next} into variables, passed to the body builder by field name.
+     */
+    private static Expression readFields(AtomicExpression body, Function<Map<String, Variable>, Expression> bodyBuilder) {
+        return readFields(body, 0, new HashMap<>(), bodyBuilder);
+    }
+
+    private static Expression readFields(
+        AtomicExpression body,
+        int index,
+        Map<String, Variable> variables,
+        Function<Map<String, Variable>, Expression> bodyBuilder)
+    {
+        if (index == FIELDS.size()) return bodyBuilder.apply(variables);
+        var name = FIELDS.get(index);
+        return bind(getField(body, name), value -> {
+            variables.put(name, value);
+            return readFields(body, index + 1, variables, bodyBuilder);
+        });
+    }
+
+    static FixedObjectDefinition bodyDefinition() {
+        var fields = new ArrayList<>(FIELDS);
+        fields.add("next");
+        return new FixedObjectDefinition(fields);
+    }
+
+    /**
+     * Create the system of the Sun and the four gas giants, with the
+     * momentum of the Sun offset so that the total is zero, and return the
+     * first body of the list.
+     */
+    static FixedObject createSystem(FixedObjectDefinition definition) {
+        var bodies = List.of(
+            body(definition, 0, 0, 0, 0, 0, 0, 1),
+            // Jupiter
+            body(definition,
+                4.84143144246472090e+00,
+                -1.16032004402742839e+00,
+                -1.03622044471123109e-01,
+                1.66007664274403694e-03,
+                7.69901118419740425e-03,
+                -6.90460016972063023e-05,
+                9.54791938424326609e-04),
+            // Saturn
+            body(definition,
+                8.34336671824457987e+00,
+                4.12479856412430479e+00,
+                -4.03523417114321381e-01,
+                -2.76742510726862411e-03,
+                4.99852801234917238e-03,
+                2.30417297573763929e-05,
+                2.85885980666130812e-04),
+            // Uranus
+            body(definition,
+                1.28943695621391310e+01,
+                -1.51111514016986312e+01,
+                -2.23307578892655734e-01,
+                2.96460137564761618e-03,
+                2.37847173959480950e-03,
+                -2.96589568540237556e-05,
+                4.36624404335156298e-05),
+            // Neptune
+            body(definition,
+                1.53796971148509165e+01,
+                -2.59193146099879641e+01,
+                1.79258772950371181e-01,
+                2.68067772490389322e-03,
+                1.62824170038242295e-03,
+                -9.51592254519715870e-05,
+                5.15138902046611451e-05));
+        double px = 0.0;
+        double py = 0.0;
+        double pz = 0.0;
+        for (var each : bodies) {
+            var mass = (double) each.get("mass");
+            px += (double) each.get("vx") * mass;
+            py += (double) each.get("vy") * mass;
+            pz += (double) each.get("vz") * mass;
+        }
+        var sun = bodies.get(0);
+        sun.set("vx", 0.0 - (px / SOLAR_MASS));
+        sun.set("vy", 0.0 - (py / SOLAR_MASS));
+        sun.set("vz", 0.0 - (pz / SOLAR_MASS));
+        for (int i = 0; i < bodies.size() - 1; i++) {
+            bodies.get(i).set("next", bodies.get(i + 1));
+        }
+        return sun;
+    }
+
+    private static FixedObject body(
+        FixedObjectDefinition definition,
+        double x, double y, double z,
+        double vx, double vy, double vz,
+        double mass)
+    {
+        var body = definition.instantiate();
+        body.set("x", x);
+        body.set("y", y);
+        body.set("z", z);
+        body.set("vx", vx * DAYS_PER_YEAR);
+        body.set("vy", vy * DAYS_PER_YEAR);
+        body.set("vz", vz * DAYS_PER_YEAR);
+        body.set("mass", mass * SOLAR_MASS);
+        return body;
+    }
+}
@@ -0,0 +1,66 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.macro;
+
+import com.github.vassilibykov.trifle.expression.AtomicExpression;
+import com.github.vassilibykov.trifle.expression.Call;
+import com.github.vassilibykov.trifle.expression.Callable;
+import com.github.vassilibykov.trifle.expression.Expression;
+import com.github.vassilibykov.trifle.expression.Lambda;
+import com.github.vassilibykov.trifle.expression.PrimitiveCall;
+import com.github.vassilibykov.trifle.expression.Variable;
+import com.github.vassilibykov.trifle.object.FixedObjectDefinition;
+import com.github.vassilibykov.trifle.object.GetField;
+import com.github.vassilibykov.trifle.object.Instantiate;
+import com.github.vassilibykov.trifle.object.SetField;
+import com.github.vassilibykov.trifle.primitive.EQ;
+
+import java.util.List;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.var;
+
+/**
+ * Static factory methods complementing {@code ExpressionLanguage} with
+ * object access and functions of three arguments, used to write the
+ * benchmark programs.
+ */
+final class ObjectLanguage {
+
+    private ObjectLanguage() {}
+
+    static Call getField(AtomicExpression object, String fieldName) {
+        return Call.with(GetField.named(fieldName), object);
+    }
+
+    static Call setField(AtomicExpression object, String fieldName, AtomicExpression value) {
+        return Call.with(SetField.named(fieldName), object, value);
+    }
+
+    static PrimitiveCall instantiate(FixedObjectDefinition definition) {
+        return PrimitiveCall.with(Instantiate.class, const_(definition));
+    }
+
+    static PrimitiveCall isNull(AtomicExpression value) {
+        return PrimitiveCall.with(EQ.class, value, const_(null));
+    }
+
+    static PrimitiveCall eq(AtomicExpression value1, AtomicExpression value2) {
+        return PrimitiveCall.with(EQ.class, value1, value2);
+    }
+
+    static Call call(Callable function, AtomicExpression arg1, AtomicExpression arg2, AtomicExpression arg3) {
+        return Call.with(function, arg1, arg2, arg3);
+    }
+
+    interface Body3 {
+        Expression apply(Variable arg1, Variable arg2, Variable arg3);
+    }
+
+    static Lambda lambda(Body3 bodyBuilder) {
+        var arg1 = var("a1");
+        var arg2 = var("a2");
+        var arg3 = var("a3");
+        return Lambda.with(List.of(arg1, arg2, arg3), bodyBuilder.apply(arg1, arg2, arg3));
+    }
+}
@@ -0,0 +1,49 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.macro;
+
+import com.github.vassilibykov.trifle.core.Library;
+import com.github.vassilibykov.trifle.core.TieringPolicy;
+import com.github.vassilibykov.trifle.core.UserFunction;
+import com.github.vassilibykov.trifle.expression.FreeFunctionReference;
+import com.github.vassilibykov.trifle.expression.Lambda;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * The functions of a benchmark program written in the expression language.
+ * The functions are defined together when the library is built, so a
+ * definition may reference any other function using {@link #ref(String)}.
+ */
+final class ProgramLibrary {
+
+    private final Library library = new Library();
+    private final List<String> names = new ArrayList<>();
+    private final List<Supplier<Lambda>> definitions = new ArrayList<>();
+
+    void define(String name, Supplier<Lambda> definition) {
+        names.add(name);
+        definitions.add(definition);
+    }
+
+    /**
+     * Return a reference to a function of the library. Valid only while the
+     * library is being built.
+     */
+    FreeFunctionReference ref(String name) {
+        return library.at(name);
+    }
+
+    Library build(TieringPolicy policy) {
+        library.setTieringPolicy(policy);
+        List<Function<UserFunction, Lambda>> definers = definitions.stream()
+            .map(each -> (Function<UserFunction, Lambda>) function -> each.get())
+            .collect(Collectors.toList());
+        library.define(names, definers);
+        return library;
+    }
+}
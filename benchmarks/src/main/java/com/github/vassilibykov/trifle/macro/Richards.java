@@ -0,0 +1,463 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.macro;
+
+import com.github.vassilibykov.trifle.core.TieringPolicy;
+import com.github.vassilibykov.trifle.core.UserFunction;
+import com.github.vassilibykov.trifle.expression.AtomicExpression;
+import com.github.vassilibykov.trifle.expression.Block;
+import com.github.vassilibykov.trifle.expression.Expression;
+import com.github.vassilibykov.trifle.expression.Variable;
+import com.github.vassilibykov.trifle.object.FixedObject;
+import com.github.vassilibykov.trifle.object.FixedObjectDefinition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.macro.ObjectLanguage.call;
+import static com.github.vassilibykov.trifle.macro.ObjectLanguage.eq;
+import static com.github.vassilibykov.trifle.macro.ObjectLanguage.getField;
+import static com.github.vassilibykov.trifle.macro.ObjectLanguage.instantiate;
+import static com.github.vassilibykov.trifle.macro.ObjectLanguage.isNull;
+import static com.github.vassilibykov.trifle.macro.ObjectLanguage.lambda;
+import static com.github.vassilibykov.trifle.macro.ObjectLanguage.setField;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.bitAnd;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.bitXor;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.greaterThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.shiftRight;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
+
+/**
+ * Richards, after the "Are We Fast Yet" suite, in the expression language.
+ * The scheduler, task control blocks, packets and task data records are
+ * {@link FixedObject}s. The behavior of each kind of task is a closure held
+ * by its task control block, so the call of a task from the scheduling loop
+ * is polymorphic. The language has no arrays, so the task table is the list
+ * of task control blocks searched by task identity, and the data of a packet
+ * are four fields. The program returns the scheduler, whose packet and hold
+ * counts are the result.
+ */
+final class Richards {
+
+    static final List<Integer> EXPECTED_RESULT = List.of(23246, 9297);
+
+    private static final int IDLER = 0;
+    private static final int WORKER = 1;
+    private static final int HANDLER_A = 2;
+    private static final int HANDLER_B = 3;
+    private static final int DEVICE_A = 4;
+    private static final int DEVICE_B = 5;
+
+    private static final int DEVICE_PACKET_KIND = 0;
+    private static final int WORK_PACKET_KIND = 1;
+    private static final int DATA_SIZE = 4;
+    private static final int IDLE_COUNT = 10000;
+
+    private Richards() {}
+
+    /**
+     * Return the queued packet and hold counts of a scheduler which has run.
+     */
+    static List<Integer> result(Object scheduler) {
+        var object = (FixedObject) scheduler;
+        return List.of((Integer) object.get("queuePacketCount"), (Integer) object.get("holdCount"));
+    }
+
+    /**
+     * Define a fresh instance of the program with its functions using the
+     * specified policy, and return the function which runs it.
+     */
+    static UserFunction define(TieringPolicy policy) {
+        var scheduler = new FixedObjectDefinition(List.of(
+            "taskList", "currentTask", "currentTaskIdentity", "queuePacketCount", "holdCount"));
+        var taskControlBlock = new FixedObjectDefinition(List.of(
+            "link", "identity", "priority", "input", "packetPending", "taskWaiting", "taskHolding", "function", "handle"));
+        var packet = new FixedObjectDefinition(List.of(
+            "link", "identity", "kind", "datum", "data0", "data1", "data2", "data3"));
+        var idleData = new FixedObjectDefinition(List.of("control", "count"));
+        var deviceData = new FixedObjectDefinition(List.of("pending"));
+        var handlerData = new FixedObjectDefinition(List.of("workIn", "deviceIn"));
+        var workerData = new FixedObjectDefinition(List.of("destination", "count"));
+        var program = new ProgramLibrary();
+
+        /*
+            Packets and queues
+         */
+
+        program.define("createPacket", () ->
+            lambda((link, identity, kind) ->
+                bind(instantiate(packet), p ->
+                    block(
+                        setField(p, "link", link),
+                        setField(p, "identity", identity),
+                        setField(p, "kind", kind),
+                        setField(p, "datum", const_(0)),
+                        setField(p, "data0", const_(0)),
+                        setField(p, "data1", const_(0)),
+                        setField(p, "data2", const_(0)),
+                        setField(p, "data3", const_(0)),
+                        p))));
+
+        program.define("append", () ->
+            lambda((p, queue) ->
+                block(
+                    setField(p, "link", const_(null)),
+                    if_(isNull(queue),
+                        p,
+                        block(
+                            call(program.ref("appendToLast"), p, queue),
+                            queue)))));
+
+        program.define("appendToLast", () ->
+            lambda((p, mouse) ->
+                bind(getField(mouse, "link"), link ->
+                    if_(isNull(link),
+                        setField(mouse, "link", p),
+                        call(program.ref("appendToLast"), p, link)))));
+
+        program.define("dataAt", () ->
+            lambda((p, index) ->
+                if_(lessThan(index, const_(1)),
+                    getField(p, "data0"),
+                    if_(lessThan(index, const_(2)),
+                        getField(p, "data1"),
+                        if_(lessThan(index, const_(3)),
+                            getField(p, "data2"),
+                            getField(p, "data3"))))));
+
+        /*
+            Task control blocks
+         */
+
+        program.define("addInputAndCheckPriority", () ->
+            lambda((task, p, oldTask) ->
+                bind(getField(task, "input"), input ->
+                    if_(isNull(input),
+                        block(
+                            setField(task, "input", p),
+                            setField(task, "packetPending", const_(true)),
+                            bind(getField(task, "priority"), priority ->
+                                bind(getField(oldTask, "priority"), oldPriority ->
+                                    if_(greaterThan(priority, oldPriority), task, oldTask)))),
+                        bind(call(program.ref("append"), p, input), newInput ->
+                            block(
+                                setField(task, "input", newInput),
+                                oldTask))))));
+
+        program.define("isTaskHoldingOrWaiting", () ->
+            lambda(task ->
+                bind(getField(task, "taskHolding"), holding ->
+                    if_(holding,
+                        const_(true),
+                        bind(getField(task, "packetPending"), pending ->
+                            if_(pending,
+                                const_(false),
+                                getField(task, "taskWaiting")))))));
+
+        program.define("isWaitingWithPacket", () ->
+            lambda(task ->
+                bind(getField(task, "packetPending"), pending ->
+                    if_(pending,
+                        bind(getField(task, "taskWaiting"), waiting ->
+                            if_(waiting,
+                                bind(getField(task, "taskHolding"), holding ->
+                                    if_(holding, const_(false), const_(true))),
+                                const_(false))),
+                        const_(false)))));
+
+        program.define("runTask", () ->
+            lambda(task ->
+                bind(call(program.ref("isWaitingWithPacket"), task), waitingWithPacket ->
+                    bind(if_(waitingWithPacket,
+                            bind(getField(task, "input"), message ->
+                                bind(getField(message, "link"), rest ->
+                                    block(
+                                        setField(task, "input", rest),
+                                        setField(task, "packetPending", eq(isNull(rest), const_(false))),
+                                        setField(task, "taskWaiting", const_(false)),
+                                        setField(task, "taskHolding", const_(false)),
+                                        message))),
+                            const_(null)), message ->
+                        bind(getField(task, "function"), function ->
+                            bind(getField(task, "handle"), handle ->
+                                call(function, message, handle)))))));
+
+        /*
+            Scheduler
+         */
+
+        program.define("findTask", () ->
+            lambda((s, identity) ->
+                bind(getField(s, "taskList"), list ->
+                    call(program.ref("findTaskIn"), list, identity))));
+
+        program.define("findTaskIn", () ->
+            lambda((task, identity) ->
+                if_(isNull(task),
+                    const_(null),
+                    bind(getField(task, "identity"), taskIdentity ->
+                        if_(eq(taskIdentity, identity),
+                            task,
+                            bind(getField(task, "link"), link ->
+                                call(program.ref("findTaskIn"), link, identity)))))));
+
+        program.define("holdSelf", () ->
+            lambda(s ->
+                bind(getField(s, "holdCount"), count ->
+                    bind(getField(s, "currentTask"), current ->
+                        block(
+                            setField(s, "holdCount", add(count, const_(1))),
+                            setField(current, "taskHolding", const_(true)),
+                            getField(current, "link"))))));
+
+        program.define("waitTask", () ->
+            lambda(s ->
+                bind(getField(s, "currentTask"), current ->
+                    block(
+                        setField(current, "taskWaiting", const_(true)),
+                        current))));
+
+        program.define("release", () ->
+            lambda((s, identity) ->
+                bind(call(program.ref("findTask"), s, identity), task ->
+                    if_(isNull(task),
+                        const_(null),
+                        block(
+                            setField(task, "taskHolding", const_(false)),
+                            bind(getField(s, "currentTask"), current ->
+                                bind(getField(task, "priority"), priority ->
+                                    bind(getField(current, "priority"), currentPriority ->
+                                        if_(greaterThan(priority, currentPriority), task, current)))))))));
+
+        program.define("queuePacket", () ->
+            lambda((s, p) ->
+                bind(getField(p, "identity"), identity ->
+                    bind(call(program.ref("findTask"), s, identity), task ->
+                        if_(isNull(task),
+                            const_(null),
+                            bind(getField(s, "queuePacketCount"), count ->
+                                bind(getField(s, "currentTaskIdentity"), currentIdentity ->
+                                    bind(getField(s, "currentTask"), current ->
+                                        block(
+                                            setField(s, "queuePacketCount", add(count, const_(1))),
+                                            setField(p, "link", const_(null)),
+                                            setField(p, "identity", currentIdentity),
+                                            call(program.ref("addInputAndCheckPriority"), task, p, current))))))))));
+
+        program.define("schedule", () ->
+            lambda(s ->
+                bind(getField(s, "taskList"), current ->
+                    block(
+                        setField(s, "currentTask", current),
+                        while_(eq(isNull(current), const_(false)),
+                            bind(call(program.ref("isTaskHoldingOrWaiting"), current), holdingOrWaiting ->
+                                if_(holdingOrWaiting,
+                                    bind(getField(current, "link"), link ->
+                                        set(current, link)),
+                                    bind(getField(current, "identity"), identity ->
+                                        block(
+                                            setField(s, "currentTaskIdentity", identity),
+                                            bind(call(program.ref("runTask"), current), next ->
+                                                set(current, next)))))),
+                            setField(s, "currentTask", current))))));
+
+        /*
+            Tasks
+         */
+
+        program.define("richards", () ->
+            lambda(() ->
+                bind(instantiate(scheduler), s ->
+                    block(
+                        setField(s, "queuePacketCount", const_(0)),
+                        setField(s, "holdCount", const_(0)),
+                        bind(instantiate(idleData), data ->
+                            block(
+                                setField(data, "control", const_(1)),
+                                setField(data, "count", const_(IDLE_COUNT)),
+                                bind(idleFunction(program, s), function ->
+                                    addTask(taskControlBlock, s, IDLER, 0, const_(null), false, false, function, data)))),
+                        packets(program, WORKER, WORK_PACKET_KIND, 2, queue ->
+                            bind(instantiate(workerData), data ->
+                                block(
+                                    setField(data, "destination", const_(HANDLER_A)),
+                                    setField(data, "count", const_(0)),
+                                    bind(workerFunction(program, s), function ->
+                                        addTask(taskControlBlock, s, WORKER, 1000, queue, true, true, function, data))))),
+                        packets(program, DEVICE_A, DEVICE_PACKET_KIND, 3, queue ->
+                            bind(instantiate(handlerData), data ->
+                                bind(handlerFunction(program, s), function ->
+                                    addTask(taskControlBlock, s, HANDLER_A, 2000, queue, true, true, function, data)))),
+                        packets(program, DEVICE_B, DEVICE_PACKET_KIND, 3, queue ->
+                            bind(instantiate(handlerData), data ->
+                                bind(handlerFunction(program, s), function ->
+                                    addTask(taskControlBlock, s, HANDLER_B, 3000, queue, true, true, function, data)))),
+                        bind(instantiate(deviceData), data ->
+                            bind(deviceFunction(program, s), function ->
+                                addTask(taskControlBlock, s, DEVICE_A, 4000, const_(null), false, true, function, data))),
+                        bind(instantiate(deviceData), data ->
+                            bind(deviceFunction(program, s), function ->
+                                addTask(taskControlBlock, s, DEVICE_B, 5000, const_(null), false, true, function, data))),
+                        call(program.ref("schedule"), s),
+                        s))));
+
+        return program.build(policy).get("richards");
+    }
+
+    /**
+     * Generate the expression creating a task control block in the
+     * specified initial state and adding it to the task list.
+     */
+    private static Expression addTask(
+        FixedObjectDefinition taskControlBlock,
+        Variable s,
+        int identity,
+        int priority,
+        AtomicExpression queue,
+        boolean packetPending,
+        boolean taskWaiting,
+        AtomicExpression function,
+        AtomicExpression data)
+    {
+        return bind(instantiate(taskControlBlock), task ->
+            bind(getField(s, "taskList"), list ->
+                block(
+                    setField(task, "link", list),
+                    setField(task, "identity", const_(identity)),
+                    setField(task, "priority", const_(priority)),
+                    setField(task, "input", queue),
+                    setField(task, "packetPending", const_(packetPending)),
+                    setField(task, "taskWaiting", const_(taskWaiting)),
+                    setField(task, "taskHolding", const_(false)),
+                    setField(task, "function", function),
+                    setField(task, "handle", data),
+                    setField(s, "taskList", task))));
+    }
+
+    /**
+     * Generate the expression creating a queue of the specified number of
+     * packets for the specified task, and passing it to the body.
+     */
+    private static Expression packets(
+        ProgramLibrary program,
+        int identity,
+        int kind,
+        int count,
+        Function<AtomicExpression, Expression> bodyBuilder)
+    {
+        return packets(program, const_(null), identity, kind, count, bodyBuilder);
+    }
+
+    private static Expression packets(
+        ProgramLibrary program,
+        AtomicExpression queue,
+        int identity,
+        int kind,
+        int count,
+        Function<AtomicExpression, Expression> bodyBuilder)
+    {
+        if (count == 0) return bodyBuilder.apply(queue);
+        return bind(call(program.ref("createPacket"), queue, const_(identity), const_(kind)), newQueue ->
+            packets(program, newQueue, identity, kind, count - 1, bodyBuilder));
+    }
+
+    private static Expression idleFunction(ProgramLibrary program, Variable s) {
+        return lambda((work, data) ->
+            bind(getField(data, "count"), count ->
+                block(
+                    setField(data, "count", sub(count, const_(1))),
+                    if_(eq(sub(count, const_(1)), const_(0)),
+                        call(program.ref("holdSelf"), s),
+                        bind(getField(data, "control"), control ->
+                            if_(eq(bitAnd(control, const_(1)), const_(0)),
+                                block(
+                                    setField(data, "control", shiftRight(control, const_(1))),
+                                    call(program.ref("release"), s, const_(DEVICE_A))),
+                                block(
+                                    setField(data, "control", bitXor(shiftRight(control, const_(1)), const_(0xD008))),
+                                    call(program.ref("release"), s, const_(DEVICE_B)))))))));
+    }
+
+    private static Expression workerFunction(ProgramLibrary program, Variable s) {
+        return lambda((work, data) ->
+            if_(isNull(work),
+                call(program.ref("waitTask"), s),
+                bind(getField(data, "destination"), destination ->
+                    bind(if_(eq(destination, const_(HANDLER_A)), const_(HANDLER_B), const_(HANDLER_A)), newDestination -> {
+                        var statements = new ArrayList<Expression>();
+                        statements.add(setField(data, "destination", newDestination));
+                        statements.add(setField(work, "identity", newDestination));
+                        statements.add(setField(work, "datum", const_(0)));
+                        for (int i = 0; i < DATA_SIZE; i++) {
+                            var field = "data" + i;
+                            statements.add(
+                                bind(getField(data, "count"), count ->
+                                    bind(if_(greaterThan(count, const_(25)), const_(1), add(count, const_(1))), newCount ->
+                                        block(
+                                            setField(data, "count", newCount),
+                                            setField(work, field, newCount)))));
+                        }
+                        statements.add(call(program.ref("queuePacket"), s, work));
+                        return Block.with(statements);
+                    }))));
+    }
+
+    private static Expression handlerFunction(ProgramLibrary program, Variable s) {
+        return lambda((work, data) ->
+            block(
+                if_(isNull(work),
+                    const_(null),
+                    bind(getField(work, "kind"), kind ->
+                        if_(eq(kind, const_(WORK_PACKET_KIND)),
+                            bind(getField(data, "workIn"), queue ->
+                                bind(call(program.ref("append"), work, queue), newQueue ->
+                                    setField(data, "workIn", newQueue))),
+                            bind(getField(data, "deviceIn"), queue ->
+                                bind(call(program.ref("append"), work, queue), newQueue ->
+                                    setField(data, "deviceIn", newQueue)))))),
+                bind(getField(data, "workIn"), workPacket ->
+                    if_(isNull(workPacket),
+                        call(program.ref("waitTask"), s),
+                        bind(getField(workPacket, "datum"), count ->
+                            if_(lessThan(count, const_(DATA_SIZE)),
+                                bind(getField(data, "deviceIn"), devicePacket ->
+                                    if_(isNull(devicePacket),
+                                        call(program.ref("waitTask"), s),
+                                        bind(getField(devicePacket, "link"), rest ->
+                                            bind(call(program.ref("dataAt"), workPacket, count), datum ->
+                                                block(
+                                                    setField(data, "deviceIn", rest),
+                                                    setField(devicePacket, "datum", datum),
+                                                    setField(workPacket, "datum", add(count, const_(1))),
+                                                    call(program.ref("queuePacket"), s, devicePacket)))))),
+                                bind(getField(workPacket, "link"), rest ->
+                                    block(
+                                        setField(data, "workIn", rest),
+                                        call(program.ref("queuePacket"), s, workPacket)))))))));
+    }
+
+    private static Expression deviceFunction(ProgramLibrary program, Variable s) {
+        return lambda((work, data) ->
+            if_(isNull(work),
+                bind(getField(data, "pending"), pending ->
+                    if_(isNull(pending),
+                        call(program.ref("waitTask"), s),
+                        block(
+                            setField(data, "pending", const_(null)),
+                            call(program.ref("queuePacket"), s, pending)))),
+                block(
+                    setField(data, "pending", work),
+                    call(program.ref("holdSelf"), s))));
+    }
+}
@@ -0,0 +1,101 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.object;
+
+import com.github.vassilibykov.trifle.core.FunctionProfile;
+import com.github.vassilibykov.trifle.core.TieringPolicy;
+import com.github.vassilibykov.trifle.core.UserFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+
+/**
+ * Field reads and writes of a {@link FixedObject} by compiled code, with the
+ * field access instructions implemented by {@link FieldAccessInvokeDynamic}
+ * or by {@link FieldAccessInvokeDynamicConcurrent}. The implementation is
+ * chosen when the accessing functions are compiled.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FieldAccessBenchmark {
+
+    public enum Implementation {
+        INVOKE_DYNAMIC(FieldAccessInvokeDynamic.FACTORY),
+        INVOKE_DYNAMIC_CONCURRENT(FieldAccessInvokeDynamicConcurrent.FACTORY);
+
+        private final FieldAccessImplementation factory;
+
+        Implementation(FieldAccessImplementation factory) {
+            this.factory = factory;
+        }
+    }
+
+    static final TieringPolicy NEVER_COMPILE = new TieringPolicy() {
+        @Override
+        public boolean shouldCompile(FunctionProfile profile) {
+            return false;
+        }
+    };
+
+    @Param
+    public Implementation implementation;
+
+    private FieldAccessImplementation savedImplementation;
+    private UserFunction getter;
+    private UserFunction setter;
+    private FixedObject object;
+    private Integer value = 42;
+
+    @Setup
+    public void setUp() {
+        savedImplementation = FixedObject.accessImplementation();
+        FixedObject.accessImplementation(implementation.factory);
+        object = new FixedObjectDefinition(List.of("foo", "bar")).instantiate();
+        object.set("bar", value);
+        getter = compile(UserFunction.construct("getter",
+            lambda(receiver -> call(GetField.named("bar"), receiver))));
+        setter = compile(UserFunction.construct("setter",
+            lambda((receiver, newValue) -> bind(call(SetField.named("bar"), receiver, newValue), t -> t))));
+    }
+
+    @TearDown
+    public void tearDown() {
+        FixedObject.accessImplementation(savedImplementation);
+    }
+
+    static UserFunction compile(UserFunction function) {
+        function.setTieringPolicy(NEVER_COMPILE);
+        function.forceCompile();
+        return function;
+    }
+
+    @Benchmark
+    public Object get() {
+        return getter.invoke(object);
+    }
+
+    @Benchmark
+    public Object set() {
+        return setter.invoke(object, value);
+    }
+}
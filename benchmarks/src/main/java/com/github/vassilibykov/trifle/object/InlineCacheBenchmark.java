@@ -0,0 +1,86 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.object;
+
+import com.github.vassilibykov.trifle.core.InlineCachingCallSite;
+import com.github.vassilibykov.trifle.core.UserFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+
+/**
+ * A field read by compiled code from objects of one, several, or more
+ * layouts than an {@link InlineCachingCallSite} caches. The objects of each
+ * layout have the field at a different index, so each layout needs its own
+ * cache entry. Receivers of the different layouts are taken in turn.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InlineCacheBenchmark {
+
+    public enum CacheState {
+        MONOMORPHIC(1),
+        POLYMORPHIC(3),
+        MEGAMORPHIC(8);
+
+        private final int layoutCount;
+
+        CacheState(int layoutCount) {
+            this.layoutCount = layoutCount;
+        }
+    }
+
+    /** A multiple of all layout counts, so that each layout is seen equally often. */
+    private static final int RECEIVER_COUNT = 24;
+
+    @Param
+    public CacheState cacheState;
+
+    private UserFunction getter;
+    private FixedObject[] receivers;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        var definitions = new ArrayList<FixedObjectDefinition>();
+        for (int i = 0; i < cacheState.layoutCount; i++) {
+            var fieldNames = new ArrayList<String>();
+            for (int j = 0; j < i; j++) fieldNames.add("padding" + j);
+            fieldNames.add("foo");
+            definitions.add(new FixedObjectDefinition(fieldNames));
+        }
+        receivers = new FixedObject[RECEIVER_COUNT];
+        for (int i = 0; i < RECEIVER_COUNT; i++) {
+            receivers[i] = definitions.get(i % definitions.size()).instantiate();
+            receivers[i].set("foo", i);
+        }
+        getter = FieldAccessBenchmark.compile(UserFunction.construct("getter",
+            lambda(receiver -> call(GetField.named("foo"), receiver))));
+        for (var each : receivers) getter.invoke(each);
+    }
+
+    @Benchmark
+    public Object get() {
+        var receiver = receivers[next];
+        next = (next + 1) % RECEIVER_COUNT;
+        return getter.invoke(receiver);
+    }
+}
@@ -5,26 +5,47 @@ package com.github.vassilibykov.trifle.core;
 /**
  * Part of the closures implementation. Holds the value of a variable (local or
  * a function parameter) which is mutable and has non-local references.
+ *
+ * <p>Values of primitive types are held unwrapped. The reference value field
+ * then contains a marker indicating which of the primitive fields holds the
+ * value; a {@code double} is held as its raw bits in the {@code long} field.
  */
 class Box {
     static final String SET_VALUE = "setValue";
     static final String VALUE_AS_REFERENCE = "valueAsReference";
     static final String VALUE_AS_INT = "valueAsInt";
+    static final String VALUE_AS_LONG = "valueAsLong";
+    static final String VALUE_AS_DOUBLE = "valueAsDouble";
 
     private static final Object NO_VALUE = new Object();
+    private static final Object LONG_VALUE = new Object();
+    private static final Object DOUBLE_VALUE = new Object();
 
     static Box with(Object object) {
-        return object instanceof Integer
-            ? new Box(NO_VALUE, (Integer) object)
-            : new Box(object, 0);
+        var box = new Box(NO_VALUE, 0);
+        box.setValue(object);
+        return box;
     }
 
     static Box with(int value) {
         return new Box(NO_VALUE, value);
     }
 
+    static Box with(long value) {
+        var box = new Box(NO_VALUE, 0);
+        box.setValue(value);
+        return box;
+    }
+
+    static Box with(double value) {
+        var box = new Box(NO_VALUE, 0);
+        box.setValue(value);
+        return box;
+    }
+
     private Object referenceValue;
     private int intValue;
+    private long longValue;
 
     private Box(Object referenceValue, int intValue) {
         this.referenceValue = referenceValue;
@@ -33,20 +54,37 @@ class Box {
 
     @SuppressWarnings("unused") // called by generated code; see references to VALUE_AS_REFERENCE constant
     synchronized Object valueAsReference() {
-        return referenceValue != NO_VALUE ? referenceValue : intValue;
+        if (referenceValue == NO_VALUE) return intValue;
+        if (referenceValue == LONG_VALUE) return longValue;
+        if (referenceValue == DOUBLE_VALUE) return Double.longBitsToDouble(longValue);
+        return referenceValue;
     }
 
     @SuppressWarnings("unused") // called by generated code; see references to VALUE_AS_INT constant
     synchronized int valueAsInt() {
         if (referenceValue == NO_VALUE) return intValue;
-        if (referenceValue instanceof Integer) return (Integer) referenceValue;
-        throw SquarePegException.with(referenceValue);
+        throw SquarePegException.with(valueAsReference());
+    }
+
+    @SuppressWarnings("unused") // called by generated code; see references to VALUE_AS_LONG constant
+    synchronized long valueAsLong() {
+        if (referenceValue == LONG_VALUE) return longValue;
+        throw SquarePegException.with(valueAsReference());
+    }
+
+    @SuppressWarnings("unused") // called by generated code; see references to VALUE_AS_DOUBLE constant
+    synchronized double valueAsDouble() {
+        if (referenceValue == DOUBLE_VALUE) return Double.longBitsToDouble(longValue);
+        throw SquarePegException.with(valueAsReference());
     }
 
     synchronized void setValue(Object value) {
         if (value instanceof Integer) {
-            referenceValue = NO_VALUE;
-            intValue = (Integer) value;
+            setValue((int) (Integer) value);
+        } else if (value instanceof Long) {
+            setValue((long) (Long) value);
+        } else if (value instanceof Double) {
+            setValue((double) (Double) value);
         } else {
             referenceValue = value;
         }
@@ -56,4 +94,14 @@ class Box {
         referenceValue = NO_VALUE;
         intValue = value;
     }
+
+    synchronized void setValue(long value) {
+        referenceValue = LONG_VALUE;
+        longValue = value;
+    }
+
+    synchronized void setValue(double value) {
+        referenceValue = DOUBLE_VALUE;
+        longValue = Double.doubleToRawLongBits(value);
+    }
 }
@@ -28,19 +28,28 @@ public abstract class CallNode extends EvaluatorNode {
     }
 
     static CallNode with(CallDispatcher dispatcher, List<EvaluatorNode> args) {
+        return with(dispatcher, args, new ValueProfile());
+    }
+
+    /**
+     * Create a call node collecting its profile data into the specified
+     * profile. Used to create copies of existing calls which share the
+     * profile of the original.
+     */
+    static CallNode with(CallDispatcher dispatcher, List<EvaluatorNode> args, ValueProfile profile) {
         switch (args.size()) {
             case 0:
-                return new Arity0(dispatcher);
+                return new Arity0(dispatcher, profile);
             case 1:
-                return new Arity1(dispatcher, args.get(0));
+                return new Arity1(dispatcher, profile, args.get(0));
             case 2:
-                return new Arity2(dispatcher, args.get(0), args.get(1));
+                return new Arity2(dispatcher, profile, args.get(0), args.get(1));
             case 3:
-                return new Arity3(dispatcher, args.get(0), args.get(1), args.get(2));
+                return new Arity3(dispatcher, profile, args.get(0), args.get(1), args.get(2));
             case 4:
-                return new Arity4(dispatcher, args.get(0), args.get(1), args.get(2), args.get(3));
+                return new Arity4(dispatcher, profile, args.get(0), args.get(1), args.get(2), args.get(3));
             default:
-                return new ArityN(dispatcher, args.toArray(new EvaluatorNode[args.size()]));
+                return new ArityN(dispatcher, profile, args.toArray(new EvaluatorNode[args.size()]));
         }
     }
 
@@ -49,10 +58,30 @@ public abstract class CallNode extends EvaluatorNode {
      */
 
     @NotNull private CallDispatcher dispatcher;
-    /*internal*/ final ValueProfile profile = new ValueProfile();
+    /*internal*/ final ValueProfile profile;
+    /**
+     * Indicates that the call is in tail position in its function, so the
+     * value of the call is the value of the function. Set by {@link
+     * FunctionAnalyzer#markTailCalls(EvaluatorNode)}.
+     */
+    /*internal*/ boolean isTailCall = false;
+    /**
+     * The state of the self-specialization of the call by the interpreter.
+     * See {@link Interpreter.Evaluator#visitCall(CallNode)}. Volatile, and
+     * always written after the data of the state it is set to, so that a
+     * thread which reads the state also sees that data.
+     */
+    /*internal*/ volatile Interpreter.Specialization interpreterSpecialization = Interpreter.Specialization.UNINITIALIZED;
+    /**
+     * The function invoked directly by the interpreter while the call is in
+     * the {@link Interpreter.Specialization#DIRECT_CALL} state. Set before the
+     * state, and never changed afterwards.
+     */
+    /*internal*/ FunctionImplementation directTarget;
 
-    CallNode(@NotNull CallDispatcher dispatcher) {
+    CallNode(@NotNull CallDispatcher dispatcher, @NotNull ValueProfile profile) {
         this.dispatcher = dispatcher;
+        this.profile = profile;
     }
 
     CallDispatcher dispatcher() {
@@ -82,8 +111,8 @@ public abstract class CallNode extends EvaluatorNode {
      */
 
     private static class Arity0 extends CallNode {
-        private Arity0(CallDispatcher dispatcher) {
-            super(dispatcher);
+        private Arity0(CallDispatcher dispatcher, ValueProfile profile) {
+            super(dispatcher, profile);
         }
 
         @Override
@@ -110,8 +139,8 @@ public abstract class CallNode extends EvaluatorNode {
     private static class Arity1 extends CallNode {
         @NotNull private final EvaluatorNode arg;
 
-        private Arity1(CallDispatcher dispatcher, @NotNull EvaluatorNode arg) {
-            super(dispatcher);
+        private Arity1(CallDispatcher dispatcher, ValueProfile profile, @NotNull EvaluatorNode arg) {
+            super(dispatcher, profile);
             this.arg = arg;
         }
 
@@ -145,8 +174,8 @@ public abstract class CallNode extends EvaluatorNode {
         @NotNull private final EvaluatorNode arg1;
         @NotNull private final EvaluatorNode arg2;
 
-        private Arity2(CallDispatcher dispatcher, @NotNull EvaluatorNode arg1, @NotNull EvaluatorNode arg2) {
-            super(dispatcher);
+        private Arity2(CallDispatcher dispatcher, ValueProfile profile, @NotNull EvaluatorNode arg1, @NotNull EvaluatorNode arg2) {
+            super(dispatcher, profile);
             this.arg1 = arg1;
             this.arg2 = arg2;
         }
@@ -189,8 +218,8 @@ public abstract class CallNode extends EvaluatorNode {
         @NotNull private final EvaluatorNode arg2;
         @NotNull private final EvaluatorNode arg3;
 
-        private Arity3(@NotNull CallDispatcher dispatcher, @NotNull EvaluatorNode arg1, @NotNull EvaluatorNode arg2, @NotNull EvaluatorNode arg3) {
-            super(dispatcher);
+        private Arity3(@NotNull CallDispatcher dispatcher, ValueProfile profile, @NotNull EvaluatorNode arg1, @NotNull EvaluatorNode arg2, @NotNull EvaluatorNode arg3) {
+            super(dispatcher, profile);
             this.arg1 = arg1;
             this.arg2 = arg2;
             this.arg3 = arg3;
@@ -240,9 +269,9 @@ public abstract class CallNode extends EvaluatorNode {
         @NotNull private final EvaluatorNode arg3;
         @NotNull private final EvaluatorNode arg4;
 
-        private Arity4(@NotNull CallDispatcher dispatcher, @NotNull EvaluatorNode arg1, @NotNull EvaluatorNode arg2,
+        private Arity4(@NotNull CallDispatcher dispatcher, ValueProfile profile, @NotNull EvaluatorNode arg1, @NotNull EvaluatorNode arg2,
                        @NotNull EvaluatorNode arg3, @NotNull EvaluatorNode arg4) {
-            super(dispatcher);
+            super(dispatcher, profile);
             this.arg1 = arg1;
             this.arg2 = arg2;
             this.arg3 = arg3;
@@ -295,8 +324,8 @@ public abstract class CallNode extends EvaluatorNode {
     private static class ArityN extends CallNode {
         @NotNull private final EvaluatorNode[] args;
 
-        private ArityN(@NotNull CallDispatcher dispatcher, @NotNull EvaluatorNode[] args) {
-            super(dispatcher);
+        private ArityN(@NotNull CallDispatcher dispatcher, ValueProfile profile, @NotNull EvaluatorNode[] args) {
+            super(dispatcher, profile);
             this.args = args;
         }
 
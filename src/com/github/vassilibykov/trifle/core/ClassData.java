@@ -0,0 +1,60 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The objects referenced by a generated class: the function implementations
+ * it calls or creates closures of, the dictionaries it accesses and the
+ * literals it loads. The compiler collects them while generating the class,
+ * and the class is defined with them as its class data. An invokedynamic
+ * instruction referencing an object has the index of the object as a static
+ * argument, and its bootstrap method gets the object from the class data of
+ * the calling class using the lookup it receives.
+ *
+ * <p>Because the class data is referenced by the class, the objects stay
+ * alive for as long as the code may need them, and become unreachable
+ * together with the class.
+ */
+final class ClassData {
+
+    /**
+     * Return the object at the specified index in the class data of the
+     * class of the lookup. Intended for bootstrap methods.
+     */
+    static <T> T get(MethodHandles.Lookup lookup, int index, Class<T> type) {
+        try {
+            return MethodHandles.classDataAt(lookup, ConstantDescs.DEFAULT_NAME, type, index);
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /*
+        Instance
+     */
+
+    private final List<Object> objects = new ArrayList<>();
+    private final Map<Object, Integer> indices = new IdentityHashMap<>();
+
+    /**
+     * Return the index of the object in the class data, adding it if it's not
+     * there yet.
+     */
+    int indexOf(Object object) {
+        return indices.computeIfAbsent(object, it -> {
+            objects.add(it);
+            return objects.size() - 1;
+        });
+    }
+
+    List<Object> toList() {
+        return List.copyOf(objects);
+    }
+}
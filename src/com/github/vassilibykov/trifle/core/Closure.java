@@ -24,11 +24,6 @@ public class Closure implements Invocable {
         return new Closure(topLevelFunctionImplementation, new Object[0]);
     }
 
-    @SuppressWarnings("unused") // called by generated code
-    static Closure ofFunctionWithId(int id) {
-        return with(FunctionImplementation.withId(id));
-    }
-
     @NotNull /*internal*/ final FunctionImplementation implementation;
     private final Object[] copiedValues;
     private final MethodHandle genericInvoker;
@@ -75,27 +70,30 @@ public class Closure implements Invocable {
      * forms, whether specialized or generic. Otherwise, it will link to
      * the dynamic invoker of the implementation's core call site, which
      * might later be doing a specialization check on every call.
+     *
+     * <p>An invoker linked to a compiled form falls back to the core call
+     * site once the implementation is deoptimized.
      */
     MethodHandle optimalInvoker(MethodType requiredType) {
         if (specializedInvokerType == requiredType) return specializedInvoker;
         if (requiredType.parameterCount() != implementation.declarationArity()) {
             throw new IllegalArgumentException();
         }
+        var fallback = JvmType.adaptToCallSite(requiredType, genericInvoker);
         if (requiredType.hasPrimitives()) {
-            var specializedForm = implementation.specializedImplementation();
+            // The specialized form or a variant of it exactly matching the required type.
+            // Its type includes the leading parameters for copied values.
+            var specializedForm = implementation.specializedImplementation(requiredType);
             if (specializedForm != null) {
-                // The type of specializedForm includes the leading parameters for copied values
-                var cleanType = specializedForm.type().dropParameterTypes(0, copiedValues.length);
-                if (cleanType.equals(requiredType)) {
-                    try {
-                        var specializedInvoker = MethodHandles.insertArguments(specializedForm, 0, copiedValues);
-                        this.specializedInvoker = specializedInvoker.asType(requiredType);
-                        specializedInvokerType = requiredType;
-                        return this.specializedInvoker;
-                    } catch (ClassCastException e) {
-                        // A copied value is incompatible with a specialized parameter for that value;
-                        // can't use the specialized form after all--fall through to below.
-                    }
+                try {
+                    var specializedInvoker = MethodHandles.insertArguments(specializedForm, 0, copiedValues);
+                    this.specializedInvoker = implementation.guardCompiledForm(
+                        specializedInvoker.asType(requiredType), fallback);
+                    specializedInvokerType = requiredType;
+                    return this.specializedInvoker;
+                } catch (ClassCastException e) {
+                    // A copied value is incompatible with a specialized parameter for that value;
+                    // can't use the specialized form after all--fall through to below.
                 }
             }
         }
@@ -103,11 +101,11 @@ public class Closure implements Invocable {
         if (genericForm != null) {
             var genericInvoker = MethodHandles.insertArguments(genericForm, 0, copiedValues);
             specializedInvoker = JvmType.guardReturnValue(requiredType.returnType(), genericInvoker);
-            specializedInvoker = specializedInvoker.asType(requiredType);
+            specializedInvoker = implementation.guardCompiledForm(specializedInvoker.asType(requiredType), fallback);
             specializedInvokerType = requiredType;
             return specializedInvoker;
         }
-        return genericInvoker.asType(requiredType);
+        return fallback;
     }
 
     /**
@@ -127,7 +125,7 @@ public class Closure implements Invocable {
         try {
             return genericInvoker.invokeExact();
         } catch (SquarePegException e) {
-            return e.value;
+            return e.take();
         } catch (RuntimeError e) {
             throw e;
         } catch (Throwable throwable) {
@@ -139,7 +137,7 @@ public class Closure implements Invocable {
         try {
             return genericInvoker.invokeExact(arg);
         } catch (SquarePegException e) {
-            return e.value;
+            return e.take();
         } catch (RuntimeError e) {
             throw e;
         } catch (Throwable throwable) {
@@ -151,7 +149,7 @@ public class Closure implements Invocable {
         try {
             return genericInvoker.invokeExact(arg1, arg2);
         } catch (SquarePegException e) {
-            return e.value;
+            return e.take();
         } catch (RuntimeError e) {
             throw e;
         } catch (Throwable throwable) {
@@ -163,7 +161,7 @@ public class Closure implements Invocable {
         try {
             return genericInvoker.invokeExact(arg1, arg2, arg3);
         } catch (SquarePegException e) {
-            return e.value;
+            return e.take();
         } catch (RuntimeError e) {
             throw e;
         } catch (Throwable throwable) {
@@ -175,7 +173,7 @@ public class Closure implements Invocable {
         try {
             return genericInvoker.invokeExact(arg1, arg2, arg3, arg4);
         } catch (SquarePegException e) {
-            return e.value;
+            return e.take();
         } catch (RuntimeError e) {
             throw e;
         } catch (Throwable throwable) {
@@ -187,7 +185,7 @@ public class Closure implements Invocable {
         try {
             return genericInvoker.invokeWithArguments(args);
         } catch (SquarePegException e) {
-            return e.value;
+            return e.take();
         } catch (RuntimeError e) {
             throw e;
         } catch (Throwable throwable) {
@@ -13,9 +13,9 @@ import java.lang.invoke.MethodType;
 
 /**
  * An invokedynamic instruction for a closure creation site. The closure's
- * copied values are stacked prior to invoking the instruction. The function ID
- * identifying the closure function is encoded as an additional instruction
- * parameter. The call site permanently links to
+ * copied values are stacked prior to invoking the instruction. The index of the
+ * closure function in the {@link ClassData} of the calling class is encoded as
+ * an additional instruction parameter. The call site permanently links to
  * {@link Closure#create(FunctionImplementation, Object[])}, with the function
  * implementation parameter bound to the proper function.
  */
@@ -40,9 +40,9 @@ final class ClosureCreationInvokeDynamic {
     }
 
     @SuppressWarnings("unused") // called by invokedynamic infrastructure
-    public static CallSite bootstrap(MethodHandles.Lookup lookupAtCaller, String name, MethodType callSiteType, Integer targetId) {
+    public static CallSite bootstrap(MethodHandles.Lookup lookupAtCaller, String name, MethodType callSiteType, Integer targetIndex) {
         var handler = CREATE_CLOSURE
-            .bindTo(FunctionImplementation.withId(targetId))
+            .bindTo(ClassData.get(lookupAtCaller, targetIndex, FunctionImplementation.class))
             .asCollector(Object[].class, callSiteType.parameterCount())
             .asType(callSiteType);
         return new ConstantCallSite(handler);
@@ -0,0 +1,485 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import com.github.vassilibykov.trifle.expression.Lambda;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An on-disk cache of compiled units, so that a later run defining the same
+ * functions can start executing them in compiled form without profiling and
+ * compiling them again. The cache is off by default and is enabled by {@link
+ * #enable(Path)}.
+ *
+ * <p>Whenever a unit is compiled while the cache is enabled, its bytecode and
+ * the names and types of the methods generated for each function are written
+ * into the cache directory in the background. The first time a top-level
+ * function is invoked through its call site while the cache is enabled, the
+ * cache is checked for an entry of its unit. If there is one, the compiled
+ * forms are installed as if the unit had just been compiled.
+ *
+ * <h2>Keys</h2>
+ *
+ * <p>An entry is stored under a hash of the {@link UnitSignature} of the
+ * unit and a fingerprint of the engine: the format version, the JDK version
+ * and the class files of the compiler. The signature includes the
+ * definitions of the user functions the unit references, down to the depth
+ * the {@link Inliner} may have copied them from. A change to any of them
+ * produces a different key. An entry whose contents don't match its key, or
+ * which can't be read or doesn't describe a valid class with the expected
+ * methods, is rejected and deleted.
+ *
+ * <p>The objects the generated code references through its class data
+ * can't be stored. Instead, each is recorded as either a function of the
+ * unit or a position among the referents of the signature. When an entry is
+ * loaded, the positions are resolved against the referents of the unit being
+ * loaded. Units whose signature is not exact are not cached.
+ *
+ * <p>Recovery sites of the loaded code are not associated with the nodes they
+ * came from. Square pegs caught there are counted as usual and may
+ * deoptimize the unit, after which it is profiled and compiled normally.
+ */
+public final class CodeCache {
+    private static final int MAGIC = 0x54524643; // "TRFC"
+    private static final int FORMAT_VERSION = 2;
+    private static final String ENTRY_SUFFIX = ".unit";
+    private static final byte UNIT_FUNCTION = 0;
+    private static final byte REFERENT = 1;
+    private static final List<Class<?>> COMPILER_CLASSES = List.of(
+        CodeCache.class,
+        Compiler.class,
+        ExpressionTypeInferencer.class,
+        FunctionAnalyzer.class,
+        FunctionTranslator.class,
+        GhostWriter.class,
+        Inliner.class,
+        MethodCodeGenerator.class,
+        RecoveryCodeGenerator.class,
+        SpecializedTypeComputer.class,
+        TailCall.class,
+        UnitSignature.class);
+
+    private static volatile @Nullable Path directory;
+    private static ExecutorService writer;
+    private static final AtomicLong hitCount = new AtomicLong();
+    private static final AtomicLong missCount = new AtomicLong();
+    private static final AtomicLong rejectedCount = new AtomicLong();
+    private static final AtomicLong storedCount = new AtomicLong();
+    private static final AtomicLong failedWriteCount = new AtomicLong();
+
+    private CodeCache() {}
+
+    public static boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * Start storing compiled units in the specified directory and installing
+     * them from there. The directory is created if it doesn't exist. Only the
+     * functions defined after this are looked up in the cache.
+     */
+    public static synchronized void enable(Path directory) throws IOException {
+        CodeCache.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * Stop using the cache. Return after the units compiled so far have been
+     * written into it.
+     */
+    public static synchronized void disable() throws InterruptedException {
+        directory = null;
+        if (writer != null) {
+            writer.shutdown();
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            writer = null;
+        }
+    }
+
+    /**
+     * The number of units installed from the cache so far.
+     */
+    public static long hitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * The number of units looked up in the cache and not found there.
+     */
+    public static long missCount() {
+        return missCount.get();
+    }
+
+    /**
+     * The number of entries found but rejected as stale or invalid.
+     */
+    public static long rejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * The number of units written into the cache so far.
+     */
+    public static long storedCount() {
+        return storedCount.get();
+    }
+
+    /**
+     * The number of units which could not be written into the cache because
+     * of an I/O error. The units are compiled and running regardless.
+     */
+    public static long failedWriteCount() {
+        return failedWriteCount.get();
+    }
+
+    /**
+     * RESTRICTED. Intended for {@link FunctionImplementation}. Write the
+     * compilation result of a unit into the cache in the background, if the
+     * cache is enabled and the unit can be cached.
+     */
+    static void store(FunctionImplementation topImplementation, Compiler.UnitResult result) {
+        var cacheDirectory = directory;
+        if (cacheDirectory == null) return;
+        var key = UnitKey.of(topImplementation);
+        if (key == null) return;
+        var functions = unitFunctions(topImplementation);
+        var classData = result.classData();
+        var bindings = new int[classData.size()][];
+        for (int i = 0; i < bindings.length; i++) {
+            bindings[i] = bindingOf(classData.get(i), functions, key.referents);
+            if (bindings[i] == null) return;
+        }
+        var entry = new ByteArrayOutputStream();
+        try (var output = new DataOutputStream(entry)) {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeUTF(key.hash);
+            output.writeInt(functions.size());
+            for (var each : functions) {
+                var functionResult = result.functionResultFor(each);
+                output.writeUTF(functionResult.genericMethodName());
+                writeOptionalUTF(functionResult.specializedMethodName(), output);
+                var specializedType = functionResult.specializedMethodType();
+                writeOptionalUTF(specializedType != null ? specializedType.toMethodDescriptorString() : null, output);
+                writeOptionalUTF(functionResult.osrMethodName(), output);
+                writeOptionalUTF(functionResult.tailCallMethodName(), output);
+                output.writeInt(each.recoverySiteCount());
+            }
+            output.writeInt(bindings.length);
+            for (var each : bindings) {
+                output.writeByte(each[0]);
+                output.writeInt(each[1]);
+            }
+            output.writeInt(result.bytecode().length);
+            output.write(result.bytecode());
+        } catch (IOException e) {
+            throw new AssertionError(e); // can't happen writing into memory
+        }
+        var file = cacheDirectory.resolve(key.hash + ENTRY_SUFFIX);
+        try {
+            writer().execute(() -> write(file, entry.toByteArray()));
+        } catch (RejectedExecutionException e) {
+            // the cache was disabled in the meantime
+        }
+    }
+
+    /**
+     * RESTRICTED. Intended for {@link FunctionImplementation}. Return the
+     * cached entry of the unit with the specified top-level function, or null
+     * if the cache is disabled or has no valid entry for the unit.
+     */
+    @Nullable
+    static Entry load(FunctionImplementation topImplementation) {
+        var cacheDirectory = directory;
+        if (cacheDirectory == null) return null;
+        var key = UnitKey.of(topImplementation);
+        if (key == null) return null;
+        var file = cacheDirectory.resolve(key.hash + ENTRY_SUFFIX);
+        if (!Files.isRegularFile(file)) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        try (var input = new DataInputStream(Files.newInputStream(file))) {
+            var result = read(input, key, topImplementation);
+            hitCount.incrementAndGet();
+            return result;
+        } catch (IOException | InvalidEntryException | RuntimeException e) {
+            rejectedCount.incrementAndGet();
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // the entry will be rejected again next time
+            }
+            return null;
+        }
+    }
+
+    private static Entry read(DataInputStream input, UnitKey key, FunctionImplementation topImplementation)
+        throws IOException, InvalidEntryException
+    {
+        if (input.readInt() != MAGIC) throw new InvalidEntryException("not a code cache entry");
+        if (input.readInt() != FORMAT_VERSION) throw new InvalidEntryException("unsupported format version");
+        if (!input.readUTF().equals(key.hash)) throw new InvalidEntryException("key mismatch");
+        var functions = unitFunctions(topImplementation);
+        if (input.readInt() != functions.size()) throw new InvalidEntryException("function count mismatch");
+        var functionResults = new HashMap<FunctionImplementation, Compiler.FunctionResult>();
+        var recoverySiteCounts = new int[functions.size()];
+        var expectedMethods = new HashSet<String>();
+        for (int i = 0; i < functions.size(); i++) {
+            var function = functions.get(i);
+            var genericName = input.readUTF();
+            var specializedName = readOptionalUTF(input);
+            var specializedDescriptor = readOptionalUTF(input);
+            var osrName = readOptionalUTF(input);
+            var tailCallName = readOptionalUTF(input);
+            recoverySiteCounts[i] = input.readInt();
+            if ((specializedName == null) != (specializedDescriptor == null)) {
+                throw new InvalidEntryException("incomplete specialized method");
+            }
+            var specializedType = specializedDescriptor != null
+                ? MethodType.fromMethodDescriptorString(specializedDescriptor, null)
+                : null;
+            if (specializedType != null && specializedType.parameterCount() != function.implementationArity()) {
+                throw new InvalidEntryException("specialized method arity mismatch");
+            }
+            if (function.recoverySiteCount() != 0 || recoverySiteCounts[i] < 0) {
+                throw new InvalidEntryException("unexpected recovery sites");
+            }
+            expectedMethods.add(genericName + MethodType.genericMethodType(function.implementationArity()).toMethodDescriptorString());
+            if (specializedName != null) expectedMethods.add(specializedName + specializedDescriptor);
+            if (osrName != null) expectedMethods.add(osrName + FunctionImplementation.OSR_ENTRY_TYPE.toMethodDescriptorString());
+            if (tailCallName != null) expectedMethods.add(tailCallName + MethodType.genericMethodType(function.implementationArity()).toMethodDescriptorString());
+            functionResults.put(
+                function,
+                new Compiler.FunctionResult(genericName, specializedName, specializedType, osrName, tailCallName));
+        }
+        var classData = new ArrayList<>();
+        var classDataSize = input.readInt();
+        for (int i = 0; i < classDataSize; i++) {
+            var kind = input.readByte();
+            var index = input.readInt();
+            var candidates = kind == UNIT_FUNCTION ? functions : kind == REFERENT ? key.referents : List.of();
+            if (index < 0 || index >= candidates.size()) throw new InvalidEntryException("unresolvable class data");
+            classData.add(candidates.get(index));
+        }
+        var bytecode = new byte[input.readInt()];
+        input.readFully(bytecode);
+        if (input.read() != -1) throw new InvalidEntryException("trailing data");
+        if (!methodsOf(bytecode).containsAll(expectedMethods)) throw new InvalidEntryException("missing methods");
+        return new Entry(Compiler.UnitResult.restored(bytecode, classData, functionResults), functions, recoverySiteCounts);
+    }
+
+    private static void write(Path file, byte[] entry) {
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(file.getParent(), "entry", ".tmp");
+            Files.write(temporary, entry);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            storedCount.incrementAndGet();
+        } catch (IOException e) {
+            failedWriteCount.incrementAndGet();
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored) {
+                    // nothing else to do; a stray temporary file is never read as an entry
+                }
+            }
+        }
+    }
+
+    private static synchronized ExecutorService writer() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(runnable -> {
+                var thread = new Thread(runnable, "Trifle code cache writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return writer;
+    }
+
+    private static List<FunctionImplementation> unitFunctions(FunctionImplementation topImplementation) {
+        return Stream.concat(Stream.of(topImplementation), topImplementation.closureImplementations().stream())
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Return the kind and the index under which an object from the class data
+     * of a unit is stored, or null if it's neither a function of the unit nor
+     * a referent of the key.
+     */
+    @Nullable
+    private static int[] bindingOf(Object object, List<FunctionImplementation> functions, List<Object> referents) {
+        for (int i = 0; i < functions.size(); i++) {
+            if (functions.get(i) == object) return new int[] {UNIT_FUNCTION, i};
+        }
+        for (int i = 0; i < referents.size(); i++) {
+            if (referents.get(i) == object) return new int[] {REFERENT, i};
+        }
+        return null;
+    }
+
+    private static Set<String> methodsOf(byte[] bytecode) {
+        var methods = new HashSet<String>();
+        new ClassReader(bytecode).accept(
+            new ClassVisitor(Opcodes.ASM6) {
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                    methods.add(name + desc);
+                    return null;
+                }
+            },
+            ClassReader.SKIP_CODE);
+        return methods;
+    }
+
+    private static void writeOptionalUTF(@Nullable String string, DataOutputStream output) throws IOException {
+        output.writeBoolean(string != null);
+        if (string != null) output.writeUTF(string);
+    }
+
+    @Nullable
+    private static String readOptionalUTF(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private static class InvalidEntryException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private InvalidEntryException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * RESTRICTED. Intended for {@link FunctionImplementation}. A valid entry
+     * of a unit read from the cache. The recovery sites its code refers to
+     * are registered with the functions of the unit by {@link
+     * #registerRecoverySites()}, which should only be called once the class
+     * of the entry has been defined. That way a class rejected by the verifier
+     * leaves the functions as they were, ready to be profiled and compiled.
+     */
+    static class Entry {
+        private final Compiler.UnitResult result;
+        private final List<FunctionImplementation> functions;
+        private final int[] recoverySiteCounts;
+
+        private Entry(Compiler.UnitResult result, List<FunctionImplementation> functions, int[] recoverySiteCounts) {
+            this.result = result;
+            this.functions = functions;
+            this.recoverySiteCounts = recoverySiteCounts;
+        }
+
+        Compiler.UnitResult result() {
+            return result;
+        }
+
+        void registerRecoverySites() {
+            for (int i = 0; i < functions.size(); i++) {
+                for (int j = 0; j < recoverySiteCounts[i]; j++) {
+                    functions.get(i).recoverySiteIndex(new DetachedRecoverySite());
+                }
+            }
+        }
+    }
+
+    /**
+     * A recovery site of code loaded from the cache, which has no node to
+     * keep the profile of its continuation, so it keeps one of its own.
+     */
+    private static class DetachedRecoverySite implements RecoverySite {
+        private final ValueProfile continuationProfile = new ValueProfile();
+
+        @Override
+        public Label recoverySiteLabel() {
+            throw new AssertionError("a cached recovery site has no code to generate");
+        }
+
+        @Override
+        public void setRecoverySiteLabel(Label recoverySiteLabel) {
+            throw new AssertionError("a cached recovery site has no code to generate");
+        }
+
+        @Override
+        public ValueProfile continuationProfile(FunctionImplementation function) {
+            return continuationProfile;
+        }
+    }
+
+    /*
+        Keys
+     */
+
+    private static class EngineFingerprint {
+        private static final String VALUE = compute();
+
+        private static String compute() {
+            var fingerprint = new StringBuilder().append(FORMAT_VERSION).append('/').append(Runtime.version());
+            for (var each : COMPILER_CLASSES) {
+                try (InputStream classFile = each.getResourceAsStream(each.getSimpleName() + ".class")) {
+                    if (classFile != null) {
+                        fingerprint.append('/').append(UnitSignature.hex(UnitSignature.sha256(classFile.readAllBytes())));
+                    }
+                } catch (IOException e) {
+                    // leave it out; the key is still specific to this JDK and format
+                }
+            }
+            return fingerprint.toString();
+        }
+    }
+
+    /**
+     * The name of the entry of a unit and the referents of its signature.
+     */
+    private static class UnitKey {
+
+        /**
+         * Return the key of a unit, or null if the unit can't be cached
+         * because its signature is not exact.
+         */
+        @Nullable
+        static UnitKey of(FunctionImplementation topImplementation) {
+            var signature = UnitSignature.of(topImplementation, Inliner.MAX_DEPTH);
+            if (!signature.isExact()) return null;
+            var hash = UnitSignature.sha256((EngineFingerprint.VALUE + signature.hash()).getBytes(StandardCharsets.UTF_8));
+            return new UnitKey(UnitSignature.hex(hash), signature.referents());
+        }
+
+        private final String hash;
+        private final List<Object> referents;
+
+        private UnitKey(String hash, List<Object> referents) {
+            this.hash = hash;
+            this.referents = referents;
+        }
+    }
+}
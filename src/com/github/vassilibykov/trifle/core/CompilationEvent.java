@@ -0,0 +1,96 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * A flight recorder event of compiling a unit or a variant of a function. The
+ * event spans the compilation, from the start of inlining to the generation
+ * of the class file, but not the definition of the class.
+ *
+ * <p>The event is created before the compilation, but its fields are
+ * computed only if it is going to be committed, so a disabled event costs
+ * nothing but the check.
+ */
+@Name("com.github.vassilibykov.trifle.Compilation")
+@Label("Compilation")
+@Category({"Trifle", "Compiler"})
+@Description("Compilation of a unit or a variant of a function")
+final class CompilationEvent extends Event {
+
+    static final String UNIT = "unit";
+    static final String VARIANT = "variant";
+
+    @Label("Kind")
+    @Description("Whether a whole unit or a single variant was compiled")
+    String kind;
+
+    @Label("Function")
+    @Description("The top-level function of a unit, or the function of a variant")
+    String function;
+
+    @Label("Function ID")
+    int functionId;
+
+    @Label("Bytecode Size")
+    @DataAmount
+    int bytecodeSize;
+
+    @Label("Specialized Types")
+    @Description("The types of the specialized methods generated, by function")
+    String specializedTypes;
+
+    /**
+     * Create an event and start timing the compilation. Call one of the
+     * commit methods with the result when the compilation is done.
+     */
+    static CompilationEvent start() {
+        var event = new CompilationEvent();
+        event.begin();
+        return event;
+    }
+
+    void commitUnit(FunctionImplementation topLevelFunction, Compiler.UnitResult result) {
+        end();
+        if (!shouldCommit()) return;
+        kind = UNIT;
+        function = topLevelFunction.name().orElse("closure");
+        functionId = topLevelFunction.id();
+        bytecodeSize = result.bytecode().length;
+        specializedTypes = result.results().entrySet().stream()
+            .filter(each -> each.getValue().specializedMethodType() != null)
+            .sorted(Comparator.comparingInt(each -> each.getKey().id()))
+            .map(CompilationEvent::describeSpecializedType)
+            .collect(Collectors.joining("; "));
+        commit();
+    }
+
+    void commitVariant(FunctionImplementation variantFunction, Compiler.VariantResult result) {
+        end();
+        if (!shouldCommit()) return;
+        kind = VARIANT;
+        function = variantFunction.name().orElse("closure");
+        functionId = variantFunction.id();
+        bytecodeSize = result.bytecode().length;
+        specializedTypes = result.methodType().toString();
+        commit();
+    }
+
+    private static String describeSpecializedType(Map.Entry<FunctionImplementation, Compiler.FunctionResult> entry) {
+        return describe(entry.getKey()) + " " + entry.getValue().specializedMethodType();
+    }
+
+    private static String describe(FunctionImplementation function) {
+        return function.name().orElse("closure") + "#" + function.id();
+    }
+}
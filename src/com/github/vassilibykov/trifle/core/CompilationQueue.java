@@ -0,0 +1,256 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.jetbrains.annotations.TestOnly;
+
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The compilation subsystem. Function implementations which have been profiled
+ * long enough are submitted here by {@link FunctionImplementation#profile}.
+ * In the {@link Mode#BACKGROUND} mode (the default), the unit is compiled by
+ * one of a pool of daemon compiler threads, while the application threads
+ * keep executing the function using the simple interpreter. The compiled code
+ * is installed by the compiler thread when ready.
+ *
+ * <p>The queue of pending compilations is bounded. If it is full when a unit
+ * is submitted, the submission is rejected and the unit goes back to being
+ * profiled, so it will be resubmitted by a later invocation.
+ *
+ * <p>If the compilation of a unit fails, the unit is returned to the
+ * profiling interpreter to be submitted again later, or left in the simple
+ * interpreter if it has failed as many times as its tiering policy allows.
+ *
+ * <p>Variants of the specialized forms of compiled functions, requested when
+ * call sites typed differently from the specialized forms are linked, go
+ * through the same queue. The callers run the generic form until the variant
+ * is ready. A variant which fails to compile or is rejected by a full queue
+ * leaves its callers with the generic form.
+ *
+ * <p>In the {@link Mode#SYNCHRONOUS} mode, a unit is compiled on the thread
+ * submitting it, before the submission returns. This is mostly intended for
+ * tests which need compilation to happen at a predictable time. The
+ * exception of a failed compilation is rethrown to the submitting thread
+ * after the unit has been returned to an interpreter.
+ */
+public final class CompilationQueue {
+
+    public enum Mode {
+        BACKGROUND,
+        SYNCHRONOUS
+    }
+
+    public static final int DEFAULT_CAPACITY = 1000;
+    public static final int DEFAULT_THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+
+    private static volatile Mode mode = Mode.BACKGROUND;
+    private static int threadCount = DEFAULT_THREAD_COUNT;
+    private static int capacity = DEFAULT_CAPACITY;
+    private static ThreadPoolExecutor executor;
+    private static final AtomicLong completedCount = new AtomicLong();
+    private static final AtomicLong rejectedCount = new AtomicLong();
+    private static final AtomicLong failedCount = new AtomicLong();
+    private static final AtomicInteger pendingCount = new AtomicInteger();
+    /** The condition of {@link #pendingCount} dropping to zero, signalled by {@link #compilationEnded()}. */
+    private static final Lock quiescenceLock = new ReentrantLock();
+    private static final Condition quiescent = quiescenceLock.newCondition();
+    private static final AtomicInteger threadSerial = new AtomicInteger();
+
+    private CompilationQueue() {}
+
+    public static Mode mode() {
+        return mode;
+    }
+
+    public static void setMode(Mode mode) {
+        CompilationQueue.mode = mode;
+    }
+
+    /**
+     * Set the number of compiler threads and the capacity of the queue of
+     * pending compilations. Compilations already queued are completed by the
+     * old threads.
+     */
+    public static synchronized void configure(int threadCount, int capacity) {
+        if (threadCount < 1) throw new IllegalArgumentException("at least one compiler thread is required");
+        if (capacity < 1) throw new IllegalArgumentException("queue capacity must be positive");
+        CompilationQueue.threadCount = threadCount;
+        CompilationQueue.capacity = capacity;
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * The number of units and variants waiting in the queue to be compiled,
+     * not counting those being compiled at the moment.
+     */
+    public static synchronized int queueDepth() {
+        return executor != null ? executor.getQueue().size() : 0;
+    }
+
+    /**
+     * The number of background compilations completed so far, successfully
+     * or not.
+     */
+    public static long completedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * The number of submissions rejected so far because the queue was full.
+     */
+    public static long rejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * The number of compilations failed so far, in either mode.
+     */
+    public static long failedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Wait until all background compilations submitted so far have completed.
+     * Return false if the timeout has elapsed before that happened.
+     */
+    @TestOnly
+    public static boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+        var remaining = unit.toNanos(timeout);
+        quiescenceLock.lock();
+        try {
+            while (pendingCount.get() > 0) {
+                if (remaining <= 0) return false;
+                remaining = quiescent.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            quiescenceLock.unlock();
+        }
+    }
+
+    /**
+     * RESTRICTED. Intended for {@link FunctionImplementation}. Compile the
+     * unit with the specified top-level function according to the current
+     * mode. Return false if the unit could not be queued.
+     */
+    static boolean submit(FunctionImplementation topImplementation) {
+        if (mode == Mode.SYNCHRONOUS) {
+            try {
+                topImplementation.forceCompile();
+            } catch (Throwable e) {
+                compilationFailed(topImplementation);
+                throw e;
+            }
+            return true;
+        }
+        pendingCount.incrementAndGet();
+        try {
+            executor().execute(() -> compileInBackground(topImplementation));
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            compilationEnded();
+            return false;
+        }
+    }
+
+    /**
+     * RESTRICTED. Intended for {@link FunctionImplementation}. Compile a
+     * variant of the specialized form of a function of the unit with the
+     * specified top-level function according to the current mode. Return
+     * false if the variant could not be queued.
+     */
+    static boolean submitVariant(
+        FunctionImplementation topImplementation, FunctionImplementation function, MethodType declaredType)
+    {
+        if (mode == Mode.SYNCHRONOUS) {
+            try {
+                topImplementation.compileVariant(function, declaredType);
+            } catch (Throwable e) {
+                failedCount.incrementAndGet();
+                throw e;
+            }
+            return true;
+        }
+        pendingCount.incrementAndGet();
+        try {
+            executor().execute(() -> compileVariantInBackground(topImplementation, function, declaredType));
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            compilationEnded();
+            return false;
+        }
+    }
+
+    private static void compileInBackground(FunctionImplementation topImplementation) {
+        try {
+            topImplementation.forceCompile();
+        } catch (Throwable e) {
+            compilationFailed(topImplementation);
+        } finally {
+            completedCount.incrementAndGet();
+            compilationEnded();
+        }
+    }
+
+    private static void compileVariantInBackground(
+        FunctionImplementation topImplementation, FunctionImplementation function, MethodType declaredType)
+    {
+        try {
+            topImplementation.compileVariant(function, declaredType);
+        } catch (Throwable e) {
+            failedCount.incrementAndGet();
+        } finally {
+            completedCount.incrementAndGet();
+            compilationEnded();
+        }
+    }
+
+    private static void compilationFailed(FunctionImplementation topImplementation) {
+        failedCount.incrementAndGet();
+        topImplementation.compilationFailed();
+    }
+
+    /**
+     * Account for a submitted compilation which is no longer pending, and
+     * wake up the threads waiting for quiescence if it was the last one.
+     */
+    private static void compilationEnded() {
+        if (pendingCount.decrementAndGet() > 0) return;
+        quiescenceLock.lock();
+        try {
+            quiescent.signalAll();
+        } finally {
+            quiescenceLock.unlock();
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor executor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(
+                threadCount, threadCount,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacity),
+                runnable -> {
+                    var thread = new Thread(runnable, "Trifle compiler " + threadSerial.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        }
+        return executor;
+    }
+}
@@ -8,14 +8,13 @@ import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.lang.invoke.MethodType;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
@@ -79,11 +78,44 @@ import static org.objectweb.asm.Opcodes.ACC_SUPER;
  * code which corresponds to the location in normal code where execution would
  * have continued were it not for the SPE. As a result, execution proceeds as
  * if it were running in the recovery code from the beginning.
+ *
+ * <h2>Tail Calls</h2>
+ *
+ * <p>A top-level function with calls in tail position which may be part of a
+ * cycle of functions calling each other that way is also compiled into a
+ * <em>tail call</em> method. It is generic, and differs from the generic
+ * method in that those calls are returned as pending {@link TailCall}s instead
+ * of being made. The method is invoked to continue a chain of tail calls
+ * without growing the stack.
+ *
+ * <h2>Variants</h2>
+ *
+ * <p>The specialized method of a function is typed according to the values
+ * observed while profiling. Call sites in other compiled code may be typed
+ * differently, depending on what was observed at those sites. To give those
+ * call sites a fast path, a function can have additional specialized methods,
+ * <em>variants</em>, each typed to match a particular call site. A variant is
+ * requested when a call site is linked and compiled by the {@link
+ * CompilationQueue}, into a class of its own, by {@link
+ * #compileVariant(FunctionImplementation, FunctionImplementation,
+ * MethodType)}.
+ *
+ * <h2>Inlining</h2>
+ *
+ * <p>Before types are inferred, calls of small and frequently invoked user
+ * functions are replaced with copies of their bodies by the {@link Inliner}.
+ * All methods of a function, including its variants, are generated from the
+ * resulting {@link FunctionImplementation#compiledBody()}, and so is their
+ * recovery code. The on-stack replacement entry is generated from the
+ * original body, since it continues the execution of interpreted code.
  */
 class Compiler {
 
     private static final String GENERIC_METHOD_PREFIX = "fun";
     private static final String SPECIALIZED_METHOD_SUFFIX = "$s";
+    private static final String OSR_METHOD_SUFFIX = "$osr";
+    private static final String TAIL_CALL_METHOD_SUFFIX = "$tc";
+    private static final String VARIANT_METHOD_SUFFIX = "$v";
     private static final String JAVA_LANG_OBJECT = "java/lang/Object";
     private static final String GENERATED_CODE_PACKAGE = GeneratedCode.class.getPackageName();
     private static final String GENERATED_CLASS_NAME_PREFIX = GENERATED_CODE_PACKAGE + ".$unit";
@@ -92,27 +124,53 @@ class Compiler {
      * The access point: compile a function.
      */
     static UnitResult compile(FunctionImplementation topLevelFunction) {
+        var event = CompilationEvent.start();
         Compiler compiler = new Compiler(topLevelFunction);
         UnitResult result = compiler.compile();
-        dumpClassFile(result.bytecode());
+        event.commitUnit(topLevelFunction, result);
+        CompilerDiagnostics.unitCompiled(topLevelFunction, result);
         return result;
     }
 
-    private static void dumpClassFile(byte[] bytecode) {
-        File classFile = new File("generated.class");
-        try {
-            FileOutputStream classStream = new FileOutputStream(classFile);
-            classStream.write(bytecode);
-            classStream.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Compile a variant of the specialized form of a function, with the
+     * declared parameter and return types as specified. The function must
+     * belong to the unit of the specified top-level function, and the unit
+     * must have been compiled.
+     */
+    static VariantResult compileVariant(
+        FunctionImplementation topLevelFunction,
+        FunctionImplementation function,
+        MethodType declaredType)
+    {
+        var event = CompilationEvent.start();
+        Compiler compiler = new Compiler(topLevelFunction);
+        VariantResult result = compiler.compileVariant(function, declaredType);
+        event.commitVariant(function, result);
+        CompilerDiagnostics.variantCompiled(topLevelFunction, function, result);
+        return result;
     }
 
     static class UnitResult {
         private byte[] bytecode;
+        private List<Object> classData;
         private final Map<FunctionImplementation, FunctionResult> functionResults = new HashMap<>();
 
+        /**
+         * RESTRICTED. Intended for {@link CodeCache}. Recreate the result of
+         * an earlier compilation of a unit.
+         */
+        static UnitResult restored(
+            byte[] bytecode,
+            List<Object> classData,
+            Map<FunctionImplementation, FunctionResult> functionResults)
+        {
+            var result = new UnitResult();
+            result.setBytecode(bytecode, List.copyOf(classData));
+            result.functionResults.putAll(functionResults);
+            return result;
+        }
+
         private UnitResult() {
         }
 
@@ -120,6 +178,10 @@ class Compiler {
             return bytecode;
         }
 
+        List<Object> classData() {
+            return classData;
+        }
+
         FunctionResult functionResultFor(FunctionImplementation function) {
             return Objects.requireNonNull(functionResults.get(function));
         }
@@ -132,8 +194,9 @@ class Compiler {
             functionResults.put(function, result);
         }
 
-        private void setBytecode(byte[] bytecode) {
+        private void setBytecode(byte[] bytecode, List<Object> classData) {
             this.bytecode = bytecode;
+            this.classData = classData;
         }
     }
 
@@ -141,12 +204,28 @@ class Compiler {
         @NotNull private final String genericMethodName;
         @Nullable private String specializedMethodName;
         @Nullable private MethodType specializedMethodType;
+        @Nullable private String osrMethodName;
+        @Nullable private String tailCallMethodName;
 
         FunctionResult(@NotNull String genericMethodName)
         {
             this.genericMethodName = genericMethodName;
         }
 
+        FunctionResult(
+            @NotNull String genericMethodName,
+            @Nullable String specializedMethodName,
+            @Nullable MethodType specializedMethodType,
+            @Nullable String osrMethodName,
+            @Nullable String tailCallMethodName)
+        {
+            this.genericMethodName = genericMethodName;
+            this.specializedMethodName = specializedMethodName;
+            this.specializedMethodType = specializedMethodType;
+            this.osrMethodName = osrMethodName;
+            this.tailCallMethodName = tailCallMethodName;
+        }
+
         String genericMethodName() {
             return genericMethodName;
         }
@@ -158,12 +237,55 @@ class Compiler {
         MethodType specializedMethodType() {
             return specializedMethodType;
         }
+
+        String osrMethodName() {
+            return osrMethodName;
+        }
+
+        String tailCallMethodName() {
+            return tailCallMethodName;
+        }
+    }
+
+    static class VariantResult {
+        @NotNull private final byte[] bytecode;
+        @NotNull private final List<Object> classData;
+        @NotNull private final String methodName;
+        @NotNull private final MethodType methodType;
+
+        private VariantResult(
+            @NotNull byte[] bytecode,
+            @NotNull List<Object> classData,
+            @NotNull String methodName,
+            @NotNull MethodType methodType)
+        {
+            this.bytecode = bytecode;
+            this.classData = classData;
+            this.methodName = methodName;
+            this.methodType = methodType;
+        }
+
+        byte[] bytecode() {
+            return bytecode;
+        }
+
+        List<Object> classData() {
+            return classData;
+        }
+
+        String methodName() {
+            return methodName;
+        }
+
+        MethodType methodType() {
+            return methodType;
+        }
     }
 
-    private static long serial = 0;
+    private static final AtomicLong serial = new AtomicLong();
 
     private static String allocateClassName() {
-        return GENERATED_CLASS_NAME_PREFIX + serial++;
+        return GENERATED_CLASS_NAME_PREFIX + serial.getAndIncrement();
     }
 
     /*
@@ -174,6 +296,7 @@ class Compiler {
     private final String className;
     private final UnitResult result;
     private final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+    private final ClassData classData = new ClassData();
     private int generatedMethodSerial = 0;
 
     private Compiler(FunctionImplementation topLevelFunction) {
@@ -184,15 +307,58 @@ class Compiler {
     }
 
     public UnitResult compile() {
+        inlineCalls();
         inferTypes();
         setupClassWriter();
         generateGenericMethods();
         generateSpecializedMethods();
+        generateOsrMethods();
         classWriter.visitEnd();
-        result.setBytecode(classWriter.toByteArray());
+        result.setBytecode(classWriter.toByteArray(), classData.toList());
         return result;
     }
 
+    private VariantResult compileVariant(FunctionImplementation function, MethodType declaredType) {
+        // Inferred types follow from the structure of the unit alone,
+        // so inferring them again leaves those of a compiled unit as they are.
+        inferTypes();
+        var savedTypes = SpecializedTypeComputer.processVariant(topLevelFunction, function, declaredType);
+        try {
+            setupClassWriter();
+            var methodName = GENERIC_METHOD_PREFIX + function.id() + VARIANT_METHOD_SUFFIX;
+            var methodType = computeSpecializationType(function);
+            MethodVisitor methodWriter = classWriter.visitMethod(
+                ACC_PUBLIC | ACC_STATIC | ACC_FINAL,
+                methodName,
+                methodType.toMethodDescriptorString(),
+                null, null);
+            methodWriter.visitCode();
+            var generator = new MethodCodeGenerator(function, methodWriter, classData);
+            generator.generate();
+            methodWriter.visitMaxs(-1, -1);
+            methodWriter.visitEnd();
+            classWriter.visitEnd();
+            return new VariantResult(classWriter.toByteArray(), classData.toList(), methodName, methodType);
+        } finally {
+            // Leave the nodes specialized as they were when the unit's methods were generated.
+            savedTypes.restore();
+        }
+    }
+
+    private void inlineCalls() {
+        inlineCallsIn(topLevelFunction);
+        topLevelFunction.closureImplementations().forEach(this::inlineCallsIn);
+    }
+
+    /**
+     * Copies of inlined bodies have their calls marked as not in tail
+     * position, but some of them are if the inlined call was.
+     */
+    private void inlineCallsIn(FunctionImplementation function) {
+        function.setCompiledBody(Inliner.inline(function));
+        FunctionAnalyzer.markTailCalls(function.compiledBody());
+    }
+
     private void inferTypes() {
         ExpressionTypeInferencer.inferTypesIn(topLevelFunction);
         topLevelFunction.closureImplementations().forEach(ExpressionTypeInferencer::inferTypesIn);
@@ -215,8 +381,13 @@ class Compiler {
     }
 
     private void generateGenericMethodFor(FunctionImplementation function) {
-        var methodName = generateGenericMethod(function);
+        var methodName = GENERIC_METHOD_PREFIX + generatedMethodSerial;
         var functionResult = new FunctionResult(methodName);
+        var hasRecurringTailCalls = generateGenericMethod(function, methodName, false);
+        if (hasRecurringTailCalls && function.isTopLevel()) {
+            functionResult.tailCallMethodName = methodName + TAIL_CALL_METHOD_SUFFIX;
+            generateGenericMethod(function, functionResult.tailCallMethodName, true);
+        }
         result.addFunctionResult(function, functionResult);
         generatedMethodSerial++;
     }
@@ -234,34 +405,62 @@ class Compiler {
         }
     }
 
-    private String generateGenericMethod(FunctionImplementation closureImpl) {
-        var methodName = GENERIC_METHOD_PREFIX + generatedMethodSerial;
+    private void generateOsrMethods() {
+        generateOsrMethodFor(topLevelFunction, result.functionResultFor(topLevelFunction));
+        topLevelFunction.closureImplementations().forEach(
+            each -> generateOsrMethodFor(each, result.functionResultFor(each)));
+    }
+
+    /**
+     * Generate the on-stack replacement entry method of a function, if the
+     * function has loops. The method is generic and consists entirely of
+     * A-code, so it does not depend on the specialization state of the
+     * function's nodes.
+     */
+    private void generateOsrMethodFor(FunctionImplementation function, FunctionResult functionResult) {
+        if (function.loopCount() == 0) return;
+        var methodName = functionResult.genericMethodName + OSR_METHOD_SUFFIX;
+        MethodVisitor methodWriter = classWriter.visitMethod(
+            ACC_PUBLIC | ACC_STATIC | ACC_FINAL,
+            methodName,
+            FunctionImplementation.OSR_ENTRY_TYPE.toMethodDescriptorString(),
+            null, null);
+        methodWriter.visitCode();
+        RecoveryCodeGenerator.generateOsrEntry(function, new GhostWriter(methodWriter, classData));
+        methodWriter.visitMaxs(-1, -1);
+        methodWriter.visitEnd();
+        functionResult.osrMethodName = methodName;
+    }
+
+    /**
+     * Generate a generic method of a function, either the generic method
+     * proper or the tail call one. Return true if the method makes calls in
+     * tail position through {@link TailCall}.
+     */
+    private boolean generateGenericMethod(FunctionImplementation closureImpl, String methodName, boolean isTailCallForm) {
         MethodVisitor methodWriter = classWriter.visitMethod(
             ACC_PUBLIC | ACC_STATIC | ACC_FINAL,
             methodName,
             MethodType.genericMethodType(closureImpl.implementationArity()).toMethodDescriptorString(),
             null, null);
         methodWriter.visitCode();
-        var generator = new MethodCodeGenerator(closureImpl, methodWriter);
+        var generator = new MethodCodeGenerator(closureImpl, methodWriter, classData, isTailCallForm);
         generator.generate();
-//dumpClassFile(classWriter.toByteArray());
         methodWriter.visitMaxs(-1, -1);
         methodWriter.visitEnd();
-        return methodName;
+        return generator.hasRecurringTailCalls();
     }
 
     private void generateSpecializedMethod(FunctionImplementation closureImpl, FunctionResult functionResult) {
         var methodName = functionResult.genericMethodName + SPECIALIZED_METHOD_SUFFIX;
         var methodType = computeSpecializationType(closureImpl);
-        System.out.format("generating a specialized method %s%s for %s%n",
-            methodName, methodType, closureImpl.name().orElse("?"));
         MethodVisitor methodWriter = classWriter.visitMethod(
             ACC_PUBLIC | ACC_STATIC | ACC_FINAL,
             methodName,
             methodType.toMethodDescriptorString(),
             null, null);
         methodWriter.visitCode();
-        var generator = new MethodCodeGenerator(closureImpl, methodWriter);
+        var generator = new MethodCodeGenerator(closureImpl, methodWriter, classData);
         generator.generate();
         methodWriter.visitMaxs(-1, -1);
         methodWriter.visitEnd();
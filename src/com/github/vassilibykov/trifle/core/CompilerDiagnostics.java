@@ -0,0 +1,256 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Dumps the class files of compiled units for inspection with tools such as
+ * {@code javap}. Dumping is off by default. When enabled by {@link
+ * #enableDump}, each compiled unit whose functions pass the name filter is
+ * written into the destination directory or jar as a class file, along with
+ * a text file listing the methods generated for each function of the unit
+ * and a snapshot of the profile the compiler worked from. The files are named
+ * after the top-level function of the unit and its ID, so a recompiled unit
+ * replaces the files of the previous compilation. Variants compiled later for
+ * a function of a dumped unit are written the same way, into files named
+ * after the unit, the function and the type of the variant.
+ *
+ * <p>The profile snapshot is taken by the compiling thread, but the files are
+ * written by a background thread, so the compiler doesn't wait for the disk.
+ */
+public final class CompilerDiagnostics {
+
+    private static final String DUMP_THREAD_NAME = "Trifle bytecode dump";
+
+    private static volatile @Nullable Dump dump;
+    private static final AtomicLong failedWriteCount = new AtomicLong();
+
+    private CompilerDiagnostics() {}
+
+    public static boolean isDumpEnabled() {
+        return dump != null;
+    }
+
+    /**
+     * Start dumping all compiled units into the specified destination. If the
+     * name of the destination ends with {@code .jar} or {@code .zip}, the
+     * files are written into that archive, otherwise into that directory.
+     * Either is created if it doesn't exist.
+     */
+    public static void enableDump(Path destination) throws IOException {
+        enableDump(destination, name -> true);
+    }
+
+    /**
+     * Start dumping the compiled units with at least one function whose name
+     * is accepted by the filter. Functions without a name, such as closures,
+     * are presented to the filter as an empty string.
+     */
+    public static synchronized void enableDump(Path destination, Predicate<String> functionNameFilter)
+        throws IOException
+    {
+        if (dump != null) throw new IllegalStateException("dumping is already enabled");
+        dump = new Dump(destination, functionNameFilter);
+    }
+
+    /**
+     * Stop dumping compiled units. Return after the files of the units
+     * compiled so far have been written and the destination archive, if any,
+     * has been closed.
+     */
+    public static synchronized void disableDump() throws IOException, InterruptedException {
+        var current = dump;
+        if (current == null) return;
+        dump = null;
+        current.close();
+    }
+
+    /**
+     * The number of dump files which could not be written because of an I/O
+     * error. The units they describe are compiled and running regardless.
+     */
+    public static long failedWriteCount() {
+        return failedWriteCount.get();
+    }
+
+    /**
+     * RESTRICTED. Intended for {@link Compiler}. Dump a compiled unit, if
+     * dumping is enabled and the unit passes the filter.
+     */
+    static void unitCompiled(FunctionImplementation topLevelFunction, Compiler.UnitResult result) {
+        var current = dump;
+        if (current == null) return;
+        if (!current.accepts(topLevelFunction)) return;
+        var fileName = fileNameOf(topLevelFunction);
+        var description = describe(topLevelFunction, result);
+        try {
+            current.writer.execute(() -> {
+                current.write(fileName + ".class", result.bytecode());
+                current.write(fileName + ".txt", description.getBytes(StandardCharsets.UTF_8));
+            });
+        } catch (RejectedExecutionException e) {
+            // dumping was disabled in the meantime
+        }
+    }
+
+    /**
+     * RESTRICTED. Intended for {@link Compiler}. Dump a compiled variant of
+     * a function of a unit, if dumping is enabled and the unit passes the
+     * filter.
+     */
+    static void variantCompiled(
+        FunctionImplementation topLevelFunction,
+        FunctionImplementation function,
+        Compiler.VariantResult result)
+    {
+        var current = dump;
+        if (current == null) return;
+        if (!current.accepts(topLevelFunction)) return;
+        var fileName = sanitize(fileNameOf(topLevelFunction) + "-variant-" + function.id() + result.methodType());
+        var description = describe(function, result);
+        try {
+            current.writer.execute(() -> {
+                current.write(fileName + ".class", result.bytecode());
+                current.write(fileName + ".txt", description.getBytes(StandardCharsets.UTF_8));
+            });
+        } catch (RejectedExecutionException e) {
+            // dumping was disabled in the meantime
+        }
+    }
+
+    private static String fileNameOf(FunctionImplementation topLevelFunction) {
+        var name = sanitize(topLevelFunction.name().orElse("anonymous"));
+        return name + "-" + topLevelFunction.id();
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^A-Za-z0-9_$.-]", "_");
+    }
+
+    private static String describe(FunctionImplementation topLevelFunction, Compiler.UnitResult result) {
+        var description = new StringBuilder();
+        describe(topLevelFunction, result.functionResultFor(topLevelFunction), description);
+        for (var each : topLevelFunction.closureImplementations()) {
+            describe(each, result.functionResultFor(each), description);
+        }
+        return description.toString();
+    }
+
+    private static String describe(FunctionImplementation function, Compiler.VariantResult result) {
+        var description = new StringBuilder();
+        description.append(function.name().orElse("closure")).append(" (id ").append(function.id()).append(")\n");
+        description.append("  variant method: ").append(result.methodName()).append(result.methodType()).append('\n');
+        describeProfile(function, description);
+        return description.toString();
+    }
+
+    private static void describe(FunctionImplementation function, Compiler.FunctionResult result, StringBuilder output) {
+        output.append(function.name().orElse("closure")).append(" (id ").append(function.id()).append(")\n");
+        var arity = function.implementationArity();
+        output.append("  generic method: ")
+            .append(result.genericMethodName()).append(MethodType.genericMethodType(arity)).append('\n');
+        if (result.specializedMethodName() != null) {
+            output.append("  specialized method: ")
+                .append(result.specializedMethodName()).append(result.specializedMethodType()).append('\n');
+        }
+        if (result.osrMethodName() != null) {
+            output.append("  on-stack replacement entry: ").append(result.osrMethodName()).append('\n');
+        }
+        if (result.tailCallMethodName() != null) {
+            output.append("  tail call method: ")
+                .append(result.tailCallMethodName()).append(MethodType.genericMethodType(arity)).append('\n');
+        }
+        describeProfile(function, output);
+    }
+
+    private static void describeProfile(FunctionImplementation function, StringBuilder output) {
+        var profile = function.functionProfile();
+        output.append(String.format("  invocations: %d (%d profiled), back edges: %d, branches: %d, square pegs: %d%n",
+            profile.invocationCount(),
+            profile.sampledInvocationCount(),
+            profile.backEdgeCount(),
+            profile.branchCount(),
+            profile.squarePegCount()));
+        for (var each : function.declaredParameters()) {
+            output.append("  parameter ").append(each.name()).append(": ");
+            describe(each.profile(), output);
+        }
+        output.append("  result: ");
+        describe(profile.resultProfile(), output);
+    }
+
+    private static void describe(ValueProfile profile, StringBuilder output) {
+        output.append(String.format("%s (int %d, bool %d, long %d, double %d, reference %d)%n",
+            profile.observedType(),
+            profile.intCases(),
+            profile.boolCases(),
+            profile.longCases(),
+            profile.doubleCases(),
+            profile.referenceCases()));
+    }
+
+    private static class Dump {
+        private final Path root;
+        @Nullable private final FileSystem archive;
+        private final Predicate<String> filter;
+        private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+            var thread = new Thread(runnable, DUMP_THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        private Dump(Path destination, Predicate<String> filter) throws IOException {
+            var name = destination.getFileName().toString();
+            if (name.endsWith(".jar") || name.endsWith(".zip")) {
+                archive = FileSystems.newFileSystem(destination, Map.of("create", "true"));
+                root = archive.getPath("/");
+            } else {
+                archive = null;
+                root = Files.createDirectories(destination);
+            }
+            this.filter = filter;
+        }
+
+        /**
+         * Whether the name of at least one function of the unit passes the
+         * filter.
+         */
+        private boolean accepts(FunctionImplementation topLevelFunction) {
+            var functions = Stream.concat(
+                Stream.of(topLevelFunction),
+                topLevelFunction.closureImplementations().stream());
+            return functions.anyMatch(each -> filter.test(each.name().orElse("")));
+        }
+
+        private void write(String fileName, byte[] contents) {
+            try {
+                Files.write(root.resolve(fileName), contents);
+            } catch (IOException e) {
+                failedWriteCount.incrementAndGet();
+            }
+        }
+
+        private void close() throws IOException, InterruptedException {
+            writer.shutdown();
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            if (archive != null) archive.close();
+        }
+    }
+}
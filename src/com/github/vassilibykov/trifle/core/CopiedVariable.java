@@ -12,10 +12,14 @@ import org.jetbrains.annotations.NotNull;
  * variables should already be computed.
  *
  * <p>For type profiling and inferencing, copied variables always delegate to their originals.
+ * The specialized type is also that of the original, except in a generic method. There an
+ * unboxed copied value is received as an {@code Object} like any other parameter, even if
+ * the original is specialized as a primitive.
  */
 class CopiedVariable extends AbstractVariable {
     @NotNull private final VariableDefinition original;
     private AbstractVariable supplier;
+    private boolean isPassedAsReference = false;
 
     CopiedVariable(@NotNull VariableDefinition original, FunctionImplementation hostFunction) {
         super(hostFunction);
@@ -54,7 +58,7 @@ class CopiedVariable extends AbstractVariable {
 
     @Override
     JvmType specializedType() {
-        return original.specializedType();
+        return isPassedAsReference ? JvmType.REFERENCE : original.specializedType();
     }
 
     @Override
@@ -64,7 +68,8 @@ class CopiedVariable extends AbstractVariable {
 
     @Override
     void setSpecializedType(@NotNull JvmType type) {
-        // nothing to set; the original determines the type
+        // the original determines the type, unless the type is that of a generic signature
+        isPassedAsReference = !isBoxed && type == JvmType.REFERENCE;
     }
 
     @Override
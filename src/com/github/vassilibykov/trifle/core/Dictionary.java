@@ -2,9 +2,9 @@
 
 package com.github.vassilibykov.trifle.core;
 
-import java.util.ArrayList;
+import org.jetbrains.annotations.TestOnly;
+
 import java.util.Collections;
-import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
@@ -18,27 +18,44 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class Dictionary {
 
-    public static synchronized Dictionary create() {
-        int id = REGISTRY.size();
-        var dictionary = new Dictionary(id);
-        REGISTRY.add(dictionary);
+    public static Dictionary create() {
+        var dictionary = new Dictionary();
+        dictionary.id = REGISTRY.register(dictionary);
         return dictionary;
     }
 
-    public static synchronized Dictionary withId(int id) {
-        try {
-            return REGISTRY.get(id);
-        } catch (IndexOutOfBoundsException e) {
-            throw new IllegalArgumentException("dictionary id not found: " + id);
-        }
+    public static Dictionary withId(int id) {
+        var dictionary = REGISTRY.get(id);
+        if (dictionary == null) throw new IllegalArgumentException("dictionary id not found: " + id);
+        return dictionary;
+    }
+
+    /**
+     * The number of dictionaries which can be found by ID, possibly
+     * including some which have been collected but not yet forgotten.
+     */
+    @TestOnly
+    static int registrySize() {
+        return REGISTRY.size();
     }
 
-    private static final List<Dictionary> REGISTRY = new ArrayList<>();
+    /**
+     * Registering a dictionary to be found by its ID does not keep it alive.
+     */
+    private static final WeakRegistry<Dictionary> REGISTRY = new WeakRegistry<>();
     private static final Object NO_VALUE = new Object();
+    private static final Object LONG_VALUE = new Object();
+    private static final Object DOUBLE_VALUE = new Object();
 
+    /**
+     * A dictionary entry. Like a {@link Box}, it holds primitive values
+     * unwrapped, with a marker in the reference field indicating which of the
+     * primitive fields holds the value.
+     */
     public class Entry {
         private final String key;
         private int intValue;
+        private long longValue;
         private Object refValue;
 
         private Entry(String key, Object value) {
@@ -55,21 +72,43 @@ public class Dictionary {
         }
 
         public Object value() {
-            return refValue == NO_VALUE ? intValue : refValue;
+            if (refValue == NO_VALUE) return intValue;
+            if (refValue == LONG_VALUE) return longValue;
+            if (refValue == DOUBLE_VALUE) return Double.longBitsToDouble(longValue);
+            return refValue;
         }
 
         public int intValue() {
             if (refValue == NO_VALUE) {
                 return intValue;
             } else {
-                throw SquarePegException.with(refValue);
+                throw SquarePegException.with(value());
+            }
+        }
+
+        public long longValue() {
+            if (refValue == LONG_VALUE) {
+                return longValue;
+            } else {
+                throw SquarePegException.with(value());
+            }
+        }
+
+        public double doubleValue() {
+            if (refValue == DOUBLE_VALUE) {
+                return Double.longBitsToDouble(longValue);
+            } else {
+                throw SquarePegException.with(value());
             }
         }
 
         public void setValue(Object value) {
             if (value instanceof Integer) {
-                this.intValue = (Integer) value;
-                this.refValue = NO_VALUE;
+                setValue((int) (Integer) value);
+            } else if (value instanceof Long) {
+                setValue((long) (Long) value);
+            } else if (value instanceof Double) {
+                setValue((double) (Double) value);
             } else {
                 this.refValue = value;
             }
@@ -79,18 +118,26 @@ public class Dictionary {
             this.intValue = value;
             this.refValue = NO_VALUE;
         }
+
+        public void setValue(long value) {
+            this.longValue = value;
+            this.refValue = LONG_VALUE;
+        }
+
+        public void setValue(double value) {
+            this.longValue = Double.doubleToRawLongBits(value);
+            this.refValue = DOUBLE_VALUE;
+        }
     }
 
     /*
         Instance
      */
 
-    private final int id;
+    private int id;
     private final Map<String, Entry> entries = new ConcurrentHashMap<>();
 
-    private Dictionary(int id) {
-        this.id = id;
-    }
+    private Dictionary() {}
 
     public int id() {
         return id;
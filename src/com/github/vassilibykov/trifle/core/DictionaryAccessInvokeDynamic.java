@@ -15,6 +15,8 @@ import java.util.NoSuchElementException;
 
 /**
  * An invokedynamic instruction for getting or setting a value in a {@link Dictionary}.
+ * The dictionary is found by its index in the {@link ClassData} of the calling class,
+ * encoded in the instruction.
  */
 public class DictionaryAccessInvokeDynamic {
 
@@ -35,20 +37,34 @@ public class DictionaryAccessInvokeDynamic {
         false);
 
     @SuppressWarnings("unused") // called by invokedynamic infrastructure
-    public static CallSite bootstrapGet(Lookup lookup, String operation, MethodType callSiteType, Integer id) {
-        var dictionary = Dictionary.withId(id);
+    public static CallSite bootstrapGet(Lookup lookup, String operation, MethodType callSiteType, Integer index) {
+        var dictionary = ClassData.get(lookup, index, Dictionary.class);
         String name = keyIn(operation);
         var entry = dictionary.getEntry(name).orElseThrow(NoSuchElementException::new); // TODO use a proper exception
-        var handle = callSiteType.returnType() == int.class ? GET_INT : GET_REF;
-        return new ConstantCallSite(handle.bindTo(entry));
+        var handle = getter(callSiteType.returnType());
+        return new ConstantCallSite(handle.bindTo(entry).asType(callSiteType));
     }
 
     @SuppressWarnings("unused") // called by invokedynamic infrastructure
-    public static CallSite bootstrapSet(Lookup lookup, String operation, MethodType callSiteType, Integer id) {
-        var dictionary = Dictionary.withId(id);
+    public static CallSite bootstrapSet(Lookup lookup, String operation, MethodType callSiteType, Integer index) {
+        var dictionary = ClassData.get(lookup, index, Dictionary.class);
         var entry = dictionary.getEntry(keyIn(operation)).orElseThrow(NoSuchElementException::new); // TODO use a proper exception
-        var handle = callSiteType.parameterType(0) == int.class ? GET_INT : GET_REF;
-        return new ConstantCallSite(handle.bindTo(entry));
+        var handle = setter(callSiteType.parameterType(0));
+        return new ConstantCallSite(handle.bindTo(entry).asType(callSiteType));
+    }
+
+    private static MethodHandle getter(Class<?> valueType) {
+        if (valueType == int.class) return GET_INT;
+        if (valueType == long.class) return GET_LONG;
+        if (valueType == double.class) return GET_DOUBLE;
+        return GET_REF;
+    }
+
+    private static MethodHandle setter(Class<?> valueType) {
+        if (valueType == int.class) return SET_INT;
+        if (valueType == long.class) return SET_LONG;
+        if (valueType == double.class) return SET_DOUBLE;
+        return SET_REF;
     }
 
     static String getterName(String key) {
@@ -66,16 +82,24 @@ public class DictionaryAccessInvokeDynamic {
     }
 
     private static final MethodHandle GET_INT;
+    private static final MethodHandle GET_LONG;
+    private static final MethodHandle GET_DOUBLE;
     private static final MethodHandle GET_REF;
     private static final MethodHandle SET_INT;
+    private static final MethodHandle SET_LONG;
+    private static final MethodHandle SET_DOUBLE;
     private static final MethodHandle SET_REF;
 
     static {
         try {
             var lookup = MethodHandles.lookup();
             GET_INT = lookup.findVirtual(Dictionary.Entry.class, "intValue", MethodType.methodType(int.class));
+            GET_LONG = lookup.findVirtual(Dictionary.Entry.class, "longValue", MethodType.methodType(long.class));
+            GET_DOUBLE = lookup.findVirtual(Dictionary.Entry.class, "doubleValue", MethodType.methodType(double.class));
             GET_REF = lookup.findVirtual(Dictionary.Entry.class, "value", MethodType.methodType(Object.class));
             SET_INT = lookup.findVirtual(Dictionary.Entry.class, "setValue", MethodType.methodType(void.class, int.class));
+            SET_LONG = lookup.findVirtual(Dictionary.Entry.class, "setValue", MethodType.methodType(void.class, long.class));
+            SET_DOUBLE = lookup.findVirtual(Dictionary.Entry.class, "setValue", MethodType.methodType(void.class, double.class));
             SET_REF = lookup.findVirtual(Dictionary.Entry.class, "setValue", MethodType.methodType(void.class, Object.class));
         } catch (NoSuchMethodException | IllegalAccessException e) {
             throw new AssertionError();
@@ -34,7 +34,7 @@ public class DictionaryGetterDispatcher implements CallDispatcher {
             DictionaryAccessInvokeDynamic.BOOTSTRAP_GET,
             DictionaryAccessInvokeDynamic.getterName(key),
             MethodType.methodType(returnType.representativeClass()),
-            dictionary.id());
+            generator.writer().classData().indexOf(dictionary));
         return returnType == JvmType.REFERENCE ? Gist.INFALLIBLE_REFERENCE : Gist.of(returnType, true);
     }
 }
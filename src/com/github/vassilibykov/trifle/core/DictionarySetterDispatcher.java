@@ -32,12 +32,12 @@ public class DictionarySetterDispatcher implements CallDispatcher {
             throw RuntimeError.message("invalid call expression"); // TODO should probably use a different exception
         }
         var gist = generator.generateCode(call.argument(0)); // argument is primitive; can't fail
-        generator.writer().pop(); // leave the value on the stack as the result
+        generator.writer().dup(gist.type()); // leave the value on the stack as the result
         generator.writer().invokeDynamic(
             DictionaryAccessInvokeDynamic.BOOTSTRAP_SET,
             DictionaryAccessInvokeDynamic.setterName(key),
             MethodType.methodType(void.class, gist.type().representativeClass()),
-            dictionary.id());
+            generator.writer().classData().indexOf(dictionary));
         return gist;
     }
 }
@@ -28,7 +28,7 @@ class ExpressionTypeInferencer implements EvaluatorNode.Visitor<ExpressionType>
         ExpressionTypeInferencer inferencer = new ExpressionTypeInferencer(function);
         do {
             inferencer.needsRevisiting = false;
-            function.body().accept(inferencer);
+            function.compiledBody().accept(inferencer);
         } while (inferencer.needsRevisiting);
         // These iterative revisits are guaranteed to terminate because a revisit is
         // triggered by a type widening, and widening has an upper bound.
@@ -42,7 +42,7 @@ class ExpressionTypeInferencer implements EvaluatorNode.Visitor<ExpressionType>
     private boolean needsRevisiting = false;
 
     private ExpressionTypeInferencer(FunctionImplementation function) {
-        this.functionBody = function.body();
+        this.functionBody = function.compiledBody();
     }
 
     @Override
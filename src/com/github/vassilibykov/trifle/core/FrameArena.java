@@ -0,0 +1,86 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import java.util.Arrays;
+
+/**
+ * A per-thread stack of evaluators with their frames, reused by the
+ * interpreters for nested invocations of interpreted functions instead of
+ * allocating a frame and an evaluator for every invocation. An evaluator at
+ * some depth is replaced by one with a larger frame when a function needs
+ * more room than its frame has. A frame is cleared when the invocation using
+ * it is done, so that it doesn't keep the values of the invocation reachable.
+ *
+ * <p>Reusing a frame once its invocation is done is safe because frames never
+ * escape an invocation: closures copy the values they need, a pending tail
+ * call carries its own arguments, and compiled code entered from a loop is
+ * done with the frame by the time the invocation is.
+ */
+final class FrameArena {
+    private static final ThreadLocal<FrameArena> CURRENT = ThreadLocal.withInitial(FrameArena::new);
+    private static final int MINIMUM_FRAME_SIZE = 8;
+
+    static FrameArena current() {
+        return CURRENT.get();
+    }
+
+    /*
+        Instance
+     */
+
+    private Interpreter.Evaluator[] evaluators = new Interpreter.Evaluator[32];
+    /**
+     * The profiling evaluators sharing the frames of the simple evaluators at
+     * the same depth, created on demand.
+     */
+    private ProfilingInterpreter.ProfilingEvaluator[] profilingEvaluators =
+        new ProfilingInterpreter.ProfilingEvaluator[32];
+    private int depth = 0;
+
+    /**
+     * Return a simple evaluator with an empty frame of at least the specified
+     * size. Must be paired with a {@link #pop} once the invocation is done.
+     */
+    Interpreter.Evaluator push(int frameSize) {
+        if (depth == evaluators.length) {
+            evaluators = Arrays.copyOf(evaluators, depth * 2);
+            profilingEvaluators = Arrays.copyOf(profilingEvaluators, depth * 2);
+        }
+        var evaluator = evaluators[depth];
+        if (evaluator == null || evaluator.frame.length < frameSize) {
+            evaluator = new Interpreter.Evaluator(new Object[Math.max(frameSize, MINIMUM_FRAME_SIZE)]);
+            evaluators[depth] = evaluator;
+            profilingEvaluators[depth] = null;
+        }
+        depth++;
+        return evaluator;
+    }
+
+    /**
+     * Return a profiling evaluator of the specified function sharing the frame
+     * of the evaluator returned by the latest {@link #push}.
+     */
+    ProfilingInterpreter.ProfilingEvaluator topProfilingEvaluator(FunctionImplementation function) {
+        var index = depth - 1;
+        var evaluator = profilingEvaluators[index];
+        if (evaluator == null) {
+            evaluator = new ProfilingInterpreter.ProfilingEvaluator(evaluators[index].frame);
+            profilingEvaluators[index] = evaluator;
+        }
+        evaluator.setFunction(function);
+        return evaluator;
+    }
+
+    /**
+     * Release the evaluator returned by the matching {@link #push}, clearing
+     * the part of its frame the invocation could have used.
+     */
+    void pop(Interpreter.Evaluator evaluator, int frameSize) {
+        depth--;
+        Arrays.fill(evaluator.frame, 0, frameSize, null);
+        evaluator.returnValue = null;
+        var profilingEvaluator = profilingEvaluators[depth];
+        if (profilingEvaluator != null) profilingEvaluator.setFunction(null);
+    }
+}
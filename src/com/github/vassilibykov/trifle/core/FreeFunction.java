@@ -18,7 +18,7 @@ public interface FreeFunction extends Invocable {
         try {
             return invoker.invoke();
         } catch (SquarePegException e) {
-            return e.value;
+            return e.take();
         } catch (RuntimeError e) {
             throw e;
         } catch (Throwable throwable) {
@@ -32,7 +32,7 @@ public interface FreeFunction extends Invocable {
         try {
             return invoker.invoke(arg);
         } catch (SquarePegException e) {
-            return e.value;
+            return e.take();
         } catch (RuntimeError e) {
             throw e;
         } catch (Throwable throwable) {
@@ -46,7 +46,7 @@ public interface FreeFunction extends Invocable {
         try {
             return invoker.invoke(arg1, arg2);
         } catch (SquarePegException e) {
-            return e.value;
+            return e.take();
         } catch (RuntimeError e) {
             throw e;
         } catch (Throwable throwable) {
@@ -60,7 +60,7 @@ public interface FreeFunction extends Invocable {
         try {
             return invoker.invoke(arg1, arg2, arg3);
         } catch (SquarePegException e) {
-            return e.value;
+            return e.take();
         } catch (RuntimeError e) {
             throw e;
         } catch (Throwable throwable) {
@@ -74,7 +74,7 @@ public interface FreeFunction extends Invocable {
         try {
             return invoker.invoke(arg1, arg2, arg3, arg4);
         } catch (SquarePegException e) {
-            return e.value;
+            return e.take();
         } catch (RuntimeError e) {
             throw e;
         } catch (Throwable throwable) {
@@ -88,7 +88,7 @@ public interface FreeFunction extends Invocable {
         try {
             return invoker.invokeWithArguments(arguments);
         } catch (SquarePegException e) {
-            return e.value;
+            return e.take();
         } catch (RuntimeError e) {
             throw e;
         } catch (Throwable throwable) {
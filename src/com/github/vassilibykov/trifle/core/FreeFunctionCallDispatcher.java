@@ -14,6 +14,10 @@ public class FreeFunctionCallDispatcher implements CallDispatcher {
         this.target = target;
     }
 
+    public FreeFunction target() {
+        return target;
+    }
+
     @Override
     public Object execute(CallNode call, EvaluatorNode.Visitor<Object> interpreter) {
         return call.match(new CallNode.ArityMatcher<>() {
@@ -67,13 +71,12 @@ public class FreeFunctionCallDispatcher implements CallDispatcher {
             return Gist.of(returnType, returnType != JvmType.REFERENCE);
         } else if (target instanceof UserFunction) {
             var userFunction = (UserFunction) this.target;
-            var id = userFunction.implementation().id();
             var callSiteType = generator.generateArgumentLoad(call);
             generator.writer().invokeDynamic(
                 UserFunctionCallInvokeDynamic.BOOTSTRAP,
                 userFunction.name(),
                 callSiteType,
-                id);
+                generator.writer().classData().indexOf(userFunction.implementation()));
             var returnType = JvmType.ofClass(callSiteType.returnType());
             return Gist.of(returnType, returnType != JvmType.REFERENCE);
         } else {
@@ -45,7 +45,7 @@ class FreeFunctionReferenceNode extends EvaluatorNode {
                 UserFunctionReferenceInvokeDynamic.BOOTSTRAP,
                 "userFunctionRef",
                 MethodType.methodType(Object.class),
-                ((UserFunction) target).implementation().id());
+                writer.classData().indexOf(((UserFunction) target).implementation()));
         } else {
             throw new AssertionError("unexpected target: " + target);
         }
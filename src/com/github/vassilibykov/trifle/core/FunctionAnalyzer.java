@@ -19,6 +19,14 @@ class FunctionAnalyzer {
         analyzer.analyze();
     }
 
+    /**
+     * Set the {@link CallNode#isTailCall} flags of all calls in a function
+     * body, including the bodies of closures in it.
+     */
+    static void markTailCalls(EvaluatorNode body) {
+        body.accept(new TailCallMarker());
+    }
+
     /*
         Instance
      */
@@ -32,6 +40,7 @@ class FunctionAnalyzer {
         new ScopeValidator().apply();
         new ClosureConverter(function).apply();
         new Indexer(function).apply();
+        markTailCalls(function.body());
     }
 
     /**
@@ -168,6 +177,7 @@ class FunctionAnalyzer {
         private final FunctionImplementation thisFunction;
         private int nextIndex;
         private int frameSize;
+        private int loopCount = 0;
 
         private Indexer(FunctionImplementation function) {
             thisFunction = function;
@@ -182,7 +192,7 @@ class FunctionAnalyzer {
 
         public void apply() {
             thisFunction.body().accept(this);
-            thisFunction.finishInitialization(frameSize);
+            thisFunction.finishInitialization(frameSize, loopCount);
         }
 
         @Override
@@ -207,6 +217,12 @@ class FunctionAnalyzer {
             return null;
         }
 
+        @Override
+        public Void visitWhile(WhileNode whileNode) {
+            whileNode.osrEntryIndex = loopCount++;
+            return super.visitWhile(whileNode);
+        }
+
         private int allocateLocalIndex() {
             var allocated = nextIndex++;
             frameSize = Math.max(frameSize, nextIndex);
@@ -217,4 +233,105 @@ class FunctionAnalyzer {
             nextIndex--;
         }
     }
+
+    /**
+     * Marks calls in tail position. An expression is in tail position if its
+     * value is the value of the function: the function body itself, both
+     * branches of a tail conditional, the body of a tail let, and the last
+     * expression of a tail block.
+     */
+    private static class TailCallMarker implements EvaluatorNode.Visitor<Void> {
+        private boolean isInTailPosition = true;
+
+        private void visitNotInTailPosition(EvaluatorNode node) {
+            var saved = isInTailPosition;
+            isInTailPosition = false;
+            node.accept(this);
+            isInTailPosition = saved;
+        }
+
+        @Override
+        public Void visitBlock(BlockNode block) {
+            var expressions = block.expressions();
+            for (int i = 0; i < expressions.length - 1; i++) visitNotInTailPosition(expressions[i]);
+            if (expressions.length > 0) expressions[expressions.length - 1].accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitCall(CallNode call) {
+            call.isTailCall = isInTailPosition;
+            call.dispatcher().asEvaluatorNode().ifPresent(this::visitNotInTailPosition);
+            call.arguments().forEach(this::visitNotInTailPosition);
+            return null;
+        }
+
+        @Override
+        public Void visitClosure(ClosureNode closure) {
+            markTailCalls(closure.function().body());
+            return null;
+        }
+
+        @Override
+        public Void visitConstant(ConstantNode aConst) {
+            return null;
+        }
+
+        @Override
+        public Void visitFreeFunctionReference(FreeFunctionReferenceNode constFunction) {
+            return null;
+        }
+
+        @Override
+        public Void visitGetVar(GetVariableNode varRef) {
+            return null;
+        }
+
+        @Override
+        public Void visitIf(IfNode anIf) {
+            visitNotInTailPosition(anIf.condition());
+            anIf.trueBranch().accept(this);
+            anIf.falseBranch().accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitLet(LetNode let) {
+            visitNotInTailPosition(let.initializer());
+            let.body().accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitPrimitive1(Primitive1Node primitive) {
+            visitNotInTailPosition(primitive.argument());
+            return null;
+        }
+
+        @Override
+        public Void visitPrimitive2(Primitive2Node primitive) {
+            visitNotInTailPosition(primitive.argument1());
+            visitNotInTailPosition(primitive.argument2());
+            return null;
+        }
+
+        @Override
+        public Void visitReturn(ReturnNode ret) {
+            visitNotInTailPosition(ret.value());
+            return null;
+        }
+
+        @Override
+        public Void visitSetVar(SetVariableNode set) {
+            visitNotInTailPosition(set.value());
+            return null;
+        }
+
+        @Override
+        public Void visitWhile(WhileNode whileNode) {
+            visitNotInTailPosition(whileNode.condition());
+            visitNotInTailPosition(whileNode.body());
+            return null;
+        }
+    }
 }
@@ -11,10 +11,15 @@ import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
@@ -105,33 +110,51 @@ import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
  * is again the closure typed as Object). The same function might be called
  * elsewhere from a call site typed as {@code (Object int Object) -> Object} if
  * those were the types observed at that call site.
+ *
+ * <p>When a call site typed differently from the specialized form is linked
+ * to a compiled function, a <em>variant</em> of the specialized form typed
+ * exactly as the call site requires is submitted to the {@link
+ * CompilationQueue}. The call site is linked through one of the {@link
+ * #variantSites}, which invokes the generic form until the variant is ready
+ * and is then relinked to it. Compiled variants are kept in the {@link
+ * #specializationVariants} table. The number of specialized forms a function
+ * may have is capped by {@link TieringPolicy#maxSpecializations()}; call sites
+ * which find the table full link to the generic form.
+ *
+ * <p>Compiled code may turn out to be specialized for types that no longer
+ * match what the function sees, so that it keeps throwing {@link
+ * SquarePegException}s and running recovery code. Every SPE handled in the
+ * compiled code of a function, or escaping from its specialized form, is
+ * counted. When the count within a time window reaches the limit set by the
+ * {@link TieringPolicy}, the whole unit is <em>deoptimized</em>: its compiled
+ * forms are discarded and it goes back to profiling. The values which caused
+ * the failures are recorded in the profiles of their continuations, so the
+ * recompiled code is specialized for wider types. Callers which linked
+ * directly to the compiled forms of a function do so through a guard of the
+ * function's {@link #compiledFormSwitchPoint}, which is invalidated on
+ * deoptimization.
  */
 public class FunctionImplementation {
 
     /**
-     * The number of times a function is executed as interpreted before it's
-     * queued for compilation. The current value is picked fairly randomly.
+     * The type of the on-stack replacement entry method of a function with loops.
+     * The arguments are the interpreter frame, the {@link WhileNode#osrEntryIndex}
+     * of the loop to enter, and the value of the latest iteration of the loop
+     * body. The result is the result of the function.
      */
-    public static final long PROFILING_TARGET = 10;
+    static final MethodType OSR_ENTRY_TYPE =
+        MethodType.methodType(Object.class, Object[].class, int.class, Object.class);
 
     private enum State {
         INVALID,
         PROFILING,
+        /** Executed by the simple interpreter with no plans to compile, as requested by the tiering policy. */
+        INTERPRETING,
         COMPILING,
         COMPILED
     }
 
-    private static final List<FunctionImplementation> registry = new ArrayList<>(100);
-
-    private static synchronized int register(FunctionImplementation implementation) {
-        var id = registry.size();
-        registry.add(implementation);
-        return id;
-    }
-
-    static synchronized FunctionImplementation withId(int id) {
-        return registry.get(id);
-    }
+    private static final AtomicInteger serial = new AtomicInteger();
 
     /*
         Instance
@@ -169,11 +192,20 @@ public class FunctionImplementation {
     private final List<FunctionImplementation> closureImplementations = new ArrayList<>();
     private final int arity;
     private EvaluatorNode body;
+    /**
+     * The body as prepared for compilation by the {@link Inliner}, with hot
+     * calls of small functions replaced by copies of their bodies. Null if
+     * the function has not been compiled or nothing was inlined into it.
+     * Interpreters and the OSR entry always run {@link #body}.
+     */
+    private EvaluatorNode compiledBody;
     private int frameSize = -1;
+    private int loopCount = -1;
     /*internal*/ FunctionProfile profile;
     private JvmType specializedReturnType;
     /**
-     * The unique ID of the function in the function registry.
+     * The unique ID of the function, used to name its methods in generated
+     * code.
      */
     private final int id;
     /**
@@ -188,17 +220,94 @@ public class FunctionImplementation {
     private MethodHandle callSiteInvoker;
     private MethodHandle genericImplementation;
     private MethodHandle specializedImplementation;
+    /**
+     * Specialized forms compiled on demand for call sites typed differently
+     * from {@link #specializedImplementation}, keyed by their types not
+     * including synthetic parameters. The map is never modified, only
+     * replaced.
+     */
+    private volatile Map<MethodType, MethodHandle> specializationVariants = Map.of();
+    /**
+     * The call sites through which callers are linked to the variants of the
+     * specialized form, compiled or pending, keyed the same way as {@link
+     * #specializationVariants}. A site invokes the generic form until its
+     * variant has been compiled. Guarded by the monitor of the top
+     * implementation, and replaced rather than cleared when the compiled form
+     * is discarded.
+     */
+    private Map<MethodType, MutableCallSite> variantSites = new HashMap<>();
+    /**
+     * Guards the links of callers to the current compiled forms of the
+     * function. Invalidated when the function is deoptimized. Null if the
+     * function is not compiled.
+     */
+    private volatile SwitchPoint compiledFormSwitchPoint;
+    /**
+     * Recovery sites of the function's compiled code, registered by the code
+     * generator so that SPE handlers can identify them by their index.
+     */
+    private final List<RecoverySite> recoverySites = new ArrayList<>();
+    /**
+     * The start of the current window in which square pegs are counted
+     * against the limit of the tiering policy, and the count so far.
+     */
+    private long squarePegWindowStart;
+    private long squarePegsInWindow;
+    /**
+     * The number of times the unit has been deoptimized. Only meaningful in
+     * a top-level function implementation.
+     */
+    private volatile int deoptimizationCount = 0;
+    /**
+     * The number of times the compilation of the unit has failed. Only
+     * meaningful in a top-level function implementation.
+     */
+    private volatile int compilationFailureCount = 0;
     /**
      * Internal representation of this function's code from which recovery
      * portion of the bytecode can be generated. It's the same for generic and
      * specialized forms, so it's cached here. Lazily computed by the getter.
      */
     private RecoveryCodeGenerator.Instruction[] recoveryCode;
+    /**
+     * Similar to {@link #recoveryCode}, but for the OSR entry method.
+     */
+    private RecoveryCodeGenerator.Instruction[] osrCode;
+    /**
+     * The compiled on-stack replacement entry of the function, of the type
+     * {@link #OSR_ENTRY_TYPE}. Null if the function has no loops or hasn't
+     * been compiled yet.
+     */
+    private volatile MethodHandle osrEntry;
+    /**
+     * The compiled tail call form of the function, which returns some of the
+     * calls it makes in tail position as pending {@link TailCall}s. Adapted
+     * to accept the arguments as an array. Null if the function has no such
+     * form or hasn't been compiled yet.
+     */
+    private volatile MethodHandle tailCallEntry;
     private volatile State state;
+    /**
+     * The policy deciding when the unit should be compiled. Only meaningful
+     * in a top-level function implementation.
+     */
+    private volatile TieringPolicy tieringPolicy = TieringPolicy.DEFAULT;
+    /**
+     * Held while the unit is being compiled. Only meaningful in a top-level
+     * function implementation.
+     */
+    private final Object compilationLock = new Object();
+    /**
+     * True until the first invocation of a top-level function defined while
+     * the {@link CodeCache} was enabled looks up the unit in the cache.
+     * Cleared under {@link #compilationLock}; read without it by the
+     * interpreted invocation paths to decide whether to take the lock.
+     */
+    private volatile boolean awaitingCodeCacheProbe;
 
     FunctionImplementation(@NotNull Lambda definition, @Nullable FunctionImplementation topFunction) {
         this.definition = definition;
-        this.id = register(this);
+        this.id = serial.getAndIncrement();
         this.topImplementation = topFunction != null ? topFunction : this;
         this.arity = definition.arguments().size();
         this.state = State.INVALID;
@@ -231,10 +340,13 @@ public class FunctionImplementation {
     }
 
     /** RESTRICTED. Intended for {@link FunctionAnalyzer.Indexer}. */
-    void finishInitialization(int frameSize) {
-        this.callSite = new MutableCallSite(profilingInterpreterInvoker());
+    void finishInitialization(int frameSize, int loopCount) {
+        awaitingCodeCacheProbe = this == topImplementation && CodeCache.isEnabled();
+        this.callSite = new MutableCallSite(
+            awaitingCodeCacheProbe ? codeCacheProbeInvoker() : profilingInterpreterInvoker());
         this.callSiteInvoker = callSite.dynamicInvoker();
         this.frameSize = frameSize;
+        this.loopCount = loopCount;
         this.state = State.PROFILING;
     }
 
@@ -321,6 +433,19 @@ public class FunctionImplementation {
         return body;
     }
 
+    /**
+     * The body from which compiled code of the function is generated.
+     */
+    EvaluatorNode compiledBody() {
+        return compiledBody != null ? compiledBody : body;
+    }
+
+    /** RESTRICTED. Intended for {@link Compiler}. */
+    void setCompiledBody(@Nullable EvaluatorNode compiledBody) {
+        this.compiledBody = compiledBody != body ? compiledBody : null;
+        this.recoveryCode = null;
+    }
+
     /**
      * The arity of the underlying abstract definition (before closure conversion).
      */
@@ -340,6 +465,14 @@ public class FunctionImplementation {
         return frameSize;
     }
 
+    /**
+     * The number of loops in the function, not including loops of nested
+     * closures.
+     */
+    int loopCount() {
+        return loopCount;
+    }
+
     public boolean isTopLevel() {
         return topImplementation == this;
     }
@@ -348,6 +481,48 @@ public class FunctionImplementation {
         return state == State.COMPILED;
     }
 
+    /**
+     * Indicate whether the function is currently executed by one of the
+     * interpreters, which may be invoked directly using {@link
+     * #invokeInterpreted(CallNode, Interpreter.Evaluator)}.
+     */
+    boolean isInterpreted() {
+        var state = this.state;
+        return state == State.PROFILING || state == State.INTERPRETING || state == State.COMPILING;
+    }
+
+    /**
+     * The number of times the unit of this function has been deoptimized
+     * because its compiled code kept failing specialization assumptions.
+     */
+    public int deoptimizationCount() {
+        return topImplementation.deoptimizationCount;
+    }
+
+    /**
+     * The number of times the compilation of the unit of this function has
+     * failed.
+     */
+    public int compilationFailureCount() {
+        return topImplementation.compilationFailureCount;
+    }
+
+    /**
+     * The tiering policy governing this function. For a closure
+     * implementation, this is the policy of its top-level function.
+     */
+    public TieringPolicy tieringPolicy() {
+        return topImplementation.tieringPolicy;
+    }
+
+    /**
+     * The profile of this function. Profile data is only collected while the
+     * function is executed by the profiling interpreter.
+     */
+    public FunctionProfile functionProfile() {
+        return profile;
+    }
+
     MethodHandle callSiteInvoker() {
         return callSiteInvoker;
     }
@@ -368,25 +543,82 @@ public class FunctionImplementation {
         return specializedImplementation;
     }
 
+    /**
+     * Return a specialized compiled form of the function whose declared
+     * parameter and return types are exactly as in the specified type, or
+     * null if there is none. The type of the returned method handle also
+     * includes the synthetic parameters. If the function is compiled but
+     * has no such form yet, a variant is submitted for compilation unless
+     * the tiering policy forbids that, and the returned handle invokes the
+     * generic form until the variant is ready.
+     */
+    @Nullable MethodHandle specializedImplementation(MethodType declaredType) {
+        var primary = specializedImplementation;
+        if (primary != null && primary.type().dropParameterTypes(0, syntheticParameters.size()).equals(declaredType)) {
+            return primary;
+        }
+        var variant = specializationVariants.get(declaredType);
+        if (variant != null) return variant;
+        if (state != State.COMPILED || !isValidVariantType(declaredType)) return null;
+        return topImplementation.variantInvoker(this, declaredType);
+    }
+
+    private static boolean isValidVariantType(MethodType type) {
+        return type.hasPrimitives()
+            && Stream.concat(type.parameterList().stream(), Stream.of(type.returnType()))
+                .allMatch(JvmType::isRepresentableClass);
+    }
+
+    @TestOnly
+    Map<MethodType, MethodHandle> specializationVariants() {
+        return specializationVariants;
+    }
+
     RecoveryCodeGenerator.Instruction[] recoveryCode() {
         if (recoveryCode == null) {
-            recoveryCode = RecoveryCodeGenerator.EvaluatorNodeToACodeTranslator.translate(body);
+            recoveryCode = RecoveryCodeGenerator.EvaluatorNodeToACodeTranslator.translate(compiledBody());
         }
         return recoveryCode;
     }
 
+    RecoveryCodeGenerator.Instruction[] osrCode() {
+        if (osrCode == null) {
+            osrCode = RecoveryCodeGenerator.EvaluatorNodeToACodeTranslator.translateForOsr(body);
+        }
+        return osrCode;
+    }
+
     /*
         Invocation
      */
 
     public MethodHandle invoker(MethodType callSiteType) {
-        if (specializedImplementation != null && callSiteType == specializedImplementation.type()) {
-            return specializedImplementation;
+        var fallback = JvmType.adaptToCallSite(callSiteType, callSiteInvoker);
+        var switchPoint = compiledFormSwitchPoint;
+        var generic = genericImplementation;
+        if (switchPoint == null || generic == null) {
+            return fallback;
         }
-        if (genericImplementation != null) {
-            return JvmType.adaptToCallSite(callSiteType, genericImplementation);
+        if (callSiteType.hasPrimitives() && syntheticParameters.isEmpty()) {
+            var specialized = specializedImplementation(callSiteType);
+            if (specialized != null) return switchPoint.guardWithTest(specialized, fallback);
         }
-        return JvmType.adaptToCallSite(callSiteType, callSiteInvoker);
+        return switchPoint.guardWithTest(JvmType.adaptToCallSite(callSiteType, generic), fallback);
+    }
+
+    /**
+     * Return a method handle which invokes {@code compiled}, a handle derived
+     * from one of the current compiled forms of the function, until the
+     * function is deoptimized, and {@code fallback} afterwards. If the function
+     * is not compiled, return {@code fallback}.
+     */
+    MethodHandle guardCompiledForm(MethodHandle compiled, MethodHandle fallback) {
+        var switchPoint = compiledFormSwitchPoint;
+        return switchPoint != null ? switchPoint.guardWithTest(compiled, fallback) : fallback;
+    }
+
+    private MethodHandle codeCacheProbeInvoker() {
+        return PROBE_CODE_CACHE_METHOD.bindTo(this).asCollector(Object[].class, implementationArity());
     }
 
     private MethodHandle profilingInterpreterInvoker() {
@@ -398,14 +630,283 @@ public class FunctionImplementation {
             .asCollector(Object[].class, implementationArity());
     }
 
+    /**
+     * The initial call site target of a top-level function defined while the
+     * {@link CodeCache} was enabled. Install the compiled forms of the unit
+     * from the cache if it has them, otherwise start profiling. Either way,
+     * continue the invocation through the updated call site.
+     */
+    private Object probeCodeCache(Object[] args) throws Throwable {
+        probeCodeCacheOnce();
+        return callSiteInvoker.invokeWithArguments(args);
+    }
+
+    /**
+     * Look up the unit in the {@link CodeCache} unless that has already been
+     * done, and install its compiled forms if the cache has them. Besides the
+     * call site, the unit may first be reached by an interpreted direct call
+     * or a tail call, which don't go through the call site, so those paths
+     * probe the cache as well.
+     */
+    private void probeCodeCacheOnce() {
+        synchronized (compilationLock) {
+            if (awaitingCodeCacheProbe) {
+                awaitingCodeCacheProbe = false;
+                var entry = state == State.PROFILING ? CodeCache.load(this) : null;
+                installFromCodeCacheOrProfile(entry);
+            }
+        }
+    }
+
+    private synchronized void installFromCodeCacheOrProfile(@Nullable CodeCache.Entry entry) {
+        if (state != State.PROFILING) return;
+        if (entry != null) {
+            try {
+                var implClass = GeneratedCode.defineClass(entry.result());
+                entry.registerRecoverySites();
+                installCompilationResult(implClass, entry.result());
+                return;
+            } catch (LinkageError e) {
+                // the cached class failed verification; fall back to profiling
+            }
+        }
+        callSite.setTarget(profilingInterpreterInvoker());
+    }
+
     public Object profile(Object[] args) {
         Object result = ProfilingInterpreter.INSTANCE.interpret(this, args);
-        if (profile.invocationCount() > PROFILING_TARGET) {
+        if (topImplementation.tieringPolicy.shouldCompile(profile)) {
             scheduleCompilation();
         }
         return result;
     }
 
+    /**
+     * RESTRICTED. Intended for {@link Interpreter.Evaluator}. Invoke the
+     * function by calling the interpreter currently executing it, rather than
+     * through the call site. This is the same as what the call site would do,
+     * minus the cost of invoking method handles and collecting the arguments
+     * into an array. If the function has been compiled in the meantime, it is
+     * invoked normally.
+     */
+    Object invokeInterpreted(CallNode call, Interpreter.Evaluator caller) {
+        if (topImplementation.awaitingCodeCacheProbe) topImplementation.probeCodeCacheOnce();
+        switch (state) {
+            case PROFILING:
+                var result = ProfilingInterpreter.INSTANCE.interpretCall(this, call, caller);
+                if (topImplementation.tieringPolicy.shouldCompile(profile)) {
+                    scheduleCompilation();
+                }
+                return result;
+            case INTERPRETING:
+            case COMPILING:
+                return Interpreter.INSTANCE.interpretCall(this, call, caller);
+            default:
+                return userFunction.invokeWithArguments(caller.evaluateArguments(call));
+        }
+    }
+
+    /**
+     * RESTRICTED. Intended for {@link TailCall}. Invoke the function as the
+     * next step of a chain of tail calls. If the function is interpreted, a
+     * tail call it ends with is not performed but returned as a {@link
+     * TailCall}, so the caller can continue the chain without growing the
+     * stack. The same is true of the tail call form of a compiled function,
+     * if it has one. Otherwise the function is invoked normally.
+     */
+    Object invokeAsTailCall(Object[] args) {
+        if (topImplementation.awaitingCodeCacheProbe) topImplementation.probeCodeCacheOnce();
+        switch (state) {
+            case PROFILING:
+                var result = ProfilingInterpreter.INSTANCE.interpretBody(this, args);
+                if (topImplementation.tieringPolicy.shouldCompile(profile)) {
+                    scheduleCompilation();
+                }
+                return result;
+            case INTERPRETING:
+            case COMPILING:
+                return Interpreter.INSTANCE.interpretBody(this, args);
+            default:
+                var entry = tailCallEntry;
+                if (entry == null) return userFunction.invokeWithArguments(args);
+                try {
+                    return (Object) entry.invokeExact(args);
+                } catch (SquarePegException e) {
+                    return e.take();
+                } catch (RuntimeError e) {
+                    throw e;
+                } catch (Throwable throwable) {
+                    throw new InvocationException(throwable);
+                }
+        }
+    }
+
+    /**
+     * RESTRICTED. Intended for {@link ProfilingInterpreter.ProfilingEvaluator}.
+     * Called by the interpreter executing a long-running loop of this function.
+     * Return the OSR entry of the function if it's available, or schedule the
+     * compilation of the unit and return null if it's not.
+     */
+    @Nullable MethodHandle osrEntry() {
+        var entry = osrEntry;
+        if (entry == null && state == State.PROFILING) scheduleCompilation();
+        return entry;
+    }
+
+    /*
+        Tiering
+     */
+
+    /**
+     * RESTRICTED. Intended for {@link UserFunction}. Associate a tiering policy
+     * with the unit and move the unit into the tier the policy requests.
+     */
+    void setTieringPolicy(TieringPolicy policy) {
+        if (this != topImplementation) throw new AssertionError("must be invoked on a top function implementation");
+        this.tieringPolicy = policy;
+        switch (policy.initialTier()) {
+            case PROFILING_INTERPRETER:
+                resumeProfiling();
+                break;
+            case SIMPLE_INTERPRETER:
+                stopProfiling();
+                break;
+            case COMPILED:
+                scheduleCompilationAtTop();
+                break;
+            default:
+                throw new AssertionError("unexpected tier: " + policy.initialTier());
+        }
+    }
+
+    /**
+     * RESTRICTED. Intended for {@link ProfileSnapshot}. Called after profiles
+     * saved by an earlier run have been added to those of the unit, to compile
+     * the unit if the tiering policy finds them sufficient.
+     */
+    void profilesImported() {
+        if (this != topImplementation) throw new AssertionError("must be invoked on a top function implementation");
+        if (state == State.PROFILING && tieringPolicy.shouldCompile(profile)) scheduleCompilation();
+    }
+
+    private synchronized void resumeProfiling() {
+        if (state != State.INTERPRETING) return;
+        markAsProfiling();
+        for (var each : closureImplementations) each.markAsProfiling();
+    }
+
+    private synchronized void stopProfiling() {
+        if (state != State.PROFILING) return;
+        markAsInterpreted();
+        for (var each : closureImplementations) each.markAsInterpreted();
+    }
+
+    private void markAsInterpreted() {
+        state = State.INTERPRETING;
+        callSite.setTarget(simpleInterpreterInvoker());
+    }
+
+    /*
+        Deoptimization
+     */
+
+    /**
+     * RESTRICTED. Intended for {@link MethodCodeGenerator}, {@link
+     * CodeCache} and {@link SquarePegEvent}. Return the index of a recovery
+     * site of this function, registering the site if needed.
+     */
+    synchronized int recoverySiteIndex(RecoverySite site) {
+        var index = recoverySites.indexOf(site);
+        if (index >= 0) return index;
+        recoverySites.add(site);
+        return recoverySites.size() - 1;
+    }
+
+    /** RESTRICTED. Intended for {@link SquarePegCounterInvokeDynamic}. */
+    synchronized RecoverySite recoverySite(int index) {
+        return recoverySites.get(index);
+    }
+
+    /** RESTRICTED. Intended for {@link CodeCache}. */
+    synchronized int recoverySiteCount() {
+        return recoverySites.size();
+    }
+
+    /**
+     * Called by an SPE handler in compiled code of this function when it
+     * catches the exception, with the value unwrapped from the exception.
+     */
+    void recordSquarePeg(RecoverySite site, Object value) {
+        site.continuationProfile(this).recordValue(value);
+        profile.recordSquarePeg(site);
+        SquarePegEvent.emit(this, site, value);
+        noteSquarePeg();
+    }
+
+    /**
+     * Called when an SPE escapes from the specialized form of this function
+     * invoked through the core call site, which means the function's return
+     * value did not fit the specialized return type.
+     */
+    private Object recoverEscapedSquarePeg(SquarePegException exception) {
+        var value = exception.take(); // before the exception may be reused
+        profile.resultProfile().recordValue(value);
+        profile.recordSquarePeg(null);
+        SquarePegEvent.emit(this, null, value);
+        noteSquarePeg();
+        return value;
+    }
+
+    private void noteSquarePeg() {
+        var policy = tieringPolicy();
+        boolean limitReached;
+        synchronized (this) {
+            var now = System.nanoTime();
+            if (squarePegsInWindow == 0 || now - squarePegWindowStart > policy.squarePegWindowNanos()) {
+                squarePegWindowStart = now;
+                squarePegsInWindow = 0;
+            }
+            limitReached = ++squarePegsInWindow >= policy.squarePegLimit();
+            if (limitReached) squarePegsInWindow = 0;
+        }
+        if (limitReached) topImplementation.deoptimize();
+    }
+
+    /**
+     * Discard the compiled code of the unit and return it to the profiling
+     * interpreter, unless it has already been deoptimized as many times as
+     * the tiering policy allows. Profiles of the functions start a new period,
+     * so the unit is recompiled when the policy says so based on invocations
+     * from now on, but with the types widened by the values which caused the
+     * deoptimization.
+     */
+    private synchronized void deoptimize() {
+        if (this != topImplementation) throw new AssertionError("must be invoked on a top function implementation");
+        if (state != State.COMPILED || deoptimizationCount >= tieringPolicy.maxDeoptimizations()) return;
+        deoptimizationCount++;
+        var callSitesToUpdate = new ArrayList<MutableCallSite>();
+        var switchPointsToInvalidate = new ArrayList<SwitchPoint>();
+        Stream.concat(Stream.of(this), closureImplementations.stream()).forEach(each -> {
+            if (each.compiledFormSwitchPoint != null) switchPointsToInvalidate.add(each.compiledFormSwitchPoint);
+            each.discardCompiledForm();
+            callSitesToUpdate.add(each.callSite);
+        });
+        MutableCallSite.syncAll(callSitesToUpdate.toArray(new MutableCallSite[0]));
+        SwitchPoint.invalidateAll(switchPointsToInvalidate.toArray(new SwitchPoint[0]));
+    }
+
+    private void discardCompiledForm() {
+        compiledFormSwitchPoint = null;
+        genericImplementation = null;
+        specializedImplementation = null;
+        tailCallEntry = null;
+        specializationVariants = Map.of();
+        variantSites = new HashMap<>();
+        osrEntry = null;
+        profile.startNewPeriod();
+        markAsProfiling();
+    }
+
     /*
         Compilation
      */
@@ -414,11 +915,20 @@ public class FunctionImplementation {
         topImplementation.scheduleCompilationAtTop();
     }
 
-    private synchronized void scheduleCompilationAtTop() {
-        if (state == State.PROFILING) {
+    /**
+     * Switch the unit to the simple interpreter and submit it to the {@link
+     * CompilationQueue}. Unless the queue is in the synchronous mode, the
+     * calling thread does not wait for the compilation, nor does it hold the
+     * monitor of this object while the unit is being compiled.
+     */
+    private void scheduleCompilationAtTop() {
+        synchronized (this) {
+            if (state != State.PROFILING && state != State.INTERPRETING) return;
             markAsBeingCompiled();
             for (var each : closureImplementations) each.markAsBeingCompiled();
-            forceCompile();
+        }
+        if (!CompilationQueue.submit(this)) {
+            revertToProfiling();
         }
     }
 
@@ -427,19 +937,155 @@ public class FunctionImplementation {
         callSite.setTarget(simpleInterpreterInvoker());
     }
 
+    /**
+     * Called if the compilation queue rejected the unit. The unit goes back
+     * to being profiled, so a later invocation will submit it again.
+     */
+    private synchronized void revertToProfiling() {
+        if (state != State.COMPILING) return;
+        var callSitesToUpdate = new ArrayList<MutableCallSite>();
+        markAsProfiling();
+        callSitesToUpdate.add(callSite);
+        for (var each : closureImplementations) {
+            each.markAsProfiling();
+            callSitesToUpdate.add(each.callSite);
+        }
+        MutableCallSite.syncAll(callSitesToUpdate.toArray(new MutableCallSite[0]));
+    }
+
+    /**
+     * RESTRICTED. Intended for {@link CompilationQueue}. Called if compiling
+     * the unit has failed. Unless it has failed as many times as the tiering
+     * policy allows, the unit goes back to being profiled, with its profiles
+     * starting a new period, so it is submitted again once the policy finds
+     * the new profile sufficient. Otherwise the unit stays in the simple
+     * interpreter.
+     */
+    synchronized void compilationFailed() {
+        if (this != topImplementation) throw new AssertionError("must be invoked on a top function implementation");
+        if (state != State.COMPILING) return;
+        compilationFailureCount++;
+        var retry = compilationFailureCount < tieringPolicy.maxCompilationFailures();
+        var callSitesToUpdate = new ArrayList<MutableCallSite>();
+        Stream.concat(Stream.of(this), closureImplementations.stream()).forEach(each -> {
+            if (retry) {
+                each.profile.startNewPeriod();
+                each.markAsProfiling();
+            } else {
+                each.markAsInterpreted();
+            }
+            callSitesToUpdate.add(each.callSite);
+        });
+        MutableCallSite.syncAll(callSitesToUpdate.toArray(new MutableCallSite[0]));
+    }
+
+    private void markAsProfiling() {
+        state = State.PROFILING;
+        callSite.setTarget(profilingInterpreterInvoker());
+    }
+
     @TestOnly
     void useSimpleInterpreter() {
         markAsBeingCompiled();
     }
 
+    /**
+     * Compile the unit on the calling thread and install the result. Only one
+     * compilation of a unit may be in progress at a time, because the compiler
+     * annotates the unit's evaluator nodes.
+     */
     void forceCompile() {
         if (this != topImplementation) throw new AssertionError("must be invoked on a top function implementation");
-        var result = Compiler.compile(this);
-        applyCompilationResult(result);
+        synchronized (compilationLock) {
+            var result = Compiler.compile(this);
+            applyCompilationResult(result);
+            CodeCache.store(this, result);
+        }
+    }
+
+    /**
+     * Return an invoker of the variant of a function of the unit with the
+     * specified declared type, submitting the variant for compilation if it
+     * has not been requested yet. The invoker runs the generic form until the
+     * variant is ready. Return null if the unit is not compiled, or if the
+     * function has no room for one more specialized form.
+     */
+    @Nullable
+    private MethodHandle variantInvoker(FunctionImplementation function, MethodType declaredType) {
+        if (this != topImplementation) throw new AssertionError("must be invoked on a top function implementation");
+        MutableCallSite site;
+        synchronized (this) {
+            if (state != State.COMPILED) return null;
+            site = function.variantSites.get(declaredType);
+            if (site != null) return site.dynamicInvoker();
+            var formCount = function.variantSites.size() + (function.specializedImplementation != null ? 1 : 0);
+            if (formCount >= tieringPolicy.maxSpecializations()) return null;
+            // Synthetic parameters are generic here; see installVariant.
+            var siteType = declaredType.insertParameterTypes(0,
+                Collections.nCopies(function.syntheticParameters.size(), Object.class));
+            site = new MutableCallSite(JvmType.adaptToCallSite(siteType, function.genericImplementation));
+            function.variantSites.put(declaredType, site);
+        }
+        if (!CompilationQueue.submitVariant(this, function, declaredType)) {
+            synchronized (this) {
+                function.variantSites.remove(declaredType, site);
+            }
+            return null;
+        }
+        return site.dynamicInvoker();
+    }
+
+    /**
+     * RESTRICTED. Intended for {@link CompilationQueue}. Compile a variant of
+     * the specialized form of a function of the unit requested by {@link
+     * #variantInvoker}, unless the unit has been deoptimized since then.
+     */
+    void compileVariant(FunctionImplementation function, MethodType declaredType) {
+        if (this != topImplementation) throw new AssertionError("must be invoked on a top function implementation");
+        synchronized (compilationLock) {
+            MutableCallSite site;
+            synchronized (this) {
+                if (state != State.COMPILED || function.specializationVariants.containsKey(declaredType)) return;
+                site = function.variantSites.get(declaredType);
+                if (site == null) return;
+            }
+            var result = Compiler.compileVariant(this, function, declaredType);
+            var variantClass = GeneratedCode.defineClass(result);
+            MethodHandle variant;
+            try {
+                variant = MethodHandles.lookup().findStatic(variantClass, result.methodName(), result.methodType());
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                throw new AssertionError(e);
+            }
+            installVariant(function, declaredType, site, variant);
+        }
+    }
+
+    /**
+     * Add a compiled variant to the table of the function and relink its
+     * site to it. A variant with specialized synthetic parameters can't be
+     * invoked through the generic synthetic parameters of the site, because
+     * a copied value might not fit; the site then stays with the generic
+     * form, and only callers linked later use the variant.
+     */
+    private synchronized void installVariant(
+        FunctionImplementation function, MethodType declaredType, MutableCallSite site, MethodHandle variant)
+    {
+        if (function.variantSites.get(declaredType) != site) return; // deoptimized in the meantime
+        var variants = new HashMap<>(function.specializationVariants);
+        variants.put(declaredType, variant);
+        function.specializationVariants = Map.copyOf(variants);
+        if (variant.type().equals(site.type())) {
+            site.setTarget(variant);
+            MutableCallSite.syncAll(new MutableCallSite[] {site});
+        }
     }
 
     private synchronized void applyCompilationResult(Compiler.UnitResult result) {
-        var implClass = GeneratedCode.defineClass(result);
+        installCompilationResult(GeneratedCode.defineClass(result), result);
+    }
+
+    private void installCompilationResult(Class<?> implClass, Compiler.UnitResult result) {
         var callSitesToUpdate = new ArrayList<MutableCallSite>();
         for (var entry : result.results().entrySet()) {
             var functionImpl = entry.getKey();
@@ -451,6 +1097,7 @@ public class FunctionImplementation {
 
     private void installCompiledForm(Class<?> generatedClass, Compiler.FunctionResult result) {
         MethodHandle specializedMethod = null;
+        MethodHandle tailCallMethod = null;
         try {
             genericImplementation = MethodHandles.lookup().findStatic(
                 generatedClass,
@@ -462,18 +1109,35 @@ public class FunctionImplementation {
                     result.specializedMethodName(),
                     result.specializedMethodType());
             }
+            if (result.osrMethodName() != null) {
+                osrEntry = MethodHandles.lookup().findStatic(
+                    generatedClass,
+                    result.osrMethodName(),
+                    OSR_ENTRY_TYPE);
+            }
+            if (result.tailCallMethodName() != null) {
+                tailCallMethod = MethodHandles.lookup().findStatic(
+                    generatedClass,
+                    result.tailCallMethodName(),
+                    MethodType.genericMethodType(implementationArity()));
+            }
         } catch (NoSuchMethodException | IllegalAccessException e) {
             throw new AssertionError(e);
         }
         if (specializedMethod == null) {
             callSite.setTarget(genericImplementation);
             specializedImplementation = null;
-            // this will not work if we allow de-specializing
         } else {
             callSite.setTarget(
                 makeSpecializationGuard(genericImplementation, specializedMethod, result.specializedMethodType()));
             specializedImplementation = specializedMethod;
         }
+        tailCallEntry = tailCallMethod != null
+            ? tailCallMethod.asSpreader(Object[].class, implementationArity())
+            : null;
+        specializationVariants = Map.of();
+        variantSites = new HashMap<>();
+        compiledFormSwitchPoint = new SwitchPoint();
         state = State.COMPILED;
     }
 
@@ -493,7 +1157,7 @@ public class FunctionImplementation {
         MethodHandle generic = specialization.asType(specialization.type().generic());
         // If return type is primitive, a return value not fitting the type will come back as SPE
         if (specialization.type().returnType().isPrimitive()) {
-            return MethodHandles.catchException(generic, SquarePegException.class, EXTRACT_SQUARE_PEG);
+            return MethodHandles.catchException(generic, SquarePegException.class, RECOVER_ESCAPED_SQUARE_PEG.bindTo(this));
         } else {
             return generic;
         }
@@ -511,15 +1175,11 @@ public class FunctionImplementation {
         return true;
     }
 
-    @SuppressWarnings("unused") // called by generated code
-    public static Object extractSquarePeg(SquarePegException exception) {
-        return exception.value;
-    }
-
     private static final MethodHandle CHECK;
-    private static final MethodHandle EXTRACT_SQUARE_PEG;
+    private static final MethodHandle RECOVER_ESCAPED_SQUARE_PEG;
     private static final MethodHandle INTERPRET_METHOD;
     private static final MethodHandle PROFILE_METHOD;
+    private static final MethodHandle PROBE_CODE_CACHE_METHOD;
 
     static {
         try {
@@ -528,9 +1188,9 @@ public class FunctionImplementation {
                 FunctionImplementation.class,
                 "checkSpecializationApplicability",
                 MethodType.methodType(boolean.class, MethodType.class, Object[].class));
-            EXTRACT_SQUARE_PEG = lookup.findStatic(
+            RECOVER_ESCAPED_SQUARE_PEG = lookup.findVirtual(
                 FunctionImplementation.class,
-                "extractSquarePeg", MethodType.methodType(Object.class, SquarePegException.class));
+                "recoverEscapedSquarePeg", MethodType.methodType(Object.class, SquarePegException.class));
             INTERPRET_METHOD = lookup.findVirtual(
                 Interpreter.class,
                 "interpret",
@@ -539,6 +1199,10 @@ public class FunctionImplementation {
                 FunctionImplementation.class,
                 "profile",
                 MethodType.methodType(Object.class, Object[].class));
+            PROBE_CODE_CACHE_METHOD = lookup.findVirtual(
+                FunctionImplementation.class,
+                "probeCodeCache",
+                MethodType.methodType(Object.class, Object[].class));
         } catch (NoSuchMethodException | IllegalAccessException e) {
             throw new AssertionError(e);
         }
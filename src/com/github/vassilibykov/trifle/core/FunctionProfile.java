@@ -2,42 +2,226 @@
 
 package com.github.vassilibykov.trifle.core;
 
+import org.jetbrains.annotations.Nullable;
+
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Counts function invocations and records observed types of function
- * arguments and other locals.
+ * arguments and other locals. Also keeps function-wide totals of loop
+ * iterations and conditional branch executions, and the time profiling
+ * started, for the benefit of {@link TieringPolicy}. Unlike the other data,
+ * the counts of {@link SquarePegException}s thrown by the function's compiled
+ * code are recorded while the function runs compiled.
+ *
+ * <p>The counts updated on every invocation are {@link LongAdder}s, and
+ * value profiles are similarly contention-free, so threads profiling the
+ * same function at once don't serialize on it.
+ *
+ * <p>If the tiering policy asks for only some invocations to be profiled
+ * (see {@link TieringPolicy#profilingSampleInterval()}), all invocations are
+ * still counted, while loop iterations and branch executions are only
+ * observed in the profiled ones. Their totals are extrapolated to all
+ * invocations.
  */
-class FunctionProfile {
+public class FunctionProfile {
     private final List<VariableDefinition> methodParameters;
-    private long invocationCount = 0;
+    private final LongAdder invocationCount = new LongAdder();
+    private final LongAdder sampledInvocationCount = new LongAdder();
     private final ValueProfile resultProfile = new ValueProfile();
+    private final LongAdder backEdgeCount = new LongAdder();
+    private final LongAdder branchCount = new LongAdder();
+    private final AtomicLong profilingStartTime = new AtomicLong();
+    private final AtomicLong squarePegCount = new AtomicLong();
+    private final Map<RecoverySite, AtomicLong> squarePegCountsBySite = new ConcurrentHashMap<>();
 
     FunctionProfile(List<VariableDefinition> arguments) {
         this.methodParameters = arguments;
     }
 
-    synchronized long invocationCount() {
-        return invocationCount;
+    public long invocationCount() {
+        return invocationCount.sum();
+    }
+
+    /**
+     * The number of invocations which were profiled. Equal to {@link
+     * #invocationCount()} unless the tiering policy samples invocations.
+     */
+    public long sampledInvocationCount() {
+        return sampledInvocationCount.sum();
+    }
+
+    /**
+     * The number of iterations of all loops of the function observed so far,
+     * extrapolated to all invocations if not all of them were profiled.
+     */
+    public long backEdgeCount() {
+        return extrapolated(backEdgeCount.sum());
+    }
+
+    /**
+     * The number of times any branch of any conditional expression of the
+     * function was executed so far, extrapolated to all invocations if not
+     * all of them were profiled.
+     */
+    public long branchCount() {
+        return extrapolated(branchCount.sum());
+    }
+
+    private long extrapolated(long sampledCount) {
+        var sampled = sampledInvocationCount.sum();
+        var all = invocationCount.sum();
+        return sampled == 0 || sampled >= all ? sampledCount : (long) (sampledCount * ((double) all / sampled));
+    }
+
+    /**
+     * The time in nanoseconds elapsed since the first profiled invocation of
+     * the function, or zero if the function hasn't been invoked yet.
+     */
+    public long profilingTimeNanos() {
+        var startTime = profilingStartTime.get();
+        return startTime == 0 ? 0 : System.nanoTime() - startTime;
+    }
+
+    /**
+     * The number of specialization failures in the compiled code of the
+     * function observed so far, including those which escaped the function's
+     * specialized method as its return value.
+     */
+    public long squarePegCount() {
+        return squarePegCount.get();
+    }
+
+    /**
+     * The number of specialization failures in the compiled code of the
+     * function recovered from at the specified site.
+     */
+    long squarePegCount(RecoverySite site) {
+        var count = squarePegCountsBySite.get(site);
+        return count != null ? count.get() : 0;
     }
 
     ValueProfile resultProfile() {
         return resultProfile;
     }
 
-    synchronized void recordArguments(Object[] frame) {
+    /**
+     * Decide whether the invocation about to start should be profiled, given
+     * the sampling interval of the tiering policy. The first invocation of a
+     * profiling period is always profiled.
+     */
+    boolean shouldSample(int interval) {
+        return interval <= 1
+            || ThreadLocalRandom.current().nextInt(interval) == 0
+            || sampledInvocationCount.sum() == 0;
+    }
+
+    void recordArguments(Object[] frame) {
+        // check first to keep the common case a plain read
+        if (profilingStartTime.get() == 0) profilingStartTime.compareAndSet(0, System.nanoTime());
         for (var each : methodParameters) {
             each.profile.recordValue(each.getValueIn(frame));
         }
     }
 
-    synchronized void recordResult(Object result) {
+    void recordResult(Object result) {
         /* It's important to count invocations here, after the function returns,
            and not in 'recordArguments' before it's invoked. Counting there may
            in case of recursive calls trigger compilation too early (on the first
            return from a recursive call), when profile data has not yet been
            collected for parts of the function following the recursive return. */
-        invocationCount++;
+        invocationCount.increment();
+        sampledInvocationCount.increment();
         resultProfile.recordValue(result);
     }
+
+    /**
+     * Record an invocation which ended with a call in tail position. The
+     * result of the invocation is not known yet when it ends.
+     */
+    void recordTailCall() {
+        invocationCount.increment();
+        sampledInvocationCount.increment();
+    }
+
+    /**
+     * Record an invocation which was not profiled.
+     */
+    void recordUnsampledInvocation() {
+        invocationCount.increment();
+    }
+
+    /**
+     * Record the result eventually produced by the chain of tail calls an
+     * invocation recorded by {@link #recordTailCall()} ended with.
+     */
+    void recordTailCallResult(Object result) {
+        resultProfile.recordValue(result);
+    }
+
+    void recordBackEdge() {
+        backEdgeCount.increment();
+    }
+
+    void recordBranch() {
+        branchCount.increment();
+    }
+
+    /**
+     * Record a specialization failure at the specified recovery site, or at
+     * the return from the function if the site is null.
+     */
+    void recordSquarePeg(@Nullable RecoverySite site) {
+        squarePegCount.incrementAndGet();
+        if (site != null) {
+            squarePegCountsBySite.computeIfAbsent(site, any -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    /**
+     * RESTRICTED. Intended for {@link ProfileSnapshot}. The current values of
+     * the counters of the function as a whole, in the order accepted by
+     * {@link #addCounts(long[])}. Loop and branch counts are not
+     * extrapolated.
+     */
+    long[] counts() {
+        return new long[] {
+            invocationCount.sum(),
+            sampledInvocationCount.sum(),
+            backEdgeCount.sum(),
+            branchCount.sum(),
+            squarePegCount.get()
+        };
+    }
+
+    /**
+     * RESTRICTED. Intended for {@link ProfileSnapshot}. Add counts saved by
+     * {@link #counts()}, possibly in another run, to the counters.
+     */
+    void addCounts(long[] counts) {
+        invocationCount.add(counts[0]);
+        sampledInvocationCount.add(counts[1]);
+        backEdgeCount.add(counts[2]);
+        branchCount.add(counts[3]);
+        squarePegCount.addAndGet(counts[4]);
+    }
+
+    /**
+     * Start a new profiling period after the function has been deoptimized.
+     * Invocation, loop and branch counts start over so that the tiering
+     * policy gives the function a fresh look, but value profiles are kept:
+     * they include the values which caused the deoptimization.
+     */
+    void startNewPeriod() {
+        invocationCount.reset();
+        sampledInvocationCount.reset();
+        profilingStartTime.set(0);
+        backEdgeCount.reset();
+        branchCount.reset();
+    }
 }
@@ -2,30 +2,31 @@
 
 package com.github.vassilibykov.trifle.core;
 
-import sun.misc.Unsafe;
-
-import java.lang.reflect.Field;
+import java.lang.invoke.MethodHandles;
+import java.util.List;
 
 /**
- * A loader and container of generated code. Using Unsafe to load generated
- * code, as opposed to using a custom classloader as in early versions, appears
- * to result in slightly better performance for specialized code.
+ * A loader and container of generated code. Generated classes are defined as
+ * hidden classes in this package, with the objects their code references as
+ * the class data; see {@link ClassData}. A hidden class is not registered with
+ * a class loader, so it's unloaded once it becomes unreachable, together with
+ * the objects it references.
  */
-@SuppressWarnings("sunapi")
 class GeneratedCode {
-    private static final Unsafe UNSAFE = getUnsafe();
 
-    private static Unsafe getUnsafe() {
+    static Class<?> defineClass(Compiler.UnitResult compilerResult) {
+        return defineClass(compilerResult.bytecode(), compilerResult.classData());
+    }
+
+    static Class<?> defineClass(Compiler.VariantResult compilerResult) {
+        return defineClass(compilerResult.bytecode(), compilerResult.classData());
+    }
+
+    private static Class<?> defineClass(byte[] bytecode, List<Object> classData) {
         try {
-            Field singleoneInstanceField = Unsafe.class.getDeclaredField("theUnsafe");
-            singleoneInstanceField.setAccessible(true);
-            return (Unsafe) singleoneInstanceField.get(null);
-        } catch (NoSuchFieldException | IllegalAccessException e) {
+            return MethodHandles.lookup().defineHiddenClassWithClassData(bytecode, classData, true).lookupClass();
+        } catch (IllegalAccessException e) {
             throw new AssertionError(e);
         }
     }
-
-    static Class<?> defineClass(Compiler.UnitResult compilerResult) {
-        return UNSAFE.defineAnonymousClass(GeneratedCode.class, compilerResult.bytecode(), null);
-    }
 }
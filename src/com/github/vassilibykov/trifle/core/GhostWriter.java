@@ -12,6 +12,8 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
+import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
+import static com.github.vassilibykov.trifle.core.JvmType.VOID;
 import static org.objectweb.asm.Opcodes.*;
 
 /**
@@ -50,53 +52,46 @@ public class GhostWriter {
     private static final Map<Class<?>, String> nullaryMethodDescriptorCache = new ConcurrentHashMap<>();
     private static final Map<Class<?>, Map<Class<?>, String>> unaryMethodDescriptorCache = new ConcurrentHashMap<>();
 
-    private static final String OBJECT_DESC = "Ljava/lang/Object;";
     private static final String INTEGER_ICN = internalClassName(Integer.class);
     private static final String BOOLEAN_ICN = internalClassName(Boolean.class);
+    private static final String LONG_ICN = internalClassName(Long.class);
+    private static final String DOUBLE_ICN = internalClassName(Double.class);
 
     /*
         Instance
      */
 
     private final MethodVisitor asmWriter;
+    private final ClassData classData;
 
-    GhostWriter(MethodVisitor methodWriter) {
+    GhostWriter(MethodVisitor methodWriter, ClassData classData) {
         this.asmWriter = methodWriter;
+        this.classData = classData;
     }
 
     public MethodVisitor asm() {
         return asmWriter;
     }
 
+    /**
+     * The objects referenced by the class being generated.
+     */
+    ClassData classData() {
+        return classData;
+    }
+
     public GhostWriter adaptValue(JvmType from, JvmType to) {
-        from.match(new JvmType.VoidMatcher() {
-            public void ifReference() {
-                to.match(new JvmType.VoidMatcher() {
-                    public void ifReference() { }
-                    public void ifInt() { unwrapInteger(); }
-                    public void ifBoolean() { unwrapBoolean(); }
-                });
-            }
-            public void ifInt() {
-                to.match(new JvmType.VoidMatcher() {
-                    public void ifReference() { wrapInteger(); }
-                    public void ifInt() { }
-                    public void ifBoolean() { throw new CompilerError("cannot adapt int to boolean"); }
-                });
-            }
-            public void ifBoolean() {
-                to.match(new JvmType.VoidMatcher() {
-                    public void ifReference() { wrapBoolean(); }
-                    public void ifInt() {
-                        throw new CompilerError("cannot adapt boolean to int");
-                    }
-                    public void ifBoolean() { }
-                });
-            }
-            public void ifVoid() {
-                // means the computation that produced the value terminated the current invocation
-            }
-        });
+        if (from == VOID) {
+            // means the computation that produced the value terminated the current invocation
+        } else if (from == to) {
+            if (to == VOID) throw new AssertionError("a VOID type is not expected here");
+        } else if (from == REFERENCE) {
+            unwrap(to);
+        } else if (to == REFERENCE) {
+            wrap(from);
+        } else {
+            throw new CompilerError("cannot adapt " + from + " to " + to);
+        }
         return this;
     }
 
@@ -133,94 +128,85 @@ public class GhostWriter {
      *         thrown in the generated code.
      */
     public boolean bridgeValue(JvmType from, JvmType to) {
-        return from.match(new JvmType.Matcher<>() {
-            public Boolean ifReference() {
-                return to.match(new JvmType.Matcher<>() {
-                    public Boolean ifReference() {
-                        return false;
-                    }
-                    public Boolean ifInt() {
-                        unwrapIntegerOr(GhostWriter.this::throwSquarePegException);
-                        return true;
-                    }
-                    public Boolean ifBoolean() {
-                        unwrapBooleanOr(GhostWriter.this::throwSquarePegException);
-                        return true;
-                    }
-                    public Boolean ifVoid() {
-                        return false;
-                    }
-                });
-            }
-            public Boolean ifInt() {
-                return to.match(new JvmType.Matcher<>() {
-                    public Boolean ifReference() {
-                        wrapInteger();
-                        return false;
-                    }
-                    public Boolean ifInt() {
-                        return false;
-                    }
-                    public Boolean ifBoolean() {
-                        wrapInteger().throwSquarePegException();
-                        return true;
-                    }
-                    public Boolean ifVoid() {
-                        return false;
-                    }
-                });
-            }
-            public Boolean ifBoolean() {
-                return to.match(new JvmType.Matcher<>() {
-                    public Boolean ifReference() {
-                        wrapBoolean();
-                        return false;
-                    }
-                    public Boolean ifInt() {
-                        wrapBoolean().throwSquarePegException();
-                        return true;
-                    }
-                    public Boolean ifBoolean() {
-                        return false;
-                    }
-                    public Boolean ifVoid() {
-                        return false;
-                    }
-                });
-            }
-            public Boolean ifVoid() {
-                // occurs in the middle of blocks and in return statements; nothing needs to be done
-                return false;
-            }
+        if (from == VOID || to == VOID || from == to) {
+            // VOID occurs in the middle of blocks and in return statements; nothing needs to be done
+            return false;
+        } else if (from == REFERENCE) {
+            unwrapOr(to, this::throwSquarePegException);
+            return true;
+        } else if (to == REFERENCE) {
+            wrap(from);
+            return false;
+        } else {
+            wrap(from).throwSquarePegException();
+            return true;
+        }
+    }
+
+    public GhostWriter ensureValue(JvmType from, JvmType to) {
+        if (from == to) {
+            if (to == VOID) throw new AssertionError("a VOID type is not expected here");
+        } else if (from == REFERENCE) {
+            to.match(new JvmType.VoidMatcher() {
+                public void ifReference() { }
+                public void ifInt() { unwrapIntegerOr(() -> throwIntegerExpected()); }
+                public void ifBoolean() { unwrapBooleanOr(() -> throwBooleanExpected()); }
+                public void ifLong() { unwrapLongOr(() -> throwError("long expected")); }
+                public void ifDouble() { unwrapDoubleOr(() -> throwError("double expected")); }
+            });
+        } else if (to == REFERENCE) {
+            wrap(from);
+        } else {
+            throw new CompilerError("cannot convert " + from + " to " + to);
+        }
+        return this;
+    }
+
+    /**
+     * Generate code to replace a primitive value of the specified type on the
+     * stack with its wrapper object. Does nothing for a reference.
+     */
+    public GhostWriter wrap(JvmType type) {
+        type.match(new JvmType.VoidMatcher() {
+            public void ifReference() { }
+            public void ifInt() { wrapInteger(); }
+            public void ifBoolean() { wrapBoolean(); }
+            public void ifLong() { wrapLong(); }
+            public void ifDouble() { wrapDouble(); }
         });
+        return this;
     }
 
+    /**
+     * Generate code to replace a wrapper object on the stack with the
+     * primitive value of the specified type it wraps. The wrapper must be of
+     * the right class. Does nothing if the type is a reference.
+     */
+    public GhostWriter unwrap(JvmType type) {
+        type.match(new JvmType.VoidMatcher() {
+            public void ifReference() { }
+            public void ifInt() { unwrapInteger(); }
+            public void ifBoolean() { unwrapBoolean(); }
+            public void ifLong() { unwrapLong(); }
+            public void ifDouble() { unwrapDouble(); }
+        });
+        return this;
+    }
 
-    public GhostWriter ensureValue(JvmType from, JvmType to) {
-        from.match(new JvmType.VoidMatcher() {
-            public void ifReference() {
-                to.match(new JvmType.VoidMatcher() {
-                    public void ifReference() { }
-                    public void ifInt() { unwrapIntegerOr(() -> throwIntegerExpected()); }
-                    public void ifBoolean() { unwrapBooleanOr(() -> throwBooleanExpected()); }
-                });
-            }
-            public void ifInt() {
-                to.match(new JvmType.VoidMatcher() {
-                    public void ifReference() { wrapInteger(); }
-                    public void ifInt() { }
-                    public void ifBoolean() { throw new CompilerError("cannot convert int to boolean"); }
-                });
-            }
-            public void ifBoolean() {
-                to.match(new JvmType.VoidMatcher() {
-                    public void ifReference() { wrapBoolean(); }
-                    public void ifInt() {
-                        throw new CompilerError("cannot convert boolean to int");
-                    }
-                    public void ifBoolean() { }
-                });
-            }
+    /**
+     * Same as {@link #unwrap(JvmType)}, but if the value on the stack is not
+     * a wrapper of the right class, do whatever is generated by the failure
+     * code generator.
+     *
+     * @see #unwrapBooleanOr(Runnable)
+     */
+    public GhostWriter unwrapOr(JvmType type, Runnable failureCodeGenerator) {
+        type.match(new JvmType.VoidMatcher() {
+            public void ifReference() { }
+            public void ifInt() { unwrapIntegerOr(failureCodeGenerator); }
+            public void ifBoolean() { unwrapBooleanOr(failureCodeGenerator); }
+            public void ifLong() { unwrapLongOr(failureCodeGenerator); }
+            public void ifDouble() { unwrapDoubleOr(failureCodeGenerator); }
         });
         return this;
     }
@@ -235,6 +221,16 @@ public class GhostWriter {
         return this;
     }
 
+    public GhostWriter wrapLong() {
+        invokeStatic(Long.class, "valueOf", Long.class, long.class);
+        return this;
+    }
+
+    public GhostWriter wrapDouble() {
+        invokeStatic(Double.class, "valueOf", Double.class, double.class);
+        return this;
+    }
+
     public GhostWriter checkCast(Class<?> castClass) {
         asmWriter.visitTypeInsn(CHECKCAST, internalClassName(castClass));
         return this;
@@ -250,6 +246,8 @@ public class GhostWriter {
             public void ifReference() { loadNull(); }
             public void ifInt() { loadInt(0); }
             public void ifBoolean() { loadInt(0); }
+            public void ifLong() { asmWriter.visitInsn(LCONST_0); }
+            public void ifDouble() { asmWriter.visitInsn(DCONST_0); }
         });
         return this;
     }
@@ -259,6 +257,15 @@ public class GhostWriter {
         return this;
     }
 
+    /**
+     * Duplicate the value of the specified type on top of the stack, taking
+     * into account that wide values occupy two stack slots.
+     */
+    public GhostWriter dup(JvmType type) {
+        asmWriter.visitInsn(type.slotSize() == 2 ? DUP2 : DUP);
+        return this;
+    }
+
     public GhostWriter extractBoxedVariable() {
         checkCast(Box.class);
         invokeVirtual(Box.class, Box.VALUE_AS_REFERENCE, Object.class);
@@ -279,6 +286,8 @@ public class GhostWriter {
             public void ifReference() { initBoxedReference(index); }
             public void ifBoolean() { initBoxedBool(index); }
             public void ifInt() { initBoxedInt(index); }
+            public void ifLong() { initBoxedLong(index); }
+            public void ifDouble() { initBoxedDouble(index); }
         });
         return this;
     }
@@ -302,6 +311,18 @@ public class GhostWriter {
         return this;
     }
 
+    public GhostWriter initBoxedLong(int index) {
+        invokeStatic(Box.class, "with", Box.class, long.class);
+        asmWriter.visitVarInsn(ASTORE, index);
+        return this;
+    }
+
+    public GhostWriter initBoxedDouble(int index) {
+        invokeStatic(Box.class, "with", Box.class, double.class);
+        asmWriter.visitVarInsn(ASTORE, index);
+        return this;
+    }
+
     public GhostWriter instanceOf(Class<?> targetClass) {
         asmWriter.visitTypeInsn(INSTANCEOF, internalClassName(targetClass));
         return this;
@@ -361,6 +382,11 @@ public class GhostWriter {
         return this;
     }
 
+    public GhostWriter loadArrayElement() {
+        asmWriter.visitInsn(AALOAD);
+        return this;
+    }
+
     public GhostWriter loadClass(Class<?> klass) {
         throw new UnsupportedOperationException("not implemented yet"); // TODO implement
     }
@@ -374,8 +400,38 @@ public class GhostWriter {
             asmWriter.visitInsn(SPECIAL_LOAD_INT_OPCODES[value]);
         } else if (-128 <= value && value <= 127) {
             asmWriter.visitIntInsn(BIPUSH, value);
-        } else {
+        } else if (Short.MIN_VALUE <= value && value <= Short.MAX_VALUE) {
             asmWriter.visitIntInsn(SIPUSH, value);
+        } else {
+            asmWriter.visitLdcInsn(value);
+        }
+        return this;
+    }
+
+    /**
+     * Load a {@code long} constant on the stack using the best available
+     * instruction.
+     */
+    public GhostWriter loadLong(long value) {
+        if (value == 0L || value == 1L) {
+            asmWriter.visitInsn(value == 0L ? LCONST_0 : LCONST_1);
+        } else {
+            asmWriter.visitLdcInsn(value);
+        }
+        return this;
+    }
+
+    /**
+     * Load a {@code double} constant on the stack using the best available
+     * instruction.
+     */
+    public GhostWriter loadDouble(double value) {
+        if (Double.doubleToRawLongBits(value) == 0L) {
+            asmWriter.visitInsn(DCONST_0); // but not -0.0
+        } else if (value == 1.0) {
+            asmWriter.visitInsn(DCONST_1);
+        } else {
+            asmWriter.visitLdcInsn(value);
         }
         return this;
     }
@@ -385,6 +441,8 @@ public class GhostWriter {
             public void ifReference() { asmWriter.visitVarInsn(ALOAD, index); }
             public void ifInt() { asmWriter.visitVarInsn(ILOAD, index); }
             public void ifBoolean() { asmWriter.visitVarInsn(ILOAD, index); }
+            public void ifLong() { asmWriter.visitVarInsn(LLOAD, index); }
+            public void ifDouble() { asmWriter.visitVarInsn(DLOAD, index); }
         });
         return this;
     }
@@ -410,11 +468,22 @@ public class GhostWriter {
         return this;
     }
 
+    /**
+     * Discard the value of the specified type on top of the stack, taking into
+     * account that wide values occupy two stack slots.
+     */
+    public GhostWriter pop(JvmType type) {
+        asmWriter.visitInsn(type.slotSize() == 2 ? POP2 : POP);
+        return this;
+    }
+
     public GhostWriter ret(JvmType type) {
         type.match(new JvmType.VoidMatcher() {
             public void ifReference() { asmWriter.visitInsn(ARETURN); }
             public void ifInt() { asmWriter.visitInsn(IRETURN); }
             public void ifBoolean() { asmWriter.visitInsn(IRETURN); }
+            public void ifLong() { asmWriter.visitInsn(LRETURN); }
+            public void ifDouble() { asmWriter.visitInsn(DRETURN); }
         });
         return this;
     }
@@ -437,6 +506,8 @@ public class GhostWriter {
             public void ifReference() { asmWriter.visitVarInsn(ASTORE, index); }
             public void ifInt() { asmWriter.visitVarInsn(ISTORE, index); }
             public void ifBoolean() { asmWriter.visitVarInsn(ISTORE, index); }
+            public void ifLong() { asmWriter.visitVarInsn(LSTORE, index); }
+            public void ifDouble() { asmWriter.visitVarInsn(DSTORE, index); }
         });
         return this;
     }
@@ -446,6 +517,8 @@ public class GhostWriter {
             public void ifReference() { storeBoxedReference(index); }
             public void ifBoolean() { storeBoxedBool(index); }
             public void ifInt() { storeBoxedInt(index); }
+            public void ifLong() { storeBoxedWide(long.class, index); }
+            public void ifDouble() { storeBoxedWide(double.class, index); }
         });
         return this;
     }
@@ -475,6 +548,20 @@ public class GhostWriter {
         return this;
     }
 
+    /**
+     * Store a {@code long} or a {@code double} value on the stack into the box
+     * in the specified local. The box can't simply be swapped with a wide
+     * value, so it's moved under it by duplicating and popping.
+     */
+    private GhostWriter storeBoxedWide(Class<?> valueClass, int index) {
+        asmWriter.visitVarInsn(ALOAD, index);
+        checkCast(Box.class);
+        asmWriter.visitInsn(DUP_X2);
+        pop();
+        invokeVirtual(Box.class, Box.SET_VALUE, void.class, valueClass);
+        return this;
+    }
+
     public GhostWriter swap() {
         asmWriter.visitInsn(SWAP);
         return this;
@@ -524,6 +611,12 @@ public class GhostWriter {
                 invokeVirtual(Box.class, Box.VALUE_AS_REFERENCE, Object.class);
                 unwrapBoolean();
             }
+            public void ifLong() {
+                invokeVirtual(Box.class, Box.VALUE_AS_LONG, long.class);
+            }
+            public void ifDouble() {
+                invokeVirtual(Box.class, Box.VALUE_AS_DOUBLE, double.class);
+            }
         });
         return this;
     }
@@ -575,11 +668,52 @@ public class GhostWriter {
         return this;
     }
 
-    public GhostWriter unwrapSPE() {
-        asmWriter.visitFieldInsn(GETFIELD, internalClassName(SquarePegException.class), "value", OBJECT_DESC);
+    public GhostWriter unwrapLong() {
+        checkCast(Long.class);
+        invokeVirtual(Long.class, "longValue", long.class);
         return this;
     }
 
+    /**
+     * Similar to {@link #unwrapBooleanOr(Runnable)}.
+     */
+    public GhostWriter unwrapLongOr(Runnable failureCodeGenerator) {
+        dup();
+        instanceOf(LONG_ICN);
+        withLabelAtEnd(onSuccess -> {
+            jumpIfNot0(onSuccess);
+            failureCodeGenerator.run();
+        });
+        checkCast(LONG_ICN);
+        invokeVirtual(LONG_ICN, "longValue", long.class);
+        return this;
+    }
+
+    public GhostWriter unwrapDouble() {
+        checkCast(Double.class);
+        invokeVirtual(Double.class, "doubleValue", double.class);
+        return this;
+    }
+
+    /**
+     * Similar to {@link #unwrapBooleanOr(Runnable)}.
+     */
+    public GhostWriter unwrapDoubleOr(Runnable failureCodeGenerator) {
+        dup();
+        instanceOf(DOUBLE_ICN);
+        withLabelAtEnd(onSuccess -> {
+            jumpIfNot0(onSuccess);
+            failureCodeGenerator.run();
+        });
+        checkCast(DOUBLE_ICN);
+        invokeVirtual(DOUBLE_ICN, "doubleValue", double.class);
+        return this;
+    }
+
+    public GhostWriter unwrapSPE() {
+        return invokeVirtual(SquarePegException.class, "take", Object.class);
+    }
+
 
     public GhostWriter withLabelAtEnd(Consumer<Label> emitter) {
         Label label = new Label();
@@ -13,13 +13,33 @@ class IfNode extends EvaluatorNode {
     @NotNull private final EvaluatorNode condition;
     @NotNull private final EvaluatorNode trueBranch;
     @NotNull private final EvaluatorNode falseBranch;
-    /*internal*/ final AtomicLong trueBranchCount = new AtomicLong();
-    /*internal*/ final AtomicLong falseBranchCount = new AtomicLong();
+    /*internal*/ final AtomicLong trueBranchCount;
+    /*internal*/ final AtomicLong falseBranchCount;
 
     IfNode(@NotNull EvaluatorNode condition, @NotNull EvaluatorNode trueBranch, @NotNull EvaluatorNode falseBranch) {
+        this(condition, trueBranch, falseBranch, new AtomicLong(), new AtomicLong());
+    }
+
+    private IfNode(
+        @NotNull EvaluatorNode condition,
+        @NotNull EvaluatorNode trueBranch,
+        @NotNull EvaluatorNode falseBranch,
+        @NotNull AtomicLong trueBranchCount,
+        @NotNull AtomicLong falseBranchCount)
+    {
         this.condition = condition;
         this.trueBranch = trueBranch;
         this.falseBranch = falseBranch;
+        this.trueBranchCount = trueBranchCount;
+        this.falseBranchCount = falseBranchCount;
+    }
+
+    /**
+     * Create a conditional with the specified parts which shares the branch
+     * counts of this one.
+     */
+    IfNode withParts(@NotNull EvaluatorNode condition, @NotNull EvaluatorNode trueBranch, @NotNull EvaluatorNode falseBranch) {
+        return new IfNode(condition, trueBranch, falseBranch, trueBranchCount, falseBranchCount);
     }
 
     public EvaluatorNode condition() {
@@ -0,0 +1,50 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A flight recorder event of a change in the state of an {@link
+ * InlineCachingCallSite}: a cache entry added, the site becoming megamorphic,
+ * or the site reset to its original dispatch. The events of one call site
+ * share the call site ID.
+ */
+@Name("com.github.vassilibykov.trifle.InlineCache")
+@Label("Inline Cache Transition")
+@Category({"Trifle", "Call Sites"})
+@Description("A change in the state of an inline caching call site")
+final class InlineCacheEvent extends Event {
+
+    static final String ENTRY_ADDED = "entry added";
+    static final String MEGAMORPHIC = "megamorphic";
+    static final String RESET = "reset";
+
+    @Label("Transition")
+    String transition;
+
+    @Label("Cache Size")
+    @Description("The number of cache entries after the transition")
+    int cacheSize;
+
+    @Label("Call Site ID")
+    @Description("The identity hash code of the call site")
+    int callSiteId;
+
+    @Label("Call Site Type")
+    String callSiteType;
+
+    static void emit(InlineCachingCallSite callSite, String transition, int cacheSize) {
+        var event = new InlineCacheEvent();
+        if (!event.shouldCommit()) return;
+        event.transition = transition;
+        event.cacheSize = cacheSize;
+        event.callSiteId = System.identityHashCode(callSite);
+        event.callSiteType = callSite.type().toString();
+        event.commit();
+    }
+}
@@ -66,9 +66,11 @@ public class InlineCachingCallSite extends MutableCallSite {
             cacheSize++;
             MethodHandle entry = MethodHandles.guardWithTest(guard, guardedPath, getTarget());
             setTarget(entry);
+            InlineCacheEvent.emit(this, InlineCacheEvent.ENTRY_ADDED, cacheSize);
         } else if (cacheSize == CACHE_LIMIT) {
             cacheSize++;
             setTarget(megamorphicDispatch != null ? megamorphicDispatch : originalDispatch);
+            InlineCacheEvent.emit(this, InlineCacheEvent.MEGAMORPHIC, 0);
         }
         MutableCallSite.syncAll(new MutableCallSite[]{this});
     }
@@ -77,6 +79,7 @@ public class InlineCachingCallSite extends MutableCallSite {
         cacheSize = 0;
         setTarget(originalDispatch);
         MutableCallSite.syncAll(new MutableCallSite[]{this});
+        InlineCacheEvent.emit(this, InlineCacheEvent.RESET, 0);
     }
 
     /**
@@ -0,0 +1,401 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Prepares the body of a function for compilation by replacing calls of small,
+ * frequently invoked user functions with copies of their bodies. Runs before
+ * type inference, so an inlined body is specialized to the types of the
+ * arguments in the caller rather than to the types the callee has seen from
+ * all of its callers.
+ *
+ * <p>A call {@code f(a1, ..., an)} is expanded into
+ * <pre>{@code
+ * let p1 = a1 in ... let pn = an in <copy of the body of f>
+ * }</pre>
+ * where the {@code p}s are new variables of the caller standing in for the
+ * parameters of {@code f}, with fresh profiles so that their specialized types
+ * come from the argument expressions. Let-bound variables of the callee are
+ * copied as new variables of the caller, but the copies share the profiles of
+ * the originals, as do copied calls, conditionals and loops. The new variables
+ * are allocated frame indices past the {@link FunctionImplementation#frameSize()}
+ * of the caller, which only concerns compiled code since the interpreters
+ * never see the result. The let and set nodes of the expansion are recovery
+ * sites as usual, so specialization failures in inlined code are recovered
+ * from by the caller's generic code.
+ *
+ * <p>The result shares all unchanged subtrees with the original body. If
+ * nothing was inlined, it is the original body itself.
+ *
+ * <p>A function is eligible for inlining if it is a top-level user function
+ * other than the one being compiled, with no closures and no explicit
+ * returns, and whose profile and size are approved by {@link
+ * TieringPolicy#shouldInline(FunctionProfile, int)}. Inlining is recursive up
+ * to {@link #MAX_DEPTH} levels, and never expands a function within its own
+ * expansion.
+ */
+class Inliner implements EvaluatorNode.Visitor<EvaluatorNode> {
+
+    static final int MAX_DEPTH = 3;
+
+    /**
+     * Return the body of the function to compile, with eligible calls
+     * expanded.
+     */
+    static EvaluatorNode inline(FunctionImplementation function) {
+        var inliner = new Inliner(function);
+        return function.body().accept(inliner);
+    }
+
+    /**
+     * The number of evaluator nodes in a function body, used as the measure
+     * of its size.
+     */
+    static int sizeOf(EvaluatorNode node) {
+        return node.accept(new SizeCounter());
+    }
+
+    /*
+        Instance
+     */
+
+    private final FunctionImplementation function;
+    private final TieringPolicy policy;
+    private int nextIndex;
+    /**
+     * The functions whose bodies are being copied, innermost first.
+     */
+    private final Deque<FunctionImplementation> inlineStack = new ArrayDeque<>();
+    /**
+     * While a callee body is being copied, maps its variables to their copies
+     * in the caller. Null while processing the original body.
+     */
+    @Nullable private Map<VariableDefinition, VariableDefinition> substitutions;
+
+    private Inliner(@NotNull FunctionImplementation function) {
+        this.function = function;
+        this.policy = function.tieringPolicy();
+        this.nextIndex = function.frameSize();
+    }
+
+    private boolean isCopying() {
+        return substitutions != null;
+    }
+
+    /*
+        Inlining decisions
+     */
+
+    @Nullable
+    private FunctionImplementation inlineableTarget(CallNode call) {
+        if (!(call.dispatcher() instanceof FreeFunctionCallDispatcher)) return null;
+        var target = ((FreeFunctionCallDispatcher) call.dispatcher()).target();
+        if (!(target instanceof UserFunction)) return null;
+        var callee = ((UserFunction) target).implementation();
+        if (callee == null
+            || callee == function
+            || !callee.isTopLevel()
+            || callee.frameSize() < 0
+            || callee.declarationArity() != call.arity()
+            || !callee.closureImplementations().isEmpty()
+            || inlineStack.size() >= MAX_DEPTH
+            || inlineStack.contains(callee))
+        {
+            return null;
+        }
+        var body = callee.body();
+        if (!isCopyable(body)) return null;
+        return policy.shouldInline(callee.functionProfile(), sizeOf(body)) ? callee : null;
+    }
+
+    private static boolean isCopyable(EvaluatorNode body) {
+        var checker = new CopyabilityChecker();
+        body.accept(checker);
+        return checker.isCopyable;
+    }
+
+    private EvaluatorNode expand(FunctionImplementation callee, List<EvaluatorNode> args) {
+        var outerSubstitutions = substitutions;
+        substitutions = new HashMap<>();
+        inlineStack.push(callee);
+        var parameters = callee.declaredParameters();
+        var parameterCopies = new ArrayList<VariableDefinition>();
+        for (var each : parameters) {
+            var copy = new VariableDefinition(each.definition(), function);
+            copy.index = nextIndex++;
+            substitutions.put(each, copy);
+            parameterCopies.add(copy);
+        }
+        var expansion = callee.body().accept(this);
+        inlineStack.pop();
+        substitutions = outerSubstitutions;
+        for (int i = parameterCopies.size() - 1; i >= 0; i--) {
+            expansion = new LetNode(parameterCopies.get(i), args.get(i), expansion);
+        }
+        return expansion;
+    }
+
+    /*
+        Visitor
+     */
+
+    @Override
+    public EvaluatorNode visitBlock(BlockNode block) {
+        var expressions = block.expressions();
+        var newExpressions = Stream.of(expressions)
+            .map(each -> each.accept(this))
+            .toArray(EvaluatorNode[]::new);
+        if (!isCopying() && isSame(expressions, newExpressions)) return block;
+        return new BlockNode(newExpressions);
+    }
+
+    @Override
+    public EvaluatorNode visitCall(CallNode call) {
+        var dispatcher = call.dispatcher();
+        var args = call.arguments().map(each -> each.accept(this)).collect(Collectors.toList());
+        var callee = inlineableTarget(call);
+        if (callee != null) {
+            return expand(callee, args);
+        }
+        var newDispatcher = dispatcher;
+        if (dispatcher instanceof ExpressionCallDispatcher) {
+            var expression = dispatcher.asEvaluatorNode().orElseThrow();
+            var newExpression = expression.accept(this);
+            if (newExpression != expression) newDispatcher = new ExpressionCallDispatcher(newExpression);
+        }
+        if (!isCopying()
+            && newDispatcher == dispatcher
+            && isSame(call.arguments().toArray(EvaluatorNode[]::new), args.toArray(new EvaluatorNode[0])))
+        {
+            return call;
+        }
+        return CallNode.with(newDispatcher, args, call.profile);
+    }
+
+    /**
+     * Closures never occur in copied bodies, and closures of the original
+     * body are prepared for compilation on their own.
+     */
+    @Override
+    public EvaluatorNode visitClosure(ClosureNode closure) {
+        if (isCopying()) throw new AssertionError("closures should not be inlined");
+        return closure;
+    }
+
+    @Override
+    public EvaluatorNode visitConstant(ConstantNode aConst) {
+        return isCopying() ? new ConstantNode(aConst.value()) : aConst;
+    }
+
+    @Override
+    public EvaluatorNode visitFreeFunctionReference(FreeFunctionReferenceNode reference) {
+        return isCopying() ? new FreeFunctionReferenceNode(reference.target()) : reference;
+    }
+
+    @Override
+    public EvaluatorNode visitGetVar(GetVariableNode varRef) {
+        return isCopying() ? new GetVariableNode(substitute(varRef.variable())) : varRef;
+    }
+
+    @Override
+    public EvaluatorNode visitIf(IfNode anIf) {
+        var condition = anIf.condition().accept(this);
+        var trueBranch = anIf.trueBranch().accept(this);
+        var falseBranch = anIf.falseBranch().accept(this);
+        if (!isCopying()
+            && condition == anIf.condition()
+            && trueBranch == anIf.trueBranch()
+            && falseBranch == anIf.falseBranch())
+        {
+            return anIf;
+        }
+        return anIf.withParts(condition, trueBranch, falseBranch);
+    }
+
+    @Override
+    public EvaluatorNode visitLet(LetNode let) {
+        var initializer = let.initializer().accept(this);
+        var variable = let.variable();
+        if (isCopying()) {
+            var copy = new VariableDefinition(variable.definition(), function, variable.profile);
+            copy.index = nextIndex++;
+            if (variable.isMutable()) copy.markAsMutable();
+            substitutions.put(variable, copy);
+            variable = copy;
+        }
+        var body = let.body().accept(this);
+        if (!isCopying() && initializer == let.initializer() && body == let.body()) return let;
+        return new LetNode(variable, initializer, body);
+    }
+
+    @Override
+    public EvaluatorNode visitPrimitive1(Primitive1Node primitive) {
+        var argument = primitive.argument().accept(this);
+        if (!isCopying() && argument == primitive.argument()) return primitive;
+        return new Primitive1Node(primitive.implementation(), argument);
+    }
+
+    @Override
+    public EvaluatorNode visitPrimitive2(Primitive2Node primitive) {
+        var argument1 = primitive.argument1().accept(this);
+        var argument2 = primitive.argument2().accept(this);
+        if (!isCopying() && argument1 == primitive.argument1() && argument2 == primitive.argument2()) {
+            return primitive;
+        }
+        return new Primitive2Node(primitive.implementation(), argument1, argument2);
+    }
+
+    /**
+     * Returns never occur in copied bodies, and the value of a return in the
+     * original body is atomic so it never changes.
+     */
+    @Override
+    public EvaluatorNode visitReturn(ReturnNode ret) {
+        if (isCopying()) throw new AssertionError("returns should not be inlined");
+        return ret;
+    }
+
+    /**
+     * The value of a set is atomic, so a set in the original body never
+     * changes.
+     */
+    @Override
+    public EvaluatorNode visitSetVar(SetVariableNode set) {
+        if (!isCopying()) return set;
+        return new SetVariableNode(substitute(set.variable()), set.value().accept(this));
+    }
+
+    @Override
+    public EvaluatorNode visitWhile(WhileNode whileNode) {
+        var condition = whileNode.condition().accept(this);
+        var body = whileNode.body().accept(this);
+        if (!isCopying() && condition == whileNode.condition() && body == whileNode.body()) return whileNode;
+        return whileNode.withParts(condition, body);
+    }
+
+    private VariableDefinition substitute(AbstractVariable variable) {
+        var copy = substitutions.get(variable);
+        if (copy == null) throw new AssertionError("unexpected variable in inlined code: " + variable);
+        return copy;
+    }
+
+    private static boolean isSame(EvaluatorNode[] original, EvaluatorNode[] processed) {
+        for (int i = 0; i < original.length; i++) {
+            if (original[i] != processed[i]) return false;
+        }
+        return true;
+    }
+
+    /*
+        Helpers
+     */
+
+    private static class SizeCounter implements EvaluatorNode.Visitor<Integer> {
+        @Override
+        public Integer visitBlock(BlockNode block) {
+            return 1 + Stream.of(block.expressions()).mapToInt(each -> each.accept(this)).sum();
+        }
+
+        @Override
+        public Integer visitCall(CallNode call) {
+            var dispatcherSize = call.dispatcher().asEvaluatorNode().map(it -> it.accept(this)).orElse(0);
+            return 1 + dispatcherSize + call.arguments().mapToInt(each -> each.accept(this)).sum();
+        }
+
+        @Override
+        public Integer visitClosure(ClosureNode closure) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitConstant(ConstantNode aConst) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitFreeFunctionReference(FreeFunctionReferenceNode constFunction) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitGetVar(GetVariableNode varRef) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitIf(IfNode anIf) {
+            return 1 + anIf.condition().accept(this) + anIf.trueBranch().accept(this) + anIf.falseBranch().accept(this);
+        }
+
+        @Override
+        public Integer visitLet(LetNode let) {
+            return 1 + let.initializer().accept(this) + let.body().accept(this);
+        }
+
+        @Override
+        public Integer visitPrimitive1(Primitive1Node primitive) {
+            return 1 + primitive.argument().accept(this);
+        }
+
+        @Override
+        public Integer visitPrimitive2(Primitive2Node primitive) {
+            return 1 + primitive.argument1().accept(this) + primitive.argument2().accept(this);
+        }
+
+        @Override
+        public Integer visitReturn(ReturnNode ret) {
+            return 1 + ret.value().accept(this);
+        }
+
+        @Override
+        public Integer visitSetVar(SetVariableNode set) {
+            return 1 + set.value().accept(this);
+        }
+
+        @Override
+        public Integer visitWhile(WhileNode whileNode) {
+            return 1 + whileNode.condition().accept(this) + whileNode.body().accept(this);
+        }
+    }
+
+    /**
+     * Determines whether a function body contains only the nodes the inliner
+     * knows how to copy into another function.
+     */
+    private static class CopyabilityChecker extends EvaluatorNode.VisitorSkeleton<Void> {
+        private boolean isCopyable = true;
+
+        @Override
+        public Void visitCall(CallNode call) {
+            var dispatcher = call.dispatcher();
+            if (dispatcher.asEvaluatorNode().isPresent() && !(dispatcher instanceof ExpressionCallDispatcher)) {
+                isCopyable = false;
+            }
+            return super.visitCall(call);
+        }
+
+        @Override
+        public Void visitClosure(ClosureNode closure) {
+            isCopyable = false;
+            return null;
+        }
+
+        @Override
+        public Void visitReturn(ReturnNode ret) {
+            isCopyable = false;
+            return null;
+        }
+    }
+}
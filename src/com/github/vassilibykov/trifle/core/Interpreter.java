@@ -5,39 +5,128 @@ package com.github.vassilibykov.trifle.core;
 public class Interpreter {
     public static final Interpreter INSTANCE = new Interpreter();
 
-    static class ReturnException extends RuntimeException {
-        final Object value;
-
-        ReturnException(Object value) {
-            this.value = value;
-        }
+    /**
+     * The states of the self-specialization of call and binary primitive
+     * nodes by the {@link Evaluator}. A node starts out {@link
+     * #UNINITIALIZED}. The first time it's evaluated, it moves to a state in
+     * which the evaluator takes a shortcut suitable for the values it sees, if
+     * there is one, and otherwise to {@link #GENERIC}. If a shortcut is later found not to
+     * apply, the node moves to {@link #GENERIC} for good, so a node changes
+     * its state at most twice. The state is shared by all threads. It is
+     * published by a volatile write after the data of the shortcut, such as
+     * {@link CallNode#directTarget}, so a thread which sees a state also sees
+     * its data. A thread may still see a state which has just been replaced,
+     * but a shortcut always checks its assumptions, so that only loses time.
+     */
+    enum Specialization {
+        UNINITIALIZED,
+        GENERIC,
+        /** A call of a user function invoked directly by its interpreter, not through method handles. */
+        DIRECT_CALL,
+        /** A binary primitive applied to two {@code int}s, without casting them from {@code Object}. */
+        INT_INT
     }
 
+    /**
+     * Evaluates the body of a function without profiling it. A return
+     * expression does not throw an exception to get to the end of the
+     * function. Instead, it saves the returned value in the evaluator and
+     * produces the {@link #RETURNING} marker as its own value. Expressions
+     * which evaluate a subexpression in a position other than the tail one
+     * check for the marker and pass it up instead of going on, and {@link
+     * #evaluateBody(EvaluatorNode)} replaces it with the saved value. Atomic
+     * expressions contain no returns, so only blocks, let initializers and
+     * loop bodies have to check. The same is true of the subclass
+     * evaluators, which also use the marker to return.
+     *
+     * <p>Call and binary primitive nodes specialize themselves as they are
+     * evaluated; see {@link Specialization}.
+     */
     public static class Evaluator implements EvaluatorNode.Visitor<Object> {
+        static final Object RETURNING = new Object();
+
         protected final Object[] frame;
+        Object returnValue;
 
         public Evaluator(Object[] frame) {
             this.frame = frame;
         }
 
+        /**
+         * Evaluate the body of the function whose frame the evaluator was
+         * created with, and return its value, whether produced by the body
+         * itself or by a return expression.
+         */
+        Object evaluateBody(EvaluatorNode body) {
+            var result = body.accept(this);
+            return result == RETURNING ? returnValue : result;
+        }
+
         @Override
         public Object visitBlock(BlockNode block) {
             EvaluatorNode[] expressions = block.expressions();
             int exprCount = expressions.length;
             if (exprCount > 0) {
                 int i;
-                for (i = 0; i < exprCount - 1; i++) expressions[i].accept(this);
+                for (i = 0; i < exprCount - 1; i++) {
+                    if (expressions[i].accept(this) == RETURNING) return RETURNING;
+                }
                 return expressions[i].accept(this);
             } else {
                 return null;
             }
         }
 
+        /**
+         * A call of a user function in tail position is not performed, but
+         * returned as a {@link TailCall} for the interpreter entry point to
+         * perform after this frame is done.
+         */
         @Override
         public Object visitCall(CallNode call) {
+            if (call.isTailCall) {
+                var tailCall = TailCall.prepare(call, this);
+                if (tailCall != null) return tailCall;
+            }
+            switch (call.interpreterSpecialization) {
+                case DIRECT_CALL:
+                    var target = call.directTarget; // published by the read of the state above
+                    if (target.isInterpreted()) return target.invokeInterpreted(call, this);
+                    call.interpreterSpecialization = Specialization.GENERIC; // compiled by now
+                    break;
+                case UNINITIALIZED:
+                    specialize(call);
+                    return visitCall(call);
+            }
             return call.dispatcher().execute(call, this);
         }
 
+        /**
+         * A call of a user function of the right arity whose implementation is
+         * interpreted can invoke the interpreter directly.
+         */
+        private static void specialize(CallNode call) {
+            var dispatcher = call.dispatcher();
+            if (dispatcher instanceof FreeFunctionCallDispatcher) {
+                var target = ((FreeFunctionCallDispatcher) dispatcher).target();
+                if (target instanceof UserFunction) {
+                    var implementation = ((UserFunction) target).implementation();
+                    if (implementation.implementationArity() == call.arity() && implementation.isInterpreted()) {
+                        call.directTarget = implementation;
+                        call.interpreterSpecialization = Specialization.DIRECT_CALL; // must be written last
+                        return;
+                    }
+                }
+            }
+            call.interpreterSpecialization = Specialization.GENERIC;
+        }
+
+        Object[] evaluateArguments(CallNode call) {
+            var arguments = new Object[call.arity()];
+            for (int i = 0; i < arguments.length; i++) arguments[i] = call.argument(i).accept(this);
+            return arguments;
+        }
+
         @Override
         public Object visitClosure(ClosureNode closure) {
             int[] indicesToCopy = closure.copiedVariableIndices;
@@ -75,6 +164,7 @@ public class Interpreter {
         public Object visitLet(LetNode let) {
             var var = let.variable();
             var value = let.initializer().accept(this);
+            if (value == RETURNING) return RETURNING;
             var.initValueIn(frame, value);
             return let.body().accept(this);
         }
@@ -84,16 +174,37 @@ public class Interpreter {
             return primitiveNode.implementation().apply(primitiveNode.argument().accept(this));
         }
 
+        /**
+         * A primitive which has received two {@link Integer}s the first time
+         * it was evaluated is applied to their {@code int} values, for as
+         * long as it keeps receiving them.
+         */
         @Override
         public Object visitPrimitive2(Primitive2Node primitiveNode) {
-            return primitiveNode.implementation().apply(
-                primitiveNode.argument1().accept(this),
-                primitiveNode.argument2().accept(this));
+            var argument1 = primitiveNode.argument1().accept(this);
+            var argument2 = primitiveNode.argument2().accept(this);
+            var intArguments = argument1 instanceof Integer && argument2 instanceof Integer;
+            switch (primitiveNode.interpreterSpecialization) {
+                case INT_INT:
+                    if (intArguments) {
+                        return primitiveNode.implementation().applyToInts((Integer) argument1, (Integer) argument2);
+                    }
+                    primitiveNode.interpreterSpecialization = Specialization.GENERIC;
+                    break;
+                case UNINITIALIZED:
+                    primitiveNode.interpreterSpecialization = intArguments ? Specialization.INT_INT : Specialization.GENERIC;
+                    if (intArguments) {
+                        return primitiveNode.implementation().applyToInts((Integer) argument1, (Integer) argument2);
+                    }
+                    break;
+            }
+            return primitiveNode.implementation().apply(argument1, argument2);
         }
 
         @Override
         public Object visitReturn(ReturnNode ret) {
-            throw new ReturnException(ret.value().accept(this));
+            returnValue = ret.value().accept(this);
+            return RETURNING;
         }
 
         @Override
@@ -108,6 +219,7 @@ public class Interpreter {
             Object result = null;
             while (evaluateCondition(whileNode.condition())) {
                 result = whileNode.body().accept(this);
+                if (result == RETURNING) break;
             }
             return result;
         }
@@ -127,14 +239,65 @@ public class Interpreter {
      */
 
     public Object interpret(FunctionImplementation function, Object[] args) {
-        var frame = new Object[function.frameSize()];
-        for (int i = 0; i < args.length; i++) {
-            function.allParameters()[i].setupArgumentIn(frame, args[i]);
+        return complete(function, interpretBody(function, args));
+    }
+
+    /**
+     * Perform a call of the function by the evaluator of the caller. The
+     * arguments are evaluated directly into the frame of the function.
+     */
+    Object interpretCall(FunctionImplementation function, CallNode call, Evaluator caller) {
+        var arena = FrameArena.current();
+        var frameSize = function.frameSize();
+        var evaluator = arena.push(frameSize);
+        Object result;
+        try {
+            var frame = evaluator.frame;
+            var allParameters = function.allParameters();
+            for (int i = 0; i < call.arity(); i++) {
+                allParameters[i].setupArgumentIn(frame, call.argument(i).accept(caller));
+            }
+            result = evaluate(function, arena, evaluator);
+        } finally {
+            arena.pop(evaluator, frameSize);
         }
+        return complete(function, result);
+    }
+
+    /**
+     * Evaluate the body of the function. The result is either the value of
+     * the function, or a {@link TailCall} the body ended with.
+     */
+    Object interpretBody(FunctionImplementation function, Object[] args) {
+        var arena = FrameArena.current();
+        var frameSize = function.frameSize();
+        var evaluator = arena.push(frameSize);
         try {
-            return function.body().accept(new ProfilingInterpreter.ProfilingEvaluator(frame));
-        } catch (ReturnException e) {
-            return e.value;
+            var frame = evaluator.frame;
+            var allParameters = function.allParameters();
+            for (int i = 0; i < args.length; i++) {
+                allParameters[i].setupArgumentIn(frame, args[i]);
+            }
+            return evaluate(function, arena, evaluator);
+        } finally {
+            arena.pop(evaluator, frameSize);
         }
     }
+
+    /**
+     * Evaluate the body of the function given a simple evaluator from the
+     * arena whose frame has been set up with the arguments. The evaluator is
+     * pooled, so it must not be retained.
+     */
+    Object evaluate(FunctionImplementation function, FrameArena arena, Evaluator evaluator) {
+        return evaluator.evaluateBody(function.body());
+    }
+
+    /**
+     * Perform the pending tail calls, if any, the evaluation of the function
+     * produced.
+     */
+    Object complete(FunctionImplementation function, Object bodyResult) {
+        return TailCall.complete(bodyResult);
+    }
 }
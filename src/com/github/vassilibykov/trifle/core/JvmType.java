@@ -8,12 +8,16 @@ import java.lang.invoke.MethodType;
 
 /**
  * A broad category of types as seen by the JVM, i.e. reference types vs.
- * primitive {@code int}s, vs other primitive types.
+ * primitive {@code int}s, vs other primitive types. Values of {@link #LONG}
+ * and {@link #DOUBLE} types are "wide": they occupy two local variable slots
+ * and two stack slots.
  */
 public enum JvmType {
     REFERENCE(Object.class),
     INT(int.class),
     BOOL(boolean.class),
+    LONG(long.class),
+    DOUBLE(double.class),
     /**
      * The type of a continuation which accepts any value, such as a non-tail
      * expression of a {@link BlockNode}, or the type of an expression which
@@ -27,6 +31,10 @@ public enum JvmType {
             return INT;
         } else if (value instanceof Boolean) {
             return BOOL;
+        } else if (value instanceof Long) {
+            return LONG;
+        } else if (value instanceof Double) {
+            return DOUBLE;
         } else {
             return REFERENCE;
         }
@@ -35,6 +43,8 @@ public enum JvmType {
     public static JvmType ofClass(Class<?> klass) {
         if (klass.equals(int.class)) return INT;
         if (klass.equals(boolean.class)) return BOOL;
+        if (klass.equals(long.class)) return LONG;
+        if (klass.equals(double.class)) return DOUBLE;
         if (!klass.isPrimitive()) return REFERENCE;
         throw new IllegalArgumentException("unexpected primitive class: " + klass);
     }
@@ -45,13 +55,29 @@ public enum JvmType {
            those ever change. So, it's better to keep it here. */
         if (typeToken == int.class && !(value instanceof Integer)) return false;
         if (typeToken == boolean.class && !(value instanceof Boolean)) return false;
+        if (typeToken == long.class && !(value instanceof Long)) return false;
+        if (typeToken == double.class && !(value instanceof Double)) return false;
         return true;
     }
 
+    /**
+     * Indicate whether the class is the representative class of one of the
+     * value-carrying types, that is of any type but {@link #VOID}.
+     */
+    public static boolean isRepresentableClass(Class<?> klass) {
+        return !klass.isPrimitive()
+            || klass == int.class
+            || klass == boolean.class
+            || klass == long.class
+            || klass == double.class;
+    }
+
     public interface Matcher<T> {
         T ifReference();
         T ifInt();
         T ifBoolean();
+        T ifLong();
+        T ifDouble();
         default T ifVoid() {
             // A void type category is only used in one specific case, as the type of
             // a continuation that will discard its value. We don't expect to see it in other
@@ -64,6 +90,8 @@ public enum JvmType {
         void ifReference();
         void ifInt();
         void ifBoolean();
+        void ifLong();
+        void ifDouble();
         default void ifVoid() {
             // A void type is only used in one specific case, as the type of
             // a continuation that will discard its value. We don't expect to see it in other
@@ -120,11 +148,11 @@ public enum JvmType {
     private static Class<?> primitiveToWrapper(Class<?> primitiveType) {
         if (primitiveType == int.class) return Integer.class;
         if (primitiveType == boolean.class) return Boolean.class;
+        if (primitiveType == long.class) return Long.class;
+        if (primitiveType == double.class) return Double.class;
         throw new AssertionError("unsupported primitive type");
     }
 
-
-
     /*
         Instance
      */
@@ -139,6 +167,22 @@ public enum JvmType {
         return representativeType;
     }
 
+    /**
+     * Return the number of JVM local variable or stack slots taken by a value
+     * of this type.
+     */
+    public int slotSize() {
+        switch (this) {
+            case LONG:
+            case DOUBLE:
+                return 2;
+            case VOID:
+                return 0;
+            default:
+                return 1;
+        }
+    }
+
     /**
      * Return a union of this type and another, with {@link #VOID} being
      * the zero: a union of it with any type is the other type.
@@ -158,6 +202,8 @@ public enum JvmType {
             case REFERENCE: return matcher.ifReference();
             case INT: return matcher.ifInt();
             case BOOL: return matcher.ifBoolean();
+            case LONG: return matcher.ifLong();
+            case DOUBLE: return matcher.ifDouble();
             case VOID: return matcher.ifVoid();
             default:
                 throw new AssertionError("no match() method case for " + this);
@@ -175,6 +221,12 @@ public enum JvmType {
             case BOOL:
                 matcher.ifBoolean();
                 break;
+            case LONG:
+                matcher.ifLong();
+                break;
+            case DOUBLE:
+                matcher.ifDouble();
+                break;
             case VOID:
                 matcher.ifVoid();
                 break;
@@ -42,6 +42,11 @@ class LetNode extends EvaluatorNode implements RecoverySite {
         this.recoverySiteLabel = recoverySiteLabel;
     }
 
+    @Override
+    public ValueProfile continuationProfile(FunctionImplementation function) {
+        return variable.profile();
+    }
+
     @Override
     public <T> T accept(Visitor<T> visitor) {
         return visitor.visitLet(this);
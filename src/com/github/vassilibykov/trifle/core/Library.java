@@ -27,6 +27,21 @@ import java.util.stream.Stream;
  */
 public class Library {
     private Map<String, UserFunction> functionsByName = new HashMap<>();
+    private TieringPolicy tieringPolicy = TieringPolicy.DEFAULT;
+
+    public synchronized TieringPolicy tieringPolicy() {
+        return tieringPolicy;
+    }
+
+    /**
+     * Set the tiering policy of all functions in the library, both already
+     * defined and defined later. The policy of an individual function can
+     * still be changed afterwards using {@link UserFunction#setTieringPolicy}.
+     */
+    public synchronized void setTieringPolicy(TieringPolicy policy) {
+        this.tieringPolicy = Objects.requireNonNull(policy);
+        functionsByName.values().forEach(each -> each.setTieringPolicy(policy));
+    }
 
     /**
      * Define a new function. The function may not be recursive.
@@ -42,6 +57,7 @@ public class Library {
         }
         var function = UserFunction.construct(name, definition);
         functionsByName.put(name, function);
+        function.setTieringPolicy(tieringPolicy);
         return function;
     }
 
@@ -60,12 +76,14 @@ public class Library {
         if (functionsByName.containsKey(name)) {
             throw new IllegalArgumentException("function already defined: " + name);
         }
-        return UserFunction.construct(name, function -> {
+        var function = UserFunction.construct(name, it -> {
             /* The function must be added to the map before running the definer
                so the definer may use #get() and #at() to reference it. */
-            functionsByName.put(name, function);
-            return definer.apply(function);
+            functionsByName.put(name, it);
+            return definer.apply(it);
         });
+        function.setTieringPolicy(tieringPolicy);
+        return function;
     }
 
     /**
@@ -89,12 +107,14 @@ public class Library {
             }
         }
         var definerIterator = definers.iterator();
-        return UserFunction.construct(names, functions -> {
-            functions.forEach(each -> functionsByName.put(each.name(), each));
-            return functions.stream()
+        var functions = UserFunction.construct(names, it -> {
+            it.forEach(each -> functionsByName.put(each.name(), each));
+            return it.stream()
                 .map(each -> definerIterator.next().apply(each))
                 .collect(Collectors.toList());
         });
+        functions.forEach(each -> each.setTieringPolicy(tieringPolicy));
+        return functions;
     }
 
     public Stream<UserFunction> functions() {
@@ -13,8 +13,8 @@ import java.lang.invoke.MethodType;
 /**
  * An invokedynamic instruction for the sites where a literal object not
  * directly supported by JVM code is loaded on the stack. The object is found by
- * its ID encoded in the instruction. The object is registered with and the ID
- * is obtained from {@link LiteralPool}.
+ * its index in the {@link ClassData} of the calling class, encoded in the
+ * instruction.
  */
 final class LiteralObjectInvokeDynamic {
 
@@ -26,8 +26,8 @@ final class LiteralObjectInvokeDynamic {
             .toMethodDescriptorString(),
         false);
 
-    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType callSiteType, Integer objectId) {
-        var object = LiteralPool.INSTANCE.get(objectId);
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType callSiteType, Integer index) {
+        var object = ClassData.get(lookup, index, Object.class);
         return new ConstantCallSite(MethodHandles.constant(callSiteType.returnType(), object));
     }
 }
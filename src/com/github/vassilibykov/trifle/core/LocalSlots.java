@@ -0,0 +1,73 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
+
+/**
+ * Maps indices of variables of a function to local variable slots of a JVM
+ * method implementing the function. Because {@code long} and {@code double}
+ * values occupy two slots, a slot is in general different from the index.
+ *
+ * <p>Parameters occupy the slots the JVM passes them in, according to the
+ * types in the method signature. Any other variable always gets two slots,
+ * whatever its type. That way the slots of a variable don't depend on its
+ * specialization, and the variables of recovery code, which are all
+ * references, share the slots of the specialized variables of normal code
+ * in the same method.
+ */
+final class LocalSlots {
+
+    /**
+     * Return the slots of a method with the signature of the current
+     * specialization of the function's parameters, as computed by the
+     * {@link SpecializedTypeComputer}.
+     */
+    static LocalSlots of(FunctionImplementation function) {
+        var parameters = function.allParameters();
+        var syntheticCount = function.syntheticParameters().size();
+        var parameterSlots = new int[parameters.length];
+        int slot = 0;
+        for (int i = 0; i < parameters.length; i++) {
+            var parameter = parameters[i];
+            parameterSlots[i] = slot;
+            // Boxed synthetic parameters are passed in as boxes, no matter the variable type.
+            slot += i < syntheticCount && parameter.isBoxed()
+                ? REFERENCE.slotSize()
+                : parameter.specializedType().slotSize();
+        }
+        return new LocalSlots(parameterSlots, slot);
+    }
+
+    /**
+     * Return the slots of a method in which all variables are references,
+     * such as the on-stack replacement entry.
+     */
+    static LocalSlots generic(FunctionImplementation function) {
+        var parameterSlots = new int[function.allParameters().length];
+        for (int i = 0; i < parameterSlots.length; i++) parameterSlots[i] = i;
+        return new LocalSlots(parameterSlots, parameterSlots.length);
+    }
+
+    /*
+        Instance
+     */
+
+    private final int[] parameterSlots;
+    private final int firstLocalSlot;
+
+    private LocalSlots(int[] parameterSlots, int firstLocalSlot) {
+        this.parameterSlots = parameterSlots;
+        this.firstLocalSlot = firstLocalSlot;
+    }
+
+    int of(AbstractVariable variable) {
+        return of(variable.index());
+    }
+
+    int of(int variableIndex) {
+        return variableIndex < parameterSlots.length
+            ? parameterSlots[variableIndex]
+            : firstLocalSlot + 2 * (variableIndex - parameterSlots.length);
+    }
+}
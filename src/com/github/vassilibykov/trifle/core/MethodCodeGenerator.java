@@ -9,6 +9,7 @@ import org.objectweb.asm.MethodVisitor;
 import java.lang.invoke.MethodType;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
@@ -18,6 +19,17 @@ import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
 /**
  * Generates the "normal" executable representation of a function.
  *
+ * <p>A call of the function itself in tail position is compiled as a jump to
+ * the beginning of the method, with the parameters reassigned to the values
+ * of the call arguments, as long as the arguments fit the specializations of
+ * the parameters. Self-recursive functions thus run as loops in constant
+ * stack space. Because calls of small functions are inlined, this often
+ * extends to mutually recursive functions calling each other in tail position.
+ * Other calls in tail position which may be part of a cycle of such calls go
+ * through {@link TailCall}. In the normal forms of the function, such a call
+ * starts a chain of pending calls and returns its value. In the tail call
+ * form, it is returned as a pending call for the caller to complete.
+ *
  * @see RecoveryCodeGenerator
  */
 class MethodCodeGenerator implements CodeGenerator {
@@ -40,11 +52,17 @@ class MethodCodeGenerator implements CodeGenerator {
          * resume.
          */
         private final Label recoverySiteLabel;
+        /**
+         * The index of the recovery site in the function's list of recovery
+         * sites, identifying the site to the square peg counter.
+         */
+        private final int recoverySiteIndex;
 
-        private SquarePegHandler(Label handlerStart, List<AbstractVariable> liveLocals) {
+        private SquarePegHandler(Label handlerStart, List<AbstractVariable> liveLocals, int recoverySiteIndex) {
             this.handlerStart = handlerStart;
             this.liveLocals = liveLocals;
             this.recoverySiteLabel = new Label();
+            this.recoverySiteIndex = recoverySiteIndex;
         }
     }
 
@@ -54,12 +72,32 @@ class MethodCodeGenerator implements CodeGenerator {
 
     private final FunctionImplementation function;
     private final GhostWriter writer;
+    private final LocalSlots slots;
     private final List<AbstractVariable> liveLocals = new ArrayList<>();
     private final List<SquarePegHandler> squarePegHandlers = new ArrayList<>();
+    /**
+     * The target of jumps implementing self tail calls, set before the
+     * prologue so that it re-boxes the reassigned parameters as needed.
+     */
+    private final Label methodStart = new Label();
+    /**
+     * True if this generates the tail call form of the function, which
+     * returns recurring tail calls as pending ones.
+     */
+    private final boolean isTailCallForm;
+    private boolean hasRecurringTailCalls = false;
 
-    MethodCodeGenerator(FunctionImplementation function, MethodVisitor writer) {
+    MethodCodeGenerator(FunctionImplementation function, MethodVisitor writer, ClassData classData) {
+        this(function, writer, classData, false);
+    }
+
+    MethodCodeGenerator(
+        FunctionImplementation function, MethodVisitor writer, ClassData classData, boolean isTailCallForm)
+    {
         this.function = function;
-        this.writer = new GhostWriter(writer);
+        this.writer = new GhostWriter(writer, classData);
+        this.slots = LocalSlots.of(function);
+        this.isTailCallForm = isTailCallForm;
     }
 
     @Override
@@ -67,9 +105,19 @@ class MethodCodeGenerator implements CodeGenerator {
         return writer;
     }
 
+    /**
+     * Tell whether the generated code contains calls in tail position which go
+     * through {@link TailCall}, so that the function needs a tail call form.
+     * Valid after {@link #generate()}.
+     */
+    boolean hasRecurringTailCalls() {
+        return hasRecurringTailCalls;
+    }
+
     void generate() {
+        writer.setLabelHere(methodStart);
         generatePrologue();
-        var bodyGist = function.body().accept(this);
+        var bodyGist = function.compiledBody().accept(this);
         writer.bridgeValue(bodyGist.type(), function.specializedReturnType());
         /*
          * Here we don't care whether the body of the bridging of the result can fail.
@@ -92,10 +140,10 @@ class MethodCodeGenerator implements CodeGenerator {
         for (var each : function.declaredParameters()) {
             if (each.isBoxed()) {
                 var paramType = each.specializedType();
-                int index = each.index();
+                int slot = slots.of(each);
                 writer
-                    .loadLocal(paramType, index)
-                    .initBoxedVariable(paramType, index);
+                    .loadLocal(paramType, slot)
+                    .initBoxedVariable(paramType, slot);
             }
         }
     }
@@ -105,7 +153,7 @@ class MethodCodeGenerator implements CodeGenerator {
     }
 
     private void generateRecoveryCode() {
-        var generator = new RecoveryCodeGenerator(function, writer);
+        var generator = new RecoveryCodeGenerator(function, slots, writer);
         generator.generate();
     }
 
@@ -143,9 +191,77 @@ class MethodCodeGenerator implements CodeGenerator {
 
     @Override
     public Gist visitCall(CallNode call) {
+        if (isSelfTailCall(call)) {
+            return generateSelfTailCall(call);
+        }
+        if (isRecurringTailCall(call)) {
+            return generateRecurringTailCall(call);
+        }
         return call.dispatcher().generateCode(call, this);
     }
 
+    private boolean isSelfTailCall(CallNode call) {
+        if (!call.isTailCall || !(call.dispatcher() instanceof FreeFunctionCallDispatcher)) return false;
+        var target = ((FreeFunctionCallDispatcher) call.dispatcher()).target();
+        if (!(target instanceof UserFunction) || ((UserFunction) target).implementation() != function) return false;
+        var parameters = function.declaredParameters();
+        if (call.arity() != parameters.size() || !function.syntheticParameters().isEmpty()) return false;
+        for (int i = 0; i < parameters.size(); i++) {
+            var parameterType = parameters.get(i).specializedType();
+            if (parameterType != REFERENCE && parameterType != call.argument(i).specializedType()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Arguments are atomic, so they are all loaded before any of the
+     * parameters they may refer to is reassigned. The stack is empty in tail
+     * position, as required at the jump target.
+     */
+    private Gist generateSelfTailCall(CallNode call) {
+        var parameters = function.declaredParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            var argGist = call.argument(i).accept(this);
+            writer.adaptValue(argGist.type(), parameters.get(i).specializedType());
+        }
+        for (int i = parameters.size() - 1; i >= 0; i--) {
+            var parameter = parameters.get(i);
+            writer.storeLocal(parameter.specializedType(), slots.of(parameter));
+        }
+        writer.jump(methodStart);
+        return Gist.INFALLIBLE_VOID;
+    }
+
+    private boolean isRecurringTailCall(CallNode call) {
+        if (!call.isTailCall) return false;
+        var target = TailCall.targetOf(call);
+        return target != null && TailCall.mayRecur(function, target);
+    }
+
+    /**
+     * The arguments are passed as references, the way a pending call holds
+     * them. In the tail call form, the pending call is returned right away,
+     * as the value of the function.
+     */
+    private Gist generateRecurringTailCall(CallNode call) {
+        hasRecurringTailCalls = true;
+        var target = Objects.requireNonNull(TailCall.targetOf(call));
+        call.arguments().forEach(each -> {
+            var argGist = each.accept(this);
+            writer.adaptValue(argGist.type(), REFERENCE);
+        });
+        writer.invokeDynamic(
+            isTailCallForm ? TailCallInvokeDynamic.BOOTSTRAP_PENDING : TailCallInvokeDynamic.BOOTSTRAP_PERFORM,
+            target.name().orElse("tailCall"),
+            MethodType.genericMethodType(call.arity()),
+            writer.classData().indexOf(target));
+        if (isTailCallForm) {
+            writer.ret(REFERENCE);
+            return Gist.INFALLIBLE_VOID;
+        }
+        return Gist.INFALLIBLE_REFERENCE;
+    }
+
     @Override
     public MethodType generateArgumentLoad(CallNode call) {
         var argTypes = call.arguments()
@@ -160,11 +276,11 @@ class MethodCodeGenerator implements CodeGenerator {
         var copiedOuterVariables = closure.copiedOuterVariables;
         for (var copiedVar : copiedOuterVariables) {
             if (copiedVar.isBoxed()) {
-                writer.loadLocal(REFERENCE, copiedVar.index());
+                writer.loadLocal(REFERENCE, slots.of(copiedVar));
             } else {
                 JvmType variableType = copiedVar.specializedType();
                 writer
-                    .loadLocal(variableType, copiedVar.index())
+                    .loadLocal(variableType, slots.of(copiedVar))
                     .adaptValue(variableType, REFERENCE);
             }
         }
@@ -172,7 +288,7 @@ class MethodCodeGenerator implements CodeGenerator {
             ClosureCreationInvokeDynamic.BOOTSTRAP,
             "createClosure",
             MethodType.genericMethodType(copiedOuterVariables.size()),
-            closure.function().id());
+            writer.classData().indexOf(closure.function()));
         return Gist.INFALLIBLE_REFERENCE;
     }
 
@@ -181,6 +297,10 @@ class MethodCodeGenerator implements CodeGenerator {
         Object value = aConst.value();
         if (value instanceof Integer) {
             writer.loadInt((Integer) value);
+        } else if (value instanceof Long) {
+            writer.loadLong((Long) value);
+        } else if (value instanceof Double) {
+            writer.loadDouble((Double) value);
         } else if (value instanceof String) {
             writer.loadString((String) value);
         } else if (value == null) {
@@ -188,12 +308,11 @@ class MethodCodeGenerator implements CodeGenerator {
         } else if (value instanceof Boolean) {
             writer.loadInt((Boolean) value ? 1 : 0);
         } else {
-            var id = LiteralPool.INSTANCE.register(value);
             writer.invokeDynamic(
                 LiteralObjectInvokeDynamic.BOOTSTRAP,
                 "literal",
                 MethodType.methodType(Object.class),
-                id);
+                writer.classData().indexOf(value));
         }
         return Gist.infallible(aConst.specializedType());
     }
@@ -204,10 +323,10 @@ class MethodCodeGenerator implements CodeGenerator {
         var varType = variable.specializedType();
         if (variable.isBoxed()) {
             writer
-                .loadLocal(REFERENCE, variable.index())
+                .loadLocal(REFERENCE, slots.of(variable))
                 .unboxValue(varType);
         } else {
-            writer.loadLocal(varType, variable.index());
+            writer.loadLocal(varType, slots.of(variable));
         }
         return Gist.infallible(varType);
     }
@@ -283,9 +402,9 @@ class MethodCodeGenerator implements CodeGenerator {
             return initGist.canFail() || bridgeCanFail;
         });
         if (variable.isBoxed()) {
-            writer.initBoxedVariable(varType, variable.index());
+            writer.initBoxedVariable(varType, slots.of(variable));
         } else {
-            writer.storeLocal(varType, variable.index());
+            writer.storeLocal(varType, slots.of(variable));
         }
         liveLocals.add(variable);
         var bodyGist = let.body().accept(this);
@@ -304,10 +423,12 @@ class MethodCodeGenerator implements CodeGenerator {
     @Override
     public Gist visitPrimitive2(Primitive2Node primitive) {
         // Primitive arguments are atomic and therefore always infallible; no need to check.
+        // The operation itself may fail if its result can outgrow the type it's computed as.
         var gist1 = primitive.argument1().accept(this);
         var gist2 = primitive.argument2().accept(this);
-        var type = primitive.implementation().generate(writer, gist1.type(), gist2.type());
-        return Gist.infallible(type);
+        var implementation = primitive.implementation();
+        var type = implementation.generate(writer, gist1.type(), gist2.type());
+        return Gist.of(type, implementation.canFail(gist1.type(), gist2.type()));
     }
 
     @Override
@@ -319,8 +440,7 @@ class MethodCodeGenerator implements CodeGenerator {
         }
         int i;
         for (i = 0; i < expressions.length - 1; i++) {
-            expressions[i].accept(this);
-            writer.pop();
+            generateUnwrappingSquarePegs(expressions[i], false);
         }
         return expressions[i].accept(this);
     }
@@ -354,11 +474,11 @@ class MethodCodeGenerator implements CodeGenerator {
             var bridgingCanFail = writer.bridgeValue(valueGist.type(), varType);
             return valueGist.canFail() && bridgingCanFail;
         });
-        writer.dup(); // the duplicate is left on the stack as the expression value
+        writer.dup(varType); // the duplicate is left on the stack as the expression value
         if (var.isBoxed()) {
-            writer.storeBoxedVariable(varType, var.index());
+            writer.storeBoxedVariable(varType, slots.of(var));
         } else {
-            writer.storeLocal(varType, var.index());
+            writer.storeLocal(varType, slots.of(var));
         }
         return Gist.infallible(varType);
     }
@@ -370,19 +490,70 @@ class MethodCodeGenerator implements CodeGenerator {
 
     @Override
     public Gist visitWhile(WhileNode whileNode) {
-        writer.loadNull();
+        generateLoop(whileNode, true);
+        // TODO The loop as generated here is always treated as if of a reference type.
+        // Perhaps we can do better.
+        return Gist.INFALLIBLE_REFERENCE;
+    }
+
+    /**
+     * Generate a loop. The value of a loop is that of the last iteration of
+     * its body, so if the value is wanted, the body result of each iteration
+     * is kept on the stack as a reference. A loop whose value is discarded,
+     * such as one in the middle of a block, doesn't need to keep anything,
+     * and so doesn't box the int value of its body.
+     */
+    private void generateLoop(WhileNode whileNode, boolean valueWanted) {
+        if (valueWanted) writer.loadNull();
         writer.withLabelsAround((start, end) -> {
             var conditionGist = whileNode.condition().accept(this);
             writer.ensureValue(conditionGist.type(), BOOL);
             writer.jumpIf0(end);
-            writer.pop(); // the prior iteration result or the initial null
-            var bodyGist = whileNode.body().accept(this);
-            writer.bridgeValue(bodyGist.type(), REFERENCE);
+            if (valueWanted) writer.pop(); // the prior iteration result or the initial null
+            generateUnwrappingSquarePegs(whileNode.body(), valueWanted);
             writer.jump(start);
         });
-        // TODO The loop as generated here is always treated as if of a reference type.
-        // Perhaps we can do better.
-        return Gist.INFALLIBLE_REFERENCE;
+    }
+
+    /**
+     * Generate the code of an expression which is not the value of a
+     * continuation with its own specialization, such as a block statement or
+     * a loop body. An SPE thrown by the expression carries the value the
+     * expression should have had. Because that value is either discarded or
+     * wanted as a reference, the SPE is handled in place by unwrapping the
+     * value rather than by switching to the recovery code.
+     *
+     * @param expression The expression to generate.
+     * @param valueWanted Whether the value should be left on the stack as a
+     *        reference. Otherwise it is discarded.
+     */
+    private void generateUnwrappingSquarePegs(EvaluatorNode expression, boolean valueWanted) {
+        if (!valueWanted && expression instanceof WhileNode) {
+            generateLoop((WhileNode) expression, false);
+            return;
+        }
+        var handlerStart = new Label();
+        Gist[] gist = new Gist[1];
+        writer.withLabelsAround((begin, end) -> {
+            gist[0] = expression.accept(this);
+            if (gist[0].canFail()) writer.handleSquarePegException(begin, end, handlerStart);
+        });
+        if (!gist[0].canFail()) {
+            if (valueWanted) {
+                writer.bridgeValue(gist[0].type(), REFERENCE);
+            } else {
+                writer.pop(gist[0].type());
+            }
+            return;
+        }
+        writer.withLabelAtEnd(continuation -> {
+            writer.bridgeValue(gist[0].type(), REFERENCE);
+            writer
+                .jump(continuation)
+                .setLabelHere(handlerStart)
+                .unwrapSPE();
+        });
+        if (!valueWanted) writer.pop();
     }
 
     /**
@@ -401,7 +572,8 @@ class MethodCodeGenerator implements CodeGenerator {
                 Label handlerStart = new Label();
                 SquarePegHandler handler = new SquarePegHandler(
                     handlerStart,
-                    new ArrayList<>(liveLocals));
+                    new ArrayList<>(liveLocals),
+                    function.recoverySiteIndex(requestor));
                 requestor.setRecoverySiteLabel(handler.recoverySiteLabel);
                 squarePegHandlers.add(handler);
                 writer.handleSquarePegException(begin, end, handlerStart);
@@ -414,21 +586,31 @@ class MethodCodeGenerator implements CodeGenerator {
      * handler should unwrap the SPE currently on the stack and unspecialize any
      * specialized live locals, then jump to the continuation location in the
      * generic code. The unwrapped value of the SPE should be the only value on
-     * the stack when jumping.
+     * the stack when jumping. Before that, the handler reports the SPE to the
+     * function, which counts it and may decide to deoptimize the unit. The
+     * value is unwrapped first thing, since the exception instance is reused
+     * by the next SPE on this thread.
      */
     private void generateRecoveryHandler(SquarePegHandler handler) {
         // stack: SquarePegException
         writer
             .setLabelHere(handler.handlerStart)
-            .unwrapSPE();
+            .unwrapSPE()
+            .dup()
+            .invokeDynamic(
+                SquarePegCounterInvokeDynamic.BOOTSTRAP,
+                "recordSquarePeg",
+                SquarePegCounterInvokeDynamic.CALL_SITE_TYPE,
+                writer.classData().indexOf(function),
+                handler.recoverySiteIndex);
         // stack: continuation value
         Stream.concat(Stream.of(function.allParameters()), handler.liveLocals.stream()).forEach(var -> {
             var varType = var.specializedType();
             if (!var.isBoxed() && varType != REFERENCE) {
                 writer
-                    .loadLocal(varType, var.index())
+                    .loadLocal(varType, slots.of(var))
                     .adaptValue(varType, REFERENCE)
-                    .storeLocal(REFERENCE, var.index());
+                    .storeLocal(REFERENCE, slots.of(var));
             }
         });
         writer.jump(handler.recoverySiteLabel);
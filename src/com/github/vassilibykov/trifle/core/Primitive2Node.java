@@ -13,6 +13,11 @@ import org.jetbrains.annotations.NotNull;
 public class Primitive2Node extends PrimitiveNode {
     @NotNull private final EvaluatorNode argument1;
     @NotNull private final EvaluatorNode argument2;
+    /**
+     * The state of the self-specialization of the call by the interpreter.
+     * See {@link Interpreter.Evaluator#visitPrimitive2(Primitive2Node)}.
+     */
+    /*internal*/ volatile Interpreter.Specialization interpreterSpecialization = Interpreter.Specialization.UNINITIALIZED;
 
     protected Primitive2Node(@NotNull Primitive2 primitive, @NotNull EvaluatorNode argument1, @NotNull EvaluatorNode argument2) {
         super(primitive);
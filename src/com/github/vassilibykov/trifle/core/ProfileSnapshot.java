@@ -0,0 +1,301 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Profile data of a set of units, saved so that another run can start with
+ * the profiles of an earlier one and compile the units right away, with the
+ * specializations the earlier run arrived at.
+ *
+ * <p>A snapshot is taken by {@link #of(Collection)} from the current profiles
+ * of user functions, and is written into and read from a file by {@link
+ * #write(Path)} and {@link #read(Path)}. It is applied to the functions of
+ * another run by {@link #applyTo(UserFunction)}, which adds the saved counts
+ * to the profiles of the function's unit and compiles the unit if its
+ * tiering policy agrees that the unit has been profiled enough.
+ *
+ * <p>The profiles of a unit are matched with a unit of another run by the
+ * {@link UnitSignature} of the unit, which does not include the definitions
+ * of the functions it calls, since their profiles are their own. Within a
+ * unit, the profile data are identified by the order in which a traversal of
+ * the evaluator nodes of the unit encounters them: for each function of the
+ * unit, the function's own counters, the profile of its results and its
+ * parameters, followed by the profiles of let-bound variables and calls and
+ * the counters of conditionals and loops. Unlike the code cache, profiles are
+ * not specific to the JDK or to the code the compiler generates.
+ *
+ * <p>The file is a sequence of units, each consisting of the signature hash
+ * followed by the counters in traversal order. Counters are written as
+ * variable-length integers, so that the many small and zero counts take a
+ * byte each.
+ */
+public final class ProfileSnapshot {
+    private static final int MAGIC = 0x54524650; // "TRFP"
+    private static final int FORMAT_VERSION = 1;
+    private static final int SIGNATURE_LENGTH = 32;
+
+    /**
+     * Take a snapshot of the current profiles of the units of the specified
+     * functions.
+     */
+    public static ProfileSnapshot of(Collection<UserFunction> functions) {
+        var units = Collections.newSetFromMap(new IdentityHashMap<FunctionImplementation, Boolean>());
+        var profiles = new LinkedHashMap<String, List<long[]>>();
+        for (var each : functions) {
+            var unit = each.implementation();
+            if (!units.add(unit)) continue;
+            var exporter = new Exporter();
+            exporter.traverseUnit(unit);
+            profiles.putIfAbsent(UnitSignature.of(unit, 0).hash(), exporter.counters);
+        }
+        return new ProfileSnapshot(profiles);
+    }
+
+    /**
+     * Take a snapshot of the current profiles of the functions of a library.
+     */
+    public static ProfileSnapshot of(Library library) {
+        return of(library.functions().collect(Collectors.toList()));
+    }
+
+    public static ProfileSnapshot read(Path file) throws IOException {
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (input.readInt() != MAGIC) throw new IOException("not a profile snapshot: " + file);
+            if (input.readInt() != FORMAT_VERSION) throw new IOException("unsupported profile snapshot version: " + file);
+            var profiles = new LinkedHashMap<String, List<long[]>>();
+            var unitCount = readCount(input);
+            var signature = new byte[SIGNATURE_LENGTH];
+            for (int i = 0; i < unitCount; i++) {
+                input.readFully(signature);
+                var counterCount = readCount(input);
+                var counters = new ArrayList<long[]>(counterCount);
+                for (int j = 0; j < counterCount; j++) {
+                    var counts = new long[readCount(input)];
+                    for (int k = 0; k < counts.length; k++) counts[k] = readUnsigned(input);
+                    counters.add(counts);
+                }
+                profiles.put(UnitSignature.hex(signature), counters);
+            }
+            return new ProfileSnapshot(profiles);
+        }
+    }
+
+    /*
+        Instance
+     */
+
+    /**
+     * Maps unit signature hashes to the counts of the unit's counters in
+     * traversal order.
+     */
+    private final Map<String, List<long[]>> profiles;
+
+    private ProfileSnapshot(Map<String, List<long[]>> profiles) {
+        this.profiles = profiles;
+    }
+
+    /**
+     * The number of units with profiles in the snapshot.
+     */
+    public int unitCount() {
+        return profiles.size();
+    }
+
+    public void write(Path file) throws IOException {
+        try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            writeUnsigned(profiles.size(), output);
+            for (var entry : profiles.entrySet()) {
+                output.write(HexFormat.of().parseHex(entry.getKey()));
+                writeUnsigned(entry.getValue().size(), output);
+                for (var counts : entry.getValue()) {
+                    writeUnsigned(counts.length, output);
+                    for (var each : counts) writeUnsigned(each, output);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the saved profiles of the unit of the function, if the snapshot has
+     * them, to the current profiles of the unit. Then compile the unit if its
+     * tiering policy says it's ready to be compiled. Return false if the
+     * snapshot has no profiles of the unit, or if they don't fit its shape.
+     */
+    public boolean applyTo(UserFunction function) {
+        var unit = function.implementation();
+        var counters = profiles.get(UnitSignature.of(unit, 0).hash());
+        if (counters == null) return false;
+        var checker = new ShapeChecker(counters);
+        checker.traverseUnit(unit);
+        if (!checker.fits()) return false;
+        new Importer(counters).traverseUnit(unit);
+        unit.profilesImported();
+        return true;
+    }
+
+    /**
+     * Apply the snapshot to all functions of the library. Return the number of
+     * functions it was applied to.
+     */
+    public int applyTo(Library library) {
+        return (int) library.functions().filter(this::applyTo).count();
+    }
+
+    /*
+        Encoding
+     */
+
+    private static void writeUnsigned(long value, DataOutputStream output) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    private static long readUnsigned(DataInputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            var next = input.readUnsignedByte();
+            value |= (long) (next & 0x7F) << shift;
+            if ((next & 0x80) == 0) return value;
+        }
+        throw new IOException("malformed profile snapshot");
+    }
+
+    private static int readCount(DataInputStream input) throws IOException {
+        var count = readUnsigned(input);
+        if (count > Integer.MAX_VALUE) throw new IOException("malformed profile snapshot");
+        return (int) count;
+    }
+
+    /*
+        Traversal
+     */
+
+    /**
+     * Visits the counters of the functions of a unit in the traversal order
+     * which identifies them. For each counter, {@link #transfer} receives the
+     * reader of its current values and the method adding saved values to it.
+     */
+    private static abstract class UnitTraversal extends EvaluatorNode.VisitorSkeleton<Void> {
+
+        void traverseUnit(FunctionImplementation topImplementation) {
+            traverseFunction(topImplementation);
+            topImplementation.closureImplementations().forEach(this::traverseFunction);
+        }
+
+        private void traverseFunction(FunctionImplementation function) {
+            var profile = function.functionProfile();
+            transfer(profile::counts, profile::addCounts);
+            transfer(profile.resultProfile());
+            function.declaredParameters().forEach(each -> transfer(each.profile()));
+            function.body().accept(this);
+        }
+
+        abstract void transfer(Supplier<long[]> reader, Consumer<long[]> adder);
+
+        private void transfer(ValueProfile profile) {
+            transfer(profile::counts, profile::addCounts);
+        }
+
+        private void transfer(AtomicLong counter) {
+            transfer(() -> new long[] {counter.get()}, counts -> counter.addAndGet(counts[0]));
+        }
+
+        @Override
+        public Void visitCall(CallNode call) {
+            transfer(call.profile);
+            return super.visitCall(call);
+        }
+
+        @Override
+        public Void visitClosure(ClosureNode closure) {
+            return null; // closure functions are traversed as functions of the unit
+        }
+
+        @Override
+        public Void visitIf(IfNode anIf) {
+            transfer(anIf.trueBranchCount);
+            transfer(anIf.falseBranchCount);
+            return super.visitIf(anIf);
+        }
+
+        @Override
+        public Void visitLet(LetNode let) {
+            transfer(let.variable().profile());
+            return super.visitLet(let);
+        }
+
+        @Override
+        public Void visitWhile(WhileNode whileNode) {
+            transfer(whileNode.bodyCount);
+            return super.visitWhile(whileNode);
+        }
+    }
+
+    private static class Exporter extends UnitTraversal {
+        private final List<long[]> counters = new ArrayList<>();
+
+        @Override
+        void transfer(Supplier<long[]> reader, Consumer<long[]> adder) {
+            counters.add(reader.get());
+        }
+    }
+
+    private static class ShapeChecker extends UnitTraversal {
+        private final List<long[]> counters;
+        private int index = 0;
+        private boolean fits = true;
+
+        private ShapeChecker(List<long[]> counters) {
+            this.counters = counters;
+        }
+
+        boolean fits() {
+            return fits && index == counters.size();
+        }
+
+        @Override
+        void transfer(Supplier<long[]> reader, Consumer<long[]> adder) {
+            if (index >= counters.size() || counters.get(index).length != reader.get().length) fits = false;
+            index++;
+        }
+    }
+
+    private static class Importer extends UnitTraversal {
+        private final List<long[]> counters;
+        private int index = 0;
+
+        private Importer(List<long[]> counters) {
+            this.counters = counters;
+        }
+
+        @Override
+        void transfer(Supplier<long[]> reader, Consumer<long[]> adder) {
+            adder.accept(counters.get(index++));
+        }
+    }
+}
@@ -2,18 +2,53 @@
 
 package com.github.vassilibykov.trifle.core;
 
+import java.lang.invoke.MethodHandle;
+
 public class ProfilingInterpreter extends Interpreter {
     public static final ProfilingInterpreter INSTANCE = new ProfilingInterpreter();
 
     static class ProfilingEvaluator extends Evaluator {
+        /**
+         * The interval in loop iterations between checks whether a compiled
+         * OSR entry has become available, once a loop is past the OSR
+         * threshold. Must be a power of two.
+         */
+        private static final long OSR_CHECK_INTERVAL = 256;
+
+        private FunctionImplementation function;
+        private FunctionProfile functionProfile;
+
+        /**
+         * Create an evaluator with the frame. Before it's used, it has to be
+         * set up with the function to evaluate.
+         */
         ProfilingEvaluator(Object[] frame) {
             super(frame);
         }
 
+        /**
+         * Prepare the evaluator to evaluate the specified function, or release
+         * the function it evaluated if the argument is null. Profiling
+         * evaluators are reused by {@link FrameArena}.
+         */
+        void setFunction(FunctionImplementation function) {
+            this.function = function;
+            this.functionProfile = function != null ? function.profile : null;
+            this.returnValue = null;
+        }
+
+        /**
+         * The value of a call performed as a tail call is not known here, so
+         * it's recorded when the tail call completes.
+         */
         @Override
         public Object visitCall(CallNode call) {
-            var result = call.dispatcher().execute(call, this);
-            call.profile.recordValue(result);
+            var result = super.visitCall(call);
+            if (result instanceof TailCall) {
+                ((TailCall) result).profileResultIn(call.profile);
+            } else {
+                call.profile.recordValue(result);
+            }
             return result;
         }
 
@@ -31,11 +66,15 @@ public class ProfilingInterpreter extends Interpreter {
                 // The count must be incremented after the branch. Counts logically track the cases
                 // when a value has been produced by a branch, not when it has been invoked.
                 // Descending into a branch may fail to produce a value if there is a return in the branch.
+                if (result == RETURNING) return RETURNING;
                 anIf.trueBranchCount.incrementAndGet();
+                functionProfile.recordBranch();
                 return result;
             } else {
                 Object result = anIf.falseBranch().accept(this);
+                if (result == RETURNING) return RETURNING;
                 anIf.falseBranchCount.incrementAndGet();
+                functionProfile.recordBranch();
                 return result;
             }
         }
@@ -45,6 +84,7 @@ public class ProfilingInterpreter extends Interpreter {
             VariableDefinition variable = let.variable();
             Object value;
             value = let.initializer().accept(this);
+            if (value == RETURNING) return RETURNING;
             variable.initValueIn(frame, value);
             variable.profile.recordValue(value);
             return let.body().accept(this);
@@ -57,36 +97,87 @@ public class ProfilingInterpreter extends Interpreter {
             return value;
         }
 
+        /**
+         * In addition to profiling, counts the iterations of this execution of
+         * the loop. Once the count crosses the OSR threshold of the tiering
+         * policy, requests the function to be compiled and periodically
+         * checks whether its OSR entry is available. If it is, the rest of the
+         * function is executed by compiled code, starting at the header of
+         * this loop. The result of the compiled code is the result of the
+         * function, so the loop ends as if by a return expression producing
+         * that result.
+         */
         @Override
         public Object visitWhile(WhileNode whileNode) {
             Object result = null;
+            long iterations = 0;
+            long osrThreshold = function.tieringPolicy().osrThreshold();
             while (evaluateCondition(whileNode.condition())) {
                 result = whileNode.body().accept(this);
+                if (result == RETURNING) return RETURNING;
                 whileNode.bodyCount.incrementAndGet();
+                functionProfile.recordBackEdge();
+                if (++iterations >= osrThreshold && (iterations & (OSR_CHECK_INTERVAL - 1)) == 0) {
+                    var osrEntry = function.osrEntry();
+                    if (osrEntry != null) {
+                        returnValue = enterCompiledCode(osrEntry, whileNode, result);
+                        return RETURNING;
+                    }
+                }
             }
             return result;
         }
+
+        private Object enterCompiledCode(MethodHandle osrEntry, WhileNode whileNode, Object loopValue) {
+            try {
+                return osrEntry.invokeExact(frame, whileNode.osrEntryIndex, loopValue);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new AssertionError(e);
+            }
+        }
     }
 
     /*
         Instance
      */
 
+    /**
+     * A chain of tail calls the function ended with produces the value of the
+     * function, so it's recorded as its result.
+     */
     @Override
-    public Object interpret(FunctionImplementation function, Object[] args) {
-        var frame = new Object[function.frameSize()];
-        var allParameters = function.allParameters();
-        for (int i = 0; i < args.length; i++) {
-            allParameters[i].setupArgumentIn(frame, args[i]);
+    Object complete(FunctionImplementation function, Object bodyResult) {
+        if (bodyResult instanceof TailCall) {
+            var result = TailCall.complete(bodyResult);
+            function.profile.recordTailCallResult(result);
+            return result;
+        }
+        return bodyResult;
+    }
+
+    /**
+     * Evaluate the body of the function, profiling the evaluation unless the
+     * tiering policy samples invocations and this one is not in the sample.
+     * The profiling evaluator shares the frame of the pooled simple one.
+     */
+    @Override
+    Object evaluate(FunctionImplementation function, FrameArena arena, Evaluator evaluator) {
+        var profile = function.profile;
+        if (!profile.shouldSample(function.tieringPolicy().profilingSampleInterval())) {
+            var result = evaluator.evaluateBody(function.body());
+            profile.recordUnsampledInvocation();
+            return result;
         }
-        function.profile.recordArguments(frame);
-        Object result;
-        try {
-            result = function.body().accept(new ProfilingEvaluator(frame));
-        } catch (ReturnException e) {
-            result = e.value;
+        var frame = evaluator.frame;
+        profile.recordArguments(frame);
+        var result = arena.topProfilingEvaluator(function).evaluateBody(function.body());
+        if (result instanceof TailCall) {
+            profile.recordTailCall();
+        } else {
+            profile.recordResult(result);
         }
-        function.profile.recordResult(result);
         return result;
     }
 }
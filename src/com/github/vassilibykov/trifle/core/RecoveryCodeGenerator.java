@@ -9,6 +9,7 @@ import org.objectweb.asm.Label;
 import java.lang.invoke.MethodType;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 import static com.github.vassilibykov.trifle.core.JvmType.BOOL;
@@ -77,6 +78,12 @@ import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
  * {@link FunctionImplementation#recoveryCode()}, because it is the same for
  * both generic and specialized forms of a function, and computing it
  * involves some work.
+ *
+ * <p>The same machinery produces the on-stack replacement (OSR) entry method of
+ * a function with loops. Its A-code is translated with loop headers rather
+ * than recovery sites as entry points. Its prologue unpacks an interpreter
+ * frame into locals, the way an SPE handler reboxes live locals, and then jumps
+ * to the header of the loop the interpreter was executing.
  */
 class RecoveryCodeGenerator {
 
@@ -102,6 +109,11 @@ class RecoveryCodeGenerator {
     private static class Branch extends JumpInstruction {
         final EvaluatorNode test;
         final boolean branchesOnTrue;
+        /**
+         * If this branch is the header of a loop used as an OSR entry point,
+         * the loop. Otherwise null.
+         */
+        @Nullable WhileNode osrLoop;
 
         Branch(EvaluatorNode test, int address) {
             this(test, true, address);
@@ -234,7 +246,16 @@ class RecoveryCodeGenerator {
      */
     static class EvaluatorNodeToACodeTranslator implements EvaluatorNode.Visitor<Void> {
         static Instruction[] translate(EvaluatorNode functionBody) {
-            var translator = new EvaluatorNodeToACodeTranslator(functionBody);
+            var translator = new EvaluatorNodeToACodeTranslator(functionBody, false);
+            return translator.translate();
+        }
+
+        /**
+         * Translate a function body so that the entry points are the headers
+         * of all its loops instead of recovery sites.
+         */
+        static Instruction[] translateForOsr(EvaluatorNode functionBody) {
+            var translator = new EvaluatorNodeToACodeTranslator(functionBody, true);
             return translator.translate();
         }
 
@@ -243,11 +264,13 @@ class RecoveryCodeGenerator {
          */
 
         private final EvaluatorNode functionBody;
+        private final boolean forOsr;
         private final List<Instruction> code = new ArrayList<>();
         private List<Integer> entryPoints = new ArrayList<>();
 
-        private EvaluatorNodeToACodeTranslator(EvaluatorNode functionBody) {
+        private EvaluatorNodeToACodeTranslator(EvaluatorNode functionBody, boolean forOsr) {
             this.functionBody = functionBody;
+            this.forOsr = forOsr;
         }
 
         private Instruction[] translate() {
@@ -257,7 +280,8 @@ class RecoveryCodeGenerator {
                    for a function, and is only requested if the function code included SPE
                    handlers. Thus, the set of entry points should always be non-empty.
                    If that is not so, these assumptions have been violated and something
-                   is very wrong. */
+                   is very wrong. Likewise, OSR code is only requested for functions
+                   with loops. */
                 throw new AssertionError();
             }
             emit(new Return(null));
@@ -308,13 +332,22 @@ class RecoveryCodeGenerator {
 
         private void removeDeadCode() {
             code.removeIf(instruction -> !instruction.isLive);
-            var redundantGotos = new ArrayList<Instruction>();
+            var redundantGotos = new HashSet<Instruction>();
             for (int i = 0; i < code.size() - 1; i++) { // not including the last instruction
                 var instruction = code.get(i);
                 if (instruction instanceof Goto && ((Goto) instruction).target == code.get(i + 1)) {
                     redundantGotos.add(instruction);
                 }
             }
+            // Other jumps may target a removed goto; send them where it would go.
+            for (var instruction : code) {
+                if (instruction instanceof JumpInstruction) {
+                    var jump = (JumpInstruction) instruction;
+                    while (redundantGotos.contains(jump.target)) {
+                        jump.target = ((Goto) jump.target).target;
+                    }
+                }
+            }
             code.removeAll(redundantGotos);
         }
 
@@ -379,7 +412,7 @@ class RecoveryCodeGenerator {
         @Override
         public Void visitLet(LetNode let) {
             let.initializer().accept(this);
-            entryPoints.add(nextInstructionAddress());
+            addRecoveryEntryPoint();
             emit(new Store(let.variable(), let));
             let.body().accept(this);
             return null;
@@ -416,7 +449,7 @@ class RecoveryCodeGenerator {
         @Override
         public Void visitReturn(ReturnNode ret) {
             ret.value().accept(this);
-            entryPoints.add(nextInstructionAddress());
+            addRecoveryEntryPoint();
             emit(new Return(ret));
             return null;
         }
@@ -424,7 +457,7 @@ class RecoveryCodeGenerator {
         @Override
         public Void visitSetVar(SetVariableNode set) {
             set.value().accept(this);
-            entryPoints.add(nextInstructionAddress());
+            addRecoveryEntryPoint();
             emit(new Copy(set.variable(), set));
             return null;
         }
@@ -440,6 +473,10 @@ class RecoveryCodeGenerator {
             emit(new Load(new ConstantNode(null)));
             int start = nextInstructionAddress();
             var branch = new Branch(whileNode.condition(), false, -1);
+            if (forOsr) {
+                branch.osrLoop = whileNode;
+                entryPoints.add(start);
+            }
             emit(branch);
             emit(new Drop());
             whileNode.body().accept(this);
@@ -448,6 +485,10 @@ class RecoveryCodeGenerator {
             return null;
         }
 
+        private void addRecoveryEntryPoint() {
+            if (!forOsr) entryPoints.add(nextInstructionAddress());
+        }
+
         private void emit(Instruction instruction) {
             code.add(instruction);
         }
@@ -487,12 +528,12 @@ class RecoveryCodeGenerator {
         @Override
         public Gist visitClosure(ClosureNode closure) {
             var indicesToCopy = closure.copiedVariableIndices;
-            for (var copiedIndex : indicesToCopy) writer.loadLocal(REFERENCE, copiedIndex);
+            for (var copiedIndex : indicesToCopy) writer.loadLocal(REFERENCE, slots.of(copiedIndex));
             writer.invokeDynamic(
                 ClosureCreationInvokeDynamic.BOOTSTRAP,
                 "createClosure",
                 MethodType.genericMethodType(indicesToCopy.length),
-                closure.function().id());
+                writer.classData().indexOf(closure.function()));
             return Gist.INFALLIBLE_REFERENCE;
         }
 
@@ -502,6 +543,12 @@ class RecoveryCodeGenerator {
             if (value instanceof Integer) {
                 writer.loadInt((Integer) value);
                 return Gist.INFALLIBLE_INT;
+            } else if (value instanceof Long) {
+                writer.loadLong((Long) value);
+                return Gist.INFALLIBLE_LONG;
+            } else if (value instanceof Double) {
+                writer.loadDouble((Double) value);
+                return Gist.INFALLIBLE_DOUBLE;
             } else if (value instanceof String) {
                 writer.loadString((String) value);
                 return Gist.INFALLIBLE_REFERENCE;
@@ -512,12 +559,11 @@ class RecoveryCodeGenerator {
                 writer.loadInt((Boolean) value ? 1 : 0);
                 return Gist.INFALLIBLE_BOOL;
             } else {
-                var id = LiteralPool.INSTANCE.register(value);
                 writer.invokeDynamic(
                     LiteralObjectInvokeDynamic.BOOTSTRAP,
                     "literal",
                     MethodType.methodType(Object.class),
-                    id);
+                    writer.classData().indexOf(value));
                 return Gist.INFALLIBLE_REFERENCE;
             }
         }
@@ -525,7 +571,7 @@ class RecoveryCodeGenerator {
         @Override
         public Gist visitGetVar(GetVariableNode getVar) {
             var variable = getVar.variable();
-            writer.loadLocal(REFERENCE, variable.index());
+            writer.loadLocal(REFERENCE, slots.of(variable));
             if (variable.isBoxed()) writer.extractBoxedVariable();
             return Gist.INFALLIBLE_REFERENCE;
         }
@@ -551,7 +597,7 @@ class RecoveryCodeGenerator {
         public Gist visitPrimitive2(Primitive2Node primitive2) {
             var gist1 = primitive2.argument1().accept(this);
             var gist2 = primitive2.argument2().accept(this);
-            var type = primitive2.implementation().generate(writer, gist1.type(), gist2.type());
+            var type = primitive2.implementation().generateInfallible(writer, gist1.type(), gist2.type());
             return Gist.infallible(type);
         }
 
@@ -586,19 +632,90 @@ class RecoveryCodeGenerator {
         Instance
      */
 
-    private final FunctionImplementation function;
     private final Instruction[] acode;
+    private final JvmType returnType;
+    /**
+     * Whether the code is generated as a continuation of normal code, so labels
+     * of recovery sites must be placed in it.
+     */
+    private final boolean isRecoveryCode;
+    private final LocalSlots slots;
     protected final GhostWriter writer;
     private final AtomicExpressionCodeGenerator atomicGenerator;
 
-    RecoveryCodeGenerator(FunctionImplementation function, GhostWriter writer) {
-        this.function = function;
-        this.acode = function.recoveryCode();
+    /**
+     * Create a generator of recovery code following the normal code of the
+     * function in the same method.
+     */
+    RecoveryCodeGenerator(FunctionImplementation function, LocalSlots slots, GhostWriter writer) {
+        this(function.recoveryCode(), function.specializedReturnType(), true, slots, writer);
+    }
+
+    private RecoveryCodeGenerator(
+        Instruction[] acode,
+        JvmType returnType,
+        boolean isRecoveryCode,
+        LocalSlots slots,
+        GhostWriter writer)
+    {
+        this.acode = acode;
+        this.returnType = returnType;
+        this.isRecoveryCode = isRecoveryCode;
         assignJumpLabels();
+        this.slots = slots;
         this.writer = writer;
         this.atomicGenerator = new AtomicExpressionCodeGenerator();
     }
 
+    /**
+     * Generate the body of the OSR entry method of the function. The method
+     * has the type {@link FunctionImplementation#OSR_ENTRY_TYPE}. It receives
+     * the interpreter frame, the {@link WhileNode#osrEntryIndex} of the loop to
+     * enter, and the value produced by the latest iteration of the loop body.
+     * It returns the result of the function.
+     */
+    static void generateOsrEntry(FunctionImplementation function, GhostWriter writer) {
+        var generator = new RecoveryCodeGenerator(
+            function.osrCode(), REFERENCE, false, LocalSlots.generic(function), writer);
+        generator.generateOsrPrologue(function.frameSize());
+        generator.generate();
+    }
+
+    private void generateOsrPrologue(int frameSize) {
+        /* Locals 0 through 2 hold the parameters, but the frame is unpacked into
+           locals starting at 0, so the parameters are first moved out of the way. */
+        int frameLocal = Math.max(slots.of(frameSize), 3);
+        int entryIndexLocal = frameLocal + 1;
+        writer
+            .loadLocal(REFERENCE, 0)
+            .storeLocal(REFERENCE, frameLocal)
+            .loadLocal(INT, 1)
+            .storeLocal(INT, entryIndexLocal)
+            .loadLocal(REFERENCE, 2); // stays on the stack as the A-code register value
+        for (int i = 0; i < frameSize; i++) {
+            writer
+                .loadLocal(REFERENCE, frameLocal)
+                .loadInt(i)
+                .loadArrayElement()
+                .storeLocal(REFERENCE, slots.of(i));
+        }
+        var loopHeaders = new ArrayList<Branch>();
+        for (var instruction : acode) {
+            if (instruction instanceof Branch && ((Branch) instruction).osrLoop != null) {
+                loopHeaders.add((Branch) instruction);
+            }
+        }
+        var labels = new Label[loopHeaders.size()];
+        for (var header : loopHeaders) {
+            labels[header.osrLoop.osrEntryIndex] = header.incomingJumpLabel;
+        }
+        writer.loadLocal(INT, entryIndexLocal);
+        writer.withLabelAtEnd(invalidEntry -> {
+            writer.asm().visitTableSwitchInsn(0, labels.length - 1, invalidEntry, labels);
+        });
+        writer.throwError("invalid OSR entry index");
+    }
+
     private void assignJumpLabels() {
         for (var instruction : acode) {
             if (instruction instanceof JumpInstruction) {
@@ -618,8 +735,8 @@ class RecoveryCodeGenerator {
         }
         var finalReturn = acode[acode.length - 1];
         if (finalReturn.incomingJumpLabel != null) writer.setLabelHere(finalReturn.incomingJumpLabel);
-        writer.bridgeValue(REFERENCE, function.specializedReturnType());
-        writer.ret(function.specializedReturnType());
+        writer.bridgeValue(REFERENCE, returnType);
+        writer.ret(returnType);
     }
 
     private void visitBranch(Branch branch) {
@@ -643,21 +760,29 @@ class RecoveryCodeGenerator {
 
     private void visitReturn(Return aReturn) {
         setRecoveryLabelHere(aReturn.recoverySite);
-        JvmType targetType = function.specializedReturnType();
-        writer.bridgeValue(REFERENCE, targetType);
-        writer.ret(targetType);
+        writer.bridgeValue(REFERENCE, returnType);
+        writer.ret(returnType);
     }
 
     private void visitStore(Store store) {
         setRecoveryLabelHere(store.recoverySite);
-        writer.storeLocal(REFERENCE, store.variable.index());
+        var variable = store.variable;
+        if (variable.isBoxed()) {
+            writer.initBoxedVariable(REFERENCE, slots.of(variable));
+        } else {
+            writer.storeLocal(REFERENCE, slots.of(variable));
+        }
     }
 
     private void visitCopy(Copy copy) {
         setRecoveryLabelHere(copy.recoverySite);
-        writer
-            .dup()
-            .storeLocal(REFERENCE, copy.variable.index());
+        var variable = copy.variable;
+        writer.dup();
+        if (variable.isBoxed()) {
+            writer.storeBoxedVariable(REFERENCE, slots.of(variable));
+        } else {
+            writer.storeLocal(REFERENCE, slots.of(variable));
+        }
     }
 
     private void visitDrop(Drop drop) {
@@ -665,7 +790,7 @@ class RecoveryCodeGenerator {
     }
 
     private void setRecoveryLabelHere(@Nullable RecoverySite site) {
-        if (site != null) {
+        if (isRecoveryCode && site != null) {
             var label = site.recoverySiteLabel();
             if (label != null) writer.setLabelHere(label);
         }
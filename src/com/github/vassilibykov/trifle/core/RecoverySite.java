@@ -11,4 +11,12 @@ import org.objectweb.asm.Label;
 interface RecoverySite {
     Label recoverySiteLabel();
     void setRecoverySiteLabel(Label recoverySiteLabel);
+
+    /**
+     * The profile of the values received by the continuation at this site in
+     * the specified function. A square peg arriving at the site is recorded
+     * there, so that the continuation is not specialized the same way again
+     * if the function is recompiled.
+     */
+    ValueProfile continuationProfile(FunctionImplementation function);
 }
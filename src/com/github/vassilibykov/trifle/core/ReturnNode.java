@@ -29,6 +29,11 @@ class ReturnNode extends EvaluatorNode implements RecoverySite {
         this.recoverySiteLabel = recoverySiteLabel;
     }
 
+    @Override
+    public ValueProfile continuationProfile(FunctionImplementation function) {
+        return function.profile.resultProfile();
+    }
+
     @Override
     public <T> T accept(Visitor<T> visitor) {
         return visitor.visitReturn(this);
@@ -32,6 +32,18 @@ public class RuntimeError extends RuntimeException {
         return message("integer expected, got: " + actual1 + " and: " + actual2);
     }
 
+    public static RuntimeError longExpected(Object actual1, Object actual2) {
+        return message("long expected, got: " + actual1 + " and: " + actual2);
+    }
+
+    public static RuntimeError doubleExpected(Object actual) {
+        return message("double expected, got: " + actual);
+    }
+
+    public static RuntimeError doubleExpected(Object actual1, Object actual2) {
+        return message("double expected, got: " + actual1 + " and: " + actual2);
+    }
+
     private RuntimeError(String message) {
         super(message);
     }
@@ -41,6 +41,11 @@ class SetVariableNode extends EvaluatorNode implements RecoverySite {
         this.recoverySiteLabel = recoverySiteLabel;
     }
 
+    @Override
+    public ValueProfile continuationProfile(FunctionImplementation function) {
+        return variable.profile();
+    }
+
     @Override
     public <T> T accept(Visitor<T> visitor) {
         return visitor.visitSetVar(this);
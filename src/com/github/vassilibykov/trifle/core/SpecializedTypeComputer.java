@@ -2,6 +2,12 @@
 
 package com.github.vassilibykov.trifle.core;
 
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
 
 /**
@@ -28,6 +34,61 @@ class SpecializedTypeComputer implements EvaluatorNode.Visitor<JvmType> {
         topLevelFunction.closureImplementations().forEach(each -> processFunction(useGenericSignature, each));
     }
 
+    /**
+     * Set {@code specializedType} fields of variable and evaluator nodes for
+     * compiling a variant of the specialized form of a function of a compiled
+     * unit. The unit is processed as by {@link #process} with a specialized
+     * signature, so that synthetic parameters get the specializations of the
+     * variables they copy. Then the declared parameters and the result of the
+     * function are specialized to the types of the specified method type,
+     * and the nodes of its body according to their observed values as usual.
+     *
+     * <p>The nodes and variables are shared with the methods of the unit
+     * already installed, which may have been generated from different
+     * profiles. The types replaced here are returned, to be put back by the
+     * caller once the variant has been generated.
+     */
+    static SavedTypes processVariant(
+        FunctionImplementation topLevelFunction, FunctionImplementation function, MethodType declaredType)
+    {
+        var declaredParameters = function.declaredParameters();
+        if (declaredType.parameterCount() != declaredParameters.size()) {
+            throw new IllegalArgumentException("variant type does not match the function arity");
+        }
+        var saved = new SavedTypes();
+        new SpecializedTypeComputer(false, topLevelFunction, saved).process();
+        topLevelFunction.closureImplementations().forEach(each ->
+            new SpecializedTypeComputer(false, each, saved).process());
+        var computer = new SpecializedTypeComputer(false, function, saved);
+        for (int i = 0; i < declaredParameters.size(); i++) {
+            computer.setSpecializedType(declaredParameters.get(i), JvmType.ofClass(declaredType.parameterType(i)));
+        }
+        function.compiledBody().accept(computer);
+        computer.setSpecializedReturnType(JvmType.ofClass(declaredType.returnType()));
+        return saved;
+    }
+
+    /**
+     * The specialized types of nodes, variables and function results as they
+     * were before {@link #processVariant} replaced them.
+     */
+    static final class SavedTypes {
+        private final Map<EvaluatorNode, JvmType> nodeTypes = new HashMap<>();
+        private final Map<AbstractVariable, JvmType> variableTypes = new HashMap<>();
+        private final Map<FunctionImplementation, JvmType> returnTypes = new HashMap<>();
+
+        private SavedTypes() {}
+
+        /**
+         * Put back the saved types.
+         */
+        void restore() {
+            nodeTypes.forEach(EvaluatorNode::setSpecializedType);
+            variableTypes.forEach(AbstractVariable::setSpecializedType);
+            returnTypes.forEach(FunctionImplementation::setSpecializedReturnType);
+        }
+    }
+
     private static void processFunction(boolean isForGenericSignature, FunctionImplementation function) {
         var computer = new SpecializedTypeComputer(isForGenericSignature, function);
         computer.process();
@@ -39,18 +100,27 @@ class SpecializedTypeComputer implements EvaluatorNode.Visitor<JvmType> {
 
     private final boolean useGenericSignature;
     private final FunctionImplementation function;
+    /** Receives the types replaced by this computer, if they are to be put back later. */
+    @Nullable private final SavedTypes saved;
 
     private SpecializedTypeComputer(boolean useGenericSignature, FunctionImplementation function) {
+        this(useGenericSignature, function, null);
+    }
+
+    private SpecializedTypeComputer(
+        boolean useGenericSignature, FunctionImplementation function, @Nullable SavedTypes saved)
+    {
         this.useGenericSignature = useGenericSignature;
         this.function = function;
+        this.saved = saved;
     }
 
     private void process() {
         for (var eachParam : function.allParameters()) {
-            eachParam.setSpecializedType(effectiveTypeInSignature(eachParam.profile().observedType()));
+            setSpecializedType(eachParam, effectiveTypeInSignature(eachParam.profile().observedType()));
         }
-        function.body().accept(this);
-        function.setSpecializedReturnType(effectiveTypeInSignature(function.profile.resultProfile().observedType()));
+        function.compiledBody().accept(this);
+        setSpecializedReturnType(effectiveTypeInSignature(function.profile.resultProfile().observedType()));
     }
     
     private JvmType effectiveTypeInSignature(ExpressionType type) {
@@ -132,7 +202,7 @@ class SpecializedTypeComputer implements EvaluatorNode.Visitor<JvmType> {
         JvmType type = observedType.isUnknown()
             ? initType
             : observedType.jvmType().orElse(REFERENCE);
-        var.setSpecializedType(type);
+        setSpecializedType(var, type);
         var bodyType = let.body().accept(this);
         return setSpecializedType(let, bodyType);
     }
@@ -201,7 +271,24 @@ class SpecializedTypeComputer implements EvaluatorNode.Visitor<JvmType> {
     }
 
     private JvmType setSpecializedType(EvaluatorNode expression, JvmType type) {
+        if (saved != null && !saved.nodeTypes.containsKey(expression)) {
+            saved.nodeTypes.put(expression, expression.specializedType());
+        }
         expression.setSpecializedType(type);
         return type;
     }
+
+    private void setSpecializedType(AbstractVariable variable, JvmType type) {
+        if (saved != null && !saved.variableTypes.containsKey(variable)) {
+            saved.variableTypes.put(variable, variable.specializedType());
+        }
+        variable.setSpecializedType(type);
+    }
+
+    private void setSpecializedReturnType(JvmType type) {
+        if (saved != null && !saved.returnTypes.containsKey(function)) {
+            saved.returnTypes.put(function, function.specializedReturnType());
+        }
+        function.setSpecializedReturnType(type);
+    }
 }
@@ -0,0 +1,56 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * An invokedynamic instruction at the beginning of an SPE handler, consuming
+ * a copy of the value unwrapped from the {@link SquarePegException} being
+ * handled. The index in the {@link ClassData} of the function whose code
+ * contains the handler and the index of the handler's recovery site in that
+ * function are encoded as additional instruction parameters. The call site permanently links to {@link
+ * FunctionImplementation#recordSquarePeg(RecoverySite, Object)}
+ * with the function and the recovery site bound.
+ */
+final class SquarePegCounterInvokeDynamic {
+
+    static final Handle BOOTSTRAP = new Handle(
+        Opcodes.H_INVOKESTATIC,
+        GhostWriter.internalClassName(SquarePegCounterInvokeDynamic.class),
+        "bootstrap",
+        MethodType.methodType(
+            CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class, Integer.class, Integer.class)
+            .toMethodDescriptorString(),
+        false);
+
+    static final MethodType CALL_SITE_TYPE = MethodType.methodType(void.class, Object.class);
+
+    private static final MethodHandle RECORD_SQUARE_PEG;
+    static {
+        try {
+            RECORD_SQUARE_PEG = MethodHandles.lookup().findVirtual(
+                FunctionImplementation.class,
+                "recordSquarePeg",
+                MethodType.methodType(void.class, RecoverySite.class, Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @SuppressWarnings("unused") // called by invokedynamic infrastructure
+    public static CallSite bootstrap(
+        MethodHandles.Lookup lookupAtCaller, String name, MethodType callSiteType, Integer functionIndex, Integer siteIndex)
+    {
+        var function = ClassData.get(lookupAtCaller, functionIndex, FunctionImplementation.class);
+        var handler = MethodHandles.insertArguments(RECORD_SQUARE_PEG, 0, function, function.recoverySite(siteIndex));
+        return new ConstantCallSite(handler.asType(callSiteType));
+    }
+}
@@ -0,0 +1,55 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A flight recorder event of compiled code recovering from a specialization
+ * failure, that is, of a {@link SquarePegException} caught by an SPE handler
+ * of a function, or escaping from the specialized form of a function because
+ * its return value didn't fit the return type.
+ */
+@Name("com.github.vassilibykov.trifle.SquarePeg")
+@Label("Square Peg Recovery")
+@Category({"Trifle", "Compiled Code"})
+@Description("Compiled code recovering from a value which didn't fit its specialized type")
+final class SquarePegEvent extends Event {
+
+    @Label("Function")
+    String function;
+
+    @Label("Function ID")
+    int functionId;
+
+    @Label("Recovery Site")
+    @Description("The index of the recovery site in the function, or -1 for the return value")
+    int siteIndex;
+
+    @Label("Recovery Site Expression")
+    String site;
+
+    @Label("Value Type")
+    @Description("The class of the value which didn't fit")
+    Class<?> valueType;
+
+    /**
+     * Emit an event if it is enabled. A null site is the return value of the
+     * function.
+     */
+    static void emit(FunctionImplementation function, @Nullable RecoverySite site, Object value) {
+        var event = new SquarePegEvent();
+        if (!event.shouldCommit()) return;
+        event.function = function.name().orElse("closure");
+        event.functionId = function.id();
+        event.siteIndex = site != null ? function.recoverySiteIndex(site) : -1;
+        event.site = site != null ? site.toString() : "return";
+        event.valueType = value != null ? value.getClass() : null;
+        event.commit();
+    }
+}
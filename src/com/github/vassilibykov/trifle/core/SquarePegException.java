@@ -5,8 +5,8 @@ package com.github.vassilibykov.trifle.core;
 /**
  * Thrown in generated code when the result of the preceding computation
  * currently on the stack cannot be accepted by its continuation because the
- * continuation is of a narrower type. The value is wrapped as the {@link
- * #value} field of this exception. The structure of the {@link EvaluatorNode}
+ * continuation is of a narrower type. The value is carried by this exception
+ * and retrieved by the handler using {@link #take()}. The structure of the {@link EvaluatorNode}
  * language guarantees that that there are no other values on the stack
  * at this point.
  *
@@ -35,17 +35,40 @@ package com.github.vassilibykov.trifle.core;
  * but the current continuation corresponds to the "hole" in the formal language
  * of evaluation contexts, so a value incompatible with the current continuation
  * type is quite literally a square peg in a round hole.
+ *
+ * <p>Because a specialized function may receive a square peg on every call,
+ * signaling one should be cheap. Instead of allocating an exception with a
+ * stack trace for each event, each thread has a single preallocated instance
+ * with stack trace and suppression disabled, which {@link #with(Object)} loads
+ * with the value and returns. The value must therefore be taken by the
+ * handler right away, before anything else on the same thread may signal
+ * another square peg. Taking the value clears it, so the carrier doesn't keep
+ * the last square peg of the thread reachable.
  */
 public class SquarePegException extends RuntimeException {
     public static final String INTERNAL_CLASS_NAME = GhostWriter.internalClassName(SquarePegException.class);
 
+    private static final ThreadLocal<SquarePegException> CARRIER = ThreadLocal.withInitial(SquarePegException::new);
+
     public static SquarePegException with(Object value) { // called by generated code
-        return new SquarePegException(value);
+        var exception = CARRIER.get();
+        exception.value = value;
+        return exception;
     }
 
-    public final Object value;
+    private Object value;
+
+    private SquarePegException() {
+        super(null, null, false, false);
+    }
 
-    private SquarePegException(Object value) {
-        this.value = value;
+    /**
+     * Return the value carried by this exception, clearing it. Called by
+     * generated SPE handlers and by the code catching escaped SPEs.
+     */
+    public Object take() {
+        var value = this.value;
+        this.value = null;
+        return value;
     }
 }
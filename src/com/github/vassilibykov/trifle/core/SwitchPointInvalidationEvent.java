@@ -0,0 +1,51 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A flight recorder event of invalidating a switch point, which discards the
+ * code linked under the assumption the switch point guarded, such as an
+ * object layout or the contents of a method dictionary. Emitted by the
+ * owners of switch points, including those of language front ends, with
+ * {@link #emit}.
+ */
+@Name("com.github.vassilibykov.trifle.SwitchPointInvalidation")
+@Label("Switch Point Invalidation")
+@Category({"Trifle", "Call Sites"})
+@Description("Invalidation of a switch point guarding linked code")
+public final class SwitchPointInvalidationEvent extends Event {
+
+    @Label("Owner Type")
+    @Description("The class of the object whose switch point was invalidated")
+    Class<?> ownerType;
+
+    @Label("Owner")
+    String owner;
+
+    @Label("Cause")
+    String cause;
+
+    @Label("Detail")
+    @Description("What changed, such as a method selector or the new field names")
+    String detail;
+
+    /**
+     * Emit an event if it is enabled. The owner and the detail are converted
+     * to strings only if the event is committed.
+     */
+    public static void emit(Object owner, String cause, Object detail) {
+        var event = new SwitchPointInvalidationEvent();
+        if (!event.shouldCommit()) return;
+        event.ownerType = owner.getClass();
+        event.owner = owner.toString();
+        event.cause = cause;
+        event.detail = String.valueOf(detail);
+        event.commit();
+    }
+}
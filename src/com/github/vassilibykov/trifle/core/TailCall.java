@@ -0,0 +1,186 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A pending call of a user function, produced by an interpreter in place of
+ * the value of a call in tail position. Because the value of a tail call is
+ * the value of the calling function, the pending call travels up the
+ * evaluator unchanged, and the interpreter entry point which started the
+ * evaluation of the function performs the call after the function's frame has
+ * been discarded. If the called function is also interpreted, it may in turn
+ * end with a pending call, and so on. This way, interpreted functions calling
+ * each other in tail position run in constant stack space.
+ *
+ * <p>Compiled code makes a tail call the same way if the call may be part
+ * of a cycle of functions calling each other in tail position; see {@link
+ * #mayRecur(FunctionImplementation, FunctionImplementation)}. In the normal
+ * compiled forms of a function, such a call is made by {@link
+ * #perform(FunctionImplementation, Object[])}, which starts a chain of
+ * pending calls. The tail call form of a top-level function, which {@link
+ * FunctionImplementation#invokeAsTailCall(Object[])} invokes to continue a
+ * chain, returns such a call as a pending one created by {@link
+ * #pending(FunctionImplementation, Object[])}. Other tail calls are
+ * compiled as regular calls, because a chain of them can be no longer than
+ * the number of functions involved.
+ *
+ * <p>A pending call never escapes the interpreter or the tail call form of
+ * a function; see {@link #complete(Object)}. When produced by the profiling
+ * interpreter, it carries the profile of the call it was produced for, so
+ * that the value eventually produced by the chain of pending calls is
+ * recorded as the value of the call.
+ */
+final class TailCall {
+
+    /**
+     * Called by an evaluator for a call in tail position. Return a pending
+     * call with the arguments of the call evaluated, or null if the call
+     * should be performed as a regular one because its target is not a user
+     * function of the right arity.
+     */
+    @Nullable
+    static TailCall prepare(CallNode call, EvaluatorNode.Visitor<Object> evaluator) {
+        var implementation = targetOf(call);
+        if (implementation == null) return null;
+        var arguments = call.arguments().map(each -> each.accept(evaluator)).toArray();
+        return new TailCall(implementation, arguments);
+    }
+
+    /**
+     * Return the implementation of the user function called by a call node,
+     * or null if the call can't be made as a tail call because its target is
+     * not a user function of the right arity.
+     */
+    @Nullable
+    static FunctionImplementation targetOf(CallNode call) {
+        var dispatcher = call.dispatcher();
+        if (!(dispatcher instanceof FreeFunctionCallDispatcher)) return null;
+        var target = ((FreeFunctionCallDispatcher) dispatcher).target();
+        if (!(target instanceof UserFunction)) return null;
+        var implementation = ((UserFunction) target).implementation();
+        return implementation.implementationArity() == call.arity() ? implementation : null;
+    }
+
+    /**
+     * Called by the compiler for a call in tail position of a function. Tell
+     * whether the target of the call may call the function back through a
+     * chain of tail calls, so that the call may be part of an unbounded
+     * chain. Only calls of user functions are followed, so only a top-level
+     * function can be called back.
+     */
+    static boolean mayRecur(FunctionImplementation caller, FunctionImplementation target) {
+        if (!caller.isTopLevel()) return false;
+        var visited = new HashSet<FunctionImplementation>();
+        var pending = new ArrayDeque<FunctionImplementation>();
+        pending.add(target);
+        while (!pending.isEmpty()) {
+            var function = pending.remove();
+            if (function == caller) return true;
+            if (visited.add(function)) {
+                function.body().accept(new TailCalleeCollector(pending));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called by normal compiled code for a call in tail position which may be
+     * part of an unbounded chain. Perform the call and any pending calls it
+     * ends with.
+     */
+    @SuppressWarnings("unused") // called through TailCallInvokeDynamic
+    static Object perform(FunctionImplementation function, Object[] arguments) {
+        return complete(function.invokeAsTailCall(arguments));
+    }
+
+    /**
+     * Called by the tail call form of a function for a call in tail position
+     * which may be part of an unbounded chain. Return the call as a pending
+     * one for the caller to complete.
+     */
+    @SuppressWarnings("unused") // called through TailCallInvokeDynamic
+    static Object pending(FunctionImplementation function, Object[] arguments) {
+        return new TailCall(function, arguments);
+    }
+
+    /**
+     * Perform pending calls until one produces a real value. If the argument
+     * is not a pending call, it's the value.
+     */
+    static Object complete(Object result) {
+        Set<ValueProfile> callProfiles = null;
+        while (result instanceof TailCall) {
+            var tailCall = (TailCall) result;
+            if (tailCall.callProfile != null) {
+                if (callProfiles == null) callProfiles = new HashSet<>();
+                callProfiles.add(tailCall.callProfile);
+            }
+            result = tailCall.function.invokeAsTailCall(tailCall.arguments);
+        }
+        if (callProfiles != null) {
+            for (var each : callProfiles) each.recordValue(result);
+        }
+        return result;
+    }
+
+    /*
+        Instance
+     */
+
+    @NotNull private final FunctionImplementation function;
+    @NotNull private final Object[] arguments;
+    @Nullable private ValueProfile callProfile;
+
+    private TailCall(@NotNull FunctionImplementation function, @NotNull Object[] arguments) {
+        this.function = function;
+        this.arguments = arguments;
+    }
+
+    /**
+     * Called by the profiling interpreter to have the eventual value of the
+     * call recorded in the call's profile.
+     */
+    void profileResultIn(ValueProfile callProfile) {
+        this.callProfile = callProfile;
+    }
+
+    @Override
+    public String toString() {
+        return "tail call " + function;
+    }
+
+    /**
+     * Adds the implementations of the user functions a function body calls in
+     * tail position to a collection. Closures are not entered, because their
+     * tail calls are not tail calls of the function.
+     */
+    private static class TailCalleeCollector extends EvaluatorNode.VisitorSkeleton<Void> {
+        private final Collection<FunctionImplementation> callees;
+
+        private TailCalleeCollector(Collection<FunctionImplementation> callees) {
+            this.callees = callees;
+        }
+
+        @Override
+        public Void visitCall(CallNode call) {
+            if (call.isTailCall) {
+                var target = targetOf(call);
+                if (target != null) callees.add(target);
+            }
+            return super.visitCall(call);
+        }
+
+        @Override
+        public Void visitClosure(ClosureNode closure) {
+            return null;
+        }
+    }
+}
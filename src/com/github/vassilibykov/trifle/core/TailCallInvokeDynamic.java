@@ -0,0 +1,71 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+
+/**
+ * An invokedynamic instruction for a call in tail position of a user function
+ * which may be part of an unbounded chain of tail calls. The call target is
+ * identified by its index in the {@link ClassData} of the calling class. The
+ * call site has the generic signature of the target, without a leading
+ * closure parameter. Depending on the bootstrap method, the call is either
+ * performed by {@link TailCall#perform} or returned as a pending call created
+ * by {@link TailCall#pending}.
+ */
+public final class TailCallInvokeDynamic {
+
+    public static final Handle BOOTSTRAP_PERFORM = new Handle(
+        Opcodes.H_INVOKESTATIC,
+        GhostWriter.internalClassName(TailCallInvokeDynamic.class),
+        "bootstrapPerform",
+        MethodType.methodType(CallSite.class, Lookup.class, String.class, MethodType.class, Integer.class)
+            .toMethodDescriptorString(),
+        false);
+
+    public static final Handle BOOTSTRAP_PENDING = new Handle(
+        Opcodes.H_INVOKESTATIC,
+        GhostWriter.internalClassName(TailCallInvokeDynamic.class),
+        "bootstrapPending",
+        MethodType.methodType(CallSite.class, Lookup.class, String.class, MethodType.class, Integer.class)
+            .toMethodDescriptorString(),
+        false);
+
+    @SuppressWarnings("unused") // called by invokedynamic infrastructure
+    public static CallSite bootstrapPerform(Lookup lookupAtCaller, String name, MethodType callSiteType, Integer targetIndex) {
+        return callSite(PERFORM, lookupAtCaller, callSiteType, targetIndex);
+    }
+
+    @SuppressWarnings("unused") // called by invokedynamic infrastructure
+    public static CallSite bootstrapPending(Lookup lookupAtCaller, String name, MethodType callSiteType, Integer targetIndex) {
+        return callSite(PENDING, lookupAtCaller, callSiteType, targetIndex);
+    }
+
+    private static CallSite callSite(MethodHandle handle, Lookup lookupAtCaller, MethodType callSiteType, Integer targetIndex) {
+        var target = ClassData.get(lookupAtCaller, targetIndex, FunctionImplementation.class);
+        return new ConstantCallSite(
+            handle.bindTo(target).asCollector(Object[].class, callSiteType.parameterCount()).asType(callSiteType));
+    }
+
+    private static final MethodHandle PERFORM;
+    private static final MethodHandle PENDING;
+
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            var type = MethodType.methodType(Object.class, FunctionImplementation.class, Object[].class);
+            PERFORM = lookup.findStatic(TailCall.class, "perform", type);
+            PENDING = lookup.findStatic(TailCall.class, "pending", type);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,363 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a function moves between execution tiers. A policy is
+ * associated with a top-level function implementation and governs it and all
+ * its closures. It can be set for a {@link UserFunction} or for all functions
+ * of a {@link Library}.
+ *
+ * <p>A policy is consulted in eight situations. When a policy is associated
+ * with a function, {@link #initialTier()} determines how the function should
+ * run from that point on. When the profiling interpreter is invoked, {@link
+ * #profilingSampleInterval()} determines whether the invocation should be
+ * profiled. After each execution of a function by the profiling
+ * interpreter, {@link #shouldCompile(FunctionProfile)} determines whether the
+ * function's unit should be queued for compilation. While the profiling
+ * interpreter executes a loop, {@link #osrThreshold()} determines when it
+ * should give up and continue in compiled code. When compiled code fails
+ * specialization assumptions, {@link #squarePegLimit()} and {@link
+ * #squarePegWindowNanos()} determine when the compiled code should be
+ * discarded and the unit profiled and recompiled, at most {@link
+ * #maxDeoptimizations()} times. When a call site typed differently from the
+ * specialized form of a compiled function is linked, {@link
+ * #maxSpecializations()} determines whether a variant for the site may be
+ * compiled. When a unit is compiled, {@link #shouldInline(FunctionProfile,
+ * int)} determines which of the functions it calls should be inlined. When
+ * the compilation of a unit fails, {@link #maxCompilationFailures()}
+ * determines whether the unit should be profiled and compiled again later.
+ */
+public interface TieringPolicy {
+
+    enum Tier {
+        /** Run in the profiling interpreter, consulting the policy on each invocation. */
+        PROFILING_INTERPRETER,
+        /** Run in the simple interpreter and never compile. */
+        SIMPLE_INTERPRETER,
+        /** Compile right away, without collecting profile data. */
+        COMPILED
+    }
+
+    /**
+     * The number of profiled invocations after which a function is compiled
+     * by the {@link #DEFAULT} policy. The value is picked fairly randomly.
+     */
+    long DEFAULT_THRESHOLD = 10;
+
+    /**
+     * The number of iterations of a single execution of a loop by the
+     * profiling interpreter after which the function is compiled and execution
+     * moves to compiled code by on-stack replacement, under the policies
+     * which do not override {@link #osrThreshold()}.
+     */
+    long DEFAULT_OSR_THRESHOLD = 10_000;
+
+    /**
+     * The number of {@link SquarePegException}s compiled code of a function
+     * may throw within {@link #DEFAULT_SQUARE_PEG_WINDOW_MS} before the unit
+     * is deoptimized.
+     */
+    long DEFAULT_SQUARE_PEG_LIMIT = 100;
+
+    long DEFAULT_SQUARE_PEG_WINDOW_MS = 1000;
+
+    /**
+     * The number of times a unit may be deoptimized before its compiled code
+     * is kept regardless of how often it fails.
+     */
+    int DEFAULT_MAX_DEOPTIMIZATIONS = 4;
+
+    /**
+     * The number of specialized compiled forms a function may have, counting
+     * the one compiled according to its profile and the variants compiled for
+     * differently typed call sites.
+     */
+    int DEFAULT_MAX_SPECIALIZATIONS = 4;
+
+    /**
+     * The number of times the compilation of a unit may fail before the unit
+     * is left in the simple interpreter for good.
+     */
+    int DEFAULT_MAX_COMPILATION_FAILURES = 2;
+
+    /**
+     * The number of profiled invocations after which a function is
+     * considered hot enough to be inlined into its callers.
+     */
+    long DEFAULT_INLINING_THRESHOLD = DEFAULT_THRESHOLD;
+
+    /**
+     * The size, in evaluator nodes, of the largest function body inlined
+     * into callers.
+     */
+    int DEFAULT_MAX_INLINED_SIZE = 30;
+
+    /**
+     * The policy used unless another one is set.
+     */
+    TieringPolicy DEFAULT = threshold(DEFAULT_THRESHOLD);
+
+    /**
+     * A policy which compiles a function as soon as it's defined. The
+     * compiled code is generic since there is no profile data to specialize
+     * it to.
+     */
+    static TieringPolicy eager() {
+        return Eager.INSTANCE;
+    }
+
+    /**
+     * A policy which never compiles functions, executing them by the simple
+     * interpreter. Trades throughput for the memory and time otherwise spent
+     * on profiling and generated code.
+     */
+    static TieringPolicy interpreterOnly() {
+        return InterpreterOnly.INSTANCE;
+    }
+
+    /**
+     * A policy which compiles a function after it has been profiled the
+     * specified number of times.
+     */
+    static TieringPolicy threshold(long invocationCount) {
+        return new Threshold(invocationCount);
+    }
+
+    /**
+     * A policy which weighs loop iterations and branch executions alongside
+     * invocations, and does not let profiling drag on for too long.
+     */
+    static TieringPolicy adaptive() {
+        return new Adaptive(
+            Adaptive.DEFAULT_THRESHOLD,
+            Adaptive.DEFAULT_BACK_EDGES_PER_INVOCATION,
+            Adaptive.DEFAULT_BRANCHES_PER_INVOCATION,
+            Adaptive.DEFAULT_MAX_PROFILING_TIME_MS, TimeUnit.MILLISECONDS);
+    }
+
+    default Tier initialTier() {
+        return Tier.PROFILING_INTERPRETER;
+    }
+
+    /**
+     * Called after a function has been executed by the profiling interpreter
+     * to determine whether it should now be compiled. For a closure, the
+     * profile is that of the closure's own implementation. Should be fast;
+     * it's called on every profiled invocation.
+     */
+    boolean shouldCompile(FunctionProfile profile);
+
+    /**
+     * The average number of invocations of a function in the profiling tier
+     * per invocation which is actually profiled. The others are executed by
+     * the simple interpreter, which is considerably faster. Which invocations
+     * are profiled is chosen randomly, except that the first one always is.
+     * The {@link FunctionProfile} extrapolates its counts from the profiled
+     * invocations, so a policy can be written as if every invocation were
+     * profiled. However, a value or a branch seen only by an invocation which
+     * was not profiled is missing from the profile, and compiled code may
+     * have to recover from a square peg caused by it. Loops of invocations
+     * which are not profiled are not replaced on stack.
+     *
+     * <p>The default is 1, meaning that every invocation is profiled.
+     */
+    default int profilingSampleInterval() {
+        return 1;
+    }
+
+    /**
+     * The number of iterations of a single execution of a loop after which
+     * the interpreter should switch to compiled code using on-stack replacement.
+     */
+    default long osrThreshold() {
+        return DEFAULT_OSR_THRESHOLD;
+    }
+
+    /**
+     * The number of square pegs (specialization failures) in compiled code of
+     * a function within {@link #squarePegWindowNanos()} which causes the unit
+     * to be deoptimized: its compiled code is discarded and the unit goes back
+     * to the profiling interpreter, to be recompiled with types widened by the
+     * failures.
+     */
+    default long squarePegLimit() {
+        return DEFAULT_SQUARE_PEG_LIMIT;
+    }
+
+    /**
+     * The length of the time window in which square pegs are counted against
+     * {@link #squarePegLimit()}. Failures occurring at a lower rate never
+     * deoptimize a unit.
+     */
+    default long squarePegWindowNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(DEFAULT_SQUARE_PEG_WINDOW_MS);
+    }
+
+    /**
+     * The maximum number of times a unit may be deoptimized. Afterwards its
+     * compiled code stays installed no matter how often it fails, so that a
+     * unit whose profile keeps shifting does not bounce between tiers forever.
+     */
+    default int maxDeoptimizations() {
+        return DEFAULT_MAX_DEOPTIMIZATIONS;
+    }
+
+    /**
+     * The maximum number of specialized compiled forms of a function. When a
+     * function already has that many, call sites of other types link to its
+     * generic form. Bounds the code growth due to variants.
+     */
+    default int maxSpecializations() {
+        return DEFAULT_MAX_SPECIALIZATIONS;
+    }
+
+    /**
+     * The maximum number of times the compilation of a unit may fail. After
+     * a failure, the unit is profiled and submitted again once the policy
+     * finds the new profile sufficient. After the last allowed failure, the
+     * unit stays in the simple interpreter, so a unit the compiler can't
+     * handle doesn't keep the compiler threads busy.
+     */
+    default int maxCompilationFailures() {
+        return DEFAULT_MAX_COMPILATION_FAILURES;
+    }
+
+    /**
+     * Called while compiling a unit to determine whether a call of another
+     * function should be replaced with a copy of the function's body. The
+     * profile is that of the called function, and the size is the number of
+     * evaluator nodes in its body. Only functions which can be inlined at all
+     * are offered. The policy of the unit being compiled is consulted, not
+     * that of the called function.
+     */
+    default boolean shouldInline(FunctionProfile calleeProfile, int calleeSize) {
+        return calleeSize <= DEFAULT_MAX_INLINED_SIZE
+            && calleeProfile.invocationCount() >= DEFAULT_INLINING_THRESHOLD;
+    }
+
+    /*
+        Standard policies
+     */
+
+    final class Eager implements TieringPolicy {
+        private static final Eager INSTANCE = new Eager();
+
+        private Eager() {}
+
+        @Override
+        public Tier initialTier() {
+            return Tier.COMPILED;
+        }
+
+        @Override
+        public boolean shouldCompile(FunctionProfile profile) {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "TieringPolicy.eager()";
+        }
+    }
+
+    final class InterpreterOnly implements TieringPolicy {
+        private static final InterpreterOnly INSTANCE = new InterpreterOnly();
+
+        private InterpreterOnly() {}
+
+        @Override
+        public Tier initialTier() {
+            return Tier.SIMPLE_INTERPRETER;
+        }
+
+        @Override
+        public boolean shouldCompile(FunctionProfile profile) {
+            return false;
+        }
+
+        @Override
+        public long osrThreshold() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            return "TieringPolicy.interpreterOnly()";
+        }
+    }
+
+    final class Threshold implements TieringPolicy {
+        private final long invocationCount;
+
+        public Threshold(long invocationCount) {
+            if (invocationCount < 0) throw new IllegalArgumentException("negative invocation count");
+            this.invocationCount = invocationCount;
+        }
+
+        @Override
+        public boolean shouldCompile(FunctionProfile profile) {
+            return profile.invocationCount() > invocationCount;
+        }
+
+        @Override
+        public String toString() {
+            return "TieringPolicy.threshold(" + invocationCount + ")";
+        }
+    }
+
+    /**
+     * Computes a "hotness score" of a function as the number of invocations
+     * plus the number of loop iterations and conditional branch executions,
+     * each scaled down by their respective weights, and compiles the function
+     * when the score reaches the threshold. Thus a function executed only a
+     * few times but spending a lot of time in its loops is compiled early.
+     * Independently of the score, a function invoked more than once is
+     * compiled once it has been profiled for longer than the specified time.
+     */
+    final class Adaptive implements TieringPolicy {
+        public static final long DEFAULT_THRESHOLD = 10;
+        public static final long DEFAULT_BACK_EDGES_PER_INVOCATION = 100;
+        public static final long DEFAULT_BRANCHES_PER_INVOCATION = 20;
+        public static final long DEFAULT_MAX_PROFILING_TIME_MS = 200;
+
+        private final long threshold;
+        private final long backEdgesPerInvocation;
+        private final long branchesPerInvocation;
+        private final long maxProfilingTimeNanos;
+
+        public Adaptive(
+            long threshold,
+            long backEdgesPerInvocation,
+            long branchesPerInvocation,
+            long maxProfilingTime,
+            TimeUnit unit)
+        {
+            if (backEdgesPerInvocation < 1 || branchesPerInvocation < 1) {
+                throw new IllegalArgumentException("weights must be positive");
+            }
+            this.threshold = threshold;
+            this.backEdgesPerInvocation = backEdgesPerInvocation;
+            this.branchesPerInvocation = branchesPerInvocation;
+            this.maxProfilingTimeNanos = unit.toNanos(maxProfilingTime);
+        }
+
+        @Override
+        public boolean shouldCompile(FunctionProfile profile) {
+            var invocations = profile.invocationCount();
+            var score = invocations
+                + profile.backEdgeCount() / backEdgesPerInvocation
+                + profile.branchCount() / branchesPerInvocation;
+            return score > threshold
+                || (invocations > 1 && profile.profilingTimeNanos() > maxProfilingTimeNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "TieringPolicy.Adaptive(" + threshold + ", " + backEdgesPerInvocation + ", "
+                + branchesPerInvocation + ", " + maxProfilingTimeNanos + "ns)";
+        }
+    }
+}
@@ -0,0 +1,306 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import com.github.vassilibykov.trifle.builtin.BuiltinFunction;
+import com.github.vassilibykov.trifle.expression.AtomicExpression;
+import com.github.vassilibykov.trifle.expression.Block;
+import com.github.vassilibykov.trifle.expression.Call;
+import com.github.vassilibykov.trifle.expression.Const;
+import com.github.vassilibykov.trifle.expression.DictionaryGetter;
+import com.github.vassilibykov.trifle.expression.DictionarySetter;
+import com.github.vassilibykov.trifle.expression.FreeFunctionReference;
+import com.github.vassilibykov.trifle.expression.If;
+import com.github.vassilibykov.trifle.expression.Lambda;
+import com.github.vassilibykov.trifle.expression.Let;
+import com.github.vassilibykov.trifle.expression.PrimitiveCall;
+import com.github.vassilibykov.trifle.expression.Return;
+import com.github.vassilibykov.trifle.expression.SetVariable;
+import com.github.vassilibykov.trifle.expression.Variable;
+import com.github.vassilibykov.trifle.expression.Visitor;
+import com.github.vassilibykov.trifle.expression.While;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Identifies a unit by its definition, so that data about the unit can be
+ * saved by one run and matched with the same unit defined by another. The
+ * signature is a SHA-256 hash of a canonical encoding of the {@link Lambda}
+ * of the unit, in which variables are numbered in order of appearance rather
+ * than named. The encoding can optionally include the definitions of the user
+ * functions the unit references, and those they reference, to a specified
+ * depth.
+ *
+ * <p>Objects of a definition which only exist at run time, such as
+ * dictionaries, are identified by their position among the <em>referents</em>
+ * of the encoding: the objects the encoded definitions refer to, in the order
+ * of the encoding. Two units with the same signature have the same shape, so
+ * their referents correspond by position.
+ *
+ * <p>Literals of arbitrary classes, callables from outside of this package
+ * and undefined callees are encoded by their class or name only. The
+ * signature of a unit with any of those is not {@link #isExact() exact}, and
+ * another unit with the same signature is only similar to it.
+ *
+ * <p>The evaluator nodes of a function are translated from its definition
+ * the same way every time, so the order in which a traversal of the nodes
+ * encounters them is their identity within the unit of a given signature.
+ */
+final class UnitSignature {
+
+    static UnitSignature of(FunctionImplementation topImplementation, int calleeDepth) {
+        var encoder = new Encoder();
+        encoder.encodeUnit(topImplementation, calleeDepth);
+        return new UnitSignature(
+            hex(sha256(encoder.output.toString().getBytes(StandardCharsets.UTF_8))),
+            encoder.referents,
+            encoder.isExact);
+    }
+
+    static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e); // every JDK has SHA-256
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    /*
+        Instance
+     */
+
+    private final String hash;
+    private final List<Object> referents;
+    private final boolean isExact;
+
+    private UnitSignature(String hash, List<Object> referents, boolean isExact) {
+        this.hash = hash;
+        this.referents = referents;
+        this.isExact = isExact;
+    }
+
+    /**
+     * The hash of the encoding, as a string of hex digits.
+     */
+    String hash() {
+        return hash;
+    }
+
+    List<Object> referents() {
+        return referents;
+    }
+
+    /**
+     * Indicate whether the encoding describes the unit completely, rather
+     * than some parts of it only by their classes or names.
+     */
+    boolean isExact() {
+        return isExact;
+    }
+
+    /**
+     * Produces the canonical encoding of a unit and collects its referents.
+     */
+    private static class Encoder implements Visitor<Void> {
+        private final StringBuilder output = new StringBuilder();
+        private final List<Object> referents = new ArrayList<>();
+        private final Map<Variable, Integer> variableNumbers = new IdentityHashMap<>();
+        private final Map<UserFunction, Integer> functionNumbers = new IdentityHashMap<>();
+        private final List<Lambda> enclosingLambdas = new ArrayList<>();
+        private List<UserFunction> functionsToEncode = new ArrayList<>();
+        private boolean isExact = true;
+
+        void encodeUnit(FunctionImplementation topImplementation, int calleeDepth) {
+            var userFunction = topImplementation.userFunction();
+            if (userFunction != null) functionNumbers.put(userFunction, 0);
+            topImplementation.definition().accept(this);
+            for (int depth = 1; depth <= calleeDepth; depth++) {
+                var functions = functionsToEncode;
+                functionsToEncode = new ArrayList<>();
+                for (var each : functions) {
+                    output.append("\ndef ").append(functionNumbers.get(each)).append(' ');
+                    var implementation = each.implementation();
+                    if (implementation != null) {
+                        implementation.definition().accept(this);
+                    } else {
+                        append("undefined");
+                        isExact = false;
+                    }
+                }
+            }
+        }
+
+        private void append(String token) {
+            output.append(token).append(' ');
+        }
+
+        private void appendString(String string) {
+            output.append(string.length()).append(':').append(string).append(' ');
+        }
+
+        @Override
+        public Void visitBlock(Block block) {
+            append("block" + block.expressions().size());
+            block.expressions().forEach(each -> each.accept(this));
+            return null;
+        }
+
+        @Override
+        public Void visitCall(Call call) {
+            append("call" + call.arguments().size());
+            var target = call.target();
+            if (target instanceof AtomicExpression) {
+                ((AtomicExpression) target).accept(this);
+            } else if (target instanceof DictionaryGetter) {
+                var getter = (DictionaryGetter) target;
+                append("dictget");
+                appendString(getter.key());
+                referents.add(getter.dictionary());
+            } else if (target instanceof DictionarySetter) {
+                var setter = (DictionarySetter) target;
+                append("dictset");
+                appendString(setter.key());
+                referents.add(setter.dictionary());
+            } else {
+                append("callable");
+                appendString(target.getClass().getName());
+                isExact = false;
+            }
+            call.arguments().forEach(each -> each.accept(this));
+            return null;
+        }
+
+        @Override
+        public Void visitConst(Const aConst) {
+            var value = aConst.value();
+            if (value == null) {
+                append("null");
+            } else if (value instanceof Integer
+                || value instanceof Long
+                || value instanceof Double
+                || value instanceof Boolean
+                || value instanceof Character
+                || value instanceof String
+                || value instanceof BigInteger)
+            {
+                append("const");
+                appendString(value.getClass().getName());
+                appendString(value.toString());
+            } else if (value instanceof Lambda && enclosingLambdas.contains(value)) {
+                append("self" + enclosingLambdas.indexOf(value));
+            } else {
+                append("object");
+                appendString(value.getClass().getName());
+                isExact = false;
+            }
+            referents.add(value);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionReference(FreeFunctionReference reference) {
+            var target = reference.target();
+            if (target instanceof UserFunction) {
+                var function = (UserFunction) target;
+                var number = functionNumbers.get(function);
+                if (number == null) {
+                    number = functionNumbers.size();
+                    functionNumbers.put(function, number);
+                    functionsToEncode.add(function);
+                }
+                append("fn" + number);
+                appendString(function.name());
+                referents.add(function.implementation());
+            } else if (target instanceof BuiltinFunction) {
+                append("builtin");
+                appendString(target.name());
+                referents.add(target);
+            } else {
+                append("function");
+                appendString(target.getClass().getName());
+                appendString(target.name());
+                isExact = false;
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitIf(If anIf) {
+            append("if");
+            anIf.condition().accept(this);
+            anIf.trueBranch().accept(this);
+            anIf.falseBranch().accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitLambda(Lambda lambda) {
+            append("lambda" + lambda.arguments().size());
+            enclosingLambdas.add(lambda);
+            lambda.arguments().forEach(each -> each.accept(this));
+            lambda.body().accept(this);
+            enclosingLambdas.remove(enclosingLambdas.size() - 1);
+            return null;
+        }
+
+        @Override
+        public Void visitLet(Let let) {
+            append("let");
+            let.variable().accept(this);
+            let.initializer().accept(this);
+            let.body().accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitPrimitiveCall(PrimitiveCall primitiveCall) {
+            append("prim" + primitiveCall.arguments().size());
+            appendString(primitiveCall.target().getName());
+            primitiveCall.arguments().forEach(each -> each.accept(this));
+            return null;
+        }
+
+        @Override
+        public Void visitReturn(Return aReturn) {
+            append("return");
+            aReturn.value().accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitSetVariable(SetVariable setVariable) {
+            append("set");
+            setVariable.variable().accept(this);
+            setVariable.value().accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitVariable(Variable variable) {
+            var number = variableNumbers.computeIfAbsent(variable, it -> variableNumbers.size());
+            append("v" + number);
+            return null;
+        }
+
+        @Override
+        public Void visitWhile(While aWhile) {
+            append("while");
+            aWhile.condition().accept(this);
+            aWhile.body().accept(this);
+            return null;
+        }
+    }
+
+}
@@ -102,6 +102,18 @@ public class UserFunction implements FreeFunction {
         return implementation;
     }
 
+    public TieringPolicy tieringPolicy() {
+        return implementation.tieringPolicy();
+    }
+
+    /**
+     * Set the policy deciding when the function is compiled. Setting an eager
+     * policy compiles the function right away.
+     */
+    public void setTieringPolicy(TieringPolicy policy) {
+        implementation.setTieringPolicy(Objects.requireNonNull(policy));
+    }
+
     @Override
     public MethodHandle invoker(MethodType callSiteType) {
         return implementation.callSiteInvoker().asType(callSiteType);
@@ -13,8 +13,8 @@ import java.lang.invoke.MethodType;
 
 /**
  * An invokedynamic instruction for a call expression whose function {@link FreeFunctionReference}
- * to a user function. The call target is identified by an integer ID
- * attached to the instruction as an extra parameter. The call target is nominally a closure,
+ * to a user function. The call target is identified by its index in the
+ * {@link ClassData} of the calling class, attached to the instruction as an extra parameter. The call target is nominally a closure,
  * however the whole mechanism is intended for top-level functions, so it is a closure which
  * closes over nothing and therefore the implementation function's parameter list is identical
  * to the declaration parameter list.
@@ -31,8 +31,8 @@ public final class UserFunctionCallInvokeDynamic {
         false);
 
     @SuppressWarnings("unused") // called by invokedynamic infrastructure
-    public static CallSite bootstrap(Lookup lookupAtCaller, String name, MethodType callSiteType, Integer targetId) {
-        var callable = FunctionImplementation.withId(targetId);
+    public static CallSite bootstrap(Lookup lookupAtCaller, String name, MethodType callSiteType, Integer targetIndex) {
+        var callable = ClassData.get(lookupAtCaller, targetIndex, FunctionImplementation.class);
         return new ConstantCallSite(callable.invoker(callSiteType));
     }
 }
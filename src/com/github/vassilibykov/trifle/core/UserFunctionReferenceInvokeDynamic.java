@@ -28,10 +28,10 @@ public class UserFunctionReferenceInvokeDynamic {
         false);
 
     @SuppressWarnings("unused") // called by invokedynamic infrastructure
-    public static CallSite bootstrap(MethodHandles.Lookup lookupAtCaller, String name, MethodType callSiteType, Integer functionId) {
+    public static CallSite bootstrap(MethodHandles.Lookup lookupAtCaller, String name, MethodType callSiteType, Integer functionIndex) {
         var function = Objects.requireNonNull(
-            FunctionImplementation.withId(functionId).userFunction(),
-            "sanity check failure: user function for this id is not set");
+            ClassData.get(lookupAtCaller, functionIndex, FunctionImplementation.class).userFunction(),
+            "sanity check failure: user function for this index is not set");
         return new ConstantCallSite(MethodHandles.constant(Object.class, function));
     }
 }
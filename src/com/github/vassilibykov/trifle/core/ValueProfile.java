@@ -2,35 +2,60 @@
 
 package com.github.vassilibykov.trifle.core;
 
+import java.util.concurrent.atomic.LongAdder;
+
 import static com.github.vassilibykov.trifle.core.JvmType.BOOL;
+import static com.github.vassilibykov.trifle.core.JvmType.DOUBLE;
 import static com.github.vassilibykov.trifle.core.JvmType.INT;
+import static com.github.vassilibykov.trifle.core.JvmType.LONG;
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
 
 /**
  * Accepts values associated with a variable or an expression and
  * aggregates that data.
+ *
+ * <p>Values are recorded by the profiling interpreter, possibly by many
+ * threads running the same function at once, so the counters are {@link
+ * LongAdder}s which don't make the threads contend for a lock or a single
+ * memory location. The queries read each counter once and compute the
+ * answer from that snapshot. Values recorded while a query runs may or may
+ * not be included, but counters only grow, so a category reported as
+ * observed has always really been observed.
  */
 class ValueProfile {
-    private long referenceCases = 0;
-    private long intCases = 0;
-    private long boolCases = 0;
+    private final LongAdder referenceCases = new LongAdder();
+    private final LongAdder intCases = new LongAdder();
+    private final LongAdder boolCases = new LongAdder();
+    private final LongAdder longCases = new LongAdder();
+    private final LongAdder doubleCases = new LongAdder();
 
-    public synchronized void recordValue(Object value) {
+    public void recordValue(Object value) {
         if (value instanceof Integer) {
-            intCases++;
+            intCases.increment();
         } else if (value instanceof Boolean) {
-            boolCases++;
+            boolCases.increment();
+        } else if (value instanceof Long) {
+            longCases.increment();
+        } else if (value instanceof Double) {
+            doubleCases.increment();
         } else {
-            referenceCases++;
+            referenceCases.increment();
         }
     }
 
-    public synchronized ExpressionType observedType() {
-        if (hasProfileData()) {
-            if (referenceCases == 0) {
-                if (boolCases == 0) return ExpressionType.known(INT);
-                if (intCases == 0) return ExpressionType.known(BOOL);
-                // if both are non-0, then the union type is a reference
+    /**
+     * Return the primitive type of the observed values if they were all of
+     * the same primitive type, otherwise the reference type.
+     */
+    public ExpressionType observedType() {
+        var counts = new Counts();
+        if (counts.total() > 0) {
+            if (counts.references == 0) {
+                if (counts.isOnly(counts.ints)) return ExpressionType.known(INT);
+                if (counts.isOnly(counts.bools)) return ExpressionType.known(BOOL);
+                if (counts.isOnly(counts.longs)) return ExpressionType.known(LONG);
+                if (counts.isOnly(counts.doubles)) return ExpressionType.known(DOUBLE);
+                // if more than one is non-0, then the union type is a reference
             }
             return ExpressionType.known(REFERENCE);
         } else {
@@ -38,33 +63,97 @@ class ValueProfile {
         }
     }
 
-    public synchronized long referenceCases() {
-        return referenceCases;
+    public long referenceCases() {
+        return referenceCases.sum();
+    }
+
+    public long intCases() {
+        return intCases.sum();
     }
 
-    public synchronized long intCases() {
-        return intCases;
+    public long boolCases() {
+        return boolCases.sum();
     }
 
-    public synchronized long boolCases() {
-        return boolCases;
+    public long longCases() {
+        return longCases.sum();
     }
 
-    public synchronized JvmType jvmType() {
+    public long doubleCases() {
+        return doubleCases.sum();
+    }
+
+    public JvmType jvmType() {
         return observedType().jvmType().orElse(REFERENCE);
     }
 
-    public synchronized boolean hasProfileData() {
-        return referenceCases > 0 || intCases > 0 || boolCases > 0;
+    public boolean hasProfileData() {
+        return new Counts().total() > 0;
+    }
+
+    public boolean isPureInt() {
+        var counts = pureCounts();
+        return counts.isOnly(counts.ints);
+    }
+
+    public boolean isPureBool() {
+        var counts = pureCounts();
+        return counts.isOnly(counts.bools);
+    }
+
+    public boolean isPureLong() {
+        var counts = pureCounts();
+        return counts.isOnly(counts.longs);
     }
 
-    public synchronized boolean isPureInt() {
-        if (!hasProfileData()) throw new AssertionError("no profile data");
-        return referenceCases == 0 && boolCases == 0;
+    public boolean isPureDouble() {
+        var counts = pureCounts();
+        return counts.isOnly(counts.doubles);
     }
 
-    public synchronized boolean isPureBool() {
-        if (!hasProfileData()) throw new AssertionError("no profile data");
-        return referenceCases == 0 && intCases == 0;
+    private Counts pureCounts() {
+        var counts = new Counts();
+        if (counts.total() == 0) throw new AssertionError("no profile data");
+        return counts;
+    }
+
+    /**
+     * RESTRICTED. Intended for {@link ProfileSnapshot}. The current values of
+     * the counters, in the order accepted by {@link #addCounts(long[])}.
+     */
+    long[] counts() {
+        var counts = new Counts();
+        return new long[] {counts.references, counts.ints, counts.bools, counts.longs, counts.doubles};
+    }
+
+    /**
+     * RESTRICTED. Intended for {@link ProfileSnapshot}. Add counts saved by
+     * {@link #counts()}, possibly in another run, to the counters.
+     */
+    void addCounts(long[] counts) {
+        referenceCases.add(counts[0]);
+        intCases.add(counts[1]);
+        boolCases.add(counts[2]);
+        longCases.add(counts[3]);
+        doubleCases.add(counts[4]);
+    }
+
+    /**
+     * A snapshot of the counters.
+     */
+    private class Counts {
+        final long references = referenceCases.sum();
+        final long ints = intCases.sum();
+        final long bools = boolCases.sum();
+        final long longs = longCases.sum();
+        final long doubles = doubleCases.sum();
+
+        long total() {
+            return references + ints + bools + longs + doubles;
+        }
+
+        boolean isOnly(long cases) {
+            return cases == total();
+        }
     }
 }
@@ -20,13 +20,22 @@ class VariableDefinition extends AbstractVariable {
     @NotNull private final Variable definition;
     private boolean isReferencedNonlocally = false;
     private boolean isMutable = false;
-    /*internal*/ final ValueProfile profile = new ValueProfile();
+    /*internal*/ final ValueProfile profile;
     private ExpressionType inferredType = KNOWN_VOID;
     private JvmType specializedType;
 
     VariableDefinition(@NotNull Variable definition, FunctionImplementation hostFunction) {
+        this(definition, hostFunction, new ValueProfile());
+    }
+
+    /**
+     * Create a variable collecting its profile data into the specified
+     * profile, possibly shared with another variable.
+     */
+    VariableDefinition(@NotNull Variable definition, FunctionImplementation hostFunction, @NotNull ValueProfile profile) {
         super(hostFunction);
         this.definition = definition;
+        this.profile = profile;
     }
 
     public Variable definition() {
@@ -0,0 +1,65 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns integer IDs to objects so that they can be found by ID, without
+ * keeping them reachable. Entries of objects which have been collected are
+ * removed as new objects are registered. IDs are never reused.
+ */
+final class WeakRegistry<T> {
+
+    private static class Entry<T> extends WeakReference<T> {
+        private final int id;
+
+        private Entry(T referent, int id, ReferenceQueue<? super T> queue) {
+            super(referent, queue);
+            this.id = id;
+        }
+    }
+
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Map<Integer, Entry<T>> entries = new ConcurrentHashMap<>();
+    private final ReferenceQueue<T> queue = new ReferenceQueue<>();
+
+    int register(T object) {
+        expungeStaleEntries();
+        var id = nextId.getAndIncrement();
+        entries.put(id, new Entry<>(object, id, queue));
+        return id;
+    }
+
+    /**
+     * Return the object with the specified ID, or null if there has never
+     * been one or it has been collected.
+     */
+    @Nullable T get(int id) {
+        var entry = entries.get(id);
+        return entry != null ? entry.get() : null;
+    }
+
+    /**
+     * The number of entries in the registry, including those whose objects
+     * have been collected but not yet removed.
+     */
+    int size() {
+        expungeStaleEntries();
+        return entries.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expungeStaleEntries() {
+        Entry<T> entry;
+        while ((entry = (Entry<T>) queue.poll()) != null) {
+            entries.remove(entry.id, entry);
+        }
+    }
+}
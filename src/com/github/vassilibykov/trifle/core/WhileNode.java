@@ -9,11 +9,30 @@ import java.util.concurrent.atomic.AtomicLong;
 public class WhileNode extends EvaluatorNode {
     @NotNull private final EvaluatorNode condition;
     @NotNull private final EvaluatorNode body;
-    /*internal*/ final AtomicLong bodyCount = new AtomicLong();
+    /*internal*/ final AtomicLong bodyCount;
+    /**
+     * The index of this loop among the loops of its function, identifying
+     * the loop's entry in the function's on-stack replacement method.
+     * Assigned by {@link FunctionAnalyzer}.
+     */
+    /*internal*/ int osrEntryIndex = -1;
 
     public WhileNode(@NotNull EvaluatorNode condition, @NotNull EvaluatorNode body) {
+        this(condition, body, new AtomicLong());
+    }
+
+    private WhileNode(@NotNull EvaluatorNode condition, @NotNull EvaluatorNode body, @NotNull AtomicLong bodyCount) {
         this.condition = condition;
         this.body = body;
+        this.bodyCount = bodyCount;
+    }
+
+    /**
+     * Create a loop with the specified parts which shares the body count of
+     * this one. The new loop is not an OSR entry.
+     */
+    WhileNode withParts(@NotNull EvaluatorNode condition, @NotNull EvaluatorNode body) {
+        return new WhileNode(condition, body, bodyCount);
     }
 
     public EvaluatorNode condition() {
@@ -150,8 +150,7 @@ public class FieldAccessInvokeDynamicConcurrent {
         synchronized (object) {
             var fixedObject = (FixedObject) object;
             if (fixedObject.layout != expectedLayout) throw new StaleLayoutException();
-            var ref = fixedObject.referenceData[index];
-            return ref == FixedObject.NO_VALUE ? fixedObject.intData[index] : ref;
+            return fixedObject.valueAt(index);
         }
     }
 
@@ -160,12 +159,7 @@ public class FieldAccessInvokeDynamicConcurrent {
         synchronized (object) {
             var fixedObject = (FixedObject) object;
             if (fixedObject.layout != expectedLayout) throw new StaleLayoutException();
-            if (value instanceof Integer) {
-                fixedObject.intData[index] = (Integer) value;
-                fixedObject.referenceData[index] = FixedObject.NO_VALUE;
-            } else {
-                fixedObject.referenceData[index] = value;
-            }
+            fixedObject.setValueAt(index, value);
         }
     }
 
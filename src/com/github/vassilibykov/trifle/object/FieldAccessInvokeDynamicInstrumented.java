@@ -100,19 +100,13 @@ public class FieldAccessInvokeDynamicInstrumented {
     @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
     private static Object get(int index, Object object) {
         var fixedObject = (FixedObject) object;
-        var ref = fixedObject.referenceData[index];
-        return ref == FixedObject.NO_VALUE ? fixedObject.intData[index] : ref;
+        return fixedObject.valueAt(index);
     }
 
     @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
     private static void set(int index, Object object, Object value) {
         var fixedObject = (FixedObject) object;
-        if (value instanceof Integer) {
-            fixedObject.intData[index] = (Integer) value;
-            fixedObject.referenceData[index] = FixedObject.NO_VALUE;
-        } else {
-            fixedObject.referenceData[index] = value;
-        }
+        fixedObject.setValueAt(index, value);
     }
 
     private static final MethodHandle DISPATCH_GET;
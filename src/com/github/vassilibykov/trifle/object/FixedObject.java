@@ -13,7 +13,14 @@ import org.jetbrains.annotations.TestOnly;
  */
 public class FixedObject {
 
+    /*
+     * Markers in the reference data of a field holding a primitive value,
+     * indicating which primitive array contains the value. A double is held
+     * in the long data as its raw bits.
+     */
     static final Object NO_VALUE = new Object();
+    static final Object LONG_VALUE = new Object();
+    static final Object DOUBLE_VALUE = new Object();
 
     private static FieldAccessImplementation accessImplementation = FieldAccessInvokeDynamic.FACTORY;
 
@@ -40,6 +47,7 @@ public class FixedObject {
     /*internal*/ volatile FixedObjectLayout layout;
     /*internal*/ Object[] referenceData;
     /*internal*/ int[] intData;
+    /*internal*/ long[] longData;
 
     protected FixedObject(FixedObjectDefinition definition) {
         this.definition = definition;
@@ -47,6 +55,7 @@ public class FixedObject {
         var size = layout.size();
         this.referenceData = new Object[size];
         this.intData = new int[size];
+        this.longData = new long[size];
     }
 
     public FixedObjectDefinition definition() {
@@ -60,6 +69,7 @@ public class FixedObject {
             layout = currentLayout;
             referenceData = migrator.migrate(referenceData);
             intData = migrator.migrate(intData);
+            longData = migrator.migrate(longData);
         }
         return layout;
     }
@@ -70,8 +80,7 @@ public class FixedObject {
         if (index < 0) {
             throw RuntimeError.message("no such field: " + fieldName);
         }
-        var ref = referenceData[index];
-        return ref != NO_VALUE ? ref : intData[index];
+        return valueAt(index);
     }
 
     public synchronized void set(String fieldName, Object value) {
@@ -80,9 +89,35 @@ public class FixedObject {
         if (index < 0) {
             throw RuntimeError.message("no such field: " + fieldName);
         }
+        setValueAt(index, value);
+    }
+
+    /**
+     * Return the value of the field at the specified index. Does not ensure
+     * the layout is up to date; that's the caller's responsibility.
+     */
+    /*internal*/ Object valueAt(int index) {
+        var ref = referenceData[index];
+        if (ref == NO_VALUE) return intData[index];
+        if (ref == LONG_VALUE) return longData[index];
+        if (ref == DOUBLE_VALUE) return Double.longBitsToDouble(longData[index]);
+        return ref;
+    }
+
+    /**
+     * Set the value of the field at the specified index. Does not ensure
+     * the layout is up to date; that's the caller's responsibility.
+     */
+    /*internal*/ void setValueAt(int index, Object value) {
         if (value instanceof Integer) {
-            referenceData[index] = NO_VALUE;
             intData[index] = (Integer) value;
+            referenceData[index] = NO_VALUE;
+        } else if (value instanceof Long) {
+            longData[index] = (Long) value;
+            referenceData[index] = LONG_VALUE;
+        } else if (value instanceof Double) {
+            longData[index] = Double.doubleToRawLongBits((Double) value);
+            referenceData[index] = DOUBLE_VALUE;
         } else {
             referenceData[index] = value;
         }
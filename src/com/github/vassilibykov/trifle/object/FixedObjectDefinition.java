@@ -2,6 +2,8 @@
 
 package com.github.vassilibykov.trifle.object;
 
+import com.github.vassilibykov.trifle.core.SwitchPointInvalidationEvent;
+
 import java.lang.invoke.SwitchPoint;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
@@ -52,6 +54,7 @@ public class FixedObjectDefinition {
             var oldLayout = layout;
             layout = new FixedObjectLayout(fieldNames);
             SwitchPoint.invalidateAll(new SwitchPoint[] {oldLayout.switchPoint()});
+            SwitchPointInvalidationEvent.emit(this, "field names changed", fieldNames);
         } finally {
             unlock();
         }
@@ -44,6 +44,15 @@ class FixedObjectLayout {
             }
             return newData;
         }
+
+        long[] migrate(long[] oldData) {
+            long[] newData = new long[newSize];
+            for (int i = 0; i < oldData.length; i++) {
+                var newIndex = oldToNewMap[i];
+                if (newIndex >= 0) newData[newIndex] = oldData[i];
+            }
+            return newData;
+        }
     }
 
     /*
@@ -30,6 +30,11 @@ public class Add extends Primitive2 {
         }
     }
 
+    @Override
+    public Object applyToInts(int arg1, int arg2) {
+        return arg1 + arg2;
+    }
+
     @Override
     protected JvmType generateForReferenceReference(GhostWriter writer) {
         writer.invokeStatic(Add.class, "add", int.class, Object.class, Object.class);
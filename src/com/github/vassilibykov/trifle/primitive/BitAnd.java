@@ -0,0 +1,36 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.primitive;
+
+import com.github.vassilibykov.trifle.core.RuntimeError;
+
+import static org.objectweb.asm.Opcodes.IAND;
+
+/**
+ * Bitwise and of {@code int}s with the semantics of Java {@code &}.
+ */
+public class BitAnd extends BitwiseIntegerPrimitive2 {
+
+    public BitAnd() {
+        super(IAND, "and");
+    }
+
+    @Override
+    public Object apply(Object arg1, Object arg2) {
+        return and(arg1, arg2);
+    }
+
+    @Override
+    public Object applyToInts(int arg1, int arg2) {
+        return arg1 & arg2;
+    }
+
+    // also called by generated code
+    public static int and(Object arg1, Object arg2) {
+        try {
+            return (Integer) arg1 & (Integer) arg2;
+        } catch (ClassCastException e) {
+            throw RuntimeError.integerExpected(arg1, arg2);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.primitive;
+
+import com.github.vassilibykov.trifle.core.ExpressionType;
+import com.github.vassilibykov.trifle.core.GhostWriter;
+import com.github.vassilibykov.trifle.core.JvmType;
+
+import static com.github.vassilibykov.trifle.core.JvmType.BOOL;
+import static com.github.vassilibykov.trifle.core.JvmType.INT;
+import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
+
+/**
+ * The abstract superclass of binary primitives operating on the bits of two
+ * {@code int}s. For two arguments specialized as {@code int}s the operation
+ * is compiled inline as the corresponding {@code int} instruction. Any other
+ * combination of arguments is handled by calling the generic static method of
+ * the primitive, which fails if either argument is not an {@link Integer}.
+ */
+abstract class BitwiseIntegerPrimitive2 extends Primitive2 {
+
+    private final int intOpcode;
+    private final String genericMethodName;
+
+    /**
+     * @param intOpcode The instruction performing the operation on two
+     *        {@code int}s, such as {@code IAND}.
+     * @param genericMethodName The name of the public static method of the
+     *        subclass implementing the operation on two {@code Objects}.
+     */
+    BitwiseIntegerPrimitive2(int intOpcode, String genericMethodName) {
+        this.intOpcode = intOpcode;
+        this.genericMethodName = genericMethodName;
+    }
+
+    @Override
+    public ExpressionType inferredType(ExpressionType argument1Type, ExpressionType argument2Type) {
+        return ExpressionType.known(INT);
+    }
+
+    @Override
+    protected JvmType generateForIntInt(GhostWriter writer) {
+        writer.asm().visitInsn(intOpcode);
+        return INT;
+    }
+
+    @Override
+    protected JvmType generateForReferenceReference(GhostWriter writer) {
+        writer.invokeStatic(getClass(), genericMethodName, int.class, Object.class, Object.class);
+        return INT;
+    }
+
+    @Override
+    protected JvmType generateForReferenceInt(GhostWriter writer) {
+        return generateForWrappedArguments(writer, REFERENCE, INT);
+    }
+
+    @Override
+    protected JvmType generateForReferenceBoolean(GhostWriter writer) {
+        return generateForWrappedArguments(writer, REFERENCE, BOOL);
+    }
+
+    @Override
+    protected JvmType generateForIntReference(GhostWriter writer) {
+        return generateForWrappedArguments(writer, INT, REFERENCE);
+    }
+
+    @Override
+    protected JvmType generateForIntBoolean(GhostWriter writer) {
+        return generateForWrappedArguments(writer, INT, BOOL);
+    }
+
+    @Override
+    protected JvmType generateForBooleanReference(GhostWriter writer) {
+        return generateForWrappedArguments(writer, BOOL, REFERENCE);
+    }
+
+    @Override
+    protected JvmType generateForBooleanInt(GhostWriter writer) {
+        return generateForWrappedArguments(writer, BOOL, INT);
+    }
+
+    @Override
+    protected JvmType generateForBooleanBoolean(GhostWriter writer) {
+        return generateForWrappedArguments(writer, BOOL, BOOL);
+    }
+}
@@ -0,0 +1,48 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.primitive;
+
+import com.github.vassilibykov.trifle.core.ExpressionType;
+import com.github.vassilibykov.trifle.core.GhostWriter;
+import com.github.vassilibykov.trifle.core.JvmType;
+import com.github.vassilibykov.trifle.core.RuntimeError;
+
+import static com.github.vassilibykov.trifle.core.JvmType.DOUBLE;
+import static org.objectweb.asm.Opcodes.DMUL;
+
+/**
+ * Multiplication of {@code double}s with the semantics of Java {@code *}.
+ */
+public class DMul extends WidePrimitive2 {
+
+    @Override
+    public ExpressionType inferredType(ExpressionType argument1Type, ExpressionType argument2Type) {
+        return ExpressionType.known(DOUBLE);
+    }
+
+    @Override
+    public Object apply(Object arg1, Object arg2) {
+        return mul(arg1, arg2);
+    }
+
+    @Override
+    protected JvmType generateForReferenceReference(GhostWriter writer) {
+        writer.invokeStatic(DMul.class, "mul", double.class, Object.class, Object.class);
+        return DOUBLE;
+    }
+
+    @Override
+    protected JvmType generateForDoubleDouble(GhostWriter writer) {
+        writer.asm().visitInsn(DMUL);
+        return DOUBLE;
+    }
+
+    // also called by generated code
+    public static double mul(Object arg1, Object arg2) {
+        try {
+            return (Double) arg1 * (Double) arg2;
+        } catch (ClassCastException e) {
+            throw RuntimeError.doubleExpected(arg1, arg2);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.primitive;
+
+import com.github.vassilibykov.trifle.core.ExpressionType;
+import com.github.vassilibykov.trifle.core.GhostWriter;
+import com.github.vassilibykov.trifle.core.JvmType;
+import com.github.vassilibykov.trifle.core.RuntimeError;
+
+import static com.github.vassilibykov.trifle.core.JvmType.DOUBLE;
+
+/**
+ * The square root of a {@code double}, as computed by {@link Math#sqrt}.
+ */
+public class DSqrt extends Primitive1 {
+
+    @Override
+    public ExpressionType inferredType(ExpressionType argumentType) {
+        return ExpressionType.known(DOUBLE);
+    }
+
+    @Override
+    public Object apply(Object arg) {
+        return sqrt(arg);
+    }
+
+    @Override
+    protected JvmType generateForReference(GhostWriter writer) {
+        writer.invokeStatic(DSqrt.class, "sqrt", double.class, Object.class);
+        return DOUBLE;
+    }
+
+    @Override
+    protected JvmType generateForInt(GhostWriter writer) {
+        writer.wrapInteger();
+        return generateForReference(writer);
+    }
+
+    @Override
+    protected JvmType generateForBoolean(GhostWriter writer) {
+        writer.wrapBoolean();
+        return generateForReference(writer);
+    }
+
+    @Override
+    protected JvmType generateForDouble(GhostWriter writer) {
+        writer.invokeStatic(Math.class, "sqrt", double.class, double.class);
+        return DOUBLE;
+    }
+
+    // also called by generated code
+    public static double sqrt(Object arg) {
+        try {
+            return Math.sqrt((Double) arg);
+        } catch (ClassCastException e) {
+            throw RuntimeError.doubleExpected(arg);
+        }
+    }
+}
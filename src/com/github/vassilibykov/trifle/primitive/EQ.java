@@ -38,6 +38,11 @@ public class EQ extends Primitive2 implements IfAware {
         }
     }
 
+    @Override
+    public Object applyToInts(int argument1, int argument2) {
+        return argument1 == argument2;
+    }
+
     @Override
     protected JvmType generateForReferenceReference(GhostWriter writer) {
         writer.invokeStatic(Objects.class, "equals", boolean.class, Object.class, Object.class);
@@ -0,0 +1,214 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.primitive;
+
+import com.github.vassilibykov.trifle.core.ExpressionType;
+import com.github.vassilibykov.trifle.core.GhostWriter;
+import com.github.vassilibykov.trifle.core.JvmType;
+import com.github.vassilibykov.trifle.core.RuntimeError;
+import org.objectweb.asm.Label;
+
+import java.math.BigInteger;
+
+import static com.github.vassilibykov.trifle.core.JvmType.BOOL;
+import static com.github.vassilibykov.trifle.core.JvmType.INT;
+import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
+import static org.objectweb.asm.Opcodes.DUP2;
+import static org.objectweb.asm.Opcodes.DUP2_X1;
+import static org.objectweb.asm.Opcodes.I2L;
+import static org.objectweb.asm.Opcodes.IAND;
+import static org.objectweb.asm.Opcodes.IFEQ;
+import static org.objectweb.asm.Opcodes.IFNE;
+import static org.objectweb.asm.Opcodes.L2I;
+import static org.objectweb.asm.Opcodes.LCMP;
+import static org.objectweb.asm.Opcodes.POP2;
+
+/**
+ * The abstract superclass of binary primitives performing exact arithmetic on
+ * integers of unlimited size. A value which fits in an {@code int} is always
+ * an {@link Integer}, and only a larger one is a {@link BigInteger}.
+ *
+ * <p>The exact result of an operation on two {@code int}s always fits in a
+ * {@code long}, so for two arguments specialized as {@code int}s the
+ * operation is compiled inline as the corresponding {@code long} instruction
+ * followed by a check that the result fits back in an {@code int}. If it
+ * doesn't, a cold branch throws an SPE with the result as a {@link
+ * BigInteger}, and the compiler recovers from it like from any other
+ * specialization failure. The code for references checks inline for two
+ * {@link Integer}s and takes the same path, except that a result which
+ * doesn't fit is simply returned as a {@link BigInteger}. Any other
+ * combination of arguments is handled by calling the generic static
+ * method of the primitive.
+ */
+abstract class ExactIntegerPrimitive2 extends Primitive2 {
+
+    private final int longOpcode;
+    private final String genericMethodName;
+
+    /**
+     * @param longOpcode The instruction performing the operation on two
+     *        {@code long}s, such as {@code LADD}.
+     * @param genericMethodName The name of the public static method of the
+     *        subclass implementing the operation on two {@code Objects}.
+     */
+    ExactIntegerPrimitive2(int longOpcode, String genericMethodName) {
+        this.longOpcode = longOpcode;
+        this.genericMethodName = genericMethodName;
+    }
+
+    @Override
+    public ExpressionType inferredType(ExpressionType argument1Type, ExpressionType argument2Type) {
+        return isInt(argument1Type) && isInt(argument2Type)
+            ? ExpressionType.known(INT)
+            : ExpressionType.unknown();
+    }
+
+    private static boolean isInt(ExpressionType type) {
+        return type.jvmType().map(it -> it == INT).orElse(false);
+    }
+
+    @Override
+    public boolean canFail(JvmType arg1type, JvmType arg2type) {
+        return arg1type == INT && arg2type == INT;
+    }
+
+    @Override
+    protected JvmType generateForIntInt(GhostWriter writer) {
+        generateLongOperation(writer);
+        writer.withLabelAtEnd(end -> {
+            var overflow = new Label();
+            jumpIfNotInt(writer, overflow);
+            writer.asm().visitInsn(L2I);
+            writer.jump(end);
+            writer.setLabelHere(overflow);
+            writer
+                .invokeStatic(BigInteger.class, "valueOf", BigInteger.class, long.class)
+                .throwSquarePegException();
+        });
+        return INT;
+    }
+
+    @Override
+    protected JvmType generateForReferenceReference(GhostWriter writer) {
+        writer.withLabelAtEnd(end -> {
+            var overflow = new Label();
+            var generic = new Label();
+            // stack: arg1 arg2
+            writer.asm().visitInsn(DUP2);
+            writer
+                .instanceOf(Integer.class)
+                .swap()
+                .instanceOf(Integer.class);
+            writer.asm().visitInsn(IAND);
+            writer.asm().visitJumpInsn(IFEQ, generic);
+            writer
+                .unwrapInteger()
+                .swap()
+                .unwrapInteger()
+                .swap();
+            generateLongOperation(writer);
+            jumpIfNotInt(writer, overflow);
+            writer.asm().visitInsn(L2I);
+            writer
+                .wrapInteger()
+                .jump(end);
+            writer
+                .setLabelHere(overflow)
+                .invokeStatic(BigInteger.class, "valueOf", BigInteger.class, long.class)
+                .jump(end);
+            writer
+                .setLabelHere(generic)
+                .invokeStatic(getClass(), genericMethodName, Object.class, Object.class, Object.class);
+        });
+        return REFERENCE;
+    }
+
+    @Override
+    protected JvmType generateForReferenceInt(GhostWriter writer) {
+        return generateForWrappedArguments(writer, REFERENCE, INT);
+    }
+
+    @Override
+    protected JvmType generateForReferenceBoolean(GhostWriter writer) {
+        return generateForWrappedArguments(writer, REFERENCE, BOOL);
+    }
+
+    @Override
+    protected JvmType generateForIntReference(GhostWriter writer) {
+        return generateForWrappedArguments(writer, INT, REFERENCE);
+    }
+
+    @Override
+    protected JvmType generateForIntBoolean(GhostWriter writer) {
+        return generateForWrappedArguments(writer, INT, BOOL);
+    }
+
+    @Override
+    protected JvmType generateForBooleanReference(GhostWriter writer) {
+        return generateForWrappedArguments(writer, BOOL, REFERENCE);
+    }
+
+    @Override
+    protected JvmType generateForBooleanInt(GhostWriter writer) {
+        return generateForWrappedArguments(writer, BOOL, INT);
+    }
+
+    @Override
+    protected JvmType generateForBooleanBoolean(GhostWriter writer) {
+        return generateForWrappedArguments(writer, BOOL, BOOL);
+    }
+
+    /**
+     * Generate code to replace the two {@code int}s on the stack with the
+     * {@code long} result of the operation.
+     */
+    private void generateLongOperation(GhostWriter writer) {
+        var asm = writer.asm();
+        // stack: int1 int2
+        writer.swap();
+        asm.visitInsn(I2L);
+        asm.visitInsn(DUP2_X1);
+        asm.visitInsn(POP2);
+        asm.visitInsn(I2L);
+        // stack: long1 long2
+        asm.visitInsn(longOpcode);
+    }
+
+    /**
+     * Generate code to jump to the specified label if the {@code long} on the
+     * stack does not fit in an {@code int}. The {@code long} stays on the
+     * stack either way.
+     */
+    private static void jumpIfNotInt(GhostWriter writer, Label label) {
+        var asm = writer.asm();
+        asm.visitInsn(DUP2);
+        asm.visitInsn(DUP2);
+        asm.visitInsn(L2I);
+        asm.visitInsn(I2L);
+        asm.visitInsn(LCMP);
+        asm.visitJumpInsn(IFNE, label);
+    }
+
+    /*
+        Helpers of the generic static methods of subclasses
+     */
+
+    static Object normalize(long value) {
+        var intValue = (int) value;
+        return intValue == value ? (Object) intValue : BigInteger.valueOf(value);
+    }
+
+    static Object normalize(BigInteger value) {
+        return value.bitLength() < Integer.SIZE ? (Object) value.intValue() : value;
+    }
+
+    static BigInteger toBigInteger(Object value) {
+        if (value instanceof Integer) {
+            return BigInteger.valueOf((Integer) value);
+        } else if (value instanceof BigInteger) {
+            return (BigInteger) value;
+        } else {
+            throw RuntimeError.integerExpected(value);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.primitive;
+
+import static org.objectweb.asm.Opcodes.LSUB;
+
+/**
+ * Integer subtraction of unlimited size, producing a {@link java.math.BigInteger}
+ * if the result does not fit in an {@code int}.
+ */
+public class ExactSub extends ExactIntegerPrimitive2 {
+
+    public ExactSub() {
+        super(LSUB, "sub");
+    }
+
+    @Override
+    public Object apply(Object arg1, Object arg2) {
+        return sub(arg1, arg2);
+    }
+
+    @Override
+    public Object applyToInts(int arg1, int arg2) {
+        return normalize((long) arg1 - arg2);
+    }
+
+    // also called by generated code
+    public static Object sub(Object arg1, Object arg2) {
+        if (arg1 instanceof Integer && arg2 instanceof Integer) {
+            return normalize((long) (Integer) arg1 - (Integer) arg2);
+        }
+        return normalize(toBigInteger(arg1).subtract(toBigInteger(arg2)));
+    }
+}
@@ -33,6 +33,11 @@ public class GT extends Primitive2 implements IfAware {
         }
     }
 
+    @Override
+    public Object applyToInts(int argument1, int argument2) {
+        return argument1 > argument2;
+    }
+
     @Override
     protected JvmType generateForReferenceReference(GhostWriter writer) {
         writer.invokeStatic(GT.class, "greaterThan", boolean.class, Object.class, Object.class);
@@ -0,0 +1,48 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.primitive;
+
+import com.github.vassilibykov.trifle.core.ExpressionType;
+import com.github.vassilibykov.trifle.core.GhostWriter;
+import com.github.vassilibykov.trifle.core.JvmType;
+import com.github.vassilibykov.trifle.core.RuntimeError;
+
+import static com.github.vassilibykov.trifle.core.JvmType.BOOL;
+import static org.objectweb.asm.Opcodes.LCMP;
+import static org.objectweb.asm.Opcodes.IFGE;
+
+/**
+ * A less-than comparison of {@code long}s.
+ */
+public class LLT extends WidePrimitive2 {
+
+    @Override
+    public ExpressionType inferredType(ExpressionType argument1Type, ExpressionType argument2Type) {
+        return ExpressionType.known(BOOL);
+    }
+
+    @Override
+    public Object apply(Object arg1, Object arg2) {
+        return lessThan(arg1, arg2);
+    }
+
+    @Override
+    protected JvmType generateForReferenceReference(GhostWriter writer) {
+        writer.invokeStatic(LLT.class, "lessThan", boolean.class, Object.class, Object.class);
+        return BOOL;
+    }
+
+    @Override
+    protected JvmType generateForLongLong(GhostWriter writer) {
+        return generateComparison(writer, LCMP, IFGE);
+    }
+
+    // also called by generated code
+    public static boolean lessThan(Object arg1, Object arg2) {
+        try {
+            return (Long) arg1 < (Long) arg2;
+        } catch (ClassCastException e) {
+            throw RuntimeError.longExpected(arg1, arg2);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.primitive;
+
+import com.github.vassilibykov.trifle.core.ExpressionType;
+import com.github.vassilibykov.trifle.core.GhostWriter;
+import com.github.vassilibykov.trifle.core.JvmType;
+import com.github.vassilibykov.trifle.core.RuntimeError;
+
+import static com.github.vassilibykov.trifle.core.JvmType.LONG;
+import static org.objectweb.asm.Opcodes.LMUL;
+
+/**
+ * Multiplication of {@code long}s with the semantics of Java {@code *}.
+ */
+public class LMul extends WidePrimitive2 {
+
+    @Override
+    public ExpressionType inferredType(ExpressionType argument1Type, ExpressionType argument2Type) {
+        return ExpressionType.known(LONG);
+    }
+
+    @Override
+    public Object apply(Object arg1, Object arg2) {
+        return mul(arg1, arg2);
+    }
+
+    @Override
+    protected JvmType generateForReferenceReference(GhostWriter writer) {
+        writer.invokeStatic(LMul.class, "mul", long.class, Object.class, Object.class);
+        return LONG;
+    }
+
+    @Override
+    protected JvmType generateForLongLong(GhostWriter writer) {
+        writer.asm().visitInsn(LMUL);
+        return LONG;
+    }
+
+    // also called by generated code
+    public static long mul(Object arg1, Object arg2) {
+        try {
+            return (Long) arg1 * (Long) arg2;
+        } catch (ClassCastException e) {
+            throw RuntimeError.longExpected(arg1, arg2);
+        }
+    }
+}
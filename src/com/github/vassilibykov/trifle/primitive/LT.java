@@ -35,6 +35,11 @@ public class LT extends Primitive2 implements IfAware {
         }
     }
 
+    @Override
+    public Object applyToInts(int arg1, int arg2) {
+        return arg1 < arg2;
+    }
+
     @Override
     protected JvmType generateForReferenceReference(GhostWriter writer) {
         writer.invokeStatic(LT.class, "lessThan", boolean.class, Object.class, Object.class);
@@ -29,6 +29,11 @@ public class Mul extends Primitive2 {
         }
     }
 
+    @Override
+    public Object applyToInts(int arg1, int arg2) {
+        return arg1 * arg2;
+    }
+
     @Override
     protected JvmType generateForReferenceReference(GhostWriter writer) {
         writer.invokeStatic(Mul.class, "mul", int.class, Object.class, Object.class);
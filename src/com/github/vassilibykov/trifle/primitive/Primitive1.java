@@ -41,6 +41,26 @@ public abstract class Primitive1 implements Primitive {
      */
     protected abstract JvmType generateForBoolean(GhostWriter writer);
 
+    /**
+     * Generate code to perform the operation when the argument (already on
+     * the stack) is a {@code long}. Unless overridden, the argument is wrapped
+     * and passed to the code generated by {@link #generateForReference}.
+     */
+    protected JvmType generateForLong(GhostWriter writer) {
+        writer.wrapLong();
+        return generateForReference(writer);
+    }
+
+    /**
+     * Generate code to perform the operation when the argument (already on
+     * the stack) is a {@code double}. Unless overridden, the argument is
+     * wrapped and passed to the code generated by {@link #generateForReference}.
+     */
+    protected JvmType generateForDouble(GhostWriter writer) {
+        writer.wrapDouble();
+        return generateForReference(writer);
+    }
+
     /**
      * Generate code to perform the operation when the argument on the
      * stack is of the specified type. Instead of overriding this method,
@@ -59,6 +79,14 @@ public abstract class Primitive1 implements Primitive {
             public JvmType ifBoolean() {
                 return generateForBoolean(writer);
             }
+
+            public JvmType ifLong() {
+                return generateForLong(writer);
+            }
+
+            public JvmType ifDouble() {
+                return generateForDouble(writer);
+            }
         });
     }
 }
@@ -6,6 +6,11 @@ import com.github.vassilibykov.trifle.core.ExpressionType;
 import com.github.vassilibykov.trifle.core.GhostWriter;
 import com.github.vassilibykov.trifle.core.JvmType;
 import com.github.vassilibykov.trifle.expression.Primitive;
+import org.objectweb.asm.Opcodes;
+
+import static com.github.vassilibykov.trifle.core.JvmType.DOUBLE;
+import static com.github.vassilibykov.trifle.core.JvmType.LONG;
+import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
 
 /**
  * The abstract superclass of binary primitive implementations.
@@ -23,6 +28,16 @@ public abstract class Primitive2 implements Primitive {
      */
     public abstract Object apply(Object argument1, Object argument2);
 
+    /**
+     * Perform the primitive operation on two {@code int} argument values.
+     * This method is used by the interpreter for a call of the primitive
+     * which has so far received two {@link Integer}s. Unless overridden, the
+     * arguments are passed to {@link #apply(Object, Object)}.
+     */
+    public Object applyToInts(int argument1, int argument2) {
+        return apply(argument1, argument2);
+    }
+
     /**
      * Generate code to perform the operation when both arguments on the stack
      * are of a reference type.
@@ -71,12 +86,84 @@ public abstract class Primitive2 implements Primitive {
      */
     protected abstract JvmType generateForBooleanBoolean(GhostWriter writer);
 
+    /**
+     * Generate code for the {@code (long, long)} argument combination. Unless
+     * overridden, the arguments are wrapped and passed to the code generated
+     * by {@link #generateForReferenceReference(GhostWriter)}.
+     */
+    protected JvmType generateForLongLong(GhostWriter writer) {
+        return generateForWrappedArguments(writer, LONG, LONG);
+    }
+
+    /**
+     * Generate code for the {@code (double, double)} argument combination.
+     * Unless overridden, the arguments are wrapped and passed to the code
+     * generated by {@link #generateForReferenceReference(GhostWriter)}.
+     */
+    protected JvmType generateForDoubleDouble(GhostWriter writer) {
+        return generateForWrappedArguments(writer, DOUBLE, DOUBLE);
+    }
+
+    /**
+     * Generate code to wrap the arguments of the specified types currently on
+     * the stack, followed by the code for the {@code (reference, reference)}
+     * combination.
+     */
+    protected final JvmType generateForWrappedArguments(GhostWriter writer, JvmType arg1type, JvmType arg2type) {
+        writer.wrap(arg2type);
+        if (arg1type != REFERENCE) {
+            if (arg1type.slotSize() == 2) {
+                // a wide value can't be swapped, so move the wrapped argument 2 under it instead
+                writer.asm().visitInsn(Opcodes.DUP_X2);
+                writer.pop();
+            } else {
+                writer.swap();
+            }
+            writer
+                .wrap(arg1type)
+                .swap();
+        }
+        return generateForReferenceReference(writer);
+    }
+
+    /**
+     * Indicate whether the code generated for the specified argument type
+     * combination may throw a {@link
+     * com.github.vassilibykov.trifle.core.SquarePegException} because the
+     * result of the operation does not fit the type returned by the
+     * generator. The exception carries the actual result. The code for the
+     * {@code (reference, reference)} combination must never fail.
+     */
+    public boolean canFail(JvmType arg1type, JvmType arg2type) {
+        return false;
+    }
+
+    /**
+     * Generate code for the specified argument type combination which never
+     * throws a {@link com.github.vassilibykov.trifle.core.SquarePegException},
+     * for use where there is no recovering from one. If the code for the
+     * combination is fallible, the arguments are wrapped and passed to the
+     * code for the {@code (reference, reference)} combination instead.
+     */
+    public final JvmType generateInfallible(GhostWriter writer, JvmType arg1type, JvmType arg2type) {
+        return canFail(arg1type, arg2type)
+            ? generateForWrappedArguments(writer, arg1type, arg2type)
+            : generate(writer, arg1type, arg2type);
+    }
+
     /**
      * Generate code for the specified argument type combination. This method
      * should not be overridden. Instead, a subclass should implement the ones
-     * for the specific type cases.
+     * for the specific type cases. Combinations of a {@code long} or a {@code
+     * double} with an argument of a different type are generated as for
+     * wrapped arguments.
      */
     public final JvmType generate(GhostWriter writer, JvmType arg1type, JvmType arg2type) {
+        if (isWide(arg1type) || isWide(arg2type)) {
+            if (arg1type == LONG && arg2type == LONG) return generateForLongLong(writer);
+            if (arg1type == DOUBLE && arg2type == DOUBLE) return generateForDoubleDouble(writer);
+            return generateForWrappedArguments(writer, arg1type, arg2type);
+        }
         return arg1type.match(new JvmType.Matcher<>() {
             public JvmType ifReference() {
                 return arg2type.match(new JvmType.Matcher<>() {
@@ -91,6 +178,9 @@ public abstract class Primitive2 implements Primitive {
                     public JvmType ifBoolean() { // (Object, boolean)
                         return generateForReferenceBoolean(writer);
                     }
+
+                    public JvmType ifLong() { throw new AssertionError(); }
+                    public JvmType ifDouble() { throw new AssertionError(); }
                 });
             }
 
@@ -107,6 +197,9 @@ public abstract class Primitive2 implements Primitive {
                     public JvmType ifBoolean() {
                         return generateForIntBoolean(writer);
                     }
+
+                    public JvmType ifLong() { throw new AssertionError(); }
+                    public JvmType ifDouble() { throw new AssertionError(); }
                 });
             }
 
@@ -123,8 +216,18 @@ public abstract class Primitive2 implements Primitive {
                     public JvmType ifBoolean() {
                         return generateForBooleanBoolean(writer);
                     }
+
+                    public JvmType ifLong() { throw new AssertionError(); }
+                    public JvmType ifDouble() { throw new AssertionError(); }
                 });
             }
+
+            public JvmType ifLong() { throw new AssertionError(); }
+            public JvmType ifDouble() { throw new AssertionError(); }
         });
     }
+
+    private static boolean isWide(JvmType type) {
+        return type == LONG || type == DOUBLE;
+    }
 }
@@ -13,6 +13,50 @@ public final class StandardPrimitiveLanguage {
         return PrimitiveCall.with(Add.class, arg1, arg2);
     }
 
+    public static PrimitiveCall bitAnd(AtomicExpression arg1, AtomicExpression arg2) {
+        return PrimitiveCall.with(BitAnd.class, arg1, arg2);
+    }
+
+    public static PrimitiveCall bitXor(AtomicExpression arg1, AtomicExpression arg2) {
+        return PrimitiveCall.with(BitXor.class, arg1, arg2);
+    }
+
+    public static PrimitiveCall doubleAdd(AtomicExpression arg1, AtomicExpression arg2) {
+        return PrimitiveCall.with(DAdd.class, arg1, arg2);
+    }
+
+    public static PrimitiveCall doubleDiv(AtomicExpression arg1, AtomicExpression arg2) {
+        return PrimitiveCall.with(DDiv.class, arg1, arg2);
+    }
+
+    public static PrimitiveCall doubleLessThan(AtomicExpression arg1, AtomicExpression arg2) {
+        return PrimitiveCall.with(DLT.class, arg1, arg2);
+    }
+
+    public static PrimitiveCall doubleMul(AtomicExpression arg1, AtomicExpression arg2) {
+        return PrimitiveCall.with(DMul.class, arg1, arg2);
+    }
+
+    public static PrimitiveCall doubleSqrt(AtomicExpression arg) {
+        return PrimitiveCall.with(DSqrt.class, arg);
+    }
+
+    public static PrimitiveCall doubleSub(AtomicExpression arg1, AtomicExpression arg2) {
+        return PrimitiveCall.with(DSub.class, arg1, arg2);
+    }
+
+    public static PrimitiveCall exactAdd(AtomicExpression arg1, AtomicExpression arg2) {
+        return PrimitiveCall.with(ExactAdd.class, arg1, arg2);
+    }
+
+    public static PrimitiveCall exactMul(AtomicExpression arg1, AtomicExpression arg2) {
+        return PrimitiveCall.with(ExactMul.class, arg1, arg2);
+    }
+
+    public static PrimitiveCall exactSub(AtomicExpression arg1, AtomicExpression arg2) {
+        return PrimitiveCall.with(ExactSub.class, arg1, arg2);
+    }
+
     public static PrimitiveCall greaterThan(AtomicExpression arg1, AtomicExpression arg2) {
         return PrimitiveCall.with(GT.class, arg1, arg2);
     }
@@ -21,6 +65,22 @@ public final class StandardPrimitiveLanguage {
         return PrimitiveCall.with(LT.class, arg1, arg2);
     }
 
+    public static PrimitiveCall longAdd(AtomicExpression arg1, AtomicExpression arg2) {
+        return PrimitiveCall.with(LAdd.class, arg1, arg2);
+    }
+
+    public static PrimitiveCall longLessThan(AtomicExpression arg1, AtomicExpression arg2) {
+        return PrimitiveCall.with(LLT.class, arg1, arg2);
+    }
+
+    public static PrimitiveCall longMul(AtomicExpression arg1, AtomicExpression arg2) {
+        return PrimitiveCall.with(LMul.class, arg1, arg2);
+    }
+
+    public static PrimitiveCall longSub(AtomicExpression arg1, AtomicExpression arg2) {
+        return PrimitiveCall.with(LSub.class, arg1, arg2);
+    }
+
     public static PrimitiveCall mul(AtomicExpression arg1, AtomicExpression arg2) {
         return PrimitiveCall.with(Mul.class, arg1, arg2);
     }
@@ -29,6 +89,10 @@ public final class StandardPrimitiveLanguage {
         return PrimitiveCall.with(Negate.class, arg);
     }
 
+    public static PrimitiveCall shiftRight(AtomicExpression arg1, AtomicExpression arg2) {
+        return PrimitiveCall.with(ShiftRight.class, arg1, arg2);
+    }
+
     public static PrimitiveCall sub(AtomicExpression arg1, AtomicExpression arg2) {
         return PrimitiveCall.with(Sub.class, arg1, arg2);
     }
@@ -25,6 +25,11 @@ public class Sub extends Primitive2 {
         }
     }
 
+    @Override
+    public Object applyToInts(int arg1, int arg2) {
+        return arg1 - arg2;
+    }
+
     @Override
     protected JvmType generateForReferenceReference(GhostWriter writer) {
         writer.invokeStatic(Sub.class, "sub", int.class, Object.class, Object.class);
@@ -0,0 +1,86 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.primitive;
+
+import com.github.vassilibykov.trifle.core.GhostWriter;
+import com.github.vassilibykov.trifle.core.JvmType;
+import org.objectweb.asm.Label;
+
+import static com.github.vassilibykov.trifle.core.JvmType.BOOL;
+import static com.github.vassilibykov.trifle.core.JvmType.INT;
+import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
+
+/**
+ * The abstract superclass of binary primitives operating on {@code long} or
+ * {@code double} values. A subclass generates specialized code for the
+ * combination of two arguments of its operand type by overriding {@link
+ * #generateForLongLong} or {@link #generateForDoubleDouble}. Any other
+ * combination is compiled as the generic form applied to wrapped arguments,
+ * which fails at run time unless the arguments are of the operand type.
+ */
+abstract class WidePrimitive2 extends Primitive2 {
+
+    @Override
+    protected JvmType generateForReferenceInt(GhostWriter writer) {
+        return generateForWrappedArguments(writer, REFERENCE, INT);
+    }
+
+    @Override
+    protected JvmType generateForReferenceBoolean(GhostWriter writer) {
+        return generateForWrappedArguments(writer, REFERENCE, BOOL);
+    }
+
+    @Override
+    protected JvmType generateForIntReference(GhostWriter writer) {
+        return generateForWrappedArguments(writer, INT, REFERENCE);
+    }
+
+    @Override
+    protected JvmType generateForIntInt(GhostWriter writer) {
+        return generateForWrappedArguments(writer, INT, INT);
+    }
+
+    @Override
+    protected JvmType generateForIntBoolean(GhostWriter writer) {
+        return generateForWrappedArguments(writer, INT, BOOL);
+    }
+
+    @Override
+    protected JvmType generateForBooleanReference(GhostWriter writer) {
+        return generateForWrappedArguments(writer, BOOL, REFERENCE);
+    }
+
+    @Override
+    protected JvmType generateForBooleanInt(GhostWriter writer) {
+        return generateForWrappedArguments(writer, BOOL, INT);
+    }
+
+    @Override
+    protected JvmType generateForBooleanBoolean(GhostWriter writer) {
+        return generateForWrappedArguments(writer, BOOL, BOOL);
+    }
+
+    /**
+     * Generate a comparison of two wide values on the stack producing a
+     * {@code boolean}.
+     *
+     * @param compareOpcode An instruction such as {@code LCMP} which replaces
+     *        the values with an {@code int} less than, equal to, or greater
+     *        than 0.
+     * @param jumpIfFalseOpcode An {@code IF...} instruction testing that
+     *        {@code int}, which jumps if the comparison is false.
+     */
+    static JvmType generateComparison(GhostWriter writer, int compareOpcode, int jumpIfFalseOpcode) {
+        writer.asm().visitInsn(compareOpcode);
+        writer.withLabelAtEnd(end -> {
+            var isFalse = new Label();
+            writer.asm().visitJumpInsn(jumpIfFalseOpcode, isFalse);
+            writer
+                .loadInt(1)
+                .jump(end);
+            writer.setLabelHere(isFalse);
+            writer.loadInt(0);
+        });
+        return BOOL;
+    }
+}
@@ -0,0 +1,65 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.tmp;
+
+import com.github.vassilibykov.trifle.core.CompilationQueue;
+import com.github.vassilibykov.trifle.core.Dictionary;
+import com.github.vassilibykov.trifle.core.Library;
+import com.github.vassilibykov.trifle.core.TieringPolicy;
+import com.github.vassilibykov.trifle.expression.DictionaryGetter;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.direct;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.exactAdd;
+
+/**
+ * Defines, compiles, runs and discards libraries one after another, reporting
+ * the heap in use and the number of loaded and unloaded classes as it goes.
+ * Each library has its own dictionary, a function calling another one, and a
+ * literal too large to be a constant in generated code. With nothing holding on to discarded
+ * libraries, the heap in use and the number of loaded classes should level
+ * off rather than grow with the number of libraries.
+ */
+public class SoakLibraryChurn {
+
+    public static void main(String[] args) {
+        var libraryCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        var reportInterval = libraryCount / 10;
+        CompilationQueue.setMode(CompilationQueue.Mode.SYNCHRONOUS);
+        var classLoading = ManagementFactory.getClassLoadingMXBean();
+        var memory = ManagementFactory.getMemoryMXBean();
+        long checksum = 0;
+        for (int i = 1; i <= libraryCount; i++) {
+            checksum += runLibrary(i);
+            if (i % reportInterval == 0) {
+                System.gc();
+                System.out.format("%7d libraries: %4d MB heap in use, %6d classes loaded, %7d unloaded\n",
+                    i,
+                    memory.getHeapMemoryUsage().getUsed() / (1024 * 1024),
+                    classLoading.getLoadedClassCount(),
+                    classLoading.getUnloadedClassCount());
+            }
+        }
+        System.out.println("checksum: " + checksum);
+    }
+
+    private static long runLibrary(int serial) {
+        var dictionary = Dictionary.create();
+        dictionary.defineEntry("x").setValue(serial);
+        var library = new Library();
+        library.setTieringPolicy(TieringPolicy.eager());
+        var get = library.define("get",
+            lambda(() -> call(DictionaryGetter.create(dictionary, "x"))));
+        var function = library.define("function",
+            lambda(() ->
+                bind(call(direct(get)), x ->
+                    exactAdd(x, const_(BigInteger.ONE.shiftLeft(64))))));
+        return ((BigInteger) function.invoke()).longValue();
+    }
+}
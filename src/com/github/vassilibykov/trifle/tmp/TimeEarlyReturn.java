@@ -0,0 +1,82 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.tmp;
+
+import com.github.vassilibykov.trifle.core.FunctionProfile;
+import com.github.vassilibykov.trifle.core.Library;
+import com.github.vassilibykov.trifle.core.TieringPolicy;
+import com.github.vassilibykov.trifle.core.UserFunction;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.ret;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+
+/**
+ * Times a function which returns from the middle of a loop after a few
+ * iterations, in the profiling interpreter, the simple interpreter and
+ * compiled code. The interpreters pay for every return, so the function
+ * does little else.
+ */
+public class TimeEarlyReturn {
+
+    private static final int INVOCATIONS = 1_000_000;
+
+    public static void main(String[] args) {
+        time("profiling interpreter", function(new TieringPolicy() {
+            @Override
+            public boolean shouldCompile(FunctionProfile profile) {
+                return false;
+            }
+
+            @Override
+            public long osrThreshold() {
+                return Long.MAX_VALUE;
+            }
+        }));
+        time("simple interpreter", function(TieringPolicy.interpreterOnly()));
+        time("compiled code", function(TieringPolicy.eager()));
+    }
+
+    private static void time(String label, UserFunction function) {
+        System.out.print(label + ": warming up");
+        for (int i = 0; i < 5; i++) {
+            run(function);
+            System.out.print(".");
+        }
+        var start = System.nanoTime();
+        var result = run(function);
+        var elapsed = System.nanoTime() - start;
+        System.out.format(" %s invocations = %s in %s ms\n", INVOCATIONS, result, elapsed / 1_000_000L);
+    }
+
+    private static int run(UserFunction function) {
+        int sum = 0;
+        for (int i = 0; i < INVOCATIONS; i++) sum += (Integer) function.invoke(100, i & 7);
+        return sum;
+    }
+
+    /**
+     * Return the first integer between 0 and n not less than the target, or n
+     * if there is none.
+     */
+    private static UserFunction function(TieringPolicy policy) {
+        Library toplevel = new Library();
+        toplevel.setTieringPolicy(policy);
+        return toplevel.define("search",
+            lambda((n, target) ->
+                bind(const_(0), i ->
+                    block(
+                        while_(lessThan(i, n),
+                            if_(lessThan(i, target),
+                                set(i, add(i, const_(1))),
+                                ret(i))),
+                        n))));
+    }
+}
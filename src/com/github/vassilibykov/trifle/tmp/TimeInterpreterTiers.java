@@ -0,0 +1,69 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.tmp;
+
+import com.github.vassilibykov.trifle.core.FunctionProfile;
+import com.github.vassilibykov.trifle.core.Library;
+import com.github.vassilibykov.trifle.core.TieringPolicy;
+import com.github.vassilibykov.trifle.core.UserFunction;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.direct;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
+
+/**
+ * Times fibonacci in the profiling interpreter, never compiled, against the
+ * simple interpreter, and both against the generic compiled form produced by
+ * compiling without profile data. The difference between the interpreters is
+ * the cost of profiling.
+ */
+public class TimeInterpreterTiers {
+
+    public static void main(String[] args) {
+        var n = 30;
+        time("profiling interpreter", fibonacci(new TieringPolicy() {
+            @Override
+            public boolean shouldCompile(FunctionProfile profile) {
+                return false;
+            }
+
+            @Override
+            public long osrThreshold() {
+                return Long.MAX_VALUE;
+            }
+        }), n);
+        time("simple interpreter", fibonacci(TieringPolicy.interpreterOnly()), n);
+        time("generic compiled form", fibonacci(TieringPolicy.eager()), n);
+    }
+
+    private static void time(String label, UserFunction fibonacci, int n) {
+        System.out.print(label + ": warming up");
+        for (int i = 0; i < 10; i++) {
+            fibonacci.invoke(n);
+            System.out.print(".");
+        }
+        var start = System.nanoTime();
+        var result = fibonacci.invoke(n);
+        var elapsed = System.nanoTime() - start;
+        System.out.format(" fibonacci(%s) = %s in %s ms\n", n, result, elapsed / 1_000_000L);
+    }
+
+    private static UserFunction fibonacci(TieringPolicy policy) {
+        Library toplevel = new Library();
+        toplevel.setTieringPolicy(policy);
+        toplevel.define("fibonacci",
+            fibonacci -> lambda(n ->
+                if_(lessThan(n, const_(2)),
+                    const_(1),
+                    bind(call(direct(fibonacci), sub(n, const_(1))), t1 ->
+                        bind(call(direct(fibonacci), sub(n, const_(2))), t2 ->
+                            add(t1, t2))))));
+        return toplevel.get("fibonacci");
+    }
+}
@@ -0,0 +1,96 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.tmp;
+
+import com.github.vassilibykov.trifle.core.FunctionProfile;
+import com.github.vassilibykov.trifle.core.Library;
+import com.github.vassilibykov.trifle.core.TieringPolicy;
+import com.github.vassilibykov.trifle.core.UserFunction;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+
+/**
+ * Times the profiling interpreter running the same function in many threads
+ * at once, against running it in a single thread. The function is never
+ * compiled, so with contention-free profiling the time per invocation should
+ * not grow much with the number of threads, as long as there are enough
+ * cores to run them.
+ */
+public class TimeParallelWarmup {
+
+    public static void main(String[] args) throws Exception {
+        var invocationsPerThread = 200_000;
+        var maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        System.out.print("Warming up");
+        for (int i = 0; i < 5; i++) {
+            run(function(), 4, invocationsPerThread / 10);
+            System.out.print(".");
+        }
+        System.out.println("done.");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            var function = function();
+            var start = System.nanoTime();
+            run(function, threads, invocationsPerThread);
+            var elapsed = System.nanoTime() - start;
+            System.out.format("%2d threads: %s ms, %s ns per invocation per thread\n",
+                threads, elapsed / 1_000_000L, elapsed / invocationsPerThread);
+        }
+    }
+
+    private static void run(UserFunction function, int threads, int invocations)
+        throws InterruptedException, ExecutionException
+    {
+        var executor = Executors.newFixedThreadPool(threads);
+        try {
+            var futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < invocations; j++) function.invoke(j % 16);
+                }));
+            }
+            for (var each : futures) each.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static UserFunction function() {
+        Library toplevel = new Library();
+        var function = toplevel.define("function",
+            lambda(n ->
+                bind(const_(0), i ->
+                    bind(const_(0), sum ->
+                        block(
+                            while_(lessThan(i, n),
+                                block(
+                                    bind(if_(lessThan(i, const_(8)), i, const_(1)), step ->
+                                        set(sum, add(sum, step))),
+                                    set(i, add(i, const_(1))))),
+                            sum)))));
+        function.setTieringPolicy(new TieringPolicy() {
+            @Override
+            public boolean shouldCompile(FunctionProfile profile) {
+                return false;
+            }
+
+            @Override
+            public long osrThreshold() {
+                return Long.MAX_VALUE;
+            }
+        });
+        return function;
+    }
+}
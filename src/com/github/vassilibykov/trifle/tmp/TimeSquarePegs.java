@@ -0,0 +1,74 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.tmp;
+
+import com.github.vassilibykov.trifle.core.FunctionProfile;
+import com.github.vassilibykov.trifle.core.Library;
+import com.github.vassilibykov.trifle.core.TieringPolicy;
+import com.github.vassilibykov.trifle.core.UserFunction;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+
+/**
+ * Times calls of a function compiled as {@code (int)int} which keep failing
+ * specialization, against calls which don't. The difference is the cost of
+ * signaling and recovering from a square peg.
+ */
+public class TimeSquarePegs {
+
+    public static void main(String[] args) {
+        var iterations = 10_000_000;
+        var function = function();
+        System.out.print("Warming up");
+        for (int i = 0; i < 20; i++) {
+            run(function, iterations / 10, 1);
+            run(function, iterations / 10, -1);
+            System.out.print(".");
+        }
+        System.out.println("done.");
+        time("fitting pegs", function, iterations, 1);
+        time("square pegs", function, iterations, -1);
+    }
+
+    private static void time(String label, UserFunction function, int iterations, int argument) {
+        var start = System.nanoTime();
+        run(function, iterations, argument);
+        var elapsed = System.nanoTime() - start;
+        System.out.format("%s: %s ns per call\n", label, elapsed / iterations);
+    }
+
+    private static Object run(UserFunction function, int iterations, int argument) {
+        Object result = null;
+        for (int i = 0; i < iterations; i++) {
+            result = function.invoke(argument);
+        }
+        return result;
+    }
+
+    private static UserFunction function() {
+        Library toplevel = new Library();
+        var function = toplevel.define("function",
+            lambda(x ->
+                bind(if_(lessThan(x, const_(0)), const_("negative"), add(x, const_(1))), t -> t)));
+        function.setTieringPolicy(new TieringPolicy() {
+            @Override
+            public boolean shouldCompile(FunctionProfile profile) {
+                return profile.invocationCount() >= 10;
+            }
+
+            @Override
+            public int maxDeoptimizations() {
+                return 0; // keep the specialized code no matter how often it fails
+            }
+        });
+        for (int i = 0; i < 20; i++) {
+            function.invoke(i);
+        }
+        return function;
+    }
+}
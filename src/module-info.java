@@ -1,7 +1,8 @@
 module Enfilade {
-    requires jdk.unsupported;
     requires org.objectweb.asm;
     requires annotations.java8;
+    requires jdk.jfr;
+    requires java.management;
     exports com.github.vassilibykov.trifle.core;
     exports com.github.vassilibykov.trifle.expression;
     exports com.github.vassilibykov.trifle.builtin;
@@ -0,0 +1,213 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Measures the memory allocated by steady-state runs of compiled code. The
+ * code is run by a driver, a function taking an iteration count and running
+ * the code under test that many times. The allocation per iteration is the
+ * difference between the bytes allocated by the current thread in a long and
+ * in a short run of the driver, divided by the difference in iteration
+ * counts, so that the allocations of invoking the driver itself cancel out.
+ * The driver is first run until the measurements settle, since the JVM
+ * compiles it in tiers and some boxing in Trifle code is only removed by the
+ * escape analysis of the final tier.
+ *
+ * <p>If the allocation exceeds the budget, the long run is repeated under a
+ * flight recording of allocation events, and the failure message lists the
+ * classes allocated with the frames which allocated them.
+ *
+ * <p>Where the amount depends on what the JIT manages to remove, the code can
+ * instead be checked for allocating nothing but the expected classes, using
+ * the same recording.
+ */
+final class AllocationBudget {
+
+    private static final int SHORT_RUN = 1_000;
+    private static final int LONG_RUN = 11_000;
+    private static final int WARMUP_RUNS = 20;
+    private static final int MAX_SETTLING_MEASUREMENTS = 50;
+    private static final int ATTEMPTS = 5;
+    private static final int REPORTED_FRAMES = 8;
+    private static final int REPORTED_SITES = 5;
+    private static final int MAX_RECORDED_RUNS = 50;
+    /** The prefix of the names of the classes of compiled code; see {@link Compiler}. */
+    private static final String GENERATED_CLASS_NAME_PREFIX = Compiler.class.getPackageName() + ".$unit";
+    /** The JDK methods which customize a method handle, or generate its code. */
+    private static final Set<String> METHOD_HANDLE_CUSTOMIZATION = Set.of(
+        "java.lang.invoke.MethodHandle.customize",
+        "java.lang.invoke.InvokerBytecodeGenerator.generateCustomizedCode");
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private AllocationBudget() {}
+
+    /**
+     * Fail unless an iteration of the driver allocates at most the specified
+     * number of bytes. The driver should already have been run and compiled.
+     */
+    static void assertWithinBudget(String description, UserFunction driver, int budget) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            driver.invoke(LONG_RUN);
+        }
+        awaitSteadyState(driver);
+        double allocated = Double.MAX_VALUE;
+        for (int i = 0; i < ATTEMPTS && allocated > budget; i++) {
+            allocated = Math.min(allocated, bytesPerIteration(driver));
+        }
+        // Less than a byte per iteration is some allocation which doesn't repeat.
+        if (allocated >= budget + 1) {
+            fail(String.format("%s allocates %.1f bytes per iteration, the budget is %d. Allocation sites:%n%s",
+                description, allocated, budget, allocationSites(driver)));
+        }
+    }
+
+    /**
+     * Fail if an iteration of the driver allocates objects of classes other
+     * than the specified ones. Only the allocations made while running
+     * compiled code are considered, which leaves out those of the recording
+     * itself. So are those of the JDK customizing a frequently invoked
+     * method handle and generating its code, which happens once per handle.
+     * The driver should already have been run and compiled.
+     */
+    static void assertAllocatesOnly(String description, UserFunction driver, Set<Class<?>> expectedClasses) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            driver.invoke(LONG_RUN);
+        }
+        var expectedNames = expectedClasses.stream().map(Class::getName).collect(Collectors.toSet());
+        try {
+            var unexpected = recordAllocations(driver).stream()
+                .filter(AllocationBudget::isAllocatedByCompiledCode)
+                .filter(each -> !expectedNames.contains(each.getClass("objectClass").getName()))
+                .collect(Collectors.toList());
+            if (!unexpected.isEmpty()) {
+                fail(String.format("%s allocates unexpected classes. Allocation sites:%n%s",
+                    description, describeSites(unexpected)));
+            }
+        } catch (IOException e) {
+            throw new AssertionError("could not record allocations", e);
+        }
+    }
+
+    /**
+     * Measure the allocation of the driver until two measurements in a row
+     * agree to within a byte per iteration, or give up after a while. Until
+     * then, the JVM may still be replacing the code of the driver.
+     */
+    private static void awaitSteadyState(UserFunction driver) {
+        double previous = bytesPerIteration(driver);
+        for (int i = 0; i < MAX_SETTLING_MEASUREMENTS; i++) {
+            double current = bytesPerIteration(driver);
+            if (Math.abs(current - previous) < 1) return;
+            previous = current;
+        }
+    }
+
+    private static double bytesPerIteration(UserFunction driver) {
+        long shortRun = bytesAllocated(driver, SHORT_RUN);
+        long longRun = bytesAllocated(driver, LONG_RUN);
+        return (double) (longRun - shortRun) / (LONG_RUN - SHORT_RUN);
+    }
+
+    private static long bytesAllocated(UserFunction driver, int iterations) {
+        long threadId = Thread.currentThread().getId();
+        long start = THREADS.getThreadAllocatedBytes(threadId);
+        driver.invoke(iterations);
+        return THREADS.getThreadAllocatedBytes(threadId) - start;
+    }
+
+    /**
+     * Run the driver under a flight recording of allocation events and
+     * describe the most frequent sites in the current thread.
+     */
+    private static String allocationSites(UserFunction driver) {
+        try {
+            return describeSites(recordAllocations(driver));
+        } catch (IOException e) {
+            return "    (could not record allocations: " + e + ")";
+        }
+    }
+
+    /**
+     * Run the driver under a flight recording of allocation events and return
+     * the events of the current thread. An event is recorded only when an
+     * allocation needs a new TLAB, so the driver is run until a few events
+     * have been recorded.
+     */
+    private static List<RecordedEvent> recordAllocations(UserFunction driver) throws IOException {
+        var file = Files.createTempFile("allocation", ".jfr");
+        try {
+            try (var recording = new Recording()) {
+                recording.enable("jdk.ObjectAllocationInNewTLAB").withStackTrace();
+                recording.enable("jdk.ObjectAllocationOutsideTLAB").withStackTrace();
+                recording.start();
+                long threadId = Thread.currentThread().getId();
+                long start = THREADS.getThreadAllocatedBytes(threadId);
+                for (int i = 0; i < MAX_RECORDED_RUNS && THREADS.getThreadAllocatedBytes(threadId) - start < 64 << 20; i++) {
+                    driver.invoke(LONG_RUN);
+                }
+                recording.stop();
+                recording.dump(file);
+            }
+            long threadId = Thread.currentThread().getId();
+            return RecordingFile.readAllEvents(file).stream()
+                .filter(each -> each.getThread() != null && each.getThread().getJavaThreadId() == threadId)
+                .collect(Collectors.toList());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static boolean isAllocatedByCompiledCode(RecordedEvent event) {
+        var stackTrace = event.getStackTrace();
+        if (stackTrace == null) return false;
+        var methods = stackTrace.getFrames().stream()
+            .map(each -> each.getMethod().getType().getName() + "." + each.getMethod().getName())
+            .collect(Collectors.toList());
+        return methods.stream().anyMatch(each -> each.startsWith(GENERATED_CLASS_NAME_PREFIX))
+            && methods.stream().noneMatch(METHOD_HANDLE_CUSTOMIZATION::contains);
+    }
+
+    private static String describeSites(List<RecordedEvent> events) {
+        Map<String, Long> sites = events.stream()
+            .collect(Collectors.groupingBy(AllocationBudget::describeSite, Collectors.counting()));
+        if (sites.isEmpty()) return "    (no allocation events recorded)";
+        return sites.entrySet().stream()
+            .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+            .limit(REPORTED_SITES)
+            .map(each -> "    " + each.getValue() + " events: " + each.getKey())
+            .collect(Collectors.joining("\n"));
+    }
+
+    private static String describeSite(RecordedEvent event) {
+        var className = event.getClass("objectClass").getName();
+        var stackTrace = event.getStackTrace();
+        if (stackTrace == null) return className;
+        return className + " allocated at\n" + stackTrace.getFrames().stream()
+            .limit(REPORTED_FRAMES)
+            .map(AllocationBudget::describeFrame)
+            .collect(Collectors.joining("\n"));
+    }
+
+    private static String describeFrame(RecordedFrame frame) {
+        var method = frame.getMethod();
+        return "        " + method.getType().getName() + "." + method.getName() + ":" + frame.getLineNumber();
+    }
+}
@@ -0,0 +1,200 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import com.github.vassilibykov.trifle.expression.DictionaryGetter;
+import com.github.vassilibykov.trifle.object.FixedObjectDefinition;
+import com.github.vassilibykov.trifle.object.GetField;
+import com.github.vassilibykov.trifle.object.SetField;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.direct;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.greaterThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that int workloads in specialized code don't allocate once they
+ * have reached the steady state. The values involved are outside of the
+ * range of {@link Integer#valueOf(int)}'s cache, so any boxing shows up. See
+ * {@link AllocationBudget} for how allocation is measured.
+ */
+public class AllocationBudgetTest {
+    @Rule public final SynchronousCompilation synchronousCompilation = new SynchronousCompilation();
+
+    /**
+     * Profile the functions without compiling them in the background, so
+     * they are compiled only as the test forces them.
+     */
+    private static final TieringPolicy NEVER_COMPILE = new TieringPolicy() {
+        @Override
+        public boolean shouldCompile(FunctionProfile profile) {
+            return false;
+        }
+
+        @Override
+        public long osrThreshold() {
+            return Long.MAX_VALUE;
+        }
+    };
+
+    @Test
+    public void fibonacci() {
+        var fibonacci = UserFunction.construct("fibonacci", self ->
+            lambda(n ->
+                if_(lessThan(n, const_(2)),
+                    const_(1),
+                    bind(call(direct(self), sub(n, const_(1))), t1 ->
+                        bind(call(direct(self), sub(n, const_(2))), t2 ->
+                            add(t1, t2))))));
+        var driver = UserFunction.construct("driver",
+            lambda(n ->
+                bind(const_(0), result ->
+                    block(
+                        while_(greaterThan(n, const_(0)),
+                            bind(call(direct(fibonacci), const_(15)), t -> set(result, t)),
+                            set(n, sub(n, const_(1)))),
+                        result))));
+        compile(driver, fibonacci);
+        assertEquals(987, driver.invoke(1));
+        AllocationBudget.assertWithinBudget("fibonacci(15)", driver, 0);
+    }
+
+    @Test
+    public void loopAccumulator() {
+        var driver = UserFunction.construct("driver",
+            lambda(n ->
+                bind(const_(1000), sum ->
+                    block(
+                        while_(greaterThan(n, const_(0)),
+                            set(sum, add(sum, n)),
+                            set(n, sub(n, const_(1)))),
+                        sum))));
+        compile(driver);
+        assertEquals(1006, driver.invoke(3));
+        AllocationBudget.assertWithinBudget("loop accumulator", driver, 0);
+    }
+
+    @Test
+    public void closureCall() {
+        var driver = UserFunction.construct("driver",
+            lambda(n ->
+                bind(lambda(x -> add(x, const_(1000))), closure ->
+                    bind(const_(0), sum ->
+                        block(
+                            while_(greaterThan(n, const_(0)),
+                                bind(call(closure, sum), t -> set(sum, t)),
+                                set(n, sub(n, const_(1)))),
+                            sum)))));
+        compile(driver);
+        assertEquals(3000, driver.invoke(3));
+        AllocationBudget.assertWithinBudget("closure call", driver, 0);
+    }
+
+    /**
+     * A call site doesn't cache closures with copied values, so each call
+     * goes through the full dispatch, which collects the arguments into an
+     * array and boxes them. How much of that the escape analysis of the JIT
+     * removes varies from run to run, from about 30 bytes per iteration to
+     * all 80 of the unoptimized path, so the test checks that nothing else is
+     * allocated rather than how much. The closure is created once and found
+     * in a dictionary, so the driver itself allocates nothing but the call
+     * does.
+     */
+    @Test
+    public void closureWithCopiedValueCall() {
+        var makeAdder = UserFunction.construct("makeAdder",
+            lambda(increment -> lambda(x -> add(x, increment))));
+        var dictionary = Dictionary.create();
+        dictionary.defineEntry("adder").setValue(makeAdder.invoke(1000));
+        var driver = UserFunction.construct("driver",
+            lambda(n ->
+                bind(call(DictionaryGetter.create(dictionary, "adder")), closure ->
+                    bind(const_(0), sum ->
+                        block(
+                            while_(greaterThan(n, const_(0)),
+                                bind(call(closure, sum), t -> set(sum, t)),
+                                set(n, sub(n, const_(1)))),
+                            sum)))));
+        compile(driver, makeAdder);
+        assertEquals(3000, driver.invoke(3));
+        AllocationBudget.assertAllocatesOnly("closure with a copied value call", driver,
+            Set.of(Integer.class, Object[].class));
+    }
+
+    /**
+     * The getter call site is typed {@code (Object)Object}, so the value is
+     * boxed to be returned, even though the object keeps it as an int. The
+     * JIT often removes the box, but not reliably.
+     */
+    @Test
+    public void fieldRead() {
+        var object = new FixedObjectDefinition(List.of("count")).instantiate();
+        object.set("count", 1000);
+        var driver = UserFunction.construct("driver",
+            lambda(n ->
+                bind(const_(0), sum ->
+                    block(
+                        while_(greaterThan(n, const_(0)),
+                            bind(call(GetField.named("count"), const_(object)), count ->
+                                set(sum, add(sum, count))),
+                            set(n, sub(n, const_(1)))),
+                        sum))));
+        compile(driver);
+        assertEquals(3000, driver.invoke(3));
+        AllocationBudget.assertWithinBudget("field read", driver, 16);
+    }
+
+    /**
+     * The setter call site is typed {@code (Object Object)void}, so the value
+     * is boxed to be stored, even though the object keeps it as an int.
+     */
+    @Test
+    public void fieldWrite() {
+        var object = new FixedObjectDefinition(List.of("count")).instantiate();
+        var driver = UserFunction.construct("driver",
+            lambda(n ->
+                block(
+                    while_(greaterThan(n, const_(0)),
+                        bind(call(SetField.named("count"), const_(object), add(n, const_(1000))), t -> t),
+                        set(n, sub(n, const_(1)))),
+                    n)));
+        compile(driver);
+        driver.invoke(3);
+        assertEquals(1001, object.get("count"));
+        AllocationBudget.assertWithinBudget("field write", driver, 16);
+    }
+
+    /**
+     * Profile the functions by running the driver, then compile them all.
+     * Compiling the driver last lets it link to the compiled forms of the
+     * others.
+     */
+    private static void compile(UserFunction driver, UserFunction... others) {
+        driver.setTieringPolicy(NEVER_COMPILE);
+        for (var each : others) {
+            each.setTieringPolicy(NEVER_COMPILE);
+        }
+        for (int i = 0; i < 3; i++) {
+            driver.invoke(10);
+        }
+        for (var each : others) {
+            each.forceCompile();
+        }
+        driver.forceCompile();
+    }
+}
@@ -10,8 +10,11 @@ import java.lang.invoke.MethodType;
 
 import static com.github.vassilibykov.trifle.core.JvmType.INT;
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
 import static org.junit.Assert.*;
 
 @SuppressWarnings("ConstantConditions")
@@ -162,8 +165,32 @@ public class ClosureNodeTests {
         try {
             result = invoker.invoke();
         } catch (SquarePegException e) {
-            result = e.value;
+            result = e.take();
         }
         assertEquals("hello", result);
     }
-}
\ No newline at end of file
+
+    /**
+     * The closure copies an int let variable, so the variable is specialized
+     * as an int in the specialized method of the closure. The generic method
+     * receives it as an Object, and used to load it as an int.
+     */
+    @Test
+    public void copiedIntVariableInGenericMethod() {
+        var function = UserFunction.construct("copier",
+            lambda(arg ->
+                bind(add(arg, const_(1000)), increment ->
+                    bind(lambda(x -> add(x, increment)), closure ->
+                        call(closure, arg)))));
+        assertEquals(1006, function.invoke(3));
+        function.forceCompile();
+        assertEquals(1014, function.invoke(7));
+        var closure = UserFunction.construct("closureMaker",
+            lambda(arg ->
+                bind(add(arg, const_(1000)), increment ->
+                    lambda(x -> add(x, increment)))));
+        closure.invoke(1);
+        closure.forceCompile();
+        assertEquals(1005, ((Closure) closure.invoke(2)).invoke(3));
+    }
+}
@@ -0,0 +1,271 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import com.github.vassilibykov.trifle.expression.DictionaryGetter;
+import com.github.vassilibykov.trifle.expression.Expression;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.direct;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.exactAdd;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CodeCacheTest {
+    @Rule public final SynchronousCompilation synchronousCompilation = new SynchronousCompilation();
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("trifle-cache");
+        CodeCache.enable(directory);
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        CodeCache.disable();
+        try (var paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(each -> each.toFile().delete());
+        }
+    }
+
+    @Test
+    public void identicalFunctionIsInstalledFromCache() throws Exception {
+        compileAndStore(fibonacci(), 10);
+        var hitsBefore = CodeCache.hitCount();
+        var fib = fibonacci();
+        assertEquals(55, fib.invoke(10));
+        assertTrue(fib.implementation().isCompiled());
+        assertEquals(hitsBefore + 1, CodeCache.hitCount());
+        assertEquals(6765, fib.invoke(20));
+    }
+
+    @Test
+    public void calleeOfInterpretedCallIsInstalledFromCache() throws Exception {
+        compileAndStore(fibonacci(), 10);
+        var hitsBefore = CodeCache.hitCount();
+        var fib = fibonacci();
+        var caller = interpretedCaller(callee -> bind(call(direct(callee), const_(10)), r -> add(r, const_(0))), fib);
+        assertEquals(55, caller.invoke());
+        assertTrue(fib.implementation().isCompiled());
+        assertEquals(hitsBefore + 1, CodeCache.hitCount());
+    }
+
+    @Test
+    public void calleeOfInterpretedTailCallIsInstalledFromCache() throws Exception {
+        compileAndStore(fibonacci(), 10);
+        var hitsBefore = CodeCache.hitCount();
+        var fib = fibonacci();
+        var caller = interpretedCaller(callee -> call(direct(callee), const_(10)), fib);
+        assertEquals(55, caller.invoke());
+        assertTrue(fib.implementation().isCompiled());
+        assertEquals(hitsBefore + 1, CodeCache.hitCount());
+    }
+
+    @Test
+    public void differentFunctionIsNotInstalled() throws Exception {
+        compileAndStore(UserFunction.construct("inc", lambda(n -> add(n, const_(1)))), 1);
+        var inc2 = UserFunction.construct("inc", lambda(n -> add(n, const_(2))));
+        assertEquals(3, inc2.invoke(1));
+        assertFalse(inc2.implementation().isCompiled());
+    }
+
+    @Test
+    public void referencedObjectsAreRebound() throws Exception {
+        var big = BigInteger.ONE.shiftLeft(64);
+        compileAndStore(dictionaryReader(dictionaryWith(1), big));
+        var reader = dictionaryReader(dictionaryWith(41), big);
+        assertEquals(big.add(BigInteger.valueOf(41)), reader.invoke());
+        assertTrue(reader.implementation().isCompiled());
+    }
+
+    @Test
+    public void corruptEntryIsRejected() throws Exception {
+        compileAndStore(fibonacci(), 10);
+        try (var entries = Files.list(directory)) {
+            for (var each : entries.collect(Collectors.toList())) {
+                var contents = Files.readAllBytes(each);
+                Files.write(each, Arrays.copyOf(contents, contents.length - 10));
+            }
+        }
+        var rejectedBefore = CodeCache.rejectedCount();
+        var fib = fibonacci();
+        assertEquals(1, fib.invoke(1));
+        assertFalse(fib.implementation().isCompiled());
+        assertEquals(rejectedBefore + 1, CodeCache.rejectedCount());
+        awaitWrites();
+        try (var entries = Files.list(directory)) {
+            assertEquals(0, entries.count());
+        }
+    }
+
+    @Test
+    public void unverifiableEntryRegistersNoRecoverySites() throws Exception {
+        var original = negativeOrIncrement();
+        compileAndStore(original, 1);
+        assertTrue(original.implementation().recoverySiteCount() > 0);
+        try (var entries = Files.list(directory)) {
+            for (var each : entries.collect(Collectors.toList())) {
+                Files.write(each, withUnverifiableClass(Files.readAllBytes(each)));
+            }
+        }
+        var function = negativeOrIncrement();
+        assertEquals(2, function.invoke(1));
+        assertFalse(function.implementation().isCompiled());
+        assertEquals(0, function.implementation().recoverySiteCount());
+        function.implementation().forceCompile();
+        assertEquals(original.implementation().recoverySiteCount(), function.implementation().recoverySiteCount());
+        assertEquals("negative", function.invoke(-1));
+    }
+
+    @Test
+    public void failedWriteIsCounted() throws Exception {
+        var failedBefore = CodeCache.failedWriteCount();
+        var storedBefore = CodeCache.storedCount();
+        Files.delete(directory);
+        Files.createFile(directory); // entries can't be created in it
+        var fib = fibonacci();
+        fib.invoke(1);
+        fib.implementation().forceCompile();
+        CodeCache.disable(); // waits for the failed write
+        Files.delete(directory);
+        Files.createDirectory(directory);
+        CodeCache.enable(directory);
+        assertEquals(failedBefore + 1, CodeCache.failedWriteCount());
+        assertEquals(storedBefore, CodeCache.storedCount());
+        assertEquals(55, fib.invoke(10));
+        assertTrue(fib.implementation().isCompiled());
+    }
+
+    private void compileAndStore(UserFunction function, Object... args) throws Exception {
+        function.invokeWithArguments(args);
+        function.implementation().forceCompile();
+        awaitWrites();
+    }
+
+    /**
+     * Wait until the entries of the units compiled so far have been written.
+     * Disabling the cache does that; it's enabled again right away.
+     */
+    private void awaitWrites() throws IOException, InterruptedException {
+        CodeCache.disable();
+        CodeCache.enable(directory);
+    }
+
+    /**
+     * Replace the code of the methods of the class of an entry with code the
+     * verifier rejects, keeping the methods themselves so the entry is still
+     * well-formed. The class file is the last part of an entry, preceded by
+     * its length.
+     */
+    private static byte[] withUnverifiableClass(byte[] entry) {
+        var buffer = ByteBuffer.wrap(entry);
+        int classStart = -1;
+        for (int i = entry.length - 4; i >= 4; i--) {
+            if (buffer.getInt(i) == 0xCAFEBABE && buffer.getInt(i - 4) == entry.length - i) {
+                classStart = i;
+                break;
+            }
+        }
+        assertTrue(classStart > 0);
+        var writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        new ClassReader(entry, classStart, entry.length - classStart).accept(
+            new ClassVisitor(Opcodes.ASM6, writer) {
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                    var method = super.visitMethod(access, name, desc, signature, exceptions);
+                    if (name.startsWith("<")) return method;
+                    method.visitCode();
+                    method.visitInsn(Opcodes.ICONST_0);
+                    method.visitInsn(Opcodes.ARETURN);
+                    method.visitMaxs(0, 0);
+                    method.visitEnd();
+                    return null;
+                }
+            },
+            ClassReader.SKIP_FRAMES);
+        var classFile = writer.toByteArray();
+        return ByteBuffer.allocate(classStart + classFile.length)
+            .put(entry, 0, classStart - 4)
+            .putInt(classFile.length)
+            .put(classFile)
+            .array();
+    }
+
+    private static UserFunction fibonacci() {
+        return UserFunction.construct("fibonacci", fib ->
+            lambda(n ->
+                if_(lessThan(n, const_(2)),
+                    n,
+                    bind(call(direct(fib), sub(n, const_(1))), t1 ->
+                        bind(call(direct(fib), sub(n, const_(2))), t2 ->
+                            add(t1, t2))))));
+    }
+
+    /**
+     * A function with a recovery site, for the string result of the condition
+     * not fitting the int type the let is specialized for.
+     */
+    private static UserFunction negativeOrIncrement() {
+        return UserFunction.construct("negativeOrIncrement",
+            lambda(arg ->
+                bind(if_(lessThan(arg, const_(0)), const_("negative"), add(arg, const_(1))), t ->
+                    t)));
+    }
+
+    /**
+     * A function which stays in the interpreter, with the body produced by
+     * the specified function from the callee.
+     */
+    private static UserFunction interpretedCaller(Function<UserFunction, Expression> body, UserFunction callee) {
+        var caller = UserFunction.construct("caller", lambda(() -> body.apply(callee)));
+        caller.setTieringPolicy(new TieringPolicy() {
+            @Override
+            public boolean shouldCompile(FunctionProfile profile) {
+                return false;
+            }
+        });
+        return caller;
+    }
+
+    private static Dictionary dictionaryWith(int value) {
+        var dictionary = Dictionary.create();
+        dictionary.defineEntry("x").setValue(value);
+        return dictionary;
+    }
+
+    private static UserFunction dictionaryReader(Dictionary dictionary, BigInteger addend) {
+        return UserFunction.construct("reader",
+            lambda(() ->
+                bind(call(DictionaryGetter.create(dictionary, "x")), x ->
+                    exactAdd(x, const_(addend)))));
+    }
+}
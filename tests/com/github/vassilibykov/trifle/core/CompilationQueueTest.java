@@ -0,0 +1,132 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import com.github.vassilibykov.trifle.expression.PrimitiveCall;
+import com.github.vassilibykov.trifle.primitive.Primitive1;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompilationQueueTest {
+    @Rule public final SynchronousCompilation synchronousCompilation = new SynchronousCompilation();
+
+    private UserFunction function;
+
+    @Before
+    public void setUp() {
+        function = UserFunction.construct("inc", lambda(arg -> add(arg, const_(1))));
+    }
+
+    @Test
+    public void synchronousMode() {
+        CompilationQueue.setMode(CompilationQueue.Mode.SYNCHRONOUS);
+        warmUp();
+        assertTrue(function.implementation().isCompiled());
+        assertEquals(4, function.invoke(3));
+    }
+
+    @Test
+    public void backgroundMode() throws InterruptedException {
+        CompilationQueue.setMode(CompilationQueue.Mode.BACKGROUND);
+        var completedBefore = CompilationQueue.completedCount();
+        warmUp();
+        assertTrue(CompilationQueue.awaitQuiescence(10, TimeUnit.SECONDS));
+        assertTrue(function.implementation().isCompiled());
+        assertTrue(CompilationQueue.completedCount() > completedBefore);
+        assertEquals(0, CompilationQueue.queueDepth());
+        assertEquals(4, function.invoke(3));
+    }
+
+    @Test
+    public void notCompiledBeforeTarget() {
+        CompilationQueue.setMode(CompilationQueue.Mode.SYNCHRONOUS);
+        function.invoke(1);
+        assertFalse(function.implementation().isCompiled());
+    }
+
+    @Test
+    public void failedCompilation() throws InterruptedException {
+        CompilationQueue.setMode(CompilationQueue.Mode.BACKGROUND);
+        var failedBefore = CompilationQueue.failedCount();
+        var uncompilable = UserFunction.construct("uncompilable",
+            lambda(arg -> PrimitiveCall.with(Uncompilable.class, arg)));
+        for (int attempt = 1; attempt <= TieringPolicy.DEFAULT_MAX_COMPILATION_FAILURES; attempt++) {
+            for (int i = 0; i <= TieringPolicy.DEFAULT_THRESHOLD; i++) {
+                assertEquals(i, uncompilable.invoke(i));
+            }
+            assertTrue(CompilationQueue.awaitQuiescence(10, TimeUnit.SECONDS));
+            assertEquals(attempt, uncompilable.implementation().compilationFailureCount());
+            assertFalse(uncompilable.implementation().isCompiled());
+        }
+        assertTrue(CompilationQueue.failedCount() >= failedBefore + TieringPolicy.DEFAULT_MAX_COMPILATION_FAILURES);
+        // Out of attempts, the unit stays in the simple interpreter.
+        for (int i = 0; i <= TieringPolicy.DEFAULT_THRESHOLD; i++) {
+            assertEquals(i, uncompilable.invoke(i));
+        }
+        assertTrue(CompilationQueue.awaitQuiescence(10, TimeUnit.SECONDS));
+        assertEquals(TieringPolicy.DEFAULT_MAX_COMPILATION_FAILURES,
+            uncompilable.implementation().compilationFailureCount());
+    }
+
+    @Test
+    public void failedSynchronousCompilation() {
+        CompilationQueue.setMode(CompilationQueue.Mode.SYNCHRONOUS);
+        var uncompilable = UserFunction.construct("uncompilable",
+            lambda(arg -> PrimitiveCall.with(Uncompilable.class, arg)));
+        try {
+            for (int i = 0; i <= TieringPolicy.DEFAULT_THRESHOLD; i++) uncompilable.invoke(i);
+            fail("the compilation error should be rethrown");
+        } catch (InvocationException e) {
+            assertTrue(e.getCause() instanceof UnsupportedOperationException);
+        }
+        assertEquals(1, uncompilable.implementation().compilationFailureCount());
+        assertEquals(7, uncompilable.invoke(7));
+    }
+
+    /**
+     * An identity primitive the compiler fails to generate code for.
+     */
+    public static class Uncompilable extends Primitive1 {
+        @Override
+        public ExpressionType inferredType(ExpressionType argumentType) {
+            return argumentType;
+        }
+
+        @Override
+        public Object apply(Object argument) {
+            return argument;
+        }
+
+        @Override
+        protected JvmType generateForReference(GhostWriter writer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected JvmType generateForInt(GhostWriter writer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected JvmType generateForBoolean(GhostWriter writer) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private void warmUp() {
+        for (int i = 0; i <= TieringPolicy.DEFAULT_THRESHOLD; i++) {
+            assertEquals(i + 1, function.invoke(i));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.mul;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompilerDiagnosticsTest {
+    private static final byte[] CLASS_FILE_MAGIC = {(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE};
+
+    @Rule public final SynchronousCompilation synchronousCompilation = new SynchronousCompilation();
+
+    private Path directory;
+    private UserFunction inc;
+    private UserFunction twice;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("trifle-dump");
+        inc = UserFunction.construct("inc", lambda(arg -> add(arg, const_(1))));
+        twice = UserFunction.construct("twice", lambda(arg -> mul(arg, const_(2))));
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        CompilerDiagnostics.disableDump();
+        try (var paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(each -> each.toFile().delete());
+        }
+    }
+
+    @Test
+    public void disabledByDefault() {
+        assertFalse(CompilerDiagnostics.isDumpEnabled());
+    }
+
+    @Test
+    public void dumpIntoDirectory() throws IOException, InterruptedException {
+        CompilerDiagnostics.enableDump(directory);
+        compile(inc);
+        CompilerDiagnostics.disableDump();
+        var name = "inc-" + inc.implementation().id();
+        var classFile = Files.readAllBytes(directory.resolve(name + ".class"));
+        assertArrayEquals(CLASS_FILE_MAGIC, Arrays.copyOf(classFile, 4));
+        var description = Files.readString(directory.resolve(name + ".txt"));
+        assertTrue(description.contains("specialized method: fun0$s(int)int"));
+        var parameterName = inc.implementation().declaredParameters().get(0).name();
+        assertTrue(description.contains("parameter " + parameterName + ": INT (int 1, "));
+    }
+
+    @Test
+    public void dumpVariant() throws IOException, InterruptedException {
+        var library = new Library();
+        var first = library.define("first", lambda((a, b) -> a));
+        var caller = library.define("caller", lambda(arg -> call(library.at("first"), arg, const_(5))));
+        caller.setTieringPolicy(new TieringPolicy() {
+            @Override
+            public boolean shouldCompile(FunctionProfile profile) {
+                return false;
+            }
+
+            @Override
+            public boolean shouldInline(FunctionProfile calleeProfile, int calleeSize) {
+                return false; // keep the call so that it links to a variant
+            }
+        });
+        first.invoke(1, 2);
+        first.implementation().forceCompile();
+        for (int i = 0; i <= TieringPolicy.DEFAULT_THRESHOLD; i++) {
+            caller.invoke("foo" + i);
+        }
+        caller.implementation().forceCompile();
+        CompilerDiagnostics.enableDump(directory, name -> name.equals("first"));
+        assertEquals("bar", caller.invoke("bar"));
+        CompilerDiagnostics.disableDump();
+        var id = first.implementation().id();
+        var name = "first-" + id + "-variant-" + id + "_Object_int_Object";
+        var classFile = Files.readAllBytes(directory.resolve(name + ".class"));
+        assertArrayEquals(CLASS_FILE_MAGIC, Arrays.copyOf(classFile, 4));
+        var description = Files.readString(directory.resolve(name + ".txt"));
+        assertTrue(description.contains("variant method: "));
+        assertTrue(description.contains("(Object,int)Object"));
+    }
+
+    @Test
+    public void dumpIntoJar() throws IOException, InterruptedException {
+        var jar = directory.resolve("units.jar");
+        CompilerDiagnostics.enableDump(jar);
+        compile(inc);
+        CompilerDiagnostics.disableDump();
+        try (var archive = FileSystems.newFileSystem(URI.create("jar:" + jar.toUri()), Map.of())) {
+            var name = "inc-" + inc.implementation().id();
+            assertTrue(Files.exists(archive.getPath(name + ".class")));
+            assertTrue(Files.exists(archive.getPath(name + ".txt")));
+        }
+    }
+
+    @Test
+    public void filterByFunctionName() throws IOException, InterruptedException {
+        CompilerDiagnostics.enableDump(directory, name -> name.equals("twice"));
+        compile(inc);
+        compile(twice);
+        CompilerDiagnostics.disableDump();
+        try (var files = Files.list(directory)) {
+            assertEquals(2, files.count());
+        }
+        assertTrue(Files.exists(directory.resolve("twice-" + twice.implementation().id() + ".class")));
+    }
+
+    @Test
+    public void failedWriteIsCounted() throws IOException, InterruptedException {
+        var destination = directory.resolve("dump");
+        CompilerDiagnostics.enableDump(destination);
+        Files.delete(destination);
+        Files.createFile(destination); // files can't be created in it
+        var failedBefore = CompilerDiagnostics.failedWriteCount();
+        compile(inc);
+        CompilerDiagnostics.disableDump();
+        assertEquals(failedBefore + 2, CompilerDiagnostics.failedWriteCount());
+        assertTrue(inc.implementation().isCompiled());
+    }
+
+    private void compile(UserFunction function) {
+        function.invoke(1);
+        function.implementation().forceCompile();
+    }
+}
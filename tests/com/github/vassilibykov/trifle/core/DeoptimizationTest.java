@@ -0,0 +1,137 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeoptimizationTest {
+    private static final long SQUARE_PEG_LIMIT = 20;
+
+    @Rule public final SynchronousCompilation synchronousCompilation = new SynchronousCompilation();
+
+    private Library library;
+    private UserFunction function;
+
+    @Before
+    public void setUp() {
+        library = new Library();
+        function = library.define("function",
+            lambda(arg ->
+                bind(if_(lessThan(arg, const_(0)), const_("negative"), add(arg, const_(1))), t ->
+                    t)));
+    }
+
+    @Test
+    public void deoptimizesAndRespecializes() {
+        function.setTieringPolicy(policyAllowingDeoptimizations(TieringPolicy.DEFAULT_MAX_DEOPTIMIZATIONS));
+        warmUp();
+        var implementation = function.implementation();
+        assertEquals(int.class, implementation.specializedImplementation().type().returnType());
+        var let = (LetNode) implementation.body();
+        int calls = 0;
+        while (implementation.isCompiled() && calls < SQUARE_PEG_LIMIT) {
+            assertEquals("negative", function.invoke(-1));
+            calls++;
+        }
+        assertTrue(implementation.functionProfile().squarePegCount() >= SQUARE_PEG_LIMIT);
+        assertEquals(calls, implementation.functionProfile().squarePegCount(let));
+        assertFalse(implementation.isCompiled());
+        assertEquals(1, implementation.deoptimizationCount());
+        for (int i = 0; i <= TieringPolicy.DEFAULT_THRESHOLD; i++) {
+            assertEquals(i % 2 == 0 ? i + 1 : "negative", function.invoke(i % 2 == 0 ? i : -i));
+        }
+        assertTrue(implementation.isCompiled());
+        assertEquals(Object.class, implementation.specializedImplementation().type().returnType());
+        var squarePegsBefore = implementation.functionProfile().squarePegCount();
+        assertEquals("negative", function.invoke(-1));
+        assertEquals(squarePegsBefore, implementation.functionProfile().squarePegCount());
+    }
+
+    @Test
+    public void deoptimizationLimit() {
+        function.setTieringPolicy(policyAllowingDeoptimizations(0));
+        warmUp();
+        var implementation = function.implementation();
+        var let = (LetNode) implementation.body();
+        for (int i = 0; i < SQUARE_PEG_LIMIT * 3; i++) {
+            assertEquals("negative", function.invoke(-1));
+        }
+        assertTrue(implementation.isCompiled());
+        assertEquals(0, implementation.deoptimizationCount());
+        assertEquals(SQUARE_PEG_LIMIT * 3, implementation.functionProfile().squarePegCount(let));
+    }
+
+    @Test
+    public void compiledCallerIsRelinked() {
+        function.setTieringPolicy(policyAllowingDeoptimizations(TieringPolicy.DEFAULT_MAX_DEOPTIMIZATIONS));
+        var caller = library.define("caller", lambda(arg -> call(library.at("function"), arg)));
+        caller.setTieringPolicy(policyWithoutInlining());
+        for (int i = 0; i <= TieringPolicy.DEFAULT_THRESHOLD; i++) {
+            assertEquals(i + 1, caller.invoke(i));
+        }
+        assertTrue(caller.implementation().isCompiled());
+        assertTrue(function.implementation().isCompiled());
+        for (int i = 0; i < SQUARE_PEG_LIMIT; i++) {
+            assertEquals("negative", caller.invoke(-1));
+        }
+        assertEquals(1, function.implementation().deoptimizationCount());
+        assertFalse(function.implementation().isCompiled());
+        assertEquals(4, caller.invoke(3));
+        assertEquals("negative", caller.invoke(-1));
+    }
+
+    private void warmUp() {
+        for (int i = 0; i <= TieringPolicy.DEFAULT_THRESHOLD; i++) {
+            assertEquals(i + 1, function.invoke(i));
+        }
+    }
+
+    /**
+     * Keep the caller calling the function rather than a copy of its body.
+     */
+    private static TieringPolicy policyWithoutInlining() {
+        return new TieringPolicy() {
+            @Override
+            public boolean shouldCompile(FunctionProfile profile) {
+                return TieringPolicy.DEFAULT.shouldCompile(profile);
+            }
+
+            @Override
+            public boolean shouldInline(FunctionProfile calleeProfile, int calleeSize) {
+                return false;
+            }
+        };
+    }
+
+    private static TieringPolicy policyAllowingDeoptimizations(int maxDeoptimizations) {
+        return new TieringPolicy() {
+            @Override
+            public boolean shouldCompile(FunctionProfile profile) {
+                return TieringPolicy.DEFAULT.shouldCompile(profile);
+            }
+
+            @Override
+            public long squarePegLimit() {
+                return SQUARE_PEG_LIMIT;
+            }
+
+            @Override
+            public int maxDeoptimizations() {
+                return maxDeoptimizations;
+            }
+        };
+    }
+}
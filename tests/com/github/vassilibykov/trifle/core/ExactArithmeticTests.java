@@ -0,0 +1,115 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import com.github.vassilibykov.trifle.expression.Lambda;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+import static com.github.vassilibykov.trifle.core.JvmType.INT;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.exactAdd;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.exactMul;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.exactSub;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static org.junit.Assert.assertEquals;
+
+public class ExactArithmeticTests {
+    private static final BigInteger MAX_PLUS_ONE = BigInteger.valueOf(Integer.MAX_VALUE).add(BigInteger.ONE);
+
+    @Test
+    public void interpretedEvaluation() {
+        var function = UserFunction.construct("test", lambda((a, b) -> exactAdd(a, b)));
+        assertEquals(7, function.invoke(3, 4));
+        assertEquals(MAX_PLUS_ONE, function.invoke(Integer.MAX_VALUE, 1));
+        assertEquals(Integer.MAX_VALUE, function.invoke(MAX_PLUS_ONE, -1));
+    }
+
+    @Test(expected = RuntimeError.class)
+    public void interpretedEvaluationBadArg() {
+        var function = UserFunction.construct("test", lambda((a, b) -> exactAdd(a, b)));
+        function.invoke(3, "four");
+    }
+
+    @Test
+    public void compiledIntEvaluation() {
+        var function = compiled(lambda((a, b) -> exactMul(a, b)), 3, 4);
+        assertEquals(int.class, function.implementation().specializedImplementation().type().returnType());
+        assertEquals(INT, function.implementation().body().specializedType());
+        assertEquals(-12, function.invoke(3, -4));
+    }
+
+    @Test
+    public void compiledOverflowInTailPosition() {
+        var function = compiled(lambda((a, b) -> exactMul(a, b)), 3, 4);
+        var expected = BigInteger.valueOf(Integer.MAX_VALUE).multiply(BigInteger.valueOf(2));
+        assertEquals(expected, function.invoke(Integer.MAX_VALUE, 2));
+        assertEquals(-12, function.invoke(3, -4));
+    }
+
+    @Test
+    public void compiledOverflowInLet() {
+        var function = compiled(
+            lambda((a, b) ->
+                bind(exactSub(a, b), t ->
+                    exactAdd(t, const_(1)))),
+            3, 4);
+        assertEquals(0, function.invoke(3, 4));
+        assertEquals(BigInteger.valueOf(Integer.MIN_VALUE).subtract(BigInteger.ONE),
+            function.invoke(Integer.MIN_VALUE, 2));
+    }
+
+    @Test
+    public void compiledOverflowInDiscardedStatement() {
+        var function = compiled(
+            lambda((a, b) ->
+                block(
+                    exactAdd(a, b),
+                    b)),
+            3, 4);
+        assertEquals(1, function.invoke(Integer.MAX_VALUE, 1));
+    }
+
+    @Test
+    public void compiledOverflowInLoop() {
+        var function = compiled(
+            lambda(n ->
+                bind(const_(0), i ->
+                    block(
+                        while_(lessThan(i, n),
+                            block(
+                                set(i, exactAdd(i, const_(1))),
+                                exactMul(i, const_(Integer.MAX_VALUE)))),
+                        i))),
+            1);
+        assertEquals(20, function.invoke(20));
+    }
+
+    @Test
+    public void compiledMixedEvaluation() {
+        var function = compiled(lambda((a, b) -> exactAdd(a, b)), MAX_PLUS_ONE, 1);
+        assertEquals(MAX_PLUS_ONE.add(BigInteger.ONE), function.invoke(MAX_PLUS_ONE, 1));
+        assertEquals(Integer.MAX_VALUE, function.invoke(MAX_PLUS_ONE, -1));
+        assertEquals(MAX_PLUS_ONE, function.invoke(Integer.MAX_VALUE, 1));
+        assertEquals(7, function.invoke(3, 4));
+    }
+
+    @Test(expected = RuntimeError.class)
+    public void compiledEvaluationBadArg() {
+        var function = compiled(lambda((a, b) -> exactAdd(a, b)), 3, 4);
+        function.invoke(3, "four");
+    }
+
+    private static UserFunction compiled(Lambda definition, Object... args) {
+        var function = UserFunction.construct("test", definition);
+        function.invokeWithArguments(args);
+        function.implementation().forceCompile();
+        return function;
+    }
+}
@@ -0,0 +1,158 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import com.github.vassilibykov.trifle.object.FixedObjectDefinition;
+import jdk.jfr.Event;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the flight recorder events of the engine are emitted with the
+ * expected contents when enabled.
+ */
+public class FlightRecorderEventsTest {
+
+    private static final TieringPolicy NEVER_COMPILE = new TieringPolicy() {
+        @Override
+        public boolean shouldCompile(FunctionProfile profile) {
+            return false;
+        }
+
+        @Override
+        public long osrThreshold() {
+            return Long.MAX_VALUE;
+        }
+    };
+
+    private Recording recording;
+
+    @Before
+    public void setUp() {
+        recording = new Recording();
+        recording.enable(CompilationEvent.class);
+        recording.enable(SquarePegEvent.class);
+        recording.enable(InlineCacheEvent.class);
+        recording.enable(SwitchPointInvalidationEvent.class);
+        recording.start();
+    }
+
+    @After
+    public void tearDown() {
+        recording.close();
+    }
+
+    @Test
+    public void compilationAndSquarePeg() throws IOException {
+        var function = UserFunction.construct("function",
+            lambda(arg ->
+                bind(if_(lessThan(arg, const_(0)), const_("negative"), add(arg, const_(1))), t ->
+                    t)));
+        function.setTieringPolicy(NEVER_COMPILE);
+        assertEquals(4, function.invoke(3));
+        function.forceCompile();
+        assertEquals("negative", function.invoke(-1));
+
+        var compilations = recordedEvents(CompilationEvent.class).stream()
+            .filter(each -> each.getInt("functionId") == function.implementation().id())
+            .collect(Collectors.toList());
+        assertEquals(1, compilations.size());
+        var compilation = compilations.get(0);
+        assertEquals(CompilationEvent.UNIT, compilation.getString("kind"));
+        assertEquals("function", compilation.getString("function"));
+        assertTrue(compilation.getInt("bytecodeSize") > 0);
+        assertEquals("function#" + function.implementation().id() + " (int)int",
+            compilation.getString("specializedTypes"));
+
+        // The string doesn't fit the int continuation of the let, then the int return type.
+        var squarePegs = recordedEvents(SquarePegEvent.class).stream()
+            .filter(each -> each.getInt("functionId") == function.implementation().id())
+            .collect(Collectors.toList());
+        assertEquals(2, squarePegs.size());
+        assertEquals(0, squarePegs.get(0).getInt("siteIndex"));
+        assertTrue(squarePegs.get(0).getString("site").startsWith("(let "));
+        assertEquals(-1, squarePegs.get(1).getInt("siteIndex"));
+        assertEquals("return", squarePegs.get(1).getString("site"));
+        for (var each : squarePegs) {
+            assertEquals(String.class.getName(), each.getClass("valueType").getName());
+        }
+    }
+
+    @Test
+    public void inlineCacheTransitions() throws IOException {
+        var callSite = new InlineCachingCallSite(
+            MethodType.methodType(Object.class, Object.class),
+            MethodHandles.dropArguments(
+                MethodHandles.identity(Object.class), 0, InlineCachingCallSite.class));
+        var guard = MethodHandles.dropArguments(
+            MethodHandles.constant(boolean.class, false), 0, Object.class);
+        var path = MethodHandles.identity(Object.class);
+        for (int i = 0; i < 5; i++) {
+            callSite.addCacheEntry(guard, path);
+        }
+        callSite.reset();
+
+        var transitions = recordedEvents(InlineCacheEvent.class).stream()
+            .filter(each -> each.getInt("callSiteId") == System.identityHashCode(callSite))
+            .map(each -> each.getString("transition") + " " + each.getInt("cacheSize"))
+            .collect(Collectors.toList());
+        assertEquals(
+            List.of("entry added 1", "entry added 2", "entry added 3", "megamorphic 0", "reset 0"),
+            transitions);
+    }
+
+    @Test
+    public void fieldNamesChange() throws IOException {
+        var definition = new FixedObjectDefinition(List.of("foo"));
+        definition.setFieldNames(List.of("foo"));
+        definition.setFieldNames(List.of("bar", "foo"));
+
+        var invalidations = recordedEvents(SwitchPointInvalidationEvent.class).stream()
+            .filter(each -> each.getString("owner").equals(definition.toString()))
+            .collect(Collectors.toList());
+        assertEquals(1, invalidations.size());
+        assertEquals(FixedObjectDefinition.class.getName(), invalidations.get(0).getClass("ownerType").getName());
+        assertEquals("[bar, foo]", invalidations.get(0).getString("detail"));
+    }
+
+    /**
+     * Stop the recording and return the events of the specified class
+     * recorded by all threads. A test should filter them to the ones of the
+     * objects it created.
+     */
+    private List<RecordedEvent> recordedEvents(Class<? extends Event> eventClass) throws IOException {
+        if (recording.getState() == RecordingState.RUNNING) recording.stop();
+        var file = Files.createTempFile("events", ".jfr");
+        try {
+            recording.dump(file);
+            var name = eventClass.getAnnotation(Name.class).value();
+            return RecordingFile.readAllEvents(file).stream()
+                .filter(each -> each.getEventType().getName().equals(name))
+                .collect(Collectors.toList());
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
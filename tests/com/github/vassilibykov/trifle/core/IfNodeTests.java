@@ -7,9 +7,13 @@ import org.junit.Test;
 
 import static com.github.vassilibykov.trifle.core.JvmType.INT;
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.direct;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
 import static org.junit.Assert.*;
 
 @SuppressWarnings("ConstantConditions")
@@ -146,4 +150,27 @@ public class IfNodeTests {
         mixedFunction.forceCompile();
         assertEquals("false", mixedClosure.invoke(false));
     }
-}
\ No newline at end of file
+
+    /**
+     * The recovery code of the function only enters the false branch of the
+     * outer {@code if}, so the true branch is removed as dead code, and so is
+     * the jump over it. The jump at the end of the nested {@code if} used to
+     * be left targeting that removed jump.
+     */
+    @Test
+    public void compiledNestedIfInDeadRecoveryCode() {
+        var identity = UserFunction.construct("identity", lambda(arg -> arg));
+        var function = UserFunction.construct("nested",
+            lambda(arg ->
+                if_(lessThan(arg, const_(0)),
+                    const_(null),
+                    bind(call(direct(identity), arg), value ->
+                        if_(lessThan(value, const_(10)), value, const_("big"))))));
+        function.invoke(1);
+        function.invoke(20);
+        function.forceCompile();
+        assertNull(function.invoke(-1));
+        assertEquals(1, function.invoke(1));
+        assertEquals("big", function.invoke(20));
+    }
+}
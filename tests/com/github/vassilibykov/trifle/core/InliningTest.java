@@ -0,0 +1,122 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.direct;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.mul;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InliningTest {
+    @Rule public final SynchronousCompilation synchronousCompilation = new SynchronousCompilation();
+
+    private Library library;
+    private UserFunction helper;
+
+    @Before
+    public void setUp() {
+        library = new Library();
+        helper = library.define("helper",
+            lambda(arg ->
+                if_(lessThan(arg, const_(0)),
+                    const_("negative"),
+                    add(arg, const_(1)))));
+    }
+
+    @Test
+    public void hotHelperIsInlined() {
+        var caller = library.define("caller",
+            lambda(arg -> bind(call(library.at("helper"), arg), t -> mul(t, const_(2)))));
+        warmUp(caller);
+        assertTrue(caller.implementation().isCompiled());
+        assertFalse(calls(caller.implementation().compiledBody(), helper));
+        assertTrue(calls(caller.implementation().body(), helper));
+        assertEquals(8, caller.invoke(3));
+    }
+
+    @Test
+    public void squarePegInInlinedCode() {
+        var caller = library.define("caller",
+            lambda(arg -> bind(call(library.at("helper"), arg), t -> t)));
+        warmUp(caller);
+        assertFalse(calls(caller.implementation().compiledBody(), helper));
+        assertEquals("negative", caller.invoke(-1));
+        assertTrue(caller.implementation().functionProfile().squarePegCount() > 0);
+        assertEquals(4, caller.invoke(3));
+    }
+
+    @Test
+    public void recursiveFunctionIsNotInlinedIntoItself() {
+        var factorial = library.define("factorial", self ->
+            lambda(n ->
+                if_(lessThan(n, const_(1)),
+                    const_(1),
+                    bind(sub(n, const_(1)), m ->
+                        bind(call(direct(self), m), r ->
+                            mul(n, r))))));
+        for (int i = 0; i <= TieringPolicy.DEFAULT_THRESHOLD; i++) {
+            factorial.invoke(3);
+        }
+        assertTrue(factorial.implementation().isCompiled());
+        assertTrue(calls(factorial.implementation().compiledBody(), factorial));
+        assertEquals(120, factorial.invoke(5));
+    }
+
+    @Test
+    public void policyCanRejectInlining() {
+        var caller = library.define("caller",
+            lambda(arg -> bind(call(library.at("helper"), arg), t -> mul(t, const_(2)))));
+        caller.setTieringPolicy(new TieringPolicy() {
+            @Override
+            public boolean shouldCompile(FunctionProfile profile) {
+                return TieringPolicy.DEFAULT.shouldCompile(profile);
+            }
+
+            @Override
+            public boolean shouldInline(FunctionProfile calleeProfile, int calleeSize) {
+                return calleeSize < 5;
+            }
+        });
+        warmUp(caller);
+        assertTrue(caller.implementation().isCompiled());
+        assertSame(caller.implementation().body(), caller.implementation().compiledBody());
+        assertEquals(8, caller.invoke(3));
+    }
+
+    private static void warmUp(UserFunction caller) {
+        for (int i = 0; i <= TieringPolicy.DEFAULT_THRESHOLD; i++) {
+            caller.invoke(i);
+        }
+    }
+
+    private static boolean calls(EvaluatorNode body, UserFunction function) {
+        var found = new boolean[1];
+        body.accept(new EvaluatorNode.VisitorSkeleton<Void>() {
+            @Override
+            public Void visitCall(CallNode call) {
+                var dispatcher = call.dispatcher();
+                if (dispatcher instanceof FreeFunctionCallDispatcher
+                    && ((FreeFunctionCallDispatcher) dispatcher).target() == function)
+                {
+                    found[0] = true;
+                }
+                return super.visitCall(call);
+            }
+        });
+        return found[0];
+    }
+}
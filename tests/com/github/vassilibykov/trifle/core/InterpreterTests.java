@@ -6,11 +6,13 @@ import com.github.vassilibykov.trifle.expression.Expression;
 import com.github.vassilibykov.trifle.expression.Lambda;
 import org.junit.Test;
 
+import java.math.BigInteger;
 import java.util.List;
 
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.*;
 import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 @SuppressWarnings("Convert2MethodRef")
 public class InterpreterTests extends LanguageFeaturesTest {
@@ -53,6 +55,92 @@ public class InterpreterTests extends LanguageFeaturesTest {
         assertEquals("error", fibonacci.invoke(-1));
     }
 
+    @Test
+    public void directCallSpecialization() {
+        var library = new Library();
+        library.setTieringPolicy(TieringPolicy.interpreterOnly());
+        var inc = library.define("inc", lambda(n -> add(n, const_(1))));
+        var caller = library.define("caller",
+            lambda(n ->
+                bind(call(direct(inc), n), t -> t)));
+        var call = (CallNode) ((LetNode) caller.implementation().body()).initializer();
+        assertEquals(Interpreter.Specialization.UNINITIALIZED, call.interpreterSpecialization);
+        assertEquals(4, caller.invoke(3));
+        assertEquals(Interpreter.Specialization.DIRECT_CALL, call.interpreterSpecialization);
+        assertEquals(5, caller.invoke(4));
+        inc.implementation().forceCompile();
+        assertEquals(6, caller.invoke(5));
+        assertEquals(Interpreter.Specialization.GENERIC, call.interpreterSpecialization);
+        assertEquals(7, caller.invoke(6));
+    }
+
+    @Test
+    public void intIntPrimitiveSpecialization() {
+        var library = new Library();
+        library.setTieringPolicy(TieringPolicy.interpreterOnly());
+        var function = library.define("add",
+            lambda((a, b) ->
+                bind(exactAdd(a, b), t -> t)));
+        var primitive = (Primitive2Node) ((LetNode) function.implementation().body()).initializer();
+        assertEquals(Interpreter.Specialization.UNINITIALIZED, primitive.interpreterSpecialization);
+        assertEquals(7, function.invoke(3, 4));
+        assertEquals(Interpreter.Specialization.INT_INT, primitive.interpreterSpecialization);
+        assertEquals(BigInteger.valueOf(Integer.MAX_VALUE).add(BigInteger.ONE), function.invoke(Integer.MAX_VALUE, 1));
+        assertEquals(Interpreter.Specialization.INT_INT, primitive.interpreterSpecialization);
+        var big = BigInteger.valueOf(Long.MAX_VALUE);
+        assertEquals(big.add(BigInteger.ONE), function.invoke(big, 1));
+        assertEquals(Interpreter.Specialization.GENERIC, primitive.interpreterSpecialization);
+        assertEquals(9, function.invoke(4, 5));
+    }
+
+    @Test
+    public void callOfCompiledFunctionIsNotSpecialized() {
+        var library = new Library();
+        var inc = library.define("inc", lambda(n -> add(n, const_(1))));
+        inc.implementation().forceCompile();
+        var caller = library.define("caller",
+            lambda(n ->
+                bind(call(direct(inc), n), t -> t)));
+        caller.setTieringPolicy(TieringPolicy.interpreterOnly());
+        var call = (CallNode) ((LetNode) caller.implementation().body()).initializer();
+        assertEquals(4, caller.invoke(3));
+        assertEquals(Interpreter.Specialization.GENERIC, call.interpreterSpecialization);
+    }
+
+    @Test
+    public void deepRecursionInPooledFrames() {
+        var library = new Library();
+        library.setTieringPolicy(TieringPolicy.interpreterOnly());
+        library.define("sum",
+            sum -> lambda(n ->
+                if_(lessThan(n, const_(1)),
+                    const_(0),
+                    bind(call(direct(sum), sub(n, const_(1))), t ->
+                        add(t, n)))));
+        UserFunction sum = library.get("sum");
+        assertEquals(20100, sum.invoke(200));
+        assertEquals(55, sum.invoke(10));
+    }
+
+    @Test
+    public void pooledFramesAreReleasedOnError() {
+        var library = new Library();
+        library.setTieringPolicy(TieringPolicy.interpreterOnly());
+        var inc = library.define("inc", lambda(n -> add(n, const_(1))));
+        var caller = library.define("caller",
+            lambda((a, b) ->
+                bind(call(direct(inc), a), t ->
+                    bind(call(direct(inc), b), u ->
+                        add(t, u)))));
+        try {
+            caller.invoke(1, "two");
+            fail();
+        } catch (RuntimeError e) {
+            // expected
+        }
+        assertEquals(5, caller.invoke(1, 2));
+    }
+
     /*
         Support
      */
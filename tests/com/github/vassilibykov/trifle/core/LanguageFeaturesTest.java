@@ -19,9 +19,21 @@ import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.var;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
 import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.bitAnd;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.bitXor;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.doubleAdd;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.doubleDiv;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.doubleLessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.doubleMul;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.doubleSqrt;
 import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.longAdd;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.longLessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.longMul;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.longSub;
 import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.mul;
 import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.negate;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.shiftRight;
 import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
 import static org.junit.Assert.assertEquals;
 
@@ -136,6 +148,78 @@ public abstract class LanguageFeaturesTest {
         assertEquals("hello", invoke(function, "hello"));
     }
 
+    @Test
+    public void testLongArithmetic() {
+        var function = lambda(
+            (a, b) ->
+                bind(longMul(a, b), t ->
+                    longSub(t, const_(1L))));
+        assertEquals(6_000_000_000L - 1, invoke(function, 2L, 3_000_000_000L));
+    }
+
+    @Test
+    public void testDoubleArithmetic() {
+        var function = lambda(
+            (a, b) ->
+                bind(doubleMul(a, b), t ->
+                    doubleDiv(t, const_(2.0))));
+        assertEquals(3.75, invoke(function, 1.5, 5.0));
+    }
+
+    @Test
+    public void testBitwiseArithmetic() {
+        var function = lambda(
+            (a, b) ->
+                if_(lessThan(bitAnd(a, const_(1)), const_(1)),
+                    shiftRight(a, const_(1)),
+                    bitXor(shiftRight(a, const_(1)), b)));
+        assertEquals(6, invoke(function, 12, 0xD008));
+        assertEquals(0xD00E, invoke(function, 13, 0xD008));
+    }
+
+    @Test
+    public void testDoubleSqrt() {
+        var function = lambda(
+            (a, b) ->
+                bind(doubleMul(a, b), t ->
+                    doubleSqrt(t)));
+        assertEquals(6.0, invoke(function, 4.0, 9.0));
+    }
+
+    @Test
+    public void testWideAndNarrowLocals() {
+        var function = lambda(
+            arg ->
+                bind(longAdd(arg, const_(1L)), l ->
+                    bind(const_(3), i ->
+                        bind(doubleAdd(const_(0.5), const_(0.25)), d ->
+                            bind(add(i, const_(4)), j ->
+                                if_(longLessThan(arg, l),
+                                    if_(doubleLessThan(d, const_(1.0)), j, const_("no")),
+                                    const_("no")))))));
+        assertEquals(7, invoke(function, 41L));
+    }
+
+    @Test
+    public void testSetNonlocalWideVar() {
+        var t = var("t");
+        var function = lambda(
+            arg ->
+                let(t, lambda(x -> set(arg, longAdd(arg, x))),
+                    block(
+                        call(t, const_(2L)),
+                        arg)));
+        assertEquals(44L, invoke(function, 42L));
+    }
+
+    @Test
+    public void testWideVarReceivingOtherValue() {
+        var function = lambda(arg -> bind(arg, t -> t));
+        assertEquals(42L, invoke(function, 42L));
+        assertEquals("hello", invoke(function, "hello"));
+        assertEquals(1.5, invoke(function, 1.5));
+    }
+
     @Test
     public void testFactorial() {
         var factorial = factorial();
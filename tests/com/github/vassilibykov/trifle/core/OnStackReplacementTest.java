@@ -0,0 +1,110 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.ret;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.greaterThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OnStackReplacementTest {
+    private static final int ITERATIONS = 100_000;
+
+    @Rule public final SynchronousCompilation synchronousCompilation = new SynchronousCompilation();
+
+    private Library library;
+
+    @Before
+    public void setUp() {
+        library = new Library();
+    }
+
+    @Test
+    public void loopFollowedByMoreCode() {
+        var adder = library.define("adder",
+            lambda(arg ->
+                bind(const_(0), sum ->
+                    block(
+                        while_(greaterThan(arg, const_(0)),
+                            set(sum, add(sum, const_(1))),
+                            set(arg, sub(arg, const_(1)))),
+                        add(sum, const_(1))))));
+        assertEquals(ITERATIONS + 1, adder.invoke(ITERATIONS));
+        assertTrue(adder.implementation().isCompiled());
+        var whileNode = (WhileNode) ((BlockNode) ((LetNode) adder.implementation().body()).body()).expressions()[0];
+        assertTrue(whileNode.bodyCount.get() < ITERATIONS);
+        assertEquals(6, adder.invoke(5));
+    }
+
+    @Test
+    public void returnFromLoop() {
+        var function = library.define("function",
+            lambda(arg ->
+                while_(const_(true),
+                    if_(lessThan(arg, const_(1)),
+                        ret(const_("done")),
+                        set(arg, sub(arg, const_(1)))))));
+        assertEquals("done", function.invoke(ITERATIONS));
+        assertTrue(function.implementation().isCompiled());
+    }
+
+    @Test
+    public void loopUpdatingCapturedVariable() {
+        var function = library.define("function",
+            lambda(arg ->
+                bind(const_(0), sum ->
+                    bind(lambda(() -> sum), reader ->
+                        block(
+                            while_(greaterThan(arg, const_(0)),
+                                set(sum, add(sum, const_(2))),
+                                set(arg, sub(arg, const_(1)))),
+                            call(reader))))));
+        assertEquals(ITERATIONS * 2, function.invoke(ITERATIONS));
+        assertTrue(function.implementation().isCompiled());
+    }
+
+    @Test
+    public void loopInClosure() {
+        var function = library.define("function",
+            lambda(arg ->
+                bind(lambda(n ->
+                        bind(const_(0), sum ->
+                            block(
+                                while_(greaterThan(n, const_(0)),
+                                    set(sum, add(sum, arg)),
+                                    set(n, sub(n, const_(1)))),
+                                sum))),
+                    counter -> call(counter, const_(ITERATIONS)))));
+        assertEquals(ITERATIONS * 3, function.invoke(3));
+        assertTrue(function.implementation().isCompiled());
+    }
+
+    @Test
+    public void backgroundCompilation() throws InterruptedException {
+        CompilationQueue.setMode(CompilationQueue.Mode.BACKGROUND);
+        var countdown = library.define("countdown",
+            lambda(arg ->
+                while_(greaterThan(arg, const_(0)),
+                    set(arg, sub(arg, const_(1))))));
+        assertEquals(0, countdown.invoke(ITERATIONS * 10));
+        assertTrue(CompilationQueue.awaitQuiescence(10, TimeUnit.SECONDS));
+        assertTrue(countdown.implementation().isCompiled());
+    }
+}
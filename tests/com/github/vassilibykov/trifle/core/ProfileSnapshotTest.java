@@ -0,0 +1,116 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.direct;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.greaterThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ProfileSnapshotTest {
+    @Rule public final SynchronousCompilation synchronousCompilation = new SynchronousCompilation();
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("trifle-profile", ".bin");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void replayedProfileCompilesSpecialized() throws IOException {
+        var fib = fibonacci();
+        fib.setTieringPolicy(TieringPolicy.threshold(Long.MAX_VALUE));
+        assertEquals(610, fib.invoke(15));
+        ProfileSnapshot.of(List.of(fib)).write(file);
+
+        var snapshot = ProfileSnapshot.read(file);
+        assertEquals(1, snapshot.unitCount());
+        var restarted = fibonacci();
+        assertTrue(snapshot.applyTo(restarted));
+        var implementation = restarted.implementation();
+        assertTrue(implementation.isCompiled());
+        assertEquals(
+            fib.implementation().functionProfile().invocationCount(),
+            implementation.functionProfile().invocationCount());
+        assertSame(JvmType.INT, implementation.declaredParameters().get(0).specializedType());
+        assertEquals(6765, restarted.invoke(20));
+    }
+
+    @Test
+    public void loopCountsAreReplayed() throws IOException {
+        var library = new Library();
+        library.setTieringPolicy(TieringPolicy.threshold(Long.MAX_VALUE));
+        var countdown = defineCountdown(library);
+        countdown.invoke(1000);
+        ProfileSnapshot.of(library).write(file);
+
+        var restartedLibrary = new Library();
+        restartedLibrary.setTieringPolicy(TieringPolicy.adaptive());
+        var restarted = defineCountdown(restartedLibrary);
+        assertEquals(1, ProfileSnapshot.read(file).applyTo(restartedLibrary));
+        var profile = restarted.implementation().functionProfile();
+        assertEquals(1, profile.invocationCount());
+        assertEquals(1000, profile.backEdgeCount());
+    }
+
+    @Test
+    public void differentFunctionIsNotApplied() throws IOException {
+        var inc = UserFunction.construct("inc", lambda(n -> add(n, const_(1))));
+        inc.invoke(1);
+        ProfileSnapshot.of(List.of(inc)).write(file);
+        var inc2 = UserFunction.construct("inc", lambda(n -> add(n, const_(2))));
+        assertFalse(ProfileSnapshot.read(file).applyTo(inc2));
+        assertEquals(0, inc2.implementation().functionProfile().invocationCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFileIsRejected() throws IOException {
+        Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        ProfileSnapshot.read(file);
+    }
+
+    private static UserFunction fibonacci() {
+        return UserFunction.construct("fibonacci", fib ->
+            lambda(n ->
+                if_(lessThan(n, const_(2)),
+                    n,
+                    bind(call(direct(fib), sub(n, const_(1))), t1 ->
+                        bind(call(direct(fib), sub(n, const_(2))), t2 ->
+                            add(t1, t2))))));
+    }
+
+    private static UserFunction defineCountdown(Library library) {
+        return library.define("countdown",
+            lambda(arg ->
+                while_(greaterThan(arg, const_(0)),
+                    set(arg, sub(arg, const_(1))))));
+    }
+}
@@ -0,0 +1,183 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import com.github.vassilibykov.trifle.expression.DictionaryGetter;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.management.ManagementFactory;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.direct;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.exactAdd;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReclamationTest {
+    /**
+     * The number of libraries defined, compiled, run and discarded by the
+     * churn test. Each of them loads at least two classes and registers a
+     * dictionary, so a leak of either grows by this much.
+     */
+    private static final int CHURN_LIBRARIES = 4000;
+    /**
+     * How many of the churned libraries may still be around after a garbage
+     * collection, or how many classes and dictionaries the churn may add, as
+     * a fraction of {@link #CHURN_LIBRARIES}. Allows for objects held by the
+     * JDK, such as method handle caches, without missing an actual leak.
+     */
+    private static final int CHURN_TOLERANCE_DIVISOR = 10;
+    /**
+     * The allowed growth of the heap in use. Retaining the churned libraries
+     * would add more than twice as much.
+     */
+    private static final long CHURN_HEAP_TOLERANCE = 8 * 1024 * 1024;
+
+    @Rule public final SynchronousCompilation synchronousCompilation = new SynchronousCompilation();
+
+    @Test
+    public void discardedCompiledFunctionIsCollected() {
+        var reference = compiledAndDiscarded();
+        collectGarbageUntilCleared(reference);
+        assertNull(reference.get());
+    }
+
+    @Test
+    public void discardedDictionaryIsCollected() {
+        var reference = new WeakReference<>(Dictionary.create());
+        collectGarbageUntilCleared(reference);
+        assertNull(reference.get());
+    }
+
+    @Test
+    public void squarePegIsNotRetainedByItsCarrier() {
+        var function = UserFunction.construct("test",
+            lambda(a ->
+                bind(exactAdd(a, const_(1)), t ->
+                    t)));
+        function.invoke(1);
+        function.implementation().forceCompile();
+        // The sum doesn't fit the int continuation of the let, so it travels in an SPE.
+        var reference = new WeakReference<>(function.invoke(Integer.MAX_VALUE));
+        collectGarbageUntilCleared(reference);
+        assertNull(reference.get());
+    }
+
+    @Test
+    public void compiledCodeKeepsItsReferentsAlive() throws Throwable {
+        var invoker = compiledNotRun();
+        collectGarbageUntilCleared(new WeakReference<>(new Object()));
+        var expected = BigInteger.ONE.shiftLeft(64).add(BigInteger.valueOf(41));
+        assertEquals(expected, invoker.invoke());
+    }
+
+    /**
+     * A short soak test: define, compile, run and discard many libraries,
+     * each with its own dictionary, a function calling another one, and a
+     * literal too large to be a constant in generated code. The heap in use,
+     * the number of loaded classes and the dictionary registry should not
+     * grow with the number of libraries. {@code tmp.SoakLibraryChurn} does the
+     * same at a larger scale, reporting instead of asserting.
+     */
+    @Test
+    public void libraryChurnIsBounded() {
+        var classLoading = ManagementFactory.getClassLoadingMXBean();
+        var memory = ManagementFactory.getMemoryMXBean();
+        churn(CHURN_LIBRARIES / 10); // load the engine's own classes
+        collectGarbageUntilCleared(new WeakReference<>(new Object()));
+        var classesBefore = classLoading.getLoadedClassCount();
+        var dictionariesBefore = Dictionary.registrySize();
+        var heapBefore = memory.getHeapMemoryUsage().getUsed();
+
+        var references = churn(CHURN_LIBRARIES);
+        collectGarbageUntilCleared(references.get(references.size() - 1));
+
+        var retained = references.stream().filter(each -> each.get() != null).count();
+        var tolerance = CHURN_LIBRARIES / CHURN_TOLERANCE_DIVISOR;
+        assertTrue("libraries retained: " + retained, retained <= tolerance);
+        var classesAdded = classLoading.getLoadedClassCount() - classesBefore;
+        assertTrue("classes added: " + classesAdded, classesAdded <= tolerance);
+        var dictionariesAdded = Dictionary.registrySize() - dictionariesBefore;
+        assertTrue("dictionaries added: " + dictionariesAdded, dictionariesAdded <= tolerance);
+        var heapAdded = memory.getHeapMemoryUsage().getUsed() - heapBefore;
+        assertTrue("heap added: " + heapAdded, heapAdded <= CHURN_HEAP_TOLERANCE);
+    }
+
+    /**
+     * Run the specified number of libraries, returning weak references to
+     * the implementations of their top-level functions.
+     */
+    private static List<WeakReference<FunctionImplementation>> churn(int libraryCount) {
+        var references = new ArrayList<WeakReference<FunctionImplementation>>();
+        for (int i = 1; i <= libraryCount; i++) {
+            var dictionary = Dictionary.create();
+            dictionary.defineEntry("x").setValue(i);
+            var library = new Library();
+            library.setTieringPolicy(TieringPolicy.eager());
+            var get = library.define("get",
+                lambda(() -> call(DictionaryGetter.create(dictionary, "x"))));
+            var function = library.define("function",
+                lambda(() ->
+                    bind(call(direct(get)), x ->
+                        exactAdd(x, const_(BigInteger.ONE.shiftLeft(64))))));
+            assertEquals(BigInteger.ONE.shiftLeft(64).add(BigInteger.valueOf(i)), function.invoke());
+            assertTrue(function.implementation().isCompiled());
+            references.add(new WeakReference<>(function.implementation()));
+        }
+        return references;
+    }
+
+    private static WeakReference<FunctionImplementation> compiledAndDiscarded() {
+        var function = UserFunction.construct("test", lambda(a -> exactAdd(a, const_(1))));
+        function.invoke(1);
+        function.implementation().forceCompile();
+        assertEquals(3, function.invoke(2));
+        return new WeakReference<>(function.implementation());
+    }
+
+    /**
+     * Return an invoker of a compiled function whose code refers to a
+     * dictionary and a literal, without running the code so that its call
+     * sites haven't yet been linked to them. Nothing but the invoker
+     * references the function.
+     */
+    private static MethodHandle compiledNotRun() {
+        var dictionary = Dictionary.create();
+        dictionary.defineEntry("x").setValue(41);
+        var function = UserFunction.construct("test",
+            lambda(() ->
+                bind(call(DictionaryGetter.create(dictionary, "x")), x ->
+                    exactAdd(x, const_(BigInteger.ONE.shiftLeft(64))))));
+        function.implementation().forceCompile();
+        return function.invoker(MethodType.methodType(Object.class));
+    }
+
+    /**
+     * Collect garbage until the reference is cleared, or give up after a
+     * while. A reference to a collectible object is cleared by the first full
+     * collection; the retries are for collectors which treat {@link
+     * System#gc()} as a hint.
+     */
+    private static void collectGarbageUntilCleared(WeakReference<?> reference) {
+        for (int i = 0; i < 20 && reference.get() != null; i++) {
+            System.gc();
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -8,10 +8,16 @@ import org.junit.Test;
 import static com.github.vassilibykov.trifle.core.JvmType.INT;
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
 import static com.github.vassilibykov.trifle.core.JvmType.VOID;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.ret;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
 import static org.junit.Assert.assertEquals;
 
 @SuppressWarnings("ConstantConditions")
@@ -66,4 +72,48 @@ public class ReturnNodeTests {
         function.forceCompile();
         assertEquals(42, closure.invoke());
     }
+
+    @Test
+    public void simpleInterpretedReturnFromLetInitializer() {
+        var function = UserFunction.construct("test",
+            lambda(arg ->
+                bind(block(ret(arg), const_("no")), t ->
+                    const_("no"))));
+        function.useSimpleInterpreter();
+        assertEquals(42, function.invoke(42));
+    }
+
+    @Test
+    public void simpleInterpretedReturnFromLoop() {
+        var function = UserFunction.construct("test",
+            lambda(arg ->
+                bind(const_(0), i ->
+                    block(
+                        while_(lessThan(i, const_(100)),
+                            block(
+                                if_(lessThan(i, arg), const_(null), ret(i)),
+                                set(i, add(i, const_(1))))),
+                        const_("no")))));
+        function.useSimpleInterpreter();
+        assertEquals(7, function.invoke(7));
+    }
+
+    @Test
+    public void profiledReturnFromLoop() {
+        var function = UserFunction.construct("test",
+            lambda(arg ->
+                bind(const_(0), i ->
+                    block(
+                        while_(lessThan(i, const_(100)),
+                            block(
+                                if_(lessThan(i, arg), const_(null), ret(i)),
+                                set(i, add(i, const_(1))))),
+                        const_("no")))));
+        assertEquals(7, function.invoke(7));
+        var loop = (WhileNode) ((BlockNode) ((LetNode) function.implementation().body()).body()).expressions()[0];
+        var anIf = (IfNode) ((BlockNode) loop.body()).expressions()[0];
+        assertEquals(7, anIf.trueBranchCount.get());
+        assertEquals(0, anIf.falseBranchCount.get());
+        assertEquals(7, loop.bodyCount.get());
+    }
 }
@@ -0,0 +1,169 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpecializationVariantsTest {
+    @Rule public final SynchronousCompilation synchronousCompilation = new SynchronousCompilation();
+
+    private Library library;
+    private UserFunction first;
+
+    @Before
+    public void setUp() {
+        library = new Library();
+        first = library.define("first", lambda((a, b) -> a));
+        for (int i = 0; i <= TieringPolicy.DEFAULT_THRESHOLD; i++) {
+            assertEquals(i, first.invoke(i, i));
+        }
+    }
+
+    @Test
+    public void variantForDirectCall() {
+        var implementation = first.implementation();
+        assertEquals(MethodType.methodType(int.class, int.class, int.class),
+            implementation.specializedImplementation().type());
+        var caller = library.define("caller", lambda(arg -> call(library.at("first"), arg, const_(5))));
+        caller.setTieringPolicy(new TieringPolicy() {
+            @Override
+            public boolean shouldCompile(FunctionProfile profile) {
+                return TieringPolicy.DEFAULT.shouldCompile(profile);
+            }
+
+            @Override
+            public boolean shouldInline(FunctionProfile calleeProfile, int calleeSize) {
+                return false; // keep the call so that it links to a variant
+            }
+        });
+        warmUp(caller);
+        var variantType = MethodType.methodType(Object.class, Object.class, int.class);
+        assertTrue(implementation.specializationVariants().containsKey(variantType));
+        assertEquals("bar", caller.invoke("bar"));
+        assertEquals(3, caller.invoke(3));
+        assertEquals(3, first.invoke(3, 4));
+    }
+
+    @Test
+    public void variantIsCompiledInBackground() throws InterruptedException {
+        var implementation = first.implementation();
+        var caller = library.define("caller", lambda(arg -> call(library.at("first"), arg, const_(5))));
+        caller.setTieringPolicy(new TieringPolicy() {
+            @Override
+            public boolean shouldCompile(FunctionProfile profile) {
+                return false;
+            }
+
+            @Override
+            public boolean shouldInline(FunctionProfile calleeProfile, int calleeSize) {
+                return false; // keep the call so that it links to a variant
+            }
+        });
+        for (int i = 0; i <= TieringPolicy.DEFAULT_THRESHOLD; i++) {
+            caller.invoke("foo" + i);
+        }
+        caller.implementation().forceCompile();
+        CompilationQueue.setMode(CompilationQueue.Mode.BACKGROUND);
+        // The call site is linked by this invocation, but the variant is compiled by a compiler thread.
+        assertEquals("bar", caller.invoke("bar"));
+        assertTrue(CompilationQueue.awaitQuiescence(10, TimeUnit.SECONDS));
+        var variantType = MethodType.methodType(Object.class, Object.class, int.class);
+        assertTrue(implementation.specializationVariants().containsKey(variantType));
+        assertEquals("baz", caller.invoke("baz"));
+        assertEquals(3, caller.invoke(3));
+    }
+
+    @Test
+    public void variantLeavesUnitSpecializationsAlone() {
+        var implementation = first.implementation();
+        var parameter = implementation.declaredParameters().get(0);
+        var body = implementation.compiledBody();
+        assertEquals(JvmType.INT, parameter.specializedType());
+        assertEquals(JvmType.INT, body.specializedType());
+        // The profile has changed since the unit was compiled.
+        parameter.profile().recordValue("foo");
+        var caller = library.define("caller", lambda(arg -> call(library.at("first"), const_(3), arg)));
+        caller.setTieringPolicy(new TieringPolicy() {
+            @Override
+            public boolean shouldCompile(FunctionProfile profile) {
+                return TieringPolicy.DEFAULT.shouldCompile(profile);
+            }
+
+            @Override
+            public boolean shouldInline(FunctionProfile calleeProfile, int calleeSize) {
+                return false; // keep the call so that it links to a variant
+            }
+        });
+        warmUp(caller);
+        assertTrue(implementation.specializationVariants().containsKey(
+            MethodType.methodType(int.class, int.class, Object.class)));
+        assertEquals(JvmType.INT, parameter.specializedType());
+        assertEquals(JvmType.INT, body.specializedType());
+        assertEquals(JvmType.INT, implementation.specializedReturnType());
+    }
+
+    @Test
+    public void variantForClosureCall() {
+        var function = library.define("function",
+            lambda(arg ->
+                bind(lambda(x -> x), f ->
+                    block(
+                        call(f, arg),
+                        call(f, const_(1))))));
+        warmUp(function);
+        var closureImplementation = function.implementation().closureImplementations().get(0);
+        var variantType = MethodType.methodType(int.class, int.class);
+        assertTrue(closureImplementation.specializationVariants().containsKey(variantType));
+        assertEquals(1, function.invoke("foo"));
+    }
+
+    @Test
+    public void variantCountIsCapped() {
+        first.setTieringPolicy(new TieringPolicy() {
+            @Override
+            public boolean shouldCompile(FunctionProfile profile) {
+                return true;
+            }
+
+            @Override
+            public int maxSpecializations() {
+                return 1;
+            }
+        });
+        var caller = library.define("caller", lambda(arg -> call(library.at("first"), arg, const_(5))));
+        caller.setTieringPolicy(new TieringPolicy() {
+            @Override
+            public boolean shouldCompile(FunctionProfile profile) {
+                return TieringPolicy.DEFAULT.shouldCompile(profile);
+            }
+
+            @Override
+            public boolean shouldInline(FunctionProfile calleeProfile, int calleeSize) {
+                return false; // keep the call so that it links to a variant
+            }
+        });
+        warmUp(caller);
+        assertTrue(first.implementation().specializationVariants().isEmpty());
+        assertEquals("bar", caller.invoke("bar"));
+    }
+
+    private void warmUp(UserFunction function) {
+        for (int i = 0; i <= TieringPolicy.DEFAULT_THRESHOLD + 1; i++) {
+            function.invoke("foo" + i);
+        }
+        assertTrue(function.implementation().isCompiled());
+    }
+}
@@ -0,0 +1,44 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SquarePegExceptionTest {
+
+    @Test
+    public void instanceIsReusedWithinThread() {
+        var first = SquarePegException.with("first");
+        assertEquals("first", first.take());
+        var second = SquarePegException.with("second");
+        assertSame(first, second);
+        assertEquals("second", second.take());
+    }
+
+    @Test
+    public void instanceIsNotSharedAcrossThreads() throws Exception {
+        var here = SquarePegException.with(1);
+        var there = CompletableFuture.supplyAsync(() -> SquarePegException.with(2)).get();
+        assertNotSame(here, there);
+        assertEquals(1, here.take());
+    }
+
+    @Test
+    public void takeClearsValue() {
+        var exception = SquarePegException.with("value");
+        assertEquals("value", exception.take());
+        assertNull(exception.take());
+    }
+
+    @Test
+    public void hasNoStackTrace() {
+        assertEquals(0, SquarePegException.with(null).getStackTrace().length);
+    }
+}
@@ -0,0 +1,35 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.rules.ExternalResource;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A rule for tests which assert on the compiled state of functions. Units
+ * are compiled synchronously for the duration of each test, so they are
+ * compiled as soon as they have been invoked enough times. Background
+ * compilations submitted earlier, for example by another test, are waited
+ * for before the test starts, so none of them completes in the middle of it.
+ * The previous mode of the queue is restored after the test.
+ */
+public class SynchronousCompilation extends ExternalResource {
+    private static final long QUIESCENCE_TIMEOUT_SECONDS = 10;
+
+    private CompilationQueue.Mode savedMode;
+
+    @Override
+    protected void before() throws InterruptedException {
+        savedMode = CompilationQueue.mode();
+        CompilationQueue.setMode(CompilationQueue.Mode.SYNCHRONOUS);
+        if (!CompilationQueue.awaitQuiescence(QUIESCENCE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new AssertionError("background compilations did not complete in time");
+        }
+    }
+
+    @Override
+    protected void after() {
+        CompilationQueue.setMode(savedMode);
+    }
+}
@@ -0,0 +1,168 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.direct;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TailCallTest {
+    /**
+     * Deep enough to overflow the default stack if each iteration took a frame.
+     */
+    private static final int ITERATIONS = 1_000_000;
+
+    @Rule public final SynchronousCompilation synchronousCompilation = new SynchronousCompilation();
+
+    private Library library;
+
+    @Before
+    public void setUp() {
+        library = new Library();
+    }
+
+    @Test
+    public void profiledSelfTailCall() {
+        var sum = defineSum();
+        assertEquals(ITERATIONS, sum.invoke(ITERATIONS, 0));
+        assertTrue(sum.implementation().isCompiled());
+    }
+
+    @Test
+    public void interpretedSelfTailCall() {
+        var sum = defineSum();
+        sum.setTieringPolicy(TieringPolicy.interpreterOnly());
+        assertEquals(ITERATIONS, sum.invoke(ITERATIONS, 0));
+        assertEquals(3, sum.invoke(3, 0));
+    }
+
+    @Test
+    public void compiledSelfTailCall() {
+        var sum = defineSum();
+        for (int i = 0; i <= TieringPolicy.DEFAULT_THRESHOLD; i++) {
+            assertEquals(3, sum.invoke(3, 0));
+        }
+        assertTrue(sum.implementation().isCompiled());
+        assertEquals(ITERATIONS, sum.invoke(ITERATIONS, 0));
+        assertEquals("foo", sum.invoke(0, "foo"));
+    }
+
+    @Test
+    public void interpretedMutualTailCalls() {
+        defineEvenOdd();
+        library.setTieringPolicy(TieringPolicy.interpreterOnly());
+        assertEquals(true, library.get("even").invoke(ITERATIONS));
+        assertEquals(true, library.get("odd").invoke(ITERATIONS + 1));
+    }
+
+    @Test
+    public void compiledMutualTailCalls() {
+        defineEvenOdd();
+        var even = library.get("even");
+        for (int i = 0; i <= TieringPolicy.DEFAULT_THRESHOLD; i++) {
+            assertEquals(i % 2 == 0, even.invoke(i));
+        }
+        assertTrue(even.implementation().isCompiled());
+        assertEquals(true, even.invoke(ITERATIONS));
+    }
+
+    @Test
+    public void compiledMutualTailCallsWithoutInlining() {
+        defineEvenOdd();
+        library.setTieringPolicy(withoutInlining());
+        var even = library.get("even");
+        var odd = library.get("odd");
+        for (int i = 0; i <= TieringPolicy.DEFAULT_THRESHOLD; i++) {
+            assertEquals(i % 2 == 0, even.invoke(i));
+        }
+        assertTrue(even.implementation().isCompiled());
+        assertTrue(odd.implementation().isCompiled());
+        assertEquals(true, even.invoke(ITERATIONS));
+        assertEquals(true, odd.invoke(ITERATIONS + 1));
+        assertEquals(false, even.invoke(ITERATIONS + 1));
+    }
+
+    @Test
+    public void compiledTailCallOfInterpretedFunction() {
+        defineEvenOdd();
+        var even = library.get("even");
+        var odd = library.get("odd");
+        even.setTieringPolicy(withoutInlining());
+        odd.setTieringPolicy(TieringPolicy.interpreterOnly());
+        for (int i = 0; i <= TieringPolicy.DEFAULT_THRESHOLD; i++) {
+            assertEquals(i % 2 == 0, even.invoke(i));
+        }
+        assertTrue(even.implementation().isCompiled());
+        assertFalse(odd.implementation().isCompiled());
+        assertEquals(true, even.invoke(ITERATIONS));
+        assertEquals(true, odd.invoke(ITERATIONS + 1));
+    }
+
+    @Test
+    public void nonRecurringTailCallIsRegularCall() {
+        var sum = defineSum();
+        var caller = library.define("caller", lambda(n -> call(direct(sum), n, const_(0))));
+        caller.setTieringPolicy(withoutInlining());
+        for (int i = 0; i <= TieringPolicy.DEFAULT_THRESHOLD; i++) {
+            assertEquals(3, caller.invoke(3));
+        }
+        assertTrue(caller.implementation().isCompiled());
+        var call = (CallNode) caller.implementation().compiledBody();
+        assertTrue(call.isTailCall);
+        assertFalse(TailCall.mayRecur(caller.implementation(), sum.implementation()));
+        assertTrue(TailCall.mayRecur(sum.implementation(), sum.implementation()));
+    }
+
+    private static TieringPolicy withoutInlining() {
+        return new TieringPolicy() {
+            @Override
+            public boolean shouldCompile(FunctionProfile profile) {
+                return TieringPolicy.DEFAULT.shouldCompile(profile);
+            }
+
+            @Override
+            public boolean shouldInline(FunctionProfile calleeProfile, int calleeSize) {
+                return false;
+            }
+        };
+    }
+
+    private UserFunction defineSum() {
+        return library.define("sum", sum ->
+            lambda((n, acc) ->
+                if_(lessThan(n, const_(1)),
+                    acc,
+                    bind(sub(n, const_(1)), m ->
+                        bind(add(acc, const_(1)), next ->
+                            call(direct(sum), m, next))))));
+    }
+
+    private void defineEvenOdd() {
+        library.define(
+            List.of("even", "odd"),
+            List.of(
+                even -> lambda(n ->
+                    if_(lessThan(n, const_(1)),
+                        const_(true),
+                        bind(sub(n, const_(1)), m -> call(library.at("odd"), m)))),
+                odd -> lambda(n ->
+                    if_(lessThan(n, const_(1)),
+                        const_(false),
+                        bind(sub(n, const_(1)), m -> call(library.at("even"), m))))));
+    }
+}
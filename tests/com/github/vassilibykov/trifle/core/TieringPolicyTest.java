@@ -0,0 +1,128 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.greaterThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TieringPolicyTest {
+    @Rule public final SynchronousCompilation synchronousCompilation = new SynchronousCompilation();
+
+    private Library library;
+
+    @Before
+    public void setUp() {
+        library = new Library();
+    }
+
+    @Test
+    public void defaultPolicy() {
+        var inc = defineInc();
+        assertSame(TieringPolicy.DEFAULT, inc.tieringPolicy());
+        invokeRepeatedly(inc, TieringPolicy.DEFAULT_THRESHOLD);
+        assertFalse(inc.implementation().isCompiled());
+        invokeRepeatedly(inc, 1);
+        assertTrue(inc.implementation().isCompiled());
+    }
+
+    @Test
+    public void eagerPolicy() {
+        library.setTieringPolicy(TieringPolicy.eager());
+        var inc = defineInc();
+        assertTrue(inc.implementation().isCompiled());
+        assertEquals(0, inc.implementation().functionProfile().invocationCount());
+        assertEquals(4, inc.invoke(3));
+    }
+
+    @Test
+    public void interpreterOnlyPolicy() {
+        var inc = defineInc();
+        inc.setTieringPolicy(TieringPolicy.interpreterOnly());
+        invokeRepeatedly(inc, 100);
+        assertFalse(inc.implementation().isCompiled());
+        inc.setTieringPolicy(TieringPolicy.threshold(0));
+        invokeRepeatedly(inc, 1);
+        assertTrue(inc.implementation().isCompiled());
+    }
+
+    @Test
+    public void thresholdPolicy() {
+        var inc = defineInc();
+        inc.setTieringPolicy(TieringPolicy.threshold(2));
+        invokeRepeatedly(inc, 2);
+        assertFalse(inc.implementation().isCompiled());
+        invokeRepeatedly(inc, 1);
+        assertTrue(inc.implementation().isCompiled());
+    }
+
+    @Test
+    public void libraryPolicyAppliesToExistingFunctions() {
+        var inc = defineInc();
+        library.setTieringPolicy(TieringPolicy.eager());
+        assertTrue(inc.implementation().isCompiled());
+    }
+
+    @Test
+    public void adaptivePolicyCountsLoopIterations() {
+        library.setTieringPolicy(TieringPolicy.adaptive());
+        var countdown = library.define("countdown",
+            lambda(arg ->
+                while_(greaterThan(arg, const_(0)),
+                    set(arg, sub(arg, const_(1))))));
+        countdown.invoke(10);
+        assertFalse(countdown.implementation().isCompiled());
+        countdown.invoke(5000);
+        var profile = countdown.implementation().functionProfile();
+        assertEquals(5010, profile.backEdgeCount());
+        assertEquals(0, profile.branchCount());
+        assertTrue(countdown.implementation().isCompiled());
+    }
+
+    @Test
+    public void samplingPolicyExtrapolatesCounts() {
+        var countdown = library.define("countdown",
+            lambda(arg ->
+                while_(greaterThan(arg, const_(0)),
+                    set(arg, sub(arg, const_(1))))));
+        countdown.setTieringPolicy(new TieringPolicy() {
+            @Override
+            public int profilingSampleInterval() {
+                return 10;
+            }
+
+            @Override
+            public boolean shouldCompile(FunctionProfile profile) {
+                return false;
+            }
+        });
+        for (int i = 0; i < 1000; i++) countdown.invoke(10);
+        var profile = countdown.implementation().functionProfile();
+        assertEquals(1000, profile.invocationCount());
+        var sampled = profile.sampledInvocationCount();
+        assertTrue(sampled >= 1 && sampled < 500);
+        assertEquals(10 * sampled * (1000.0 / sampled), profile.backEdgeCount(), 1);
+    }
+
+    private UserFunction defineInc() {
+        return library.define("inc", lambda(arg -> add(arg, const_(1))));
+    }
+
+    private void invokeRepeatedly(UserFunction function, long times) {
+        for (int i = 0; i < times; i++) {
+            assertEquals(i + 1, function.invoke(i));
+        }
+    }
+}
@@ -5,8 +5,13 @@ package com.github.vassilibykov.trifle.core;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
 import static com.github.vassilibykov.trifle.core.JvmType.BOOL;
+import static com.github.vassilibykov.trifle.core.JvmType.DOUBLE;
 import static com.github.vassilibykov.trifle.core.JvmType.INT;
+import static com.github.vassilibykov.trifle.core.JvmType.LONG;
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -81,4 +86,51 @@ public class ValueProfileTest {
         assertFalse(profile.isPureBool());
         assertEquals(REFERENCE, profile.jvmType());
     }
+
+    @Test
+    public void longCases() {
+        profile.recordValue(1L);
+        profile.recordValue(Long.MAX_VALUE);
+        assertEquals(0, profile.intCases());
+        assertEquals(2, profile.longCases());
+        assertEquals(0, profile.referenceCases());
+        assertTrue(profile.isPureLong());
+        assertFalse(profile.isPureInt());
+        assertEquals(LONG, profile.jvmType());
+    }
+
+    @Test
+    public void doubleCases() {
+        profile.recordValue(1.5);
+        profile.recordValue(-0.0);
+        assertEquals(2, profile.doubleCases());
+        assertEquals(0, profile.referenceCases());
+        assertTrue(profile.isPureDouble());
+        assertFalse(profile.isPureLong());
+        assertEquals(DOUBLE, profile.jvmType());
+    }
+
+    @Test
+    public void mixedIntAndLongCases() {
+        profile.recordValue(1);
+        profile.recordValue(2L);
+        assertEquals(1, profile.intCases());
+        assertEquals(1, profile.longCases());
+        assertFalse(profile.isPureInt());
+        assertFalse(profile.isPureLong());
+        assertEquals(REFERENCE, profile.jvmType());
+    }
+
+    @Test
+    public void concurrentRecording() {
+        var futures = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (int j = 0; j < 10_000; j++) profile.recordValue(j);
+            }));
+        }
+        futures.forEach(CompletableFuture::join);
+        assertEquals(40_000, profile.intCases());
+        assertEquals(INT, profile.jvmType());
+    }
 }
@@ -5,6 +5,8 @@ package com.github.vassilibykov.trifle.core;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.math.BigInteger;
+
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
@@ -12,6 +14,7 @@ import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambd
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
 import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.exactAdd;
 import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.greaterThan;
 import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
 import static org.junit.Assert.*;
@@ -116,4 +119,25 @@ public class WhileNodeTests {
         implementation.forceCompile();
         assertEquals(JvmType.INT, whileNode.inferredType().jvmType().get());
     }
-}
\ No newline at end of file
+
+    /**
+     * A loop whose value is discarded doesn't keep the value of its body. A
+     * square peg produced by the last expression of the body still has to
+     * switch the function to its recovery code.
+     */
+    @Test
+    public void squarePegInDiscardedLoopBody() {
+        var multiplier = topLevel.define("multiplier",
+            lambda((arg, count) ->
+                bind(const_(0), sum ->
+                    block(
+                        while_(greaterThan(count, const_(0)),
+                            set(count, sub(count, const_(1))),
+                            set(sum, exactAdd(sum, arg))),
+                        sum))));
+        assertEquals(6, multiplier.invoke(2, 3));
+        multiplier.implementation().forceCompile();
+        assertEquals(12, multiplier.invoke(4, 3));
+        assertEquals(BigInteger.valueOf(2L * Integer.MAX_VALUE), multiplier.invoke(Integer.MAX_VALUE, 2));
+    }
+}